@@ -75,6 +75,16 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
     /** prefetched item to be returned on <code>{@link #next()}</code> */
     private Item next;
 
+    /**
+     * Number of child node states that are hinted to the item state layer
+     * at once, so that they can be loaded with a single round trip.
+     */
+    private static final int PREFETCH_SIZE = Integer.getInteger(
+            "org.apache.jackrabbit.core.LazyItemIterator.prefetchSize", 100);
+
+    /** position up to which the child node states have been prefetched */
+    private int prefetchedPos;
+
     /**
      * Creates a new <code>LazyItemIterator</code> instance.
      *
@@ -114,6 +124,9 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
         // reset
         next = null;
         while (next == null && pos < idList.size()) {
+            if (parentId != null && pos >= prefetchedPos) {
+                prefetchNodeStates();
+            }
             ItemId id = idList.get(pos);
             try {
                 if (parentId != null) {
@@ -158,6 +171,23 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
         }
     }
 
+    /**
+     * Hints the item state layer that the next {@link #PREFETCH_SIZE} child
+     * node states will be read, so that missing states can be loaded from
+     * the persistence manager in one go.
+     */
+    private void prefetchNodeStates() {
+        int end = Math.min(pos + PREFETCH_SIZE, idList.size());
+        if (PREFETCH_SIZE > 1 && end - pos > 1) {
+            List<NodeId> ids = new ArrayList<NodeId>(end - pos);
+            for (ItemId id : idList.subList(pos, end)) {
+                ids.add((NodeId) id);
+            }
+            sessionContext.getWorkspace().getItemStateManager().prefetch(parentId, ids);
+        }
+        prefetchedPos = end;
+    }
+
     //---------------------------------------------------------< NodeIterator >
     /**
      * {@inheritDoc}
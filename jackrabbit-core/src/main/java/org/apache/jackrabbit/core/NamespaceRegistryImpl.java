@@ -32,6 +32,7 @@ import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.NamespaceException;
@@ -93,6 +94,11 @@ public class NamespaceRegistryImpl implements
 
     private final FileSystem nsRegStore;
 
+    /**
+     * Incremented whenever a namespace mapping is added or changed.
+     */
+    private final AtomicLong modificationCount = new AtomicLong();
+
     /**
      * Namespace event channel.
      */
@@ -137,6 +143,7 @@ public class NamespaceRegistryImpl implements
      * @param idx the index or <code>null</code>.
      */
     private void map(String prefix, String uri, Integer idx) {
+        modificationCount.incrementAndGet();
         prefixToURI.put(prefix, uri);
         uriToPrefix.put(uri, prefix);
         if (!uriToIndex.containsKey(uri)) {
@@ -493,6 +500,17 @@ public class NamespaceRegistryImpl implements
         return prefix;
     }
 
+    /**
+     * Returns a counter that is incremented whenever a namespace mapping is
+     * added or changed. Callers can use it to detect stale data derived from
+     * the mappings.
+     *
+     * @return the current modification count.
+     */
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+
     //-----------------------------------------------< NamespaceEventListener >
 
     /**
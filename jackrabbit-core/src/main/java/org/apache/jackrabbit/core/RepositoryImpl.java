@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessControlContext;
 import java.security.AccessController;
@@ -48,6 +49,8 @@ import javax.jcr.Value;
 import javax.jcr.ValueFactory;
 import javax.jcr.observation.Event;
 import javax.jcr.observation.ObservationManager;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.security.auth.Subject;
 
 import org.apache.commons.collections.map.ReferenceMap;
@@ -57,6 +60,7 @@ import org.apache.jackrabbit.api.management.RepositoryManager;
 import org.apache.jackrabbit.api.security.authentication.token.TokenCredentials;
 import org.apache.jackrabbit.commons.AbstractRepository;
 import org.apache.jackrabbit.core.cache.CacheManager;
+import org.apache.jackrabbit.core.cache.CacheManagerMBean;
 import org.apache.jackrabbit.core.cluster.ClusterContext;
 import org.apache.jackrabbit.core.cluster.ClusterException;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
@@ -236,6 +240,12 @@ public class RepositoryImpl extends AbstractRepository
      */
     private final CacheManager cacheMgr = new CacheManager();
 
+    /**
+     * The name under which the cache manager is registered with the platform
+     * MBean server, or <code>null</code> if it is not registered.
+     */
+    private ObjectName cacheMgrName;
+
     /**
      * Chanel for posting create workspace messages.
      */
@@ -363,6 +373,8 @@ public class RepositoryImpl extends AbstractRepository
                 wspJanitor.start();
             }
 
+            registerCacheManager();
+
             succeeded = true;
             log.info("Repository started (" + (System.currentTimeMillis() - t0) + "ms)");
         } catch (RepositoryException e) {
@@ -385,6 +397,39 @@ public class RepositoryImpl extends AbstractRepository
         }
     }
 
+    /**
+     * Registers the cache manager of this repository with the platform MBean
+     * server, so that its {@link CacheManagerMBean} management interface is
+     * available through JMX. Failures are only logged.
+     */
+    private void registerCacheManager() {
+        try {
+            ObjectName name = new ObjectName(
+                    "org.apache.jackrabbit:type=CacheManager,home="
+                    + ObjectName.quote(repConfig.getHomeDir()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    cacheMgr, name);
+            cacheMgrName = name;
+        } catch (JMException e) {
+            log.warn("Unable to register the cache manager MBean", e);
+        }
+    }
+
+    /**
+     * Unregisters the cache manager from the platform MBean server.
+     */
+    private void unregisterCacheManager() {
+        if (cacheMgrName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        cacheMgrName);
+            } catch (JMException e) {
+                log.warn("Unable to unregister the cache manager MBean", e);
+            }
+            cacheMgrName = null;
+        }
+    }
+
     /**
      * Protected factory method for creating the namespace registry.
      * Called by the constructor after the repository file system has
@@ -1180,6 +1225,8 @@ public class RepositoryImpl extends AbstractRepository
 
         repConfig.getConnectionFactory().close();
 
+        unregisterCacheManager();
+
         // finally release repository lock
         if (repLock != null) {
             try {
@@ -1372,7 +1419,8 @@ public class RepositoryImpl extends AbstractRepository
                     context.getNamespaceRegistry(),
                     context.getNodeTypeRegistry(),
                     context.getDataStore(),
-                    context.getRepositoryStatistics());
+                    context.getRepositoryStatistics(),
+                    cacheMgr);
             pm.init(pmContext);
             return pm;
         } catch (Exception e) {
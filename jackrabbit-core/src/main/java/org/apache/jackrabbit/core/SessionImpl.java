@@ -188,6 +188,11 @@ public class SessionImpl extends AbstractSession
      */
     protected NamePathResolver namePathResolver;
 
+    /**
+     * Flag indicating whether namespace prefixes were set on this session
+     */
+    private volatile boolean localNamespaceMappings;
+
     /**
      * The version manager for this session
      */
@@ -1067,6 +1072,18 @@ public class SessionImpl extends AbstractSession
         super.setNamespacePrefix(prefix, uri);
         // Clear name and path caches
         namePathResolver = new DefaultNamePathResolver(this, true);
+        localNamespaceMappings = true;
+    }
+
+    /**
+     * Returns <code>true</code> if namespace prefixes were set on this
+     * session. Otherwise the session uses the mappings of the namespace
+     * registry.
+     *
+     * @return whether this session has local namespace mappings.
+     */
+    public boolean hasLocalNamespaceMappings() {
+        return localNamespaceMappings;
     }
 
 
@@ -31,8 +31,14 @@ import java.util.concurrent.atomic.AtomicReference;
  * The subclass should also use the {@link #recordSizeChange(long)} method
  * to record all changes in the cache size, and automatically evict excess
  * items when the {@link #isTooBig()} method returns <code>true</code>.
+ * <p>
+ * To let the {@link CacheManager} estimate how much the cache would benefit
+ * from more memory, a subclass should report the key of each cache miss and
+ * of each evicted entry with {@link #recordCacheMiss(int)} and
+ * {@link #recordEviction(int, long)}. The owner of the cache can report the
+ * time it took to load missing entries with {@link #recordMissDuration(long)}.
  */
-public abstract class AbstractCache implements Cache {
+public abstract class AbstractCache implements CostAwareCache {
 
     /**
      * The estimated amount of memory currently used by this cache. The
@@ -80,6 +86,17 @@ public abstract class AbstractCache implements Cache {
      */
     private final AtomicLong missCount = new AtomicLong();
 
+    /**
+     * Total time spent on loading missed entries, in nanoseconds.
+     */
+    private final AtomicLong missDuration = new AtomicLong();
+
+    /**
+     * Recently evicted entries, used to estimate the number of additional
+     * hits the cache would have with more memory.
+     */
+    private final GhostList ghosts = new GhostList();
+
     /**
      * Cache access listener. Set in the
      * {@link #setAccessListener(CacheAccessListener)} method and accessed
@@ -128,6 +145,41 @@ public abstract class AbstractCache implements Cache {
         missCount.incrementAndGet();
     }
 
+    /**
+     * Records a cache miss on the key with the given hash code.
+     *
+     * @param keyHash hash code of the missed key
+     */
+    protected void recordCacheMiss(int keyHash) {
+        missCount.incrementAndGet();
+        if (GhostList.isSampled(keyHash)) {
+            ghosts.missed(keyHash);
+        }
+    }
+
+    /**
+     * Records the eviction of an entry because the cache was too big.
+     * Entries removed explicitly should not be reported.
+     *
+     * @param keyHash hash code of the evicted key
+     * @param size size of the evicted entry
+     */
+    protected void recordEviction(int keyHash, long size) {
+        if (GhostList.isSampled(keyHash)) {
+            ghosts.evicted(keyHash, size, maxMemorySize.get());
+        }
+    }
+
+    /**
+     * Records the time it took to load an entry that was not found in
+     * this cache.
+     *
+     * @param nanos load time in nanoseconds
+     */
+    public void recordMissDuration(long nanos) {
+        missDuration.addAndGet(nanos);
+    }
+
     public long getAccessCount() {
         return accessCount.get();
     }
@@ -148,6 +200,14 @@ public abstract class AbstractCache implements Cache {
         missCount.set(0);
     }
 
+    public long getMissDuration() {
+        return missDuration.get();
+    }
+
+    public long getGhostHitCount() {
+        return ghosts.getHitCount();
+    }
+
     public long getMemoryUsed() {
         return memoryUsed.get();
     }
@@ -198,6 +258,8 @@ public abstract class AbstractCache implements Cache {
         c.append(getTotalAccessCount());
         c.append(", miss=");
         c.append(getMissCount());
+        c.append(", ghosthit=");
+        c.append(getGhostHitCount());
         return c.toString();
     }
 }
@@ -18,8 +18,18 @@ package org.apache.jackrabbit.core.cache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
 
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,15 +37,29 @@ import org.slf4j.LoggerFactory;
  * This class manages the size of the caches used in Jackrabbit. The combined
  * size of all caches must be limited to avoid out of memory problems. The
  * available memory is dynamically distributed across the caches each second.
- * This class tries to calculates the best cache sizes by comparing the access
- * counts of each cache, and the used memory. The idea is, the more a cache is
- * accessed, the more memory it should get, while the cache should not shrink
- * too quickly. A minimum and maximum size per cache is defined as well. After
- * distributing the memory in this way, there might be some unused memory (if
- * one or more caches did not use some of the allocated memory). This unused
- * memory is distributed evenly across the full caches.
+ * <p>
+ * The memory is distributed so that the total time spent on cache misses is
+ * minimized. For each cache, the miss count of the last intervals and the
+ * number of misses on recently evicted entries (see
+ * {@link CostAwareCache#getGhostHitCount()}) give two points of its miss
+ * curve: the misses at the current size and the misses at twice the current
+ * size. A power law fitted through these points estimates the misses at other
+ * sizes. The misses are weighted by the average cost of a miss, as reported
+ * through {@link CostAwareCache#getMissDuration()}, or a configurable default
+ * cost for caches that do not report it. The memory is then handed out in
+ * small chunks, each to the cache where it saves most miss time.
+ * <p>
+ * A minimum and maximum size per cache is defined as well, and a full cache
+ * does not shrink by more than a quarter per resize, so that a cache does not
+ * shrink too quickly before its misses show up in the statistics. A cache
+ * that is not full does not get more memory than it uses. After distributing
+ * the memory in this way, there might be some unused memory, which is
+ * distributed evenly across the full caches.
+ * <p>
+ * The outcome of the last resize is available through the
+ * {@link CacheManagerMBean} management interface.
  */
-public class CacheManager implements CacheAccessListener {
+public class CacheManager implements CacheAccessListener, CacheManagerMBean {
 
     /** The logger instance. */
     private static Logger log = LoggerFactory.getLogger(CacheManager.class);
@@ -49,8 +73,12 @@ public class CacheManager implements CacheAccessListener {
     /** The default maximum memory per cache. */
     private static final long DEFAULT_MAX_MEMORY_PER_CACHE = 4 * 1024 * 1024;
 
-    /** The set of caches (weakly referenced). */
-    private WeakHashMap<Cache, Object> caches = new WeakHashMap<Cache, Object>();
+    /** The default cost of a cache miss (in ns). */
+    private static final long DEFAULT_MISS_COST = 10 * 1000;
+
+    /** The set of caches (weakly referenced) with their statistics. */
+    private WeakHashMap<Cache, CacheHistory> caches =
+        new WeakHashMap<Cache, CacheHistory>();
 
     /** The default minimum resize interval (in ms). */
     private static final int DEFAULT_MIN_RESIZE_INTERVAL = 1000;
@@ -61,6 +89,12 @@ public class CacheManager implements CacheAccessListener {
     /** The size of a big object, to detect if a cache is full or not. */
     private static final int BIG_OBJECT_SIZE = 16 * 1024;
 
+    /** The number of chunks in which the memory is distributed. */
+    private static final int MEMORY_CHUNKS = 64;
+
+    /** The maximum fraction by which a full cache shrinks per resize. */
+    private static final double MAX_SHRINK = 0.25;
+
     /** The amount of memory to distribute across the caches. */
     private long maxMemory = Long.getLong(
             "org.apache.jackrabbit.maxCacheMemory",
@@ -76,6 +110,11 @@ public class CacheManager implements CacheAccessListener {
             "org.apache.jackrabbit.maxMemoryPerCache",
             DEFAULT_MAX_MEMORY_PER_CACHE);
 
+    /** The cost of a miss for caches that do not report miss durations */
+    private long defaultMissCost = Long.getLong(
+            "org.apache.jackrabbit.cacheDefaultMissCost",
+            DEFAULT_MISS_COST);
+
     /** The minimum resize interval time */
     private long minResizeInterval = Long.getLong(
             "org.apache.jackrabbit.cacheResizeInterval",
@@ -95,6 +134,8 @@ public class CacheManager implements CacheAccessListener {
     private volatile long nextLogStats =
             System.currentTimeMillis() + DEFAULT_LOG_STATS_INTERVAL;
 
+    /** The outcome of the last resize. */
+    private volatile CacheInfo[] lastResize = new CacheInfo[0];
 
     public long getMaxMemory() {
         return maxMemory;
@@ -120,6 +161,14 @@ public class CacheManager implements CacheAccessListener {
         this.minMemoryPerCache = minMemoryPerCache;
     }
 
+    public long getDefaultMissCost() {
+        return defaultMissCost;
+    }
+
+    public void setDefaultMissCost(long defaultMissCost) {
+        this.defaultMissCost = defaultMissCost;
+    }
+
     public long getMinResizeInterval() {
         return minResizeInterval;
     }
@@ -176,7 +225,7 @@ public class CacheManager implements CacheAccessListener {
     /**
      * Re-calculate the maximum memory for each cache, and set the new limits.
      */
-    private void resizeAll() {
+    void resizeAll() {
         if (log.isTraceEnabled()) {
             log.trace("resizeAll size=" + caches.size());
         }
@@ -184,54 +233,79 @@ public class CacheManager implements CacheAccessListener {
         // entries in a weak hash map may disappear any time
         // so can't use size() / keySet() directly
         // only using the iterator guarantees that we don't get null references
-        List<Cache> list = new ArrayList<Cache>();
+        List<CacheInfo> list = new ArrayList<CacheInfo>();
         synchronized (caches) {
-            list.addAll(caches.keySet());
+            for (Map.Entry<Cache, CacheHistory> entry : caches.entrySet()) {
+                list.add(new CacheInfo(entry.getKey(), entry.getValue(),
+                        defaultMissCost));
+            }
         }
         if (list.size() == 0) {
             // nothing to do
             return;
         }
-        CacheInfo[] infos = new CacheInfo[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            infos[i] = new CacheInfo((Cache) list.get(i));
-        }
-        // calculate the total access count and memory used
-        long totalAccessCount = 0;
-        long totalMemoryUsed = 0;
-        for (CacheInfo info : infos) {
-            totalAccessCount += info.getAccessCount();
-            totalMemoryUsed += info.getMemoryUsed();
-        }
-        // try to distribute the memory based on the access count
-        // and memory used (higher numbers - more memory)
-        // and find out how many caches are full
-        // 50% is distributed according to access count,
-        // and 50% according to memory used
-        double memoryPerAccess = (double) maxMemory / 2.
-                / Math.max(1., (double) totalAccessCount);
-        double memoryPerUsed = (double) maxMemory / 2.
-                / Math.max(1., (double) totalMemoryUsed);
-        int fullCacheCount = 0;
+        CacheInfo[] infos = list.toArray(new CacheInfo[list.size()]);
+
+        // start with the memory the caches keep in any case: a full cache
+        // shrinks only slowly, and the other caches keep what they use
+        long floorMemory = 0;
         for (CacheInfo info : infos) {
-            long mem = (long) (memoryPerAccess * info.getAccessCount());
-            mem += (long) (memoryPerUsed * info.getMemoryUsed());
-            mem = Math.min(mem, maxMemoryPerCache);
+            long mem;
             if (info.wasFull()) {
-                fullCacheCount++;
+                mem = (long) (info.getMemory() * (1. - MAX_SHRINK));
             } else {
-                mem = Math.min(mem, info.getMemoryUsed());
+                mem = info.getMemoryUsed();
             }
             mem = Math.min(mem, maxMemoryPerCache);
             mem = Math.max(mem, minMemoryPerCache);
             info.setMemory(mem);
+            floorMemory += mem;
         }
+        if (floorMemory > maxMemory) {
+            double factor = (double) maxMemory / floorMemory;
+            for (CacheInfo info : infos) {
+                info.setMemory(Math.max(
+                        (long) (info.getMemory() * factor), minMemoryPerCache));
+            }
+        }
+
         // calculate the unused memory
         long unusedMemory = maxMemory;
         for (CacheInfo info : infos) {
             unusedMemory -= info.getMemory();
         }
+
+        // hand out the memory in chunks, each to the full cache where
+        // it saves most miss time
+        long chunk = Math.max(1, maxMemory / MEMORY_CHUNKS);
+        while (unusedMemory >= chunk) {
+            CacheInfo best = null;
+            double bestSaving = 0;
+            for (CacheInfo info : infos) {
+                long mem = info.getMemory();
+                if (info.wasFull() && mem + chunk <= maxMemoryPerCache) {
+                    double saving = info.getMissTime(mem)
+                        - info.getMissTime(mem + chunk);
+                    if (saving > bestSaving) {
+                        best = info;
+                        bestSaving = saving;
+                    }
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            best.setMemory(best.getMemory() + chunk);
+            unusedMemory -= chunk;
+        }
+
         // distribute the remaining memory evenly across the full caches
+        int fullCacheCount = 0;
+        for (CacheInfo info : infos) {
+            if (info.wasFull()) {
+                fullCacheCount++;
+            }
+        }
         if (unusedMemory > 0 && fullCacheCount > 0) {
             for (CacheInfo info : infos) {
                 if (info.wasFull()) {
@@ -246,10 +320,14 @@ public class CacheManager implements CacheAccessListener {
             if (log.isTraceEnabled()) {
                 log.trace(cache + " now:" + cache.getMaxMemorySize() + " used:"
                         + info.getMemoryUsed() + " access:" + info.getAccessCount()
+                        + " miss:" + info.getMissCount()
+                        + " ghostHit:" + info.getGhostHitCount()
+                        + " missCost:" + info.getMissCost()
                         + " new:" + info.getMemory());
             }
             cache.setMaxMemorySize(info.getMemory());
         }
+        lastResize = infos;
     }
 
     /**
@@ -260,7 +338,7 @@ public class CacheManager implements CacheAccessListener {
      */
     public void add(Cache cache) {
         synchronized (caches) {
-            caches.put(cache, null);
+            caches.put(cache, new CacheHistory(cache));
         }
     }
 
@@ -278,6 +356,56 @@ public class CacheManager implements CacheAccessListener {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public TabularData getCacheAllocations() {
+        try {
+            CompositeType ct = CacheInfoCompositeTypeFactory.getCompositeType();
+            TabularType tt = new TabularType(CacheInfo.class.getName(),
+                    "Cache allocations", ct, CacheInfoCompositeTypeFactory.index);
+            TabularDataSupport tds = new TabularDataSupport(tt);
+            CacheInfo[] infos = lastResize;
+            for (int i = 0; i < infos.length; i++) {
+                tds.put(new CompositeDataSupport(ct,
+                        CacheInfoCompositeTypeFactory.names,
+                        CacheInfoCompositeTypeFactory.getValues(i, infos[i])));
+            }
+            return tds;
+        } catch (OpenDataException e) {
+            log.warn("Unable to create the cache allocation data", e);
+            return null;
+        }
+    }
+
+    /**
+     * Statistics of a cache that are kept across resize intervals. The
+     * interval values are smoothed, so that a single unusual interval does
+     * not change the cache sizes too much. Must not reference the cache, as
+     * the caches are only weakly referenced.
+     */
+    private static class CacheHistory {
+
+        private long missCount;
+
+        private long ghostHitCount;
+
+        private long missDuration;
+
+        private double misses;
+
+        private double ghostHits;
+
+        private double missCost = -1;
+
+        CacheHistory(Cache cache) {
+            missCount = cache.getMissCount();
+            ghostHitCount = getCacheGhostHitCount(cache);
+            missDuration = getCacheMissDuration(cache);
+        }
+
+    }
+
     /**
      * Internal copy of the cache information.
      */
@@ -288,16 +416,29 @@ public class CacheManager implements CacheAccessListener {
 
         private long memory;
 
+        private long previousMemory;
+
         private long memoryUsed;
 
+        private long missCount;
+
+        private long ghostHitCount;
+
+        private double misses;
+
+        private double ghostHits;
+
+        private double missCost;
+
         private boolean wasFull;
 
-        CacheInfo(Cache cache) {
+        CacheInfo(Cache cache, CacheHistory history, long defaultMissCost) {
             this.cache = cache;
             // copy the data as this runs in a different thread
             // the exact values are not important, but it is important that the
             // values don't change
             this.memory = cache.getMaxMemorySize();
+            this.previousMemory = memory;
             this.memoryUsed = cache.getMemoryUsed();
             this.accessCount = cache.getAccessCount();
             // reset the access count, so that concurrent cache access is not lost
@@ -306,6 +447,55 @@ public class CacheManager implements CacheAccessListener {
             // allocated memory,
             // then the memory was not fully used
             wasFull = (memoryUsed + BIG_OBJECT_SIZE) >= memory;
+
+            // the miss and ghost hit counters are not reset, as they
+            // are also used elsewhere, so the history keeps the totals
+            long totalMisses = cache.getMissCount();
+            long totalGhostHits = getCacheGhostHitCount(cache);
+            long totalMissDuration = getCacheMissDuration(cache);
+            missCount = Math.max(0, totalMisses - history.missCount);
+            ghostHitCount = Math.max(0, totalGhostHits - history.ghostHitCount);
+            long duration = totalMissDuration - history.missDuration;
+            history.missCount = totalMisses;
+            history.ghostHitCount = totalGhostHits;
+            history.missDuration = totalMissDuration;
+
+            history.misses = (history.misses + missCount) / 2;
+            history.ghostHits = (history.ghostHits + ghostHitCount) / 2;
+            if (duration > 0 && missCount > 0) {
+                double cost = (double) duration / missCount;
+                if (history.missCost < 0) {
+                    history.missCost = cost;
+                } else {
+                    history.missCost = (history.missCost + cost) / 2;
+                }
+            }
+            misses = history.misses;
+            ghostHits = history.ghostHits;
+            missCost = history.missCost < 0 ? defaultMissCost : history.missCost;
+        }
+
+        /**
+         * Estimates the time spent on misses in a resize interval if the
+         * cache had the given size. The misses are assumed to follow a power
+         * law <code>m(s) = m(S) * (S / s)^a</code>, where the exponent is
+         * derived from the misses at the current size <code>S</code> and
+         * the misses at size <code>2S</code>, which are the misses minus
+         * the ghost hits.
+         *
+         * @param size cache size
+         * @return estimated miss time in nanoseconds
+         */
+        double getMissTime(long size) {
+            if (misses <= 0 || size <= 0) {
+                return 0;
+            }
+            // at least a quarter of the misses remain with twice the memory,
+            // which limits the exponent to 2
+            double doubleSizeMisses = Math.max(misses - ghostHits, misses / 4);
+            double exponent = Math.log(misses / doubleSizeMisses) / Math.log(2);
+            double relativeSize = (double) Math.max(1, previousMemory) / size;
+            return missCost * misses * Math.pow(relativeSize, exponent);
         }
 
         boolean wasFull() {
@@ -320,6 +510,18 @@ public class CacheManager implements CacheAccessListener {
             return memoryUsed;
         }
 
+        long getMissCount() {
+            return missCount;
+        }
+
+        long getGhostHitCount() {
+            return ghostHitCount;
+        }
+
+        long getMissCost() {
+            return (long) missCost;
+        }
+
         void setMemory(long mem) {
             this.memory = mem;
         }
@@ -328,14 +530,67 @@ public class CacheManager implements CacheAccessListener {
             return memory;
         }
 
+        long getPreviousMemory() {
+            return previousMemory;
+        }
+
         Cache getCache() {
             return cache;
         }
 
     }
 
+    private static class CacheInfoCompositeTypeFactory {
+
+        private final static String[] index = { "position" };
+
+        private final static String[] names = { "position", "cache",
+                "accessCount", "missCount", "ghostHitCount", "missCost",
+                "memoryUsed", "previousMaxMemorySize", "maxMemorySize" };
+
+        private final static String[] descriptions = { "position", "cache",
+                "accesses in the last interval",
+                "misses in the last interval",
+                "misses on recently evicted entries in the last interval",
+                "average cost of a miss in ns",
+                "memory used", "memory limit before the resize",
+                "memory limit after the resize" };
+
+        private final static OpenType<?>[] types = { SimpleType.INTEGER,
+                SimpleType.STRING, SimpleType.LONG, SimpleType.LONG,
+                SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                SimpleType.LONG, SimpleType.LONG };
+
+        public static CompositeType getCompositeType() throws OpenDataException {
+            return new CompositeType(CacheInfo.class.getName(),
+                    "Cache allocation", names, descriptions, types);
+        }
+
+        public static Object[] getValues(int position, CacheInfo info) {
+            return new Object[] { position, info.getCache().toString(),
+                    info.getAccessCount(), info.getMissCount(),
+                    info.getGhostHitCount(), info.getMissCost(),
+                    info.getMemoryUsed(), info.getPreviousMemory(),
+                    info.getMemory() };
+        }
+    }
+
     public void disposeCache(Cache cache) {
         remove(cache);
     }
 
+    private static long getCacheGhostHitCount(Cache cache) {
+        if (cache instanceof CostAwareCache) {
+            return ((CostAwareCache) cache).getGhostHitCount();
+        }
+        return 0;
+    }
+
+    private static long getCacheMissDuration(Cache cache) {
+        if (cache instanceof CostAwareCache) {
+            return ((CostAwareCache) cache).getMissDuration();
+        }
+        return 0;
+    }
+
 }
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * Management interface of the {@link CacheManager}.
+ */
+public interface CacheManagerMBean {
+
+    long getMaxMemory();
+
+    void setMaxMemory(long maxMemory);
+
+    long getMaxMemoryPerCache();
+
+    void setMaxMemoryPerCache(long maxMemoryPerCache);
+
+    long getMinMemoryPerCache();
+
+    void setMinMemoryPerCache(long minMemoryPerCache);
+
+    long getDefaultMissCost();
+
+    void setDefaultMissCost(long defaultMissCost);
+
+    long getMinResizeInterval();
+
+    void setMinResizeInterval(long minResizeInterval);
+
+    /**
+     * Returns the outcome of the last resize of the managed caches: per
+     * cache the statistics of the last interval, the estimated cost of a
+     * miss, and the old and new memory limit.
+     *
+     * @return the last resize decisions, one row per cache
+     */
+    TabularData getCacheAllocations();
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache implementation with lock-free reads. Unlike the
+ * {@link ConcurrentCache}, whose access ordered segments need to be locked
+ * even to read an entry, a read from this cache only looks up the entry in
+ * a {@link ConcurrentHashMap} and sets its reference bit. Excess entries are
+ * evicted with the CLOCK algorithm, an approximation of LRU: the entries are
+ * kept in insertion order in a queue, and the eviction moves entries whose
+ * reference bit is set to the tail of the queue (clearing the bit) until it
+ * finds an entry that was not read since it was last passed.
+ * <p>
+ * Only the eviction is serialized, all other methods of this class are
+ * thread-safe without locking.
+ */
+public class ClockCache<K, V> extends AbstractCache {
+
+    private static class E<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private final long size;
+
+        /** set when the entry is read, cleared when the clock passes it */
+        private volatile boolean referenced;
+
+        /** set when the entry is no longer in the map */
+        private volatile boolean removed;
+
+        public E(K key, V value, long size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+
+    }
+
+    private final String name;
+
+    private final ConcurrentHashMap<K, E<K, V>> map;
+
+    /**
+     * The clock. Contains all entries of the map in the order in which they
+     * were last passed by the eviction, plus removed entries that have not
+     * been purged yet.
+     */
+    private final Queue<E<K, V>> clock = new ConcurrentLinkedQueue<E<K, V>>();
+
+    /** Approximate number of removed entries in the clock queue */
+    private final AtomicInteger removedCount = new AtomicInteger();
+
+    /** Lock held while entries are evicted */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public ClockCache(String name, int concurrencyLevel) {
+        this.name = name;
+        this.map = new ConcurrentHashMap<K, E<K, V>>(16, 0.75f, concurrencyLevel);
+    }
+
+    public ClockCache(String name) {
+        this(name, 16);
+    }
+
+    /**
+     * Checks if the identified entry is cached.
+     *
+     * @param key entry key
+     * @return <code>true</code> if the entry is cached,
+     *         <code>false</code> otherwise
+     */
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Returns the identified cache entry.
+     *
+     * @param key entry key
+     * @return entry value, or <code>null</code> if not found
+     */
+    public V get(K key) {
+        recordCacheAccess();
+
+        E<K, V> entry = map.get(key);
+        if (entry != null) {
+            // avoid writing to a shared cache line on every read
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.value;
+        }
+        recordCacheMiss(key.hashCode());
+        return null;
+    }
+
+    /**
+     * Returns all values in the cache. The returned list reflects the state
+     * of the cache at some point during or since the method call.
+     *
+     * @return cached values
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>(map.size());
+        for (E<K, V> entry : map.values()) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    /**
+     * Adds the given entry to the cache.
+     *
+     * @param key entry key
+     * @param value entry value
+     * @param size entry size
+     * @return the previous value, or <code>null</code>
+     */
+    public V put(K key, V value, long size) {
+        E<K, V> entry = new E<K, V>(key, value, size);
+        recordSizeChange(size);
+        E<K, V> previous = map.put(key, entry);
+        clock.add(entry);
+
+        if (previous != null) {
+            discard(previous);
+            shrinkIfNeeded();
+            return previous.value;
+        } else {
+            shrinkIfNeeded();
+            return null;
+        }
+    }
+
+    /**
+     * Removes the identified entry from the cache.
+     *
+     * @param key entry key
+     * @return removed entry, or <code>null</code> if not found
+     */
+    public V remove(K key) {
+        E<K, V> entry = map.remove(key);
+        if (entry != null) {
+            discard(entry);
+            return entry.value;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Clears the cache. Entries added by other threads while this method
+     * runs may remain in the cache.
+     */
+    public void clear() {
+        for (K key : map.keySet()) {
+            remove(key);
+        }
+        evictionLock.lock();
+        try {
+            purge();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the cache size is zero.
+     */
+    public boolean isEmpty() {
+        return getMemoryUsed() == 0;
+    }
+
+    /**
+     * Sets the maximum size of the cache and evicts any excess items until
+     * the current size falls within the given limit.
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        super.setMaxMemorySize(size);
+        shrinkIfNeeded();
+    }
+
+    public long getElementCount() {
+        return map.size();
+    }
+
+    /**
+     * Accounts for an entry that was removed from the map. The entry stays
+     * in the clock queue until the eviction passes it or the queue is purged.
+     */
+    private void discard(E<K, V> entry) {
+        entry.removed = true;
+        recordSizeChange(-entry.size);
+        removedCount.incrementAndGet();
+    }
+
+    /**
+     * Evicts entries until the cache is small enough, and purges removed
+     * entries from the clock queue once they outnumber the cached entries.
+     */
+    private void shrinkIfNeeded() {
+        if (!isTooBig() && removedCount.get() <= map.size()) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            if (removedCount.get() > map.size()) {
+                purge();
+            }
+            while (isTooBig()) {
+                E<K, V> entry = clock.poll();
+                if (entry == null) {
+                    break;
+                } else if (entry.removed) {
+                    removedCount.decrementAndGet();
+                } else if (entry.referenced) {
+                    // second chance
+                    entry.referenced = false;
+                    clock.add(entry);
+                } else if (map.remove(entry.key, entry)) {
+                    entry.removed = true;
+                    recordSizeChange(-entry.size);
+                    recordEviction(entry.key.hashCode(), entry.size);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all removed entries from the clock queue. Must be called
+     * while holding the eviction lock.
+     */
+    private void purge() {
+        Iterator<E<K, V>> iterator = clock.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().removed) {
+                iterator.remove();
+            }
+        }
+        removedCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + getClass().getSimpleName() + "@"
+                + Integer.toHexString(hashCode()) + "]";
+    }
+}
@@ -70,6 +70,9 @@ public class ConcurrentCache<K, V> extends AbstractCache {
                 protected boolean removeEldestEntry(Map.Entry<K, E<V>> eldest) {
                     if (isTooBig()) {
                         recordSizeChange(-eldest.getValue().size);
+                        recordEviction(
+                                eldest.getKey().hashCode(),
+                                eldest.getValue().size);
                         return true;
                     } else {
                         return false;
@@ -128,7 +131,7 @@ public class ConcurrentCache<K, V> extends AbstractCache {
                 return entry.value;
             }
         }
-        recordCacheMiss();
+        recordCacheMiss(key.hashCode());
         return null;
     }
 
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+/**
+ * A {@link Cache} that reports what its misses cost and how many of them a
+ * bigger cache would have avoided. The {@link CacheManager} uses this to
+ * distribute the memory so that the total time spent on misses is smallest.
+ * Caches that only implement {@link Cache} are treated as if every miss had
+ * the default cost and a bigger cache would not avoid any of them.
+ */
+public interface CostAwareCache extends Cache {
+
+    /**
+     * Get the total time spent on loading entries that were not found in
+     * the cache, as far as reported by the owner of the cache.
+     *
+     * @return the time in nanoseconds, or 0 if not reported
+     */
+    long getMissDuration();
+
+    /**
+     * Get the estimated number of cache misses on entries that were evicted
+     * recently, that is, misses that a bigger cache would have avoided.
+     *
+     * @return the number of ghost hits
+     */
+    long getGhostHitCount();
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sampled list of recently evicted cache entries. A cache miss on a key that
+ * is still in the ghost list would have been a hit if the cache had been
+ * bigger by at most the capacity of the list, so the number of ghost hits is
+ * an estimate of how much a cache would benefit from more memory.
+ * <p>
+ * To keep the overhead low only a fixed fraction of the keys, selected by
+ * their hash code, is tracked, and the counts are scaled up accordingly.
+ */
+class GhostList {
+
+    /** One in this many keys is sampled */
+    static final int SAMPLE_RATE = 16;
+
+    /** Evicted sampled keys (hash codes) and their sizes, oldest first */
+    private final Map<Integer, Long> entries = new LinkedHashMap<Integer, Long>();
+
+    /** Total size of the sampled entries in the list */
+    private long sampledSize;
+
+    /** Number of misses on sampled keys in the list */
+    private long sampledHits;
+
+    /**
+     * Checks whether the key with the given hash code is sampled.
+     */
+    static boolean isSampled(int hash) {
+        return ((hash * 0x9E3779B9) >>> 28) == 0;
+    }
+
+    /**
+     * Records the eviction of a cache entry.
+     *
+     * @param hash hash code of the entry key
+     * @param size size of the entry
+     * @param capacity the total size of the evicted entries to remember
+     */
+    synchronized void evicted(int hash, long size, long capacity) {
+        Long previous = entries.put(hash, size);
+        if (previous != null) {
+            sampledSize -= previous;
+        }
+        sampledSize += size;
+        Iterator<Long> iterator = entries.values().iterator();
+        while (sampledSize * SAMPLE_RATE > capacity && iterator.hasNext()) {
+            sampledSize -= iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Records a cache miss, which is a ghost hit if the key was evicted
+     * recently.
+     *
+     * @param hash hash code of the entry key
+     */
+    synchronized void missed(int hash) {
+        Long size = entries.remove(hash);
+        if (size != null) {
+            sampledSize -= size;
+            sampledHits++;
+        }
+    }
+
+    /**
+     * @return the estimated number of ghost hits
+     */
+    synchronized long getHitCount() {
+        return sampledHits * SAMPLE_RATE;
+    }
+
+}
@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * Cache keyed by {@link NodeId} with lock-free reads and a compact memory
+ * layout. The entries are kept in an open addressing hash table of parallel
+ * arrays, with the most and least significant bits of the node ids stored
+ * as primitive longs, so the cache keeps neither the key objects nor an
+ * entry object per cached value.
+ * <p>
+ * Reads are optimistic: they probe the table without locking and then
+ * validate that no write happened in the meantime, retrying under the lock
+ * only if one did. Writes are serialized. Excess entries are evicted with
+ * the CLOCK algorithm, an approximation of LRU, using a reference bit per
+ * table slot that is set by reads and cleared by the clock hand.
+ * <p>
+ * All methods of this class are thread-safe. Values must not be
+ * <code>null</code>.
+ */
+public class NodeIdCache<V> extends AbstractCache {
+
+    /** Number of optimistic read attempts before falling back to locking */
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+
+    /** Initial capacity of the hash table, must be a power of two */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The hash table. A slot is empty if its value is <code>null</code>.
+     * The arrays are only modified while holding the write lock.
+     */
+    private static final class Table {
+
+        private final long[] msbs;
+
+        private final long[] lsbs;
+
+        private final Object[] values;
+
+        private final long[] sizes;
+
+        private final boolean[] referenced;
+
+        private final int mask;
+
+        private Table(int capacity) {
+            msbs = new long[capacity];
+            lsbs = new long[capacity];
+            values = new Object[capacity];
+            sizes = new long[capacity];
+            referenced = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * Returns the slot of the given key, or -1 if the key is not
+         * contained. The number of probes is bounded, so that a read of an
+         * inconsistent table during a concurrent write terminates.
+         */
+        private int find(long msb, long lsb) {
+            int slot = hash(msb, lsb) & mask;
+            for (int i = 0; i <= mask; i++) {
+                if (values[slot] == null) {
+                    return -1;
+                } else if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the empty slot where the given key is inserted. The key
+         * must not be contained in the table.
+         */
+        private int findFree(long msb, long lsb) {
+            int slot = hash(msb, lsb) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+    }
+
+    private final String name;
+
+    private final StampedLock lock = new StampedLock();
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    /** Number of entries, only modified while holding the write lock */
+    private volatile int count;
+
+    /** The clock hand, only accessed while holding the write lock */
+    private int hand;
+
+    public NodeIdCache(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Checks if the identified entry is cached.
+     *
+     * @param key entry key
+     * @return <code>true</code> if the entry is cached,
+     *         <code>false</code> otherwise
+     */
+    public boolean containsKey(NodeId key) {
+        return lookup(key, false) != null;
+    }
+
+    /**
+     * Returns the identified cache entry.
+     *
+     * @param key entry key
+     * @return entry value, or <code>null</code> if not found
+     */
+    public V get(NodeId key) {
+        recordCacheAccess();
+
+        V value = lookup(key, true);
+        if (value == null) {
+            recordCacheMiss(key.hashCode());
+        }
+        return value;
+    }
+
+    /**
+     * Returns all values in the cache.
+     *
+     * @return cached values
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        long stamp = lock.readLock();
+        try {
+            Table t = table;
+            List<V> values = new ArrayList<V>(count);
+            for (Object value : t.values) {
+                if (value != null) {
+                    values.add((V) value);
+                }
+            }
+            return values;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds the given entry to the cache.
+     *
+     * @param key entry key
+     * @param value entry value, must not be <code>null</code>
+     * @param size entry size
+     * @return the previous value, or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    public V put(NodeId key, V value, long size) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        Object previous = null;
+
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int slot = t.find(msb, lsb);
+            if (slot >= 0) {
+                previous = t.values[slot];
+                recordSizeChange(size - t.sizes[slot]);
+            } else {
+                if (2 * (count + 1) > t.values.length) {
+                    t = resize(t.values.length * 2);
+                }
+                slot = t.findFree(msb, lsb);
+                t.msbs[slot] = msb;
+                t.lsbs[slot] = lsb;
+                t.referenced[slot] = false;
+                count++;
+                recordSizeChange(size);
+            }
+            t.values[slot] = value;
+            t.sizes[slot] = size;
+            shrinkIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return (V) previous;
+    }
+
+    /**
+     * Removes the identified entry from the cache.
+     *
+     * @param key entry key
+     * @return removed entry, or <code>null</code> if not found
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(NodeId key) {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int slot = t.find(
+                    key.getMostSignificantBits(), key.getLeastSignificantBits());
+            if (slot < 0) {
+                return null;
+            }
+            Object value = t.values[slot];
+            delete(t, slot);
+            return (V) value;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            for (int i = 0; i < t.values.length; i++) {
+                if (t.values[i] != null) {
+                    recordSizeChange(-t.sizes[i]);
+                }
+            }
+            table = new Table(INITIAL_CAPACITY);
+            count = 0;
+            hand = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Checks if the cache size is zero.
+     */
+    public boolean isEmpty() {
+        return getMemoryUsed() == 0;
+    }
+
+    /**
+     * Sets the maximum size of the cache and evicts any excess items until
+     * the current size falls within the given limit.
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        super.setMaxMemorySize(size);
+        long stamp = lock.writeLock();
+        try {
+            shrinkIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long getElementCount() {
+        return count;
+    }
+
+    /**
+     * Looks up the value of the given key, first optimistically without
+     * locking and then, if concurrent writes interfered too often, with
+     * the read lock.
+     *
+     * @param key entry key
+     * @param reference whether to set the reference bit of the entry
+     * @return entry value, or <code>null</code> if not found
+     */
+    @SuppressWarnings("unchecked")
+    private V lookup(NodeId key, boolean reference) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+
+        for (int i = 0; i < OPTIMISTIC_READ_ATTEMPTS; i++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Table t = table;
+                int slot = t.find(msb, lsb);
+                Object value = slot >= 0 ? t.values[slot] : null;
+                if (lock.validate(stamp)) {
+                    if (reference && value != null && !t.referenced[slot]) {
+                        // a lost update only affects the eviction order
+                        t.referenced[slot] = true;
+                    }
+                    return (V) value;
+                }
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            Table t = table;
+            int slot = t.find(msb, lsb);
+            if (slot < 0) {
+                return null;
+            }
+            if (reference) {
+                t.referenced[slot] = true;
+            }
+            return (V) t.values[slot];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Replaces the table with a new table of the given capacity. Must be
+     * called while holding the write lock.
+     */
+    private Table resize(int capacity) {
+        Table old = table;
+        Table t = new Table(capacity);
+        for (int i = 0; i < old.values.length; i++) {
+            if (old.values[i] != null) {
+                int slot = t.findFree(old.msbs[i], old.lsbs[i]);
+                t.msbs[slot] = old.msbs[i];
+                t.lsbs[slot] = old.lsbs[i];
+                t.values[slot] = old.values[i];
+                t.sizes[slot] = old.sizes[i];
+                t.referenced[slot] = old.referenced[i];
+            }
+        }
+        table = t;
+        hand = 0;
+        return t;
+    }
+
+    /**
+     * Deletes the given slot and moves following entries of the same probe
+     * sequence back, so that no tombstones are needed. Must be called while
+     * holding the write lock.
+     */
+    private void delete(Table t, int slot) {
+        recordSizeChange(-t.sizes[slot]);
+        t.values[slot] = null;
+        count--;
+        int next = (slot + 1) & t.mask;
+        while (t.values[next] != null) {
+            int home = hash(t.msbs[next], t.lsbs[next]) & t.mask;
+            // move the entry if its home slot is not within (slot, next]
+            if ((next > slot && (home <= slot || home > next))
+                    || (next < slot && (home <= slot && home > next))) {
+                t.msbs[slot] = t.msbs[next];
+                t.lsbs[slot] = t.lsbs[next];
+                t.values[slot] = t.values[next];
+                t.sizes[slot] = t.sizes[next];
+                t.referenced[slot] = t.referenced[next];
+                t.values[next] = null;
+                slot = next;
+            }
+            next = (next + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Evicts entries with the clock algorithm until the cache is small
+     * enough. Must be called while holding the write lock.
+     */
+    private void shrinkIfNeeded() {
+        Table t = table;
+        while (isTooBig() && count > 0) {
+            hand &= t.mask;
+            if (t.values[hand] == null) {
+                hand++;
+            } else if (t.referenced[hand]) {
+                // second chance
+                t.referenced[hand] = false;
+                hand++;
+            } else {
+                // same as NodeId.hashCode()
+                long msb = t.msbs[hand];
+                long lsb = t.lsbs[hand];
+                recordEviction(
+                        (int) ((msb >>> 32) ^ msb ^ (lsb >>> 32) ^ lsb),
+                        t.sizes[hand]);
+                // the delete may move another entry into this slot,
+                // so the hand stays where it is
+                delete(t, hand);
+            }
+        }
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 32;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + getClass().getSimpleName() + "@"
+                + Integer.toHexString(hashCode()) + "]";
+    }
+}
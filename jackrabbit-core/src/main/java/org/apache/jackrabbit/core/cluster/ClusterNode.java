@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.cluster;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -203,6 +204,14 @@ public class ClusterNode implements Runnable,
      */
     private boolean disableAutoSync;
 
+    /**
+     * The journal revisions up to which the change records of a workspace
+     * are skipped, keyed by workspace name. The key <code>null</code> stands
+     * for the version storage. See {@link #skipRecords(String, long)}.
+     */
+    private final Map<String, Long> skippedRevisions =
+        Collections.synchronizedMap(new HashMap<String, Long>());
+
     /**
      * Initialize this cluster node.
      *
@@ -365,6 +374,40 @@ public class ClusterNode implements Runnable,
         internalSync(true);
     }
 
+    /**
+     * Skips the change records of <code>workspace</code> up to and including
+     * <code>revision</code> when this cluster node starts. This is used by
+     * a search index that has been initialized from the index snapshot of
+     * another cluster node, which already reflects these changes. The item
+     * states are kept in storage shared by the cluster, so a node that has
+     * not processed any records yet does not need to replay them. All other
+     * records, e.g. namespace, node type, privilege and lock records, are
+     * still replayed, because they update state that is private to each
+     * cluster node.
+     * <p>
+     * Records are only skipped if this cluster node has not been started
+     * and its revision is still zero. If this method is called more than
+     * once for a workspace, the lowest revision is used.
+     *
+     * @param workspace the workspace name or <code>null</code> for the
+     *                  version storage
+     * @param revision the journal revision reflected by the index snapshot
+     * @return <code>true</code> if the records will be skipped;
+     *         <code>false</code> if they will be replayed
+     */
+    public synchronized boolean skipRecords(String workspace, long revision) {
+        if (status != NONE || getRevision() != 0) {
+            return false;
+        }
+        Long skipped = skippedRevisions.get(workspace);
+        if (skipped == null || revision < skipped) {
+            log.info("Skipping change records of workspace " + workspace
+                    + " up to revision " + revision);
+            skippedRevisions.put(workspace, revision);
+        }
+        return true;
+    }
+
     /**
      * Stops this cluster node.
      */
@@ -884,6 +927,12 @@ public class ClusterNode implements Runnable,
     public void process(ChangeLogRecord record) {
         String workspace = record.getWorkspace();
 
+        Long skipped = skippedRevisions.get(workspace);
+        if (skipped != null && record.getRevision() <= skipped) {
+            log.debug("Skipping revision {}", record.getRevision());
+            return;
+        }
+
         UpdateEventListener listener = null;
         if (workspace != null) {
             listener = wspUpdateListeners.get(workspace);
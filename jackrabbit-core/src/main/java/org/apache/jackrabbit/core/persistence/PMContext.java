@@ -20,6 +20,7 @@ import java.io.File;
 
 import javax.jcr.NamespaceRegistry;
 
+import org.apache.jackrabbit.core.cache.CacheManager;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
@@ -67,6 +68,9 @@ public class PMContext {
     /** Repository statistics collector. */
     private final RepositoryStatisticsImpl stats;
 
+    /** Repository cache manager, or <code>null</code> */
+    private final CacheManager cacheManager;
+
     /**
      * Creates a new <code>PMContext</code>.
      *
@@ -83,6 +87,27 @@ public class PMContext {
             NodeTypeRegistry ntReg,
             DataStore dataStore,
             RepositoryStatisticsImpl stats) {
+        this(homeDir, fs, rootNodeId, nsReg, ntReg, dataStore, stats, null);
+    }
+
+    /**
+     * Creates a new <code>PMContext</code>.
+     *
+     * @param homeDir the physical home directory
+     * @param fs the virtual jackrabbit filesystem
+     * @param rootNodeId id of the root node
+     * @param nsReg        namespace registry
+     * @param ntReg        node type registry
+     * @param cacheManager cache manager of the repository
+     */
+    public PMContext(File homeDir,
+            FileSystem fs,
+            NodeId rootNodeId,
+            NamespaceRegistry nsReg,
+            NodeTypeRegistry ntReg,
+            DataStore dataStore,
+            RepositoryStatisticsImpl stats,
+            CacheManager cacheManager) {
         this.physicalHomeDir = homeDir;
         this.fs = fs;
         this.rootNodeId = rootNodeId;
@@ -90,6 +115,7 @@ public class PMContext {
         this.ntReg = ntReg;
         this.dataStore = dataStore;
         this.stats = stats;
+        this.cacheManager = cacheManager;
     }
 
 
@@ -154,4 +180,13 @@ public class PMContext {
         return stats;
     }
 
+    /**
+     * Returns the cache manager of the repository.
+     *
+     * @return cache manager, or <code>null</code> if not available
+     */
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
 }
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.util.Collection;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * Persistence manager that is able to load a number of node states in one
+ * go and keep them in an internal cache until they are requested through
+ * {@link PersistenceManager#load(NodeId)}. The shared item state manager
+ * uses this to avoid one round trip per node when the children of a node
+ * are iterated.
+ */
+public interface PrefetchingPersistenceManager extends PersistenceManager {
+
+    /**
+     * Loads the node states with the given ids into the internal cache of
+     * this persistence manager. Ids that are already cached are ignored,
+     * ids that do not exist are remembered as missing.
+     *
+     * @param ids the ids of the node states to prefetch.
+     * @throws ItemStateException if an error occurs while loading.
+     */
+    void prefetch(Collection<NodeId> ids) throws ItemStateException;
+
+}
@@ -20,12 +20,20 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
@@ -33,7 +41,8 @@ import javax.jcr.RepositoryException;
 import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.core.cache.Cache;
 import org.apache.jackrabbit.core.cache.CacheAccessListener;
-import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.cache.CacheManager;
+import org.apache.jackrabbit.core.cache.NodeIdCache;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
@@ -44,14 +53,17 @@ import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyReport;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
+import org.apache.jackrabbit.core.persistence.util.BundleBinding;
 import org.apache.jackrabbit.core.persistence.util.FileBasedIndex;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
+import org.apache.jackrabbit.core.persistence.util.OffHeapBundleCache;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -89,13 +101,30 @@ import org.slf4j.LoggerFactory;
  * because a lot of {@link #exists(NodeId)} calls are issued that would result
  * in a useless persistence lookup if the desired bundle does not exist.
  * <p>
+ * Bundles are read concurrently, only writes are serialized. In order not to
+ * put a stale bundle to the cache that was read from the underlying system
+ * while a change log was being written, the bundle cache is versioned: a
+ * loaded bundle is only cached if no write started or ended while it was
+ * loaded. See {@link #beginWrite()} and {@link #endWrite()}.
+ * <p>
+ * Optionally, serialized bundles are additionally kept in an
+ * {@link OffHeapBundleCache} outside of the Java heap, which can hold many
+ * more bundles than the heap based bundle cache without adding to garbage
+ * collection pauses. This requires the subclass to provide its
+ * {@link #getBundleBinding() binding} and to report the serialized data it
+ * reads and writes through {@link #bundleDataLoaded(NodeId, byte[])} and
+ * {@link #bundleDataStored(NodeId, byte[])}.
+ * <p>
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/&gt;
+ * <li>&lt;param name="{@link #setBundleCacheManaged(String) bundleCacheManaged}" value="false"/&gt;
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/&gt;
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
-    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager, CacheAccessListener, ConsistencyChecker {
+    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager,
+    PrefetchingPersistenceManager, CacheAccessListener, ConsistencyChecker {
 
     /** the audit logger */
     private static Logger auditLogger = LoggerFactory.getLogger("org.apache.jackrabbit.core.audit");
@@ -120,10 +149,9 @@ public abstract class AbstractBundlePersistenceManager implements
         new NodePropBundle(NodeId.randomId());
 
     /**
-     * The size estimate for the MISSING NodePropBundle. The sum of:
-     * - ConcurrentCache.E: 32 bytes
-     * - LinkedHashMap.Entry: 64 bytes
-     * - NodeId: 32 bytes
+     * The size estimate for the MISSING NodePropBundle: up to four
+     * NodeIdCache table slots (the table is kept at most half full)
+     * of 32 bytes each.
      */
     private static final long MISSING_SIZE_ESTIMATE = 128;
 
@@ -134,7 +162,29 @@ public abstract class AbstractBundlePersistenceManager implements
     private StringIndex nameIndex;
 
     /** the cache of loaded bundles */
-    private ConcurrentCache<NodeId, NodePropBundle> bundles;
+    private NodeIdCache<NodePropBundle> bundles;
+
+    /** the off-heap cache of serialized bundles, or <code>null</code> if disabled */
+    private OffHeapBundleCache offHeapBundles;
+
+    /**
+     * Serialized bundles read by the current thread that are put to the
+     * off-heap cache together with the deserialized bundle.
+     */
+    private final ThreadLocal<Map<NodeId, byte[]>> loadedBundleData =
+        new ThreadLocal<Map<NodeId, byte[]>>();
+
+    /** Name of the counter of off-heap bundle cache hits */
+    public static final String OFF_HEAP_CACHE_HIT_COUNTER =
+        "BUNDLE_OFF_HEAP_CACHE_HIT_COUNTER";
+
+    /** Name of the counter of off-heap bundle cache misses */
+    public static final String OFF_HEAP_CACHE_MISS_COUNTER =
+        "BUNDLE_OFF_HEAP_CACHE_MISS_COUNTER";
+
+    /** Name of the counter of the off-heap bundle cache size */
+    public static final String OFF_HEAP_CACHE_SIZE_COUNTER =
+        "BUNDLE_OFF_HEAP_CACHE_SIZE_COUNTER";
 
     /** The default minimum stats logging interval (in ms). */
     private static final int DEFAULT_LOG_STATS_INTERVAL = 60 * 1000;
@@ -154,6 +204,15 @@ public abstract class AbstractBundlePersistenceManager implements
     /** default size of the bundle cache */
     private long bundleCacheSize = 8 * 1024 * 1024;
 
+    /** whether the size of the bundle cache is managed by the cache manager */
+    private boolean bundleCacheManaged = false;
+
+    /** the cache manager that manages the bundle cache, or <code>null</code> */
+    private volatile CacheManager cacheManager;
+
+    /** default size of the off-heap bundle cache, 0 means disabled */
+    private long offHeapBundleCacheSize = 0;
+
     /** Counter of read operations. */
     private AtomicLong readCounter;
 
@@ -175,6 +234,31 @@ public abstract class AbstractBundlePersistenceManager implements
     /** Counter of bundle cache size. */
     private AtomicLong cacheSizeCounter;
 
+    /** Counter of off-heap bundle cache hits. */
+    private AtomicLong offHeapCacheHitCounter;
+
+    /** Counter of off-heap bundle cache misses. */
+    private AtomicLong offHeapCacheMissCounter;
+
+    /** Counter of off-heap bundle cache size. */
+    private AtomicLong offHeapCacheSizeCounter;
+
+    /**
+     * Version of the bundle cache. The version is incremented when a write
+     * starts and when it ends, i.e. it is odd while a write is in progress.
+     * Guarded by {@link #cacheVersionLock}.
+     */
+    private volatile long cacheVersion;
+
+    /**
+     * Lock that makes checking the cache version and putting a loaded bundle
+     * to the cache atomic with respect to changes of the cache version.
+     */
+    private final ReadWriteLock cacheVersionLock = new ReentrantReadWriteLock();
+
+    /** Nesting depth of {@link #beginWrite()} calls, guarded by this */
+    private int writeDepth;
+
     /** The update event channel to use by the consistency checker when fixing inconsistencies */
     private UpdateEventChannel eventChannel;
 
@@ -196,6 +280,48 @@ public abstract class AbstractBundlePersistenceManager implements
         this.bundleCacheSize = Long.parseLong(bundleCacheSize) * 1024 * 1024;
     }
 
+    /**
+     * Returns whether the size of the bundle cache is managed by the cache
+     * manager of the repository.
+     * @return "true" if the bundle cache size is managed.
+     */
+    public String getBundleCacheManaged() {
+        return String.valueOf(bundleCacheManaged);
+    }
+
+    /**
+     * Sets whether the size of the bundle cache is managed by the cache
+     * manager of the repository, together with the item state caches. The
+     * bundle cache then competes for the memory of the cache manager based
+     * on the time spent on its misses, and the configured bundle cache size
+     * is only the initial size. The default is false.
+     *
+     * @param bundleCacheManaged "true" if the bundle cache size is managed.
+     */
+    public void setBundleCacheManaged(String bundleCacheManaged) {
+        this.bundleCacheManaged = Boolean.valueOf(bundleCacheManaged);
+    }
+
+    /**
+     * Returns the size of the off-heap bundle cache in megabytes.
+     * @return the size of the off-heap bundle cache in megabytes.
+     */
+    public String getOffHeapBundleCacheSize() {
+        return String.valueOf(offHeapBundleCacheSize / (1024 * 1024));
+    }
+
+    /**
+     * Sets the size of the off-heap bundle cache in megabytes. The default
+     * is 0, which disables the off-heap cache. The memory is allocated as
+     * direct buffers, so the JVM option <code>-XX:MaxDirectMemorySize</code>
+     * may need to be raised accordingly.
+     *
+     * @param offHeapBundleCacheSize the off-heap bundle cache size in megabytes.
+     */
+    public void setOffHeapBundleCacheSize(String offHeapBundleCacheSize) {
+        this.offHeapBundleCacheSize = Long.parseLong(offHeapBundleCacheSize) * 1024 * 1024;
+    }
+
     /**
      * Creates the folder path for the given node id that is suitable for
      * storing states in a filesystem.
@@ -350,15 +476,27 @@ public abstract class AbstractBundlePersistenceManager implements
      * {@inheritDoc}
      */
     public synchronized void onExternalUpdate(ChangeLog changes) {
-        for (ItemState state : changes.modifiedStates()) {
-            bundles.remove(getBundleId(state));
-        }
-        for (ItemState state : changes.deletedStates()) {
-            bundles.remove(getBundleId(state));
+        beginWrite();
+        try {
+            for (ItemState state : changes.modifiedStates()) {
+                removeCachedBundle(getBundleId(state));
+            }
+            for (ItemState state : changes.deletedStates()) {
+                removeCachedBundle(getBundleId(state));
+            }
+            for (ItemState state : changes.addedStates()) {
+                // There may have been a cache miss entry
+                removeCachedBundle(getBundleId(state));
+            }
+        } finally {
+            endWrite();
         }
-        for (ItemState state : changes.addedStates()) {
-            // There may have been a cache miss entry
-            bundles.remove(getBundleId(state));
+    }
+
+    private void removeCachedBundle(NodeId id) {
+        bundles.remove(id);
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(id);
         }
     }
 
@@ -382,6 +520,50 @@ public abstract class AbstractBundlePersistenceManager implements
         return infos;
     }
 
+    //---------------------------------------< PrefetchingPersistenceManager >--
+
+    /**
+     * {@inheritDoc}
+     *
+     * Loads all bundles that are not yet cached through
+     * {@link #loadBundles(Collection)} and puts them to the bundle cache.
+     */
+    public void prefetch(Collection<NodeId> ids) throws ItemStateException {
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!bundles.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        long version = cacheVersion;
+        long time = System.nanoTime();
+        Map<NodeId, NodePropBundle> loaded;
+        Map<NodeId, byte[]> data;
+        try {
+            loaded = loadBundles(missing);
+        } finally {
+            data = takeLoadedBundleData();
+        }
+        time = System.nanoTime() - time;
+        cacheMissDuration.addAndGet(time);
+        log.debug("Prefetched {} bundles in {}ms", missing.size(), time / 1000000);
+        cacheMissCounter.addAndGet(missing.size());
+        for (NodeId id : missing) {
+            NodePropBundle bundle = loaded.get(id);
+            if (bundle != null) {
+                bundle.markOld();
+            }
+            if (!cacheLoadedBundle(id, bundle, data.get(id), version)) {
+                // a write interfered, the remaining bundles are loaded on demand
+                break;
+            }
+        }
+    }
+
     //----------------------------------------------------------------< spi >---
 
     /**
@@ -395,6 +577,97 @@ public abstract class AbstractBundlePersistenceManager implements
     protected abstract NodePropBundle loadBundle(NodeId id)
             throws ItemStateException;
 
+    /**
+     * Loads a number of bundles from the underlying system. The default
+     * implementation calls {@link #loadBundle(NodeId)} for every id,
+     * subclasses that are able to read several bundles in one round trip
+     * should override this method.
+     *
+     * @param ids the node ids of the bundles
+     * @return the loaded bundles, keyed by node id. Bundles that do not
+     *         exist are not contained in the map.
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size());
+        for (NodeId id : ids) {
+            NodePropBundle bundle = loadBundle(id);
+            if (bundle != null) {
+                result.put(id, bundle);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the binding that is used to serialize the bundles of this
+     * persistence manager. The off-heap bundle cache is only used if this
+     * method returns a binding. The default implementation returns
+     * <code>null</code>.
+     *
+     * @return the bundle binding or <code>null</code>
+     */
+    protected BundleBinding getBundleBinding() {
+        return null;
+    }
+
+    /**
+     * Called by subclasses from within {@link #loadBundle(NodeId)} and
+     * {@link #loadBundles(Collection)} with the serialized form of a bundle
+     * read from the underlying system. The data is put to the off-heap
+     * bundle cache together with the deserialized bundle.
+     *
+     * @param id the id of the bundle
+     * @param data the serialized bundle, must not be modified afterwards
+     */
+    protected final void bundleDataLoaded(NodeId id, byte[] data) {
+        if (offHeapBundles != null) {
+            Map<NodeId, byte[]> map = loadedBundleData.get();
+            if (map == null) {
+                map = new HashMap<NodeId, byte[]>();
+                loadedBundleData.set(map);
+            }
+            map.put(id, data);
+        }
+    }
+
+    /**
+     * Called by subclasses from within {@link #storeBundle(NodePropBundle)}
+     * with the serialized form of the stored bundle. Like the heap bundle
+     * cache, the off-heap cache is only updated if it already contains the
+     * bundle, so that bulk loads do not evict frequently read bundles.
+     *
+     * @param id the id of the bundle
+     * @param data the serialized bundle, must not be modified afterwards
+     */
+    protected final void bundleDataStored(NodeId id, byte[] data) {
+        if (offHeapBundles != null && offHeapBundles.containsKey(id)) {
+            offHeapBundles.put(id, data);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if serialized bundles should be reported
+     * through {@link #bundleDataLoaded(NodeId, byte[])} and
+     * {@link #bundleDataStored(NodeId, byte[])}.
+     *
+     * @return whether the off-heap bundle cache is enabled
+     */
+    protected boolean isOffHeapBundleCacheEnabled() {
+        return offHeapBundles != null;
+    }
+
+    private Map<NodeId, byte[]> takeLoadedBundleData() {
+        Map<NodeId, byte[]> map = loadedBundleData.get();
+        if (map == null) {
+            return Collections.emptyMap();
+        }
+        loadedBundleData.remove();
+        return map;
+    }
+
     /**
      * Stores a bundle to the underlying system.
      *
@@ -449,9 +722,23 @@ public abstract class AbstractBundlePersistenceManager implements
     public void init(PMContext context) throws Exception {
         this.context = context;
         // init bundle cache
-        bundles = new ConcurrentCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
+        bundles = new NodeIdCache<NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
         bundles.setMaxMemorySize(bundleCacheSize);
         bundles.setAccessListener(this);
+        if (bundleCacheManaged) {
+            cacheManager = context.getCacheManager();
+            if (cacheManager != null) {
+                cacheManager.add(bundles);
+            } else {
+                log.warn("No cache manager available, the bundle cache size"
+                        + " is not managed");
+            }
+        }
+
+        // init off-heap bundle cache
+        if (offHeapBundleCacheSize > 0) {
+            offHeapBundles = new OffHeapBundleCache(offHeapBundleCacheSize);
+        }
 
         // statistics
         RepositoryStatisticsImpl stats = context.getRepositoryStatistics();
@@ -469,6 +756,12 @@ public abstract class AbstractBundlePersistenceManager implements
                 RepositoryStatistics.Type.BUNDLE_CACHE_MISS_COUNTER);
         cacheMissDuration = stats.getCounter(
                 RepositoryStatistics.Type.BUNDLE_CACHE_MISS_DURATION);
+        offHeapCacheHitCounter = stats.getCounter(
+                OFF_HEAP_CACHE_HIT_COUNTER, true);
+        offHeapCacheMissCounter = stats.getCounter(
+                OFF_HEAP_CACHE_MISS_COUNTER, true);
+        offHeapCacheSizeCounter = stats.getCounter(
+                OFF_HEAP_CACHE_SIZE_COUNTER, false);
     }
 
     /**
@@ -477,8 +770,16 @@ public abstract class AbstractBundlePersistenceManager implements
      *  Closes the persistence manager, release acquired resources.
      */
     public void close() throws Exception {
+        if (cacheManager != null) {
+            cacheManager.remove(bundles);
+            cacheManager = null;
+        }
         // clear caches
         bundles.clear();
+        if (offHeapBundles != null) {
+            offHeapBundles.clear();
+            offHeapBundles = null;
+        }
     }
 
     /**
@@ -589,13 +890,90 @@ public abstract class AbstractBundlePersistenceManager implements
     public synchronized void store(ChangeLog changeLog)
             throws ItemStateException {
         boolean success = false;
+        beginWrite();
         try {
             storeInternal(changeLog);
             success = true;
         } finally {
             if (!success) {
                 bundles.clear();
+                if (offHeapBundles != null) {
+                    offHeapBundles.clear();
+                }
             }
+            endWrite();
+        }
+    }
+
+    /**
+     * Marks the start of a write to the underlying system. Bundles that are
+     * concurrently loaded by readers will not be put to the bundle cache
+     * until the matching {@link #endWrite()} call. Subclasses that write
+     * outside of {@link #store(ChangeLog)}, or that only make the written
+     * changes visible to other readers after <code>store</code> returned
+     * (e.g. on commit of a database transaction), should wrap such code in
+     * <code>beginWrite()</code>/<code>endWrite()</code>. Calls can be
+     * nested, the caller must hold the monitor of this persistence manager.
+     */
+    protected final void beginWrite() {
+        assert Thread.holdsLock(this);
+        if (writeDepth++ == 0) {
+            incrementCacheVersion();
+        }
+    }
+
+    /**
+     * Marks the end of a write to the underlying system.
+     *
+     * @see #beginWrite()
+     */
+    protected final void endWrite() {
+        assert Thread.holdsLock(this);
+        if (--writeDepth == 0) {
+            incrementCacheVersion();
+        }
+    }
+
+    private void incrementCacheVersion() {
+        cacheVersionLock.writeLock().lock();
+        try {
+            cacheVersion++;
+        } finally {
+            cacheVersionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts a bundle that was loaded from the underlying system to the cache,
+     * unless a write was in progress or happened since the given cache
+     * version was read. Bundles loaded by the writing thread itself are
+     * always cached.
+     *
+     * @param id the id of the bundle
+     * @param bundle the loaded bundle or <code>null</code> if it does not exist
+     * @param data the serialized bundle for the off-heap cache, or <code>null</code>
+     * @param version the cache version read before loading the bundle
+     * @return <code>true</code> if the bundle was cached
+     */
+    private boolean cacheLoadedBundle(
+            NodeId id, NodePropBundle bundle, byte[] data, long version) {
+        cacheVersionLock.readLock().lock();
+        try {
+            if (!Thread.holdsLock(this)
+                    && ((version & 1) != 0 || version != cacheVersion)) {
+                return false;
+            }
+            if (bundle != null) {
+                bundles.put(id, bundle, bundle.getSize());
+                if (data != null && offHeapBundles != null) {
+                    offHeapBundles.put(id, data);
+                }
+            } else {
+                bundles.put(id, MISSING, MISSING_SIZE_ESTIMATE);
+            }
+            return true;
+        } finally {
+            cacheVersionLock.readLock().unlock();
         }
     }
 
@@ -725,12 +1103,29 @@ public abstract class AbstractBundlePersistenceManager implements
                 destroy(refs);
             }
         }
+
+        flushStore();
+    }
+
+    /**
+     * Called at the end of {@link #store(ChangeLog)}, after all bundles and
+     * node references of the change log have been passed to the
+     * <code>storeBundle</code>, <code>destroyBundle</code>,
+     * <code>store</code> and <code>destroy</code> methods. Subclasses that
+     * defer writes, e.g. in JDBC batches, must write them here, so that a
+     * failure resets the bundle cache like a failure of the individual
+     * methods. The default implementation does nothing.
+     *
+     * @throws ItemStateException if the deferred writes fail
+     */
+    protected void flushStore() throws ItemStateException {
     }
 
     /**
      * Gets the bundle for the given node id. Read/write synchronization
-     * happens higher up at the SISM level, so we don't need to worry about
-     * conflicts here.
+     * happens higher up at the SISM level. Bundles are loaded without holding
+     * the monitor of this persistence manager, a versioned put to the bundle
+     * cache makes sure concurrent writes do not leave stale entries behind.
      *
      * @param id the id of the bundle to retrieve.
      * @return the bundle or <code>null</code> if the bundle does not exist
@@ -762,22 +1157,64 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     private NodePropBundle getBundleCacheMiss(NodeId id)
             throws ItemStateException {
+        long version = cacheVersion;
         long time = System.nanoTime();
-        NodePropBundle bundle = loadBundle(id);
+        NodePropBundle bundle = getOffHeapBundle(id);
+        if (bundle != null) {
+            bundles.recordMissDuration(System.nanoTime() - time);
+            cacheLoadedBundle(id, bundle, null, version);
+            return bundle;
+        }
+
+        byte[] data;
+        try {
+            bundle = loadBundle(id);
+        } finally {
+            data = takeLoadedBundleData().get(id);
+        }
         time = System.nanoTime() - time;
         cacheMissDuration.addAndGet(time);
+        bundles.recordMissDuration(time);
         final long timeMs = time / 1000000;
         log.debug("Loaded bundle {} in {}ms", id, timeMs);
         cacheMissCounter.incrementAndGet();
         if (bundle != null) {
             bundle.markOld();
-            bundles.put(id, bundle, bundle.getSize());
-        } else {
-            bundles.put(id, MISSING, MISSING_SIZE_ESTIMATE);
         }
+        cacheLoadedBundle(id, bundle, data, version);
         return bundle;
     }
 
+    /**
+     * Returns the bundle from the off-heap bundle cache.
+     *
+     * @param id the id of the bundle
+     * @return the deserialized bundle, or <code>null</code> if the off-heap
+     *         cache is disabled or does not contain the bundle
+     */
+    private NodePropBundle getOffHeapBundle(NodeId id) {
+        BundleBinding binding = getBundleBinding();
+        if (offHeapBundles == null || binding == null) {
+            return null;
+        }
+        byte[] data = offHeapBundles.get(id);
+        if (data == null) {
+            offHeapCacheMissCounter.incrementAndGet();
+            return null;
+        }
+        try {
+            NodePropBundle bundle =
+                binding.readBundle(ByteBuffer.wrap(data), id);
+            bundle.markOld();
+            offHeapCacheHitCounter.incrementAndGet();
+            return bundle;
+        } catch (IOException e) {
+            log.warn("Unable to read bundle " + id + " from off-heap cache", e);
+            offHeapBundles.remove(id);
+            return null;
+        }
+    }
+
     /**
      * Deletes the bundle
      *
@@ -788,6 +1225,9 @@ public abstract class AbstractBundlePersistenceManager implements
         destroyBundle(bundle);
         bundle.removeAllProperties(getBlobStore());
         bundles.put(bundle.getId(), MISSING, MISSING_SIZE_ESTIMATE);
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
     }
 
     /**
@@ -858,13 +1298,27 @@ public abstract class AbstractBundlePersistenceManager implements
      * @param id the id of the bundle.
      */
     protected void evictBundle(NodeId id) {
-        bundles.remove(id);
+        cacheVersionLock.writeLock().lock();
+        try {
+            // invalidate concurrent loads without changing the write state
+            cacheVersion += 2;
+            removeCachedBundle(id);
+        } finally {
+            cacheVersionLock.writeLock().unlock();
+        }
     }
 
     public void cacheAccessed(long accessCount) {
         logCacheStats();
         cacheAccessCounter.addAndGet(accessCount);
         cacheSizeCounter.set(bundles.getMemoryUsed());
+        CacheManager manager = cacheManager;
+        if (manager != null) {
+            manager.cacheAccessed(accessCount);
+        }
+        if (offHeapBundles != null) {
+            offHeapCacheSizeCounter.set(offHeapBundles.getMemoryUsed());
+        }
     }
 
     private void logCacheStats() {
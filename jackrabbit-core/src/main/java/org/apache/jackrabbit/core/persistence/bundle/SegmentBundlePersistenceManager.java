@@ -0,0 +1,528 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.fs.local.LocalFileSystem;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.PMContext;
+import org.apache.jackrabbit.core.persistence.util.BLOBStore;
+import org.apache.jackrabbit.core.persistence.util.BundleBinding;
+import org.apache.jackrabbit.core.persistence.util.ErrorHandling;
+import org.apache.jackrabbit.core.persistence.util.FileSystemBLOBStore;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.persistence.util.SegmentStore;
+import org.apache.jackrabbit.core.persistence.util.Serializer;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeReferences;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistence manager that appends the serialized {@link NodePropBundle}s
+ * and node references to memory-mapped segment files, see
+ * {@link SegmentStore}. Reads are served from the mapped segments without
+ * system calls, writes are sequential. Every {@link #store(ChangeLog)} is
+ * written as one batch that is either applied completely or, after a
+ * failure or crash, not at all.
+ * <p>
+ * Replaced and removed bundles leave garbage in the segments. A background
+ * thread compacts segments whose live data falls below the configured
+ * threshold.
+ * <p>
+ * Configuration:<br>
+ * <ul>
+ * <li>&lt;param name="{@link #setSegmentSize(String) segmentSize}" value="64"/&gt;
+ * <li>&lt;param name="{@link #setCompactionThreshold(String) compactionThreshold}" value="50"/&gt;
+ * <li>&lt;param name="{@link #setSyncOnCommit(String) syncOnCommit}" value="true"/&gt;
+ * <li>&lt;param name="{@link #setMinBlobSize(String) minBlobSize}" value="4096"/&gt;
+ * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/&gt;
+ * </ul>
+ */
+public class SegmentBundlePersistenceManager extends AbstractBundlePersistenceManager {
+
+    /** the default logger */
+    private static Logger log = LoggerFactory.getLogger(SegmentBundlePersistenceManager.class);
+
+    /** key space of the bundles in the segment store */
+    private static final int BUNDLES = 0;
+
+    /** key space of the node references in the segment store */
+    private static final int REFERENCES = 1;
+
+    /** initial size of buffer used to serialize objects */
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /** flag indicating if this manager was initialized */
+    protected boolean initialized;
+
+    /** the segment store */
+    protected SegmentStore segmentStore;
+
+    /** file system where BLOB data is stored */
+    protected FSBlobStore blobStore;
+
+    /**
+     * the size of a segment file in megabytes
+     * @see #setSegmentSize(String)
+     */
+    private int segmentSize = SegmentStore.DEFAULT_SEGMENT_SIZE / (1024 * 1024);
+
+    /**
+     * the share of live data in percent below which a segment is compacted
+     * @see #setCompactionThreshold(String)
+     */
+    private int compactionThreshold = 50;
+
+    /**
+     * whether commits are forced to disk
+     * @see #setSyncOnCommit(String)
+     */
+    private boolean syncOnCommit = true;
+
+    /**
+     * the minimum size of a property until it gets written to the blob store
+     * @see #setMinBlobSize(String)
+     */
+    private int minBlobSize = 0x1000;
+
+    /**
+     * flag for error handling
+     */
+    protected ErrorHandling errorHandling = new ErrorHandling();
+
+    /**
+     * the bundle binding
+     */
+    protected BundleBinding binding;
+
+    /**
+     * set while the compaction thread is running
+     */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * the compaction thread, or <code>null</code>
+     */
+    private volatile Thread compactor;
+
+    /**
+     * the name of this persistence manager
+     */
+    private String name = super.toString();
+
+    /**
+     * Returns the size of a segment file in megabytes.
+     * @return the segment size
+     */
+    public String getSegmentSize() {
+        return String.valueOf(segmentSize);
+    }
+
+    /**
+     * Sets the size of a segment file in megabytes. Segment files are
+     * created sparse, so unused space does not take up disk space on most
+     * file systems. Bundles that are larger than a segment get a segment of
+     * their own.
+     *
+     * @param segmentSize the segment size in megabytes
+     */
+    public void setSegmentSize(String segmentSize) {
+        this.segmentSize = Integer.parseInt(segmentSize);
+    }
+
+    /**
+     * Returns the compaction threshold in percent.
+     * @return the compaction threshold
+     */
+    public String getCompactionThreshold() {
+        return String.valueOf(compactionThreshold);
+    }
+
+    /**
+     * Sets the share of live data, in percent of the segment size, below
+     * which a segment is compacted. <code>0</code> disables compaction.
+     *
+     * @param compactionThreshold the compaction threshold in percent
+     */
+    public void setCompactionThreshold(String compactionThreshold) {
+        this.compactionThreshold = Integer.parseInt(compactionThreshold);
+    }
+
+    /**
+     * Returns whether commits are forced to disk.
+     * @return "true" if commits are forced to disk
+     */
+    public String getSyncOnCommit() {
+        return String.valueOf(syncOnCommit);
+    }
+
+    /**
+     * Sets whether every commit is forced to disk. If disabled, the last
+     * commits may be lost on an operating system crash or power failure,
+     * but the store stays consistent.
+     *
+     * @param syncOnCommit "true" to force commits to disk
+     */
+    public void setSyncOnCommit(String syncOnCommit) {
+        this.syncOnCommit = Boolean.valueOf(syncOnCommit).booleanValue();
+    }
+
+    /**
+     * Returns the mininum blob size.
+     * @return the mininum blob size.
+     */
+    public String getMinBlobSize() {
+        return String.valueOf(minBlobSize);
+    }
+
+    /**
+     * Sets the minimum blob size. This size defines the threshold of which
+     * size a property is included in the bundle or is stored in the blob store.
+     *
+     * @param minBlobSize
+     */
+    public void setMinBlobSize(String minBlobSize) {
+        this.minBlobSize = Integer.decode(minBlobSize).intValue();
+    }
+
+    /**
+     * Sets the error handling behaviour of this manager. See {@link ErrorHandling}
+     * for details about the flags.
+     *
+     * @param errorHandling
+     */
+    public void setErrorHandling(String errorHandling) {
+        this.errorHandling = new ErrorHandling(errorHandling);
+    }
+
+    /**
+     * Returns the error handling configuration of this manager
+     * @return the error handling configuration of this manager
+     */
+    public String getErrorHandling() {
+        return errorHandling.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(PMContext context) throws Exception {
+        if (initialized) {
+            throw new IllegalStateException("already initialized");
+        }
+        super.init(context);
+
+        this.name = context.getHomeDir().getName();
+
+        LocalFileSystem blobFS = new LocalFileSystem();
+        blobFS.setRoot(new File(context.getHomeDir(), "blobs"));
+        blobFS.init();
+        blobStore = new FSBlobStore(blobFS);
+
+        binding = new BundleBinding(errorHandling, blobStore, getNsIndex(), getNameIndex(), context.getDataStore());
+        binding.setMinBlobSize(minBlobSize);
+
+        segmentStore = new SegmentStore(
+                new File(context.getHomeDir(), "segments"), segmentSize * 1024 * 1024, 2);
+        segmentStore.setSyncOnCommit(syncOnCommit);
+        segmentStore.open();
+
+        initialized = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BLOBStore getBlobStore() {
+        return blobStore;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void close() throws Exception {
+        if (!initialized) {
+            throw new IllegalStateException("not initialized");
+        }
+
+        try {
+            Thread thread = compactor;
+            if (thread != null) {
+                thread.join();
+            }
+            segmentStore.close();
+            segmentStore = null;
+            blobStore.close();
+            blobStore = null;
+            super.close();
+        } finally {
+            initialized = false;
+        }
+    }
+
+    /**
+     * Writes the change log as one batch of the segment store. The batch is
+     * committed by {@link #flushStore()} and rolled back if storing fails.
+     *
+     * {@inheritDoc}
+     */
+    public synchronized void store(ChangeLog changeLog)
+            throws ItemStateException {
+        segmentStore.begin();
+        try {
+            super.store(changeLog);
+        } finally {
+            segmentStore.rollback();
+        }
+        startCompaction();
+    }
+
+    /**
+     * Commits the batch started in {@link #store(ChangeLog)}.
+     */
+    @Override
+    protected void flushStore() throws ItemStateException {
+        try {
+            segmentStore.commit();
+        } catch (Exception e) {
+            String msg = "failed to commit changes";
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected NodePropBundle loadBundle(NodeId id) throws ItemStateException {
+        try {
+            ByteBuffer buffer = segmentStore.get(BUNDLES, id);
+            if (buffer == null) {
+                return null;
+            }
+            // copied, so that a cached bundle does not keep the mapped
+            // segment alive after it is compacted
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            if (isOffHeapBundleCacheEnabled()) {
+                bundleDataLoaded(id, data);
+            }
+            return binding.readBundle(ByteBuffer.wrap(data), id);
+        } catch (Exception e) {
+            String msg = "failed to read bundle: " + id + ": " + e;
+            log.error(msg);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected synchronized void storeBundle(NodePropBundle bundle) throws ItemStateException {
+        try {
+            ByteArrayOutputStream out =
+                new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            binding.writeBundle(out, bundle);
+            byte[] data = out.toByteArray();
+            segmentStore.put(BUNDLES, bundle.getId(), data);
+            bundleDataStored(bundle.getId(), data);
+        } catch (Exception e) {
+            String msg = "failed to write bundle: " + bundle.getId();
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected synchronized void destroyBundle(NodePropBundle bundle) throws ItemStateException {
+        try {
+            segmentStore.remove(BUNDLES, bundle.getId());
+        } catch (Exception e) {
+            String msg = "failed to delete bundle: " + bundle.getId();
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NodeReferences loadReferencesTo(NodeId targetId)
+            throws NoSuchItemStateException, ItemStateException {
+        if (!initialized) {
+            throw new IllegalStateException("not initialized");
+        }
+        ByteBuffer buffer = segmentStore.get(REFERENCES, targetId);
+        if (buffer == null) {
+            throw new NoSuchItemStateException(targetId.toString());
+        }
+        try {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            NodeReferences refs = new NodeReferences(targetId);
+            Serializer.deserialize(refs, new ByteArrayInputStream(data));
+            return refs;
+        } catch (Exception e) {
+            String msg = "failed to read references: " + targetId;
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void store(NodeReferences refs)
+            throws ItemStateException {
+        if (!initialized) {
+            throw new IllegalStateException("not initialized");
+        }
+        try {
+            ByteArrayOutputStream out =
+                new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+            Serializer.serialize(refs, out);
+            segmentStore.put(REFERENCES, refs.getTargetId(), out.toByteArray());
+        } catch (Exception e) {
+            String msg = "failed to write " + refs;
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void destroy(NodeReferences refs) throws ItemStateException {
+        if (!initialized) {
+            throw new IllegalStateException("not initialized");
+        }
+        try {
+            segmentStore.remove(REFERENCES, refs.getTargetId());
+        } catch (Exception e) {
+            String msg = "failed to delete " + refs;
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean existsReferencesTo(NodeId targetId) throws ItemStateException {
+        if (!initialized) {
+            throw new IllegalStateException("not initialized");
+        }
+        return segmentStore.contains(REFERENCES, targetId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<NodeId> getAllNodeIds(NodeId bigger, int maxCount)
+            throws ItemStateException {
+        if (!initialized) {
+            throw new IllegalStateException("not initialized");
+        }
+        return segmentStore.getIds(BUNDLES, bigger, maxCount);
+    }
+
+    /**
+     * Starts the compaction thread if there are segments to compact and
+     * the thread is not already running.
+     */
+    private void startCompaction() {
+        if (compactionThreshold <= 0
+                || !segmentStore.needsCompaction(compactionThreshold / 100.0)
+                || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        final SegmentStore segments = segmentStore;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    int count = segments.compact(compactionThreshold / 100.0);
+                    log.debug("{}: compacted {} segments", name, count);
+                } catch (Exception e) {
+                    log.warn(name + ": failed to compact segments", e);
+                } finally {
+                    compactor = null;
+                    compacting.set(false);
+                }
+            }
+        }, "SegmentCompactor-" + name);
+        thread.setDaemon(true);
+        compactor = thread;
+        thread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Blob store that keeps the blobs in a local file system, using the
+     * blob-id scheme of the bundle persistence managers.
+     */
+    protected class FSBlobStore extends FileSystemBLOBStore {
+
+        private FileSystem fs;
+
+        public FSBlobStore(FileSystem fs) {
+            super(fs);
+            this.fs = fs;
+        }
+
+        public String createId(PropertyId id, int index) {
+            return buildBlobFilePath(null, id, index).toString();
+        }
+
+        public void close() {
+            try {
+                fs.close();
+                fs = null;
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -519,7 +520,7 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
             return null;
         }
         try {
-            return binding.readBundle(new ByteArrayInputStream(bundleStore.get(id)), id);
+            return binding.readBundle(ByteBuffer.wrap(bundleStore.get(id)), id);
         } catch (Exception e) {
             String msg = "failed to read bundle: " + id + ": " + e;
             log.error(msg);
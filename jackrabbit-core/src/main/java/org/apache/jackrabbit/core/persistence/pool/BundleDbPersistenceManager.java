@@ -22,10 +22,13 @@ import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,6 +72,7 @@ import org.slf4j.LoggerFactory;
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/&gt;
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/&gt;
  * <li>&lt;param name="{@link #setConsistencyCheck(String) consistencyCheck}" value="false"/&gt;
  * <li>&lt;param name="{@link #setConsistencyFix(String) consistencyFix}" value="false"/&gt;
  * <li>&lt;param name="{@link #setMinBlobSize(String) minBlobSize}" value="4096"/&gt;
@@ -81,6 +85,8 @@ import org.slf4j.LoggerFactory;
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/&gt;
  * <li>&lt;param name="{@link #setBlockOnConnectionLoss(String) blockOnConnectionLoss}" value="false"/&gt;
  * <li>&lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
+ * <li>&lt;param name="{@link #setPrefetchBatchSize(String) prefetchBatchSize}" value="100"/&gt;
+ * <li>&lt;param name="{@link #setBatchSize(String) batchSize}" value="100"/&gt;
  * </ul>
  */
 public class BundleDbPersistenceManager
@@ -137,6 +143,12 @@ public class BundleDbPersistenceManager
     /** indicates whether to block if the database connection is lost */
     protected boolean blockOnConnectionLoss;
 
+    /** the maximum number of bundles that are selected with one statement */
+    protected int prefetchBatchSize = 100;
+
+    /** the maximum number of bundle and reference writes sent in one JDBC batch */
+    protected int batchSize = 100;
+
     // SQL statements for bundle management
     protected String bundleInsertSQL;
     protected String bundleUpdateSQL;
@@ -435,6 +447,49 @@ public class BundleDbPersistenceManager
         return Boolean.toString(blockOnConnectionLoss);
     }
 
+    /**
+     * Returns the maximum number of bundles that are read with a single
+     * select statement when bundles are prefetched.
+     * @return the prefetch batch size.
+     */
+    public String getPrefetchBatchSize() {
+        return String.valueOf(prefetchBatchSize);
+    }
+
+    /**
+     * Sets the maximum number of bundles that are read with a single
+     * select statement when bundles are prefetched. Some databases limit the
+     * number of expressions in an <code>IN</code> list (1000 for Oracle), so
+     * this value should not exceed that limit. A value of 1 disables
+     * multi-row selects.
+     *
+     * @param prefetchBatchSize the prefetch batch size.
+     */
+    public void setPrefetchBatchSize(String prefetchBatchSize) {
+        this.prefetchBatchSize = Math.max(1, Integer.decode(prefetchBatchSize).intValue());
+    }
+
+    /**
+     * Returns the maximum number of bundle and node reference writes that
+     * are sent to the database in a single JDBC batch.
+     * @return the batch size.
+     */
+    public String getBatchSize() {
+        return String.valueOf(batchSize);
+    }
+
+    /**
+     * Sets the maximum number of bundle and node reference writes that are
+     * sent to the database in a single JDBC batch when a change log is
+     * stored. A value of 1 (or 0) disables JDBC batches, so that every write
+     * is executed as a separate statement.
+     *
+     * @param batchSize the batch size.
+     */
+    public void setBatchSize(String batchSize) {
+        this.batchSize = Math.max(0, Integer.decode(batchSize).intValue());
+    }
+
     /**
      * Returns <code>true</code> if the blobs are stored in the DB.
      * @return <code>true</code> if the blobs are stored in the DB.
@@ -468,7 +523,9 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      *
-     * Basically wraps a JDBC transaction around super.store().
+     * Basically wraps a JDBC transaction around super.store(). Writers are
+     * serialized on this persistence manager, readers are not blocked and use
+     * their own pooled connections.
      * 
      * FIXME: the retry logic is almost a duplicate of {@code ConnectionHelper.RetryManager}.
      */
@@ -477,6 +534,8 @@ public class BundleDbPersistenceManager
         ItemStateException lastException = null;
         boolean sleepInterrupted = false;
         while (!sleepInterrupted && (blockOnConnectionLoss || failures <= 1)) {
+            // keep concurrently loaded bundles out of the cache until committed
+            beginWrite();
             try {
                 conHelper.startBatch();
                 super.store(changeLog);
@@ -498,6 +557,8 @@ public class BundleDbPersistenceManager
                 // if we got here due to a constraint violation and we
                 // are running in test mode, we really want to stop
                 assert !isIntegrityConstraintViolation(e.getCause());
+            } finally {
+                endWrite();
             }
             failures++;
             log.error("Failed to persist ChangeLog (stacktrace on DEBUG log level), blockOnConnectionLoss = "
@@ -535,6 +596,7 @@ public class BundleDbPersistenceManager
         super.init(context);
 
         conHelper = createConnectionHelper(getDataSource());
+        conHelper.setMaxBatchSize(batchSize);
         
         this.name = context.getHomeDir().getName();        
 
@@ -612,6 +674,14 @@ public class BundleDbPersistenceManager
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * Creates a suitable blobstore
      * @return a blobstore
@@ -774,7 +844,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized List<NodeId> getAllNodeIds(NodeId bigger, int maxCount)
+    public List<NodeId> getAllNodeIds(NodeId bigger, int maxCount)
             throws ItemStateException, RepositoryException {
         ResultSet rs = null;
         try {
@@ -827,7 +897,7 @@ public class BundleDbPersistenceManager
      * {@inheritDoc}
      */
     @Override
-    public synchronized Map<NodeId, NodeInfo> getAllNodeInfos(NodeId bigger, int maxCount) throws ItemStateException {
+    public Map<NodeId, NodeInfo> getAllNodeInfos(NodeId bigger, int maxCount) throws ItemStateException {
         ResultSet rs = null;
         try {
             String sql = bundleSelectAllBundlesSQL;
@@ -862,7 +932,7 @@ public class BundleDbPersistenceManager
                         continue;
                     }
                 }
-                NodePropBundle bundle = readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2);
+                NodePropBundle bundle = readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2, false);
                 NodeInfo nodeInfo = new NodeInfo(bundle);
                 result.put(nodeInfo.getId(), nodeInfo);
             }
@@ -886,7 +956,7 @@ public class BundleDbPersistenceManager
                 conHelper.exec(bundleSelectSQL, getKey(id), false, 0);
             try {
                 if (rs != null && rs.next()) {
-                    return readBundle(id, rs, 1);
+                    return readBundle(id, rs, 1, true);
                 } else {
                     return null;
                 }
@@ -903,6 +973,71 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Selects the bundles with <code>NODE_ID IN (...)</code> statements of
+     * at most {@link #setPrefetchBatchSize(String) prefetchBatchSize} ids.
+     */
+    @Override
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        if (prefetchBatchSize <= 1) {
+            return super.loadBundles(ids);
+        }
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size());
+        List<NodeId> batch = new ArrayList<NodeId>(prefetchBatchSize);
+        for (NodeId id : ids) {
+            batch.add(id);
+            if (batch.size() == prefetchBatchSize) {
+                loadBundleBatch(batch, result);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadBundleBatch(batch, result);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the bundles with the given ids using a single select statement.
+     *
+     * @param ids the ids of the bundles to read
+     * @param result map to which the bundles that were found are added
+     * @throws ItemStateException if the bundles cannot be read
+     */
+    private void loadBundleBatch(List<NodeId> ids, Map<NodeId, NodePropBundle> result)
+            throws ItemStateException {
+        ResultSet rs = null;
+        try {
+            List<Object> params = new ArrayList<Object>();
+            for (NodeId id : ids) {
+                for (Object key : getKey(id)) {
+                    params.add(key);
+                }
+            }
+            rs = conHelper.exec(buildBundleSelectMultipleSQL(ids.size()), params.toArray(), false, 0);
+            while (rs.next()) {
+                NodeId current;
+                if (getStorageModel() == SM_BINARY_KEYS) {
+                    current = new NodeId(rs.getBytes(1));
+                } else {
+                    current = new NodeId(rs.getLong(1), rs.getLong(2));
+                }
+                result.put(current, readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2, true));
+            }
+        } catch (SQLException e) {
+            String msg = "failed to read bundles (stacktrace on DEBUG log level): " + ids.size() + " ids: " + e;
+            log.error(msg);
+            log.debug("failed to read bundles: " + ids, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
     /**
      * Reads and parses a bundle from the BLOB in the given column of the
      * current row of the given result set. This is a helper method to
@@ -911,10 +1046,13 @@ public class BundleDbPersistenceManager
      * @param id bundle identifier
      * @param rs result set
      * @param column BLOB column
+     * @param load whether the bundle is loaded for the bundle cache, in which
+     *             case the serialized data is passed on to the off-heap cache
      * @return parsed bundle
      * @throws SQLException if the bundle can not be read or parsed
      */
-    private NodePropBundle readBundle(NodeId id, ResultSet rs, int column)
+    private NodePropBundle readBundle(
+            NodeId id, ResultSet rs, int column, boolean load)
             throws SQLException {
         try {
             InputStream in;
@@ -924,6 +1062,14 @@ public class BundleDbPersistenceManager
                 in = rs.getBinaryStream(column);
             }
             try {
+                if (load) {
+                    // decode lazily, only the parts that are used
+                    byte[] data = IOUtils.toByteArray(in);
+                    if (isOffHeapBundleCacheEnabled()) {
+                        bundleDataLoaded(id, data);
+                    }
+                    return binding.readBundle(ByteBuffer.wrap(data), id);
+                }
                 return binding.readBundle(in, id);
             } finally {
                 in.close();
@@ -946,8 +1092,10 @@ public class BundleDbPersistenceManager
             binding.writeBundle(out, bundle);
 
             String sql = bundle.isNew() ? bundleInsertSQL : bundleUpdateSQL;
-            Object[] params = createParams(bundle.getId(), out.toByteArray(), true);
-            conHelper.update(sql, params);
+            byte[] data = out.toByteArray();
+            Object[] params = createParams(bundle.getId(), data, true);
+            conHelper.addBatch(sql, params);
+            bundleDataStored(bundle.getId(), data);
         } catch (Exception e) {
             String msg;
 
@@ -965,12 +1113,33 @@ public class BundleDbPersistenceManager
         }
    }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Executes the bundle and node reference writes that are still pending
+     * in the JDBC batch of the current transaction.
+     */
+    protected void flushStore() throws ItemStateException {
+        try {
+            conHelper.executeBatch();
+        } catch (SQLException e) {
+            String msg;
+            if (isIntegrityConstraintViolation(e)) {
+                msg = "FATAL error while writing the bundles";
+            } else {
+                msg = "failed to write the bundles";
+            }
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     protected synchronized void destroyBundle(NodePropBundle bundle) throws ItemStateException {
         try {
-            conHelper.update(bundleDeleteSQL, getKey(bundle.getId()));
+            conHelper.addBatch(bundleDeleteSQL, getKey(bundle.getId()));
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
                 throw (NoSuchItemStateException) e;
@@ -984,7 +1153,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized NodeReferences loadReferencesTo(NodeId targetId)
+    public NodeReferences loadReferencesTo(NodeId targetId)
             throws NoSuchItemStateException, ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
@@ -1030,8 +1199,10 @@ public class BundleDbPersistenceManager
             throw new IllegalStateException("not initialized");
         }
 
-        // check if insert or update
-        boolean update = existsReferencesTo(refs.getTargetId());
+        // check if insert or update. the existence check would execute
+        // pending batched writes, so with JDBC batches the row is replaced
+        boolean batch = conHelper.getMaxBatchSize() > 1;
+        boolean update = !batch && existsReferencesTo(refs.getTargetId());
         String sql = (update) ? nodeReferenceUpdateSQL : nodeReferenceInsertSQL;
 
         try {
@@ -1041,7 +1212,12 @@ public class BundleDbPersistenceManager
             Serializer.serialize(refs, out);
 
             Object[] params = createParams(refs.getTargetId(), out.toByteArray(), true);
-            conHelper.exec(sql, params);
+            if (batch) {
+                conHelper.addBatch(nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
+                conHelper.addBatch(sql, params);
+            } else {
+                conHelper.exec(sql, params);
+            }
             
             // there's no need to close a ByteArrayOutputStream
             //out.close();
@@ -1061,7 +1237,7 @@ public class BundleDbPersistenceManager
         }
 
         try {
-            conHelper.exec(nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
+            conHelper.addBatch(nodeReferenceDeleteSQL, getKey(refs.getTargetId()));
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
                 throw (NoSuchItemStateException) e;
@@ -1075,7 +1251,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized boolean existsReferencesTo(NodeId targetId) throws ItemStateException {
+    public boolean existsReferencesTo(NodeId targetId) throws ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
         }
@@ -1160,6 +1336,36 @@ public class BundleDbPersistenceManager
 
     }
 
+    /**
+     * Returns a select statement for <code>count</code> bundles. The
+     * statement returns the node id column(s) followed by the bundle data.
+     *
+     * @param count the number of node ids in the statement
+     * @return the SQL statement
+     */
+    protected String buildBundleSelectMultipleSQL(int count) {
+        StringBuilder sql = new StringBuilder();
+        if (getStorageModel() == SM_BINARY_KEYS) {
+            sql.append("select NODE_ID, BUNDLE_DATA from ");
+            sql.append(schemaObjectPrefix).append("BUNDLE where NODE_ID in (");
+            for (int i = 0; i < count; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+        } else {
+            // not all databases support WHERE (NODE_ID_HI, NODE_ID_LO) IN ((?, ?), ...)
+            sql.append("select NODE_ID_HI, NODE_ID_LO, BUNDLE_DATA from ");
+            sql.append(schemaObjectPrefix).append("BUNDLE where ");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    sql.append(" or ");
+                }
+                sql.append("(NODE_ID_HI = ? and NODE_ID_LO = ?)");
+            }
+        }
+        return sql.toString();
+    }
+
     /**
      * Helper interface for closeable stores
      */
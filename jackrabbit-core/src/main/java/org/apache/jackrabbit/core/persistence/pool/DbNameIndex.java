@@ -18,7 +18,7 @@ package org.apache.jackrabbit.core.persistence.pool;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.jackrabbit.core.util.StringIndex;
 import org.apache.jackrabbit.core.util.db.ConnectionHelper;
@@ -28,8 +28,8 @@ import org.apache.jackrabbit.core.util.db.DbUtility;
  * Implements a {@link StringIndex} that stores and retrieves the names from a
  * table in a database.
  * <p>
- * Note that this class is not threadsafe by itself. it needs to be synchronized
- * by the using application.
+ * The lookup caches of this class are safe for concurrent readers. Inserting
+ * new strings needs to be synchronized by the using application.
  * <p>
  * Due to a bug with oracle that treats empty strings a null values
  * (see JCR-815), all empty strings are replaced by a ' '. since names never
@@ -45,8 +45,8 @@ public class DbNameIndex implements StringIndex {
     protected String nameInsertSQL;
 
     // caches
-    private final HashMap<String, Integer> string2Index = new HashMap<String, Integer>();
-    private final HashMap<Integer, String> index2String = new HashMap<Integer, String>();
+    private final ConcurrentHashMap<String, Integer> string2Index = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentHashMap<Integer, String> index2String = new ConcurrentHashMap<Integer, String>();
 
     /**
      * Creates a new index that is stored in a db.
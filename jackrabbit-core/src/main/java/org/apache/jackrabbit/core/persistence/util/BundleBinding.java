@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.persistence.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
@@ -152,6 +153,29 @@ public class BundleBinding {
         return new BundleReader(this, in).readBundle(id);
     }
 
+    /**
+     * Deserializes a <code>NodePropBundle</code> from a buffer. Only the
+     * header of the bundle is decoded eagerly, the rest is validated and
+     * then decoded directly from the buffer on first access, see
+     * {@link BundleReader}. The buffer must contain exactly one bundle and
+     * must not be modified afterwards. The bundle keeps a reference to the
+     * buffer, so a direct or mapped buffer is copied to the heap first.
+     *
+     * @param buffer the buffer
+     * @param id the node id for the new bundle
+     * @return the bundle
+     * @throws IOException if an I/O error occurs.
+     */
+    public NodePropBundle readBundle(ByteBuffer buffer, NodeId id)
+            throws IOException {
+        if (!buffer.hasArray()) {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            buffer = ByteBuffer.wrap(data);
+        }
+        return new BundleReader(this, buffer.duplicate()).readBundle(id);
+    }
+
     /**
      * Serializes a <code>NodePropBundle</code> to a data output stream
      *
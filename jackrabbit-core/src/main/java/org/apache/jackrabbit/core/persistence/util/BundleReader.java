@@ -30,6 +30,7 @@ import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 import java.util.Collections;
@@ -44,6 +45,19 @@ import javax.jcr.PropertyType;
 /**
  * Bundle deserializer. See the {@link BundleWriter} class for details of
  * the serialization format.
+ * <p>
+ * A reader created on a {@link ByteBuffer} decodes lazily: only the header
+ * of the bundle (node type, parent, mod count and mixins) is decoded
+ * eagerly, the properties, child node entries and shared set are decoded
+ * directly from the buffer when the bundle is first asked for them, and
+ * the values of string, long, double, boolean, date and reference
+ * properties only when they are first asked for. This avoids most of the
+ * allocations when only a part of a bundle is used. The structure of the
+ * whole bundle is still validated when it is read, so that a corrupt bundle
+ * fails to load instead of failing later on first access. A bundle with
+ * values of other types, e.g. binaries that are resolved in the blob store
+ * or paths that are parsed, is decoded eagerly for the same reason. The
+ * buffer must not be modified while the bundle refers to it.
  *
  * @see BundleWriter
  */
@@ -98,10 +112,17 @@ class BundleReader {
     private final BundleBinding binding;
 
     /**
-     * Counter for the number of bytes read from the input stream.
+     * Counter for the number of bytes read from the input stream, or
+     * <code>null</code> if reading from a buffer.
      */
     private final CountingInputStream cin;
 
+    /**
+     * The buffer from which the bundle is read lazily, or <code>null</code>
+     * if reading from a stream.
+     */
+    private final ByteBuffer buffer;
+
     /**
      * Wrapper for reading structured data from the input stream.
      */
@@ -129,10 +150,44 @@ class BundleReader {
             throws IOException {
         this.binding = binding;
         this.cin = new CountingInputStream(stream);
+        this.buffer = null;
         this.in = new DataInputStream(cin);
         this.version = in.readUnsignedByte();
     }
 
+    /**
+     * Creates a new bundle deserializer that decodes lazily from the given
+     * buffer. The remaining bytes of the buffer must contain exactly one
+     * bundle.
+     *
+     * @param binding bundle binding
+     * @param buffer buffer from which the bundle is read
+     * @throws IOException if an I/O error occurs.
+     */
+    public BundleReader(BundleBinding binding, ByteBuffer buffer)
+            throws IOException {
+        this.binding = binding;
+        this.cin = null;
+        this.buffer = buffer;
+        this.in = new DataInputStream(new ByteBufferInputStream(buffer));
+        this.version = in.readUnsignedByte();
+    }
+
+    /**
+     * Creates a deserializer that continues decoding a bundle at the
+     * current position of the given buffer.
+     */
+    private BundleReader(
+            BundleBinding binding, ByteBuffer buffer, int version,
+            String[] namespaces) {
+        this.binding = binding;
+        this.cin = null;
+        this.buffer = buffer;
+        this.in = new DataInputStream(new ByteBufferInputStream(buffer));
+        this.version = version;
+        System.arraycopy(namespaces, 0, this.namespaces, 0, namespaces.length);
+    }
+
     /**
      * Deserializes a <code>NodePropBundle</code> from a data input stream.
      *
@@ -141,6 +196,16 @@ class BundleReader {
      * @throws IOException if an I/O error occurs.
      */
     public NodePropBundle readBundle(NodeId id) throws IOException {
+        if (buffer != null) {
+            NodePropBundle bundle = new NodePropBundle(id);
+            bundle.setSize(buffer.remaining());
+            if (version >= BundleBinding.VERSION_3) {
+                readBundleNew(bundle);
+            } else {
+                readBundleOld(bundle);
+            }
+            return bundle;
+        }
         long start = cin.getByteCount();
         NodePropBundle bundle = new NodePropBundle(id);
         if (version >= BundleBinding.VERSION_3) {
@@ -183,6 +248,76 @@ class BundleReader {
             bundle.setMixinTypeNames(mixins);
         }
 
+        if (buffer != null) {
+            ByteBuffer start = buffer.duplicate();
+            String[] seen = namespaces.clone();
+            if (skipContent(b)) {
+                bundle.setContent(new Content(binding, start, version, seen, b));
+            } else {
+                // values that may fail to decode, like binaries in the blob
+                // store, must fail now and not on first access
+                new BundleReader(binding, start, version, seen)
+                        .readContent(bundle, b);
+            }
+        } else {
+            readContent(bundle, b);
+        }
+    }
+
+    /**
+     * Skips the properties, child node entries and shared set of a bundle
+     * written using bundle serialization version 3, checking that they
+     * can be decoded later on.
+     *
+     * @param b the flags byte of the bundle header
+     * @return <code>true</code> if all values of the bundle can be decoded
+     *         lazily, see {@link #isLazyType(int)}
+     * @throws IOException if the content is corrupt
+     */
+    private boolean skipContent(int b) throws IOException {
+        boolean lazy = true;
+
+        // properties
+        int pn = readVarInt((b >> 4) & 7, 7);
+        for (int i = 0; i < pn; i++) {
+            skipName();
+            int flags = in.readUnsignedByte();
+            lazy &= isLazyType(flags & 0x0f);
+            int count = 1;
+            int len = flags >>> 4;
+            if (len == 0x0f) {
+                count = readVarInt() + 0x0f - 1;
+            } else if (len != 0) {
+                count = len - 1;
+            }
+            readVarInt(); // modcount
+            for (int j = 0; j < count; j++) {
+                skipValue(flags & 0x0f);
+            }
+        }
+
+        // child nodes (list of name/uuid pairs)
+        int nn = readVarInt((b >> 2) & 3, 3);
+        for (int i = 0; i < nn; i++) {
+            skipName();
+            skipBytes(16);
+        }
+
+        // shared set
+        skipBytes(16 * readVarInt((b >> 1) & 1, 1));
+
+        return lazy;
+    }
+
+    /**
+     * Deserializes the properties, child node entries and shared set of a
+     * bundle written using bundle serialization version 3.
+     *
+     * @param bundle the bundle
+     * @param b the flags byte of the bundle header
+     * @throws IOException if an I/O error occurs
+     */
+    private void readContent(NodePropBundle bundle, int b) throws IOException {
         // properties
         int pn = readVarInt((b >> 4) & 7, 7);
         for (int i = 0; i < pn; i++) {
@@ -334,77 +469,202 @@ class BundleReader {
             count = in.readInt();
         }
 
+        if (buffer != null && isLazyType(entry.getType())) {
+            entry.setLazyValues(new Values(
+                    binding, buffer.duplicate(), version, entry.getType(), count));
+            for (int i = 0; i < count; i++) {
+                skipValue(entry.getType());
+            }
+            return entry;
+        }
+
         // values
         InternalValue[] values = new InternalValue[count];
         String[] blobIds = new String[count];
         for (int i = 0; i < count; i++) {
-            InternalValue val;
-            int type = entry.getType();
-            switch (type) {
-                case PropertyType.BINARY:
-                    int size = in.readInt();
-                    if (size == BundleBinding.BINARY_IN_DATA_STORE) {
-                        val = InternalValue.create(binding.dataStore, readString());
-                    } else if (size == BundleBinding.BINARY_IN_BLOB_STORE) {
-                        blobIds[i] = readString();
-                        try {
-                            BLOBStore blobStore = binding.getBlobStore();
-                            if (blobStore instanceof ResourceBasedBLOBStore) {
-                                val = InternalValue.create(((ResourceBasedBLOBStore) blobStore).getResource(blobIds[i]));
-                            } else {
-                                val = InternalValue.create(blobStore.get(blobIds[i]));
-                            }
-                        } catch (IOException e) {
-                            if (binding.errorHandling.ignoreMissingBlobs()) {
-                                log.warn("Ignoring error while reading blob-resource: " + e);
-                                val = InternalValue.create(new byte[0]);
-                            } else {
-                                throw e;
-                            }
-                        } catch (Exception e) {
-                            throw new IOExceptionWithCause("Unable to create property value: " + e.toString(), e);
+            values[i] = readValue(entry.getType(), blobIds, i);
+        }
+        entry.setValues(values);
+        entry.setBlobIds(blobIds);
+
+        return entry;
+    }
+
+    /**
+     * Checks whether the values of the given type are decoded lazily. These
+     * are the types whose values can be skipped without decoding them, that
+     * never fail to decode and that are not stored in the blob store.
+     *
+     * @param type property type
+     * @return <code>true</code> if values of the type are decoded lazily
+     */
+    private boolean isLazyType(int type) {
+        if (version < BundleBinding.VERSION_3) {
+            return false;
+        }
+        switch (type) {
+            case PropertyType.STRING:
+            case PropertyType.LONG:
+            case PropertyType.DOUBLE:
+            case PropertyType.BOOLEAN:
+            case PropertyType.DATE:
+            case PropertyType.REFERENCE:
+            case PropertyType.WEAKREFERENCE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Skips a value written using bundle serialization version 3.
+     *
+     * @param type property type
+     * @throws IOException if an I/O error occurs
+     */
+    private void skipValue(int type) throws IOException {
+        switch (type) {
+            case PropertyType.BINARY:
+                int size = in.readInt();
+                if (size == BundleBinding.BINARY_IN_DATA_STORE
+                        || size == BundleBinding.BINARY_IN_BLOB_STORE) {
+                    skipBytes(readVarInt());
+                } else {
+                    skipBytes(size);
+                }
+                break;
+            case PropertyType.DECIMAL:
+                if (in.readBoolean()) {
+                    skipBytes(readVarInt());
+                }
+                break;
+            case PropertyType.NAME:
+                skipName();
+                break;
+            case PropertyType.LONG:
+            case PropertyType.DATE:
+                while ((in.readUnsignedByte() & 0x80) != 0) {
+                    // skip variable-length long
+                }
+                break;
+            case PropertyType.DOUBLE:
+                in.readDouble();
+                break;
+            case PropertyType.BOOLEAN:
+                in.readBoolean();
+                break;
+            case PropertyType.REFERENCE:
+            case PropertyType.WEAKREFERENCE:
+                in.readLong();
+                in.readLong();
+                break;
+            default:
+                skipBytes(readVarInt());
+        }
+    }
+
+    /**
+     * Skips a name written using bundle serialization version 3. Keeps
+     * track of the namespaces like {@link #readName()}.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void skipName() throws IOException {
+        int b = in.readUnsignedByte();
+        if ((b & 0x80) != 0) {
+            int ns = (b >> 4) & 0x07;
+            if (ns >= namespaces.length || namespaces[ns] == null) {
+                String uri = readString();
+                if (ns < namespaces.length) {
+                    namespaces[ns] = uri;
+                }
+            }
+            skipBytes(readVarInt((b & 0x0f) + 1, 0x10));
+        }
+    }
+
+    private void skipBytes(int len) throws IOException {
+        if (len < 0 || in.skipBytes(len) != len) {
+            throw new IOException("Unexpected end of bundle");
+        }
+    }
+
+    /**
+     * Deserializes a single property value.
+     *
+     * @param type property type
+     * @param blobIds blob ids of the property values
+     * @param i index of the value
+     * @return the value
+     * @throws IOException if an I/O error occurs.
+     */
+    private InternalValue readValue(int type, String[] blobIds, int i)
+            throws IOException {
+        InternalValue val;
+        switch (type) {
+            case PropertyType.BINARY:
+                int size = in.readInt();
+                if (size == BundleBinding.BINARY_IN_DATA_STORE) {
+                    val = InternalValue.create(binding.dataStore, readString());
+                } else if (size == BundleBinding.BINARY_IN_BLOB_STORE) {
+                    blobIds[i] = readString();
+                    try {
+                        BLOBStore blobStore = binding.getBlobStore();
+                        if (blobStore instanceof ResourceBasedBLOBStore) {
+                            val = InternalValue.create(((ResourceBasedBLOBStore) blobStore).getResource(blobIds[i]));
+                        } else {
+                            val = InternalValue.create(blobStore.get(blobIds[i]));
                         }
-                    } else {
-                        // short values into memory
-                        byte[] data = new byte[size];
-                        in.readFully(data);
-                        val = InternalValue.create(data);
-                    }
-                    break;
-                case PropertyType.DOUBLE:
-                    val = InternalValue.create(in.readDouble());
-                    break;
-                case PropertyType.DECIMAL:
-                    val = InternalValue.create(readDecimal());
-                    break;
-                case PropertyType.LONG:
-                    if (version >= BundleBinding.VERSION_3) {
-                        val = InternalValue.create(readVarLong());
-                    } else {
-                        val = InternalValue.create(in.readLong());
+                    } catch (IOException e) {
+                        if (binding.errorHandling.ignoreMissingBlobs()) {
+                            log.warn("Ignoring error while reading blob-resource: " + e);
+                            val = InternalValue.create(new byte[0]);
+                        } else {
+                            throw e;
+                        }
+                    } catch (Exception e) {
+                        throw new IOExceptionWithCause("Unable to create property value: " + e.toString(), e);
                     }
+                } else {
+                    // short values into memory
+                    byte[] data = new byte[size];
+                    in.readFully(data);
+                    val = InternalValue.create(data);
+                }
+                break;
+            case PropertyType.DOUBLE:
+                val = InternalValue.create(in.readDouble());
+                break;
+            case PropertyType.DECIMAL:
+                val = InternalValue.create(readDecimal());
+                break;
+            case PropertyType.LONG:
+                if (version >= BundleBinding.VERSION_3) {
+                    val = InternalValue.create(readVarLong());
+                } else {
+                    val = InternalValue.create(in.readLong());
+                }
+                break;
+            case PropertyType.BOOLEAN:
+                val = InternalValue.create(in.readBoolean());
+                break;
+            case PropertyType.NAME:
+                val = InternalValue.create(readQName());
+                break;
+            case PropertyType.WEAKREFERENCE:
+                val = InternalValue.create(readNodeId(), true);
+                break;
+            case PropertyType.REFERENCE:
+                val = InternalValue.create(readNodeId(), false);
+                break;
+            case PropertyType.DATE:
+                if (version >= BundleBinding.VERSION_3) {
+                    val = InternalValue.create(readDate());
                     break;
-                case PropertyType.BOOLEAN:
-                    val = InternalValue.create(in.readBoolean());
-                    break;
-                case PropertyType.NAME:
-                    val = InternalValue.create(readQName());
-                    break;
-                case PropertyType.WEAKREFERENCE:
-                    val = InternalValue.create(readNodeId(), true);
-                    break;
-                case PropertyType.REFERENCE:
-                    val = InternalValue.create(readNodeId(), false);
-                    break;
-                case PropertyType.DATE:
-                    if (version >= BundleBinding.VERSION_3) {
-                        val = InternalValue.create(readDate());
-                        break;
-                    } // else fall through
-                default:
-                    if (version >= BundleBinding.VERSION_3) {
-                        val = InternalValue.valueOf(
-                                readString(), entry.getType());
+                } // else fall through
+            default:
+                if (version >= BundleBinding.VERSION_3) {
+                    val = InternalValue.valueOf(readString(), type);
                 } else {
                     // because writeUTF(String) has a size limit of 64k,
                     // Strings are serialized as <length><byte[]>
@@ -414,19 +674,14 @@ class BundleReader {
                     String stringVal = new String(bytes, StandardCharsets.UTF_8);
 
                     // https://issues.apache.org/jira/browse/JCR-3083
-                    if (PropertyType.DATE == entry.getType()) {
+                    if (PropertyType.DATE == type) {
                         val = InternalValue.createDate(stringVal);
                     } else {
-                        val = InternalValue.valueOf(stringVal, entry.getType());
+                        val = InternalValue.valueOf(stringVal, type);
                     }
                 }
-            }
-            values[i] = val;
         }
-        entry.setValues(values);
-        entry.setBlobIds(blobIds);
-
-        return entry;
+        return val;
     }
 
     /**
@@ -672,4 +927,142 @@ class BundleReader {
         return bytes;
     }
 
+    //------------------------------------------------------< lazy decoding >
+
+    /**
+     * The undecoded properties, child node entries and shared set of a
+     * bundle read from a buffer.
+     */
+    static class Content {
+
+        private final BundleBinding binding;
+
+        private final ByteBuffer buffer;
+
+        private final int version;
+
+        private final String[] namespaces;
+
+        private final int flags;
+
+        private Content(
+                BundleBinding binding, ByteBuffer buffer, int version,
+                String[] namespaces, int flags) {
+            this.binding = binding;
+            this.buffer = buffer;
+            this.version = version;
+            this.namespaces = namespaces.clone();
+            this.flags = flags;
+        }
+
+        /**
+         * Decodes the content into a new bundle.
+         *
+         * @param id the node id of the bundle
+         * @return bundle with the properties, child node entries and shared
+         *         set of the content
+         * @throws IOException if an I/O error occurs
+         */
+        NodePropBundle read(NodeId id) throws IOException {
+            NodePropBundle bundle = new NodePropBundle(id);
+            new BundleReader(binding, buffer.duplicate(), version, namespaces)
+                    .readContent(bundle, flags);
+            return bundle;
+        }
+
+        /**
+         * @return the number of undecoded bytes
+         */
+        int getSize() {
+            return buffer.remaining();
+        }
+
+    }
+
+    /**
+     * The undecoded values of a property read from a buffer.
+     */
+    static class Values {
+
+        private final BundleBinding binding;
+
+        private final ByteBuffer buffer;
+
+        private final int version;
+
+        private final int type;
+
+        private final int count;
+
+        private Values(
+                BundleBinding binding, ByteBuffer buffer, int version,
+                int type, int count) {
+            this.binding = binding;
+            this.buffer = buffer;
+            this.version = version;
+            this.type = type;
+            this.count = count;
+        }
+
+        /**
+         * Decodes the values.
+         *
+         * @return the values
+         * @throws IOException if an I/O error occurs
+         */
+        InternalValue[] read() throws IOException {
+            // lazy types never contain names, so no namespaces are needed
+            BundleReader reader = new BundleReader(
+                    binding, buffer.duplicate(), version, new String[0]);
+            InternalValue[] values = new InternalValue[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = reader.readValue(type, null, i);
+            }
+            return values;
+        }
+
+    }
+
+    /**
+     * Input stream that reads from a buffer without copying it.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
 }
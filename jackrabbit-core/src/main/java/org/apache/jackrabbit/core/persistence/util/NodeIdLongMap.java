@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.util.Arrays;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * Map from node ids to non-negative <code>long</code> values that is backed
+ * by primitive arrays (open addressing with linear probing), so that the
+ * heap overhead per entry is about 50 bytes. Used as the location index of
+ * the off-heap bundle cache and of the segment store.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class NodeIdLongMap {
+
+    /** Value returned for keys that are not contained in the map */
+    public static final long NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // parallel arrays, a value of NONE marks an empty slot
+    private long[] msbs;
+    private long[] lsbs;
+    private long[] values;
+    private int size;
+
+    public NodeIdLongMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the value for the given key.
+     *
+     * @param msb the most significant bits of the node id
+     * @param lsb the least significant bits of the node id
+     * @return the value, or {@link #NONE} if the key is not contained
+     */
+    public long get(long msb, long lsb) {
+        return values[findSlot(msb, lsb)];
+    }
+
+    public long get(NodeId id) {
+        return get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Adds or replaces the value for the given key.
+     *
+     * @param msb the most significant bits of the node id
+     * @param lsb the least significant bits of the node id
+     * @param value the non-negative value
+     * @return the previous value, or {@link #NONE}
+     */
+    public long put(long msb, long lsb, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        if (2 * (size + 1) > values.length) {
+            long[] oldMsbs = msbs;
+            long[] oldLsbs = lsbs;
+            long[] oldValues = values;
+            allocate(values.length * 2);
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != NONE) {
+                    int slot = findSlot(oldMsbs[i], oldLsbs[i]);
+                    msbs[slot] = oldMsbs[i];
+                    lsbs[slot] = oldLsbs[i];
+                    values[slot] = oldValues[i];
+                    size++;
+                }
+            }
+        }
+        int slot = findSlot(msb, lsb);
+        long previous = values[slot];
+        if (previous == NONE) {
+            size++;
+        }
+        msbs[slot] = msb;
+        lsbs[slot] = lsb;
+        values[slot] = value;
+        return previous;
+    }
+
+    public long put(NodeId id, long value) {
+        return put(id.getMostSignificantBits(), id.getLeastSignificantBits(), value);
+    }
+
+    /**
+     * Removes the given key.
+     *
+     * @param msb the most significant bits of the node id
+     * @param lsb the least significant bits of the node id
+     * @return the removed value, or {@link #NONE}
+     */
+    public long remove(long msb, long lsb) {
+        int slot = findSlot(msb, lsb);
+        long previous = values[slot];
+        if (previous != NONE) {
+            delete(slot);
+        }
+        return previous;
+    }
+
+    public long remove(NodeId id) {
+        return remove(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Calls the given visitor for all entries, in no particular order. The
+     * map must not be modified while the entries are visited.
+     *
+     * @param visitor the visitor
+     */
+    public void visit(Visitor visitor) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != NONE) {
+                visitor.visit(msbs[i], lsbs[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Receives the entries of the map.
+     */
+    public interface Visitor {
+
+        void visit(long msb, long lsb, long value);
+
+    }
+
+    //-------------------------------------------------------------< internal >
+
+    private void allocate(int capacity) {
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, NONE);
+        size = 0;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 32;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    /**
+     * Returns the slot of the given key, or the empty slot where it would be
+     * inserted.
+     */
+    private int findSlot(long msb, long lsb) {
+        int mask = values.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (values[slot] != NONE
+                && (msbs[slot] != msb || lsbs[slot] != lsb)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Deletes the given slot and moves following entries of the same probe
+     * sequence back, so that no tombstones are needed.
+     */
+    private void delete(int slot) {
+        int mask = values.length - 1;
+        values[slot] = NONE;
+        size--;
+        int next = (slot + 1) & mask;
+        while (values[next] != NONE) {
+            int home = hash(msbs[next], lsbs[next]) & mask;
+            // move the entry if its home slot is not within (slot, next]
+            if ((next > slot && (home <= slot || home > next))
+                    || (next < slot && (home <= slot && home > next))) {
+                msbs[slot] = msbs[next];
+                lsbs[slot] = lsbs[next];
+                values[slot] = values[next];
+                values[next] = NONE;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.persistence.util;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -40,6 +41,10 @@ import org.slf4j.LoggerFactory;
 /**
  * This Class provides a simple structure to hold the nodestate and related
  * propertystate data.
+ * <p>
+ * A bundle read from a buffer keeps its properties, child node entries and
+ * shared set undecoded until one of them is first accessed, see
+ * {@link BundleReader}.
  */
 public class NodePropBundle {
 
@@ -104,6 +109,12 @@ public class NodePropBundle {
      */
     private Set<NodeId> sharedSet;
 
+    /**
+     * The undecoded properties, child node entries and shared set, or
+     * <code>null</code> if they are decoded.
+     */
+    private volatile BundleReader.Content content;
+
     /**
      * Creates a "new" bundle with the given id
      *
@@ -132,6 +143,7 @@ public class NodePropBundle {
             // sanity check
             throw new IllegalArgumentException("Not allowed to update foreign state.");
         }
+        load();
         parentId = state.getParentId();
         nodeTypeName = state.getNodeTypeName();
         mixinTypeNames = state.getMixinTypeNames();
@@ -151,6 +163,7 @@ public class NodePropBundle {
      * @return the new nodestate
      */
     public NodeState createNodeState(PersistenceManager pMgr) {
+        load();
         NodeState state = pMgr.createNew(id);
         state.setParentId(parentId);
         state.setNodeTypeName(nodeTypeName);
@@ -288,6 +301,7 @@ public class NodePropBundle {
      * @return the list of the child node entries.
      */
     public List<NodePropBundle.ChildNodeEntry> getChildNodeEntries() {
+        load();
         return childNodeEntries;
     }
 
@@ -297,6 +311,7 @@ public class NodePropBundle {
      * @param id the id of the entry
      */
     public void addChildNodeEntry(Name name, NodeId id) {
+        load();
         childNodeEntries.add(new ChildNodeEntry(name, id));
     }
 
@@ -307,6 +322,7 @@ public class NodePropBundle {
     public void addProperty(PropertyEntry entry) {
         assert !NameConstants.JCR_PRIMARYTYPE.equals(entry.getName());
         assert !NameConstants.JCR_UUID.equals(entry.getName());
+        load();
         properties.put(entry.getName(), entry);
     }
 
@@ -317,6 +333,7 @@ public class NodePropBundle {
      * @param blobStore BLOB store from where to delete previous property value
      */
     public void addProperty(PropertyState state, BLOBStore blobStore) {
+        load();
         PropertyEntry old =
             properties.put(state.getName(), new PropertyEntry(state));
         if (old != null) {
@@ -331,6 +348,7 @@ public class NodePropBundle {
      *         <code>false</code> otherwise.
      */
     public boolean hasProperty(Name name) {
+        load();
         return properties.containsKey(name);
     }
 
@@ -339,6 +357,7 @@ public class NodePropBundle {
      * @return a set of the property names.
      */
     public Set<Name> getPropertyNames() {
+        load();
         return properties.keySet();
     }
 
@@ -347,6 +366,7 @@ public class NodePropBundle {
      * @return a collection of property entries.
      */
     public Collection<PropertyEntry> getPropertyEntries() {
+        load();
         return properties.values();
     }
 
@@ -356,6 +376,7 @@ public class NodePropBundle {
      * @return the desired property entry or <code>null</code>
      */
     public PropertyEntry getPropertyEntry(Name name) {
+        load();
         return properties.get(name);
     }
 
@@ -365,6 +386,7 @@ public class NodePropBundle {
      * @param blobStore BLOB store from where to delete property values
      */
     public void removeAllProperties(BLOBStore blobStore) {
+        load();
         for (Name name : new HashSet<Name>(properties.keySet())) {
             removeProperty(name, blobStore);
         }
@@ -377,6 +399,7 @@ public class NodePropBundle {
      * @param blobStore BLOB store from where to delete the property value
      */
     public void removeProperty(Name name, BLOBStore blobStore) {
+        load();
         PropertyEntry pe = properties.remove(name);
         if (pe != null) {
             pe.destroy(blobStore);
@@ -388,6 +411,7 @@ public class NodePropBundle {
      * @return the shared set of this bundle.
      */
     public Set<NodeId> getSharedSet() {
+        load();
         return sharedSet;
     }
 
@@ -396,6 +420,7 @@ public class NodePropBundle {
      * @param sharedSet shared set
      */
     public void setSharedSet(Set<NodeId> sharedSet) {
+        load();
         this.sharedSet = sharedSet;
     }
 
@@ -420,6 +445,11 @@ public class NodePropBundle {
         //      + string: 20 + length
         //  + parentId: 160
         //  + id: 160
+        BundleReader.Content c = content;
+        if (c != null) {
+            // not decoded yet, assume one entry per 24 undecoded bytes
+            return 500 + size + 300 * (c.getSize() / 24 + 3);
+        }
         return 500 + size + 300 * (childNodeEntries.size() + properties.size() + 3);
     }
 
@@ -431,10 +461,49 @@ public class NodePropBundle {
         this.size = size;
     }
 
+    /**
+     * Sets the undecoded properties, child node entries and shared set of
+     * this bundle. They are decoded on first access.
+     *
+     * @param content the undecoded content
+     */
+    void setContent(BundleReader.Content content) {
+        this.content = content;
+    }
+
+    /**
+     * Decodes the properties, child node entries and shared set if they
+     * have not been decoded yet.
+     */
+    private void load() {
+        if (content != null) {
+            loadContent();
+        }
+    }
+
+    private synchronized void loadContent() {
+        BundleReader.Content c = content;
+        if (c != null) {
+            try {
+                NodePropBundle loaded = c.read(id);
+                properties = loaded.properties;
+                childNodeEntries = loaded.childNodeEntries;
+                sharedSet = loaded.sharedSet;
+            } catch (IOException e) {
+                // not expected, the content was validated when it was read
+                // and only has values that never fail to decode
+                throw new IllegalStateException(
+                        "Unable to decode bundle " + id, e);
+            }
+            content = null;
+        }
+    }
+
     //--------------------------------------------------------------< Object >
 
     @Override
     public String toString() {
+        load();
         StringBuilder builder = new StringBuilder();
         builder.append(id);
         builder.append("(");
@@ -463,6 +532,8 @@ public class NodePropBundle {
     public boolean equals(Object object) {
         if (object instanceof NodePropBundle) {
             NodePropBundle that = (NodePropBundle) object;
+            load();
+            that.load();
             return equalNullSafe(id, that.id)
                 && equalNullSafe(parentId, that.parentId)
                 && equalNullSafe(nodeTypeName, that.nodeTypeName)
@@ -579,6 +650,11 @@ public class NodePropBundle {
          */
         private short modCount;
 
+        /**
+         * the undecoded values, or <code>null</code> if they are decoded
+         */
+        private volatile BundleReader.Values lazyValues;
+
         /**
          * Creates a new property entry with the given id.
          * @param id the id
@@ -627,6 +703,9 @@ public class NodePropBundle {
          * @return the internal values
          */
         public InternalValue[] getValues() {
+            if (lazyValues != null) {
+                readValues();
+            }
             return values;
         }
 
@@ -636,6 +715,31 @@ public class NodePropBundle {
          */
         public void setValues(InternalValue[] values) {
             this.values = values;
+            this.lazyValues = null;
+        }
+
+        /**
+         * Sets the undecoded values of this entry. They are decoded on
+         * first access.
+         *
+         * @param lazyValues the undecoded values
+         */
+        void setLazyValues(BundleReader.Values lazyValues) {
+            this.lazyValues = lazyValues;
+        }
+
+        private synchronized void readValues() {
+            BundleReader.Values v = lazyValues;
+            if (v != null) {
+                try {
+                    values = v.read();
+                } catch (IOException e) {
+                    // not expected, the values were validated when read
+                    throw new IllegalStateException(
+                            "Unable to decode the values of " + id, e);
+                }
+                lazyValues = null;
+            }
         }
 
         /**
@@ -741,7 +845,7 @@ public class NodePropBundle {
                 builder.append(",multiple");
             }
             builder.append(") = ");
-            builder.append(Arrays.toString(values));
+            builder.append(Arrays.toString(getValues()));
             return builder.toString();
         }
 
@@ -751,7 +855,7 @@ public class NodePropBundle {
                 return id.equals(that.id)
                     && type == that.type
                     && multiValued == that.multiValued
-                    && Arrays.equals(values, that.values);
+                    && Arrays.equals(getValues(), that.getValues());
             } else {
                 return false;
             }
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * Cache for serialized bundles that keeps the data outside of the Java heap
+ * in direct {@link ByteBuffer} slabs. It is used as a second level cache
+ * behind the bundle cache of the bundle persistence managers: bundles
+ * evicted from the heap cache can be deserialized from here instead of
+ * being read from the underlying system again.
+ * <p>
+ * The cache is split into stripes by node id, each with its own slabs,
+ * index and read-write lock, so that readers never block each other and
+ * writers only block the readers of one stripe. Within a stripe, entries
+ * are appended to the current slab. When all slabs are full a clock hand
+ * moves over the slabs and evicts the first slab that has not been read
+ * from since the hand last passed it. The index that maps node ids to slab
+ * locations is a {@link NodeIdLongMap}, so the heap overhead per entry is a
+ * few dozen bytes regardless of the bundle size.
+ * <p>
+ * All methods of this class are thread-safe.
+ */
+public class OffHeapBundleCache {
+
+    /** Default size of a slab: 4MB */
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /** Size of the entry header in a slab: msb, lsb and length */
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+
+    /** Maximum number of stripes */
+    private static final int MAX_STRIPES = 16;
+
+    /** Minimum size of a stripe, smaller caches use fewer stripes */
+    private static final long MIN_STRIPE_SIZE = 256 * 1024;
+
+    /** the stripes */
+    private final Stripe[] stripes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new cache. The slabs of all stripes together never exceed
+     * <code>maxSize</code> bytes; if a stripe is smaller than
+     * <code>slabSize</code> its only slab has the size of the stripe.
+     *
+     * @param maxSize the maximum number of bytes kept off-heap
+     * @param slabSize the size of a single slab in bytes
+     */
+    public OffHeapBundleCache(long maxSize, int slabSize) {
+        int count = (int) Math.max(1, Math.min(MAX_STRIPES, maxSize / MIN_STRIPE_SIZE));
+        long stripeSize = maxSize / count;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(stripeSize, slabSize);
+        }
+    }
+
+    /**
+     * Creates a new cache with the default slab size.
+     *
+     * @param maxSize the maximum number of bytes kept off-heap
+     */
+    public OffHeapBundleCache(long maxSize) {
+        this(maxSize, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Returns a copy of the serialized bundle with the given id. A copy is
+     * needed because bundles are decoded lazily from the returned array,
+     * while the slab may be reused as soon as the lock is released.
+     *
+     * @param id the node id
+     * @return the serialized bundle or <code>null</code> if not cached
+     */
+    public byte[] get(NodeId id) {
+        byte[] data = getStripe(id).get(id);
+        if (data == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return data;
+    }
+
+    /**
+     * Checks whether the bundle with the given id is cached, without
+     * counting this as a cache access.
+     *
+     * @param id the node id
+     * @return <code>true</code> if the bundle is cached
+     */
+    public boolean containsKey(NodeId id) {
+        return getStripe(id).containsKey(id);
+    }
+
+    /**
+     * Adds or replaces the serialized bundle with the given id. Bundles that
+     * do not fit into a single slab are not cached.
+     *
+     * @param id the node id
+     * @param data the serialized bundle
+     */
+    public void put(NodeId id, byte[] data) {
+        getStripe(id).put(id, data);
+    }
+
+    /**
+     * Removes the serialized bundle with the given id. The space in the slab
+     * is reclaimed when the slab is evicted.
+     *
+     * @param id the node id
+     */
+    public void remove(NodeId id) {
+        getStripe(id).remove(id);
+    }
+
+    /**
+     * Removes all entries. The slabs are kept for reuse.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of bytes used by the cached entries.
+     */
+    public long getMemoryUsed() {
+        long memoryUsed = 0;
+        for (Stripe stripe : stripes) {
+            memoryUsed += stripe.memoryUsed;
+        }
+        return memoryUsed;
+    }
+
+    public int getElementCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.size();
+        }
+        return count;
+    }
+
+    private Stripe getStripe(NodeId id) {
+        int h = id.hashCode();
+        h ^= h >>> 16;
+        return stripes[(h & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    //-------------------------------------------------------< slab handling >
+
+    /**
+     * A part of the cache with its own slabs, index and lock.
+     */
+    private static final class Stripe {
+
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /** the slabs, allocated lazily */
+        private final ByteBuffer[] slabs;
+
+        /**
+         * per slab flag whether it was read from since the clock hand passed,
+         * set by readers while they hold the read lock
+         */
+        private final boolean[] referenced;
+
+        /** the size of a slab */
+        private final int slabSize;
+
+        /** the index: node id to slab and offset */
+        private final NodeIdLongMap index = new NodeIdLongMap();
+
+        /** the slab entries are currently appended to */
+        private int current;
+
+        /** the clock hand */
+        private int hand;
+
+        /** only written while holding the write lock */
+        private volatile long memoryUsed;
+
+        Stripe(long maxSize, int slabSize) {
+            this.slabSize = (int) Math.max(HEADER_SIZE, Math.min(slabSize, maxSize));
+            int count = (int) Math.max(1, Math.min(Short.MAX_VALUE, maxSize / this.slabSize));
+            this.slabs = new ByteBuffer[count];
+            this.referenced = new boolean[count];
+        }
+
+        byte[] get(NodeId id) {
+            lock.readLock().lock();
+            try {
+                long location = index.get(id);
+                if (location == NodeIdLongMap.NONE) {
+                    return null;
+                }
+                int slab = slabIndex(location);
+                int offset = slabOffset(location);
+                ByteBuffer buffer = slabs[slab].duplicate();
+                byte[] data = new byte[buffer.getInt(offset + 16)];
+                buffer.position(offset + HEADER_SIZE);
+                buffer.get(data);
+                referenced[slab] = true;
+                return data;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        boolean containsKey(NodeId id) {
+            lock.readLock().lock();
+            try {
+                return index.get(id) != NodeIdLongMap.NONE;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return index.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(NodeId id, byte[] data) {
+            lock.writeLock().lock();
+            try {
+                removeEntry(id);
+                int length = HEADER_SIZE + data.length;
+                if (length > slabSize) {
+                    return;
+                }
+                if (slabs[current] == null) {
+                    slabs[current] = ByteBuffer.allocateDirect(slabSize);
+                    slabs[current].limit(0);
+                }
+                if (slabs[current].limit() + length > slabSize) {
+                    current = nextFreeSlab();
+                }
+                ByteBuffer buffer = slabs[current];
+                int offset = buffer.limit();
+                buffer.limit(offset + length);
+                buffer.putLong(offset, id.getMostSignificantBits());
+                buffer.putLong(offset + 8, id.getLeastSignificantBits());
+                buffer.putInt(offset + 16, data.length);
+                ByteBuffer target = buffer.duplicate();
+                target.position(offset + HEADER_SIZE);
+                target.put(data);
+                memoryUsed += length;
+
+                index.put(id, ((long) current << 32) | offset);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(NodeId id) {
+            lock.writeLock().lock();
+            try {
+                removeEntry(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                for (ByteBuffer slab : slabs) {
+                    if (slab != null) {
+                        slab.limit(0);
+                    }
+                }
+                Arrays.fill(referenced, false);
+                current = 0;
+                hand = 0;
+                memoryUsed = 0;
+                index.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void removeEntry(NodeId id) {
+            long location = index.remove(id);
+            if (location != NodeIdLongMap.NONE) {
+                memoryUsed -= HEADER_SIZE
+                    + slabs[slabIndex(location)].getInt(slabOffset(location) + 16);
+            }
+        }
+
+        /**
+         * Returns the index of an empty slab, evicting the entries of a slab
+         * selected by the clock algorithm if no unused slab is left.
+         */
+        private int nextFreeSlab() {
+            for (int i = 0; i < slabs.length; i++) {
+                if (slabs[i] == null) {
+                    slabs[i] = ByteBuffer.allocateDirect(slabSize);
+                    slabs[i].limit(0);
+                    return i;
+                }
+            }
+            if (slabs.length == 1) {
+                evictSlab(0);
+                return 0;
+            }
+            for (;;) {
+                hand = (hand + 1) % slabs.length;
+                if (hand == current) {
+                    continue;
+                }
+                if (referenced[hand]) {
+                    referenced[hand] = false;
+                } else {
+                    evictSlab(hand);
+                    return hand;
+                }
+            }
+        }
+
+        private void evictSlab(int slab) {
+            ByteBuffer buffer = slabs[slab];
+            int offset = 0;
+            while (offset < buffer.limit()) {
+                long msb = buffer.getLong(offset);
+                long lsb = buffer.getLong(offset + 8);
+                int length = buffer.getInt(offset + 16);
+                // the entry may have been replaced or removed in the meantime
+                if (index.get(msb, lsb) == (((long) slab << 32) | offset)) {
+                    memoryUsed -= HEADER_SIZE + length;
+                    index.remove(msb, lsb);
+                }
+                offset += HEADER_SIZE + length;
+            }
+            buffer.limit(0);
+        }
+    }
+
+    private static int slabIndex(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int slabOffset(long location) {
+        return (int) location;
+    }
+
+}
@@ -0,0 +1,1060 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only record store keyed by node id, used by the segment bundle
+ * persistence manager. Records are appended to segment files of a fixed
+ * size that are memory-mapped, so reads are served from the page cache
+ * without system calls. The store keeps a number of separate key spaces
+ * ("kinds"), e.g. one for bundles and one for node references.
+ * <p>
+ * Writes are grouped in batches: {@link #begin()} starts a batch,
+ * {@link #put(int, NodeId, byte[])} and {@link #remove(int, NodeId)} append
+ * records, and {@link #commit()} appends a commit record and makes the
+ * changes of the batch visible to readers. A batch that is not committed
+ * is undone by {@link #rollback()}, or ignored when the store is recovered
+ * after a crash. Writes outside of a batch are committed immediately.
+ * <p>
+ * The location of the current record of every key is kept in memory in a
+ * {@link NodeIdLongMap}. The index is written to a snapshot file when the
+ * store is closed and read back when it is opened; without a valid
+ * snapshot (after a crash) the index is rebuilt by replaying all segments
+ * up to the last commit record.
+ * <p>
+ * Replaced and removed records are garbage. {@link #compact(double)}
+ * copies the live records of segments that contain mostly garbage to the
+ * end of the store and deletes those segments. The records are copied in
+ * small batches, so that writers are only blocked for a short time.
+ * <p>
+ * Record format: <code>int length, byte type, long msb, long lsb,
+ * byte[] data, int crc</code>, where the length covers the whole record and
+ * the CRC32 covers the type, the key and the data. The data of a removal
+ * record is the number of the newest segment that held a record of the key
+ * when it was removed. The removal record is only needed as long as that
+ * segment or an older one exists.
+ * <p>
+ * All methods of this class are thread-safe. Readers are not blocked by a
+ * batch in progress.
+ */
+public class SegmentStore {
+
+    /** the default logger */
+    private static Logger log = LoggerFactory.getLogger(SegmentStore.class);
+
+    /** Default size of a segment: 64MB */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Magic number at the start of a segment file */
+    private static final int SEGMENT_MAGIC = 0x4a525347; // "JRSG"
+
+    /** Magic number at the start of the index snapshot file */
+    private static final int SNAPSHOT_MAGIC = 0x4a525349; // "JRSI"
+
+    /** Size of the segment file header */
+    private static final int SEGMENT_HEADER_SIZE = 8;
+
+    /** Size of the record header: length, type, msb, lsb */
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+
+    /** Size of the record trailer: crc */
+    private static final int TRAILER_SIZE = 4;
+
+    /** Record type of commit records */
+    private static final byte COMMIT = 0x7f;
+
+    /** Number of bytes of a segment compacted in one batch */
+    private static final int COMPACTION_STEP = 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String SNAPSHOT_NAME = "index.snapshot";
+
+    /** the directory of the segment files */
+    private final File directory;
+
+    /** the minimum size of a new segment */
+    private final int segmentSize;
+
+    /** the location index, one per kind */
+    private final NodeIdLongMap[] indexes;
+
+    /** the segments by number, guarded by {@link #lock} */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    /**
+     * the sorted keys, one per kind, or <code>null</code> if a key was added
+     * or removed since they were sorted; only changed when holding
+     * {@link #lock}
+     */
+    private final AtomicReferenceArray<NodeId[]> sortedIds;
+
+    /** guards the indexes and the segment map */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** held while a batch is in progress */
+    private final ReentrantLock batchLock = new ReentrantLock();
+
+    /** whether commits are forced to disk */
+    private volatile boolean syncOnCommit = true;
+
+    // write state, guarded by batchLock
+
+    /** the segment records are appended to */
+    private Segment active;
+
+    /** the index updates of the current batch: kind, msb, lsb, location */
+    private final List<long[]> pending = new ArrayList<long[]>();
+
+    /** the segments of the records written in the current batch, per kind */
+    private final NodeIdLongMap[] batchPuts;
+
+    /** the active segment and position when the batch was started */
+    private int batchSegment;
+    private int batchPosition;
+
+    /** the segments written to in the current batch */
+    private final Map<Integer, Segment> batchSegments = new HashMap<Integer, Segment>();
+
+    private final CRC32 crc = new CRC32();
+
+    private boolean open;
+
+    /**
+     * Creates a new segment store. The store must be opened before it is
+     * used.
+     *
+     * @param directory the directory of the segment files
+     * @param segmentSize the size of a segment file in bytes
+     * @param kinds the number of separate key spaces
+     */
+    public SegmentStore(File directory, int segmentSize, int kinds) {
+        this.directory = directory;
+        this.segmentSize = Math.max(segmentSize, 64 * 1024);
+        this.indexes = new NodeIdLongMap[kinds];
+        this.batchPuts = new NodeIdLongMap[kinds];
+        for (int i = 0; i < kinds; i++) {
+            indexes[i] = new NodeIdLongMap();
+            batchPuts[i] = new NodeIdLongMap();
+        }
+        this.sortedIds = new AtomicReferenceArray<NodeId[]>(kinds);
+    }
+
+    public boolean isSyncOnCommit() {
+        return syncOnCommit;
+    }
+
+    /**
+     * Sets whether the segments are forced to disk on every commit. If not,
+     * committed batches may be lost on an operating system crash (but not
+     * on a crash of the Java process). The records copied by a compaction
+     * are always forced to disk before the compacted segment is deleted,
+     * so that older commits are not put at risk.
+     *
+     * @param syncOnCommit whether to force commits to disk
+     */
+    public void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    /**
+     * Opens the store: maps the segment files and loads the index snapshot,
+     * or rebuilds the index from the segments if there is no valid snapshot.
+     *
+     * @throws IOException if the segments can not be read
+     */
+    public void open() throws IOException {
+        batchLock.lock();
+        lock.writeLock().lock();
+        try {
+            if (open) {
+                throw new IllegalStateException("already open");
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(SEGMENT_SUFFIX)) {
+                        int number = Integer.parseInt(
+                                name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                        segments.put(number, openSegment(number, file));
+                    }
+                }
+            }
+            if (segments.isEmpty()) {
+                active = createSegment(1, segmentSize);
+                segments.put(active.number, active);
+            } else if (!loadSnapshot()) {
+                recover();
+            }
+            open = true;
+        } finally {
+            lock.writeLock().unlock();
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the index snapshot and closes the segment files. A batch in
+     * progress is rolled back.
+     *
+     * @throws IOException if the snapshot can not be written
+     */
+    public void close() throws IOException {
+        batchLock.lock();
+        try {
+            if (!open) {
+                return;
+            }
+            if (batchLock.getHoldCount() > 1) {
+                rollback();
+            }
+            lock.writeLock().lock();
+            try {
+                for (Segment segment : segments.values()) {
+                    segment.buffer.force();
+                }
+                writeSnapshot();
+                for (Segment segment : segments.values()) {
+                    IOUtils.closeQuietly(segment.file);
+                }
+                segments.clear();
+                for (int i = 0; i < indexes.length; i++) {
+                    indexes[i].clear();
+                    sortedIds.set(i, null);
+                }
+                active = null;
+                open = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    //--------------------------------------------------------------< reads >
+
+    /**
+     * Returns a read-only buffer with the data of the given key. The buffer
+     * stays valid after the record is replaced or compacted.
+     *
+     * @param kind the key space
+     * @param id the key
+     * @return the data, or <code>null</code> if the key does not exist
+     */
+    public ByteBuffer get(int kind, NodeId id) {
+        lock.readLock().lock();
+        try {
+            long location = indexes[kind].get(id);
+            if (location == NodeIdLongMap.NONE) {
+                return null;
+            }
+            Segment segment = segments.get(segmentNumber(location));
+            int offset = segmentOffset(location);
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int length = buffer.getInt(offset);
+            buffer.limit(offset + length - TRAILER_SIZE);
+            buffer.position(offset + HEADER_SIZE);
+            return buffer.slice().asReadOnlyBuffer();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether the given key exists.
+     *
+     * @param kind the key space
+     * @param id the key
+     * @return <code>true</code> if the key exists
+     */
+    public boolean contains(int kind, NodeId id) {
+        lock.readLock().lock();
+        try {
+            return indexes[kind].get(id) != NodeIdLongMap.NONE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all keys of the given key space, in no particular order.
+     *
+     * @param kind the key space
+     * @return the keys
+     */
+    public List<NodeId> getIds(int kind) {
+        final List<NodeId> ids = new ArrayList<NodeId>();
+        lock.readLock().lock();
+        try {
+            indexes[kind].visit(new NodeIdLongMap.Visitor() {
+                public void visit(long msb, long lsb, long value) {
+                    ids.add(new NodeId(msb, lsb));
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the keys of the given key space that are greater than the
+     * given key, in ascending order. The sorted keys are kept until a key
+     * is added or removed, so that paging through all keys only sorts them
+     * once as long as the key set does not change.
+     *
+     * @param kind the key space
+     * @param bigger the key to start after, or <code>null</code> to start
+     *               with the smallest key
+     * @param maxCount the maximum number of keys to return, or 0 for all
+     * @return the keys
+     */
+    public List<NodeId> getIds(int kind, NodeId bigger, int maxCount) {
+        NodeId[] ids = sortedIds.get(kind);
+        if (ids == null) {
+            lock.readLock().lock();
+            try {
+                List<NodeId> list = getIds(kind);
+                ids = list.toArray(new NodeId[list.size()]);
+                Arrays.sort(ids);
+                // no key can be added or removed while the read lock is held
+                sortedIds.set(kind, ids);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        int from = 0;
+        if (bigger != null) {
+            from = Arrays.binarySearch(ids, bigger);
+            from = from >= 0 ? from + 1 : -from - 1;
+        }
+        int to = ids.length;
+        if (maxCount > 0) {
+            to = Math.min(to, from + maxCount);
+        }
+        return new ArrayList<NodeId>(Arrays.asList(ids).subList(from, to));
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //-------------------------------------------------------------< writes >
+
+    /**
+     * Starts a batch. Must be followed by {@link #commit()} or
+     * {@link #rollback()} in the same thread.
+     */
+    public void begin() {
+        batchLock.lock();
+        if (batchLock.getHoldCount() > 1) {
+            batchLock.unlock();
+            throw new IllegalStateException("batch already started");
+        }
+        if (!open) {
+            batchLock.unlock();
+            throw new IllegalStateException("not open");
+        }
+        batchSegment = active.number;
+        batchPosition = active.position;
+        batchSegments.clear();
+        pending.clear();
+        clearBatchPuts();
+    }
+
+    /**
+     * Stores the data of the given key.
+     *
+     * @param kind the key space
+     * @param id the key
+     * @param data the data
+     * @throws IOException if the data can not be written
+     */
+    public void put(int kind, NodeId id, byte[] data) throws IOException {
+        write((byte) (2 * kind), id, data);
+    }
+
+    /**
+     * Removes the given key.
+     *
+     * @param kind the key space
+     * @param id the key
+     * @throws IOException if the removal can not be written
+     */
+    public void remove(int kind, NodeId id) throws IOException {
+        write((byte) (2 * kind + 1), id, null);
+    }
+
+    /**
+     * Commits the current batch. The changes are visible to readers when
+     * this method returns.
+     *
+     * @throws IOException if the commit record can not be written
+     */
+    public void commit() throws IOException {
+        commit(syncOnCommit);
+    }
+
+    /**
+     * Undoes the records written in the current batch. Does nothing if the
+     * current thread has not started a batch.
+     */
+    public void rollback() {
+        if (!batchLock.isHeldByCurrentThread() || !open) {
+            return;
+        }
+        try {
+            lock.writeLock().lock();
+            try {
+                while (active.number > batchSegment) {
+                    Segment segment = segments.remove(active.number);
+                    IOUtils.closeQuietly(segment.file);
+                    deleteFile(segmentFile(segment.number));
+                    active = segments.get(segments.lastKey());
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            zero(active, batchPosition, active.position);
+            active.position = batchPosition;
+        } finally {
+            pending.clear();
+            batchSegments.clear();
+            clearBatchPuts();
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts all segments except the one currently written to whose live
+     * records take less than the given share of the segment.
+     *
+     * @param threshold the share of live data, between 0 and 1
+     * @return the number of compacted segments
+     * @throws IOException if the live records can not be copied
+     */
+    public int compact(double threshold) throws IOException {
+        int count = 0;
+        for (Segment segment : getCompactionCandidates(threshold)) {
+            compact(segment);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether {@link #compact(double)} would compact any segment.
+     *
+     * @param threshold the share of live data, between 0 and 1
+     * @return <code>true</code> if there are segments to compact
+     */
+    public boolean needsCompaction(double threshold) {
+        return !getCompactionCandidates(threshold).isEmpty();
+    }
+
+    //-----------------------------------------------------------< internal >
+
+    /**
+     * Commits the current batch and forces the segments written by the
+     * batch to disk if <code>sync</code> is set.
+     */
+    private void commit(boolean sync) throws IOException {
+        checkBatch();
+        append(COMMIT, 0, 0, null);
+        if (sync) {
+            for (Segment segment : batchSegments.values()) {
+                force(segment.buffer);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (long[] update : pending) {
+                apply((int) update[0], update[1], update[2], update[3]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        pending.clear();
+        batchSegments.clear();
+        clearBatchPuts();
+        batchLock.unlock();
+    }
+
+    /**
+     * Forces the changes of a segment to disk.
+     */
+    void force(MappedByteBuffer buffer) {
+        buffer.force();
+    }
+
+    private List<Segment> getCompactionCandidates(double threshold) {
+        List<Segment> candidates = new ArrayList<Segment>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.live
+                        < threshold * (segment.position - SEGMENT_HEADER_SIZE)) {
+                    candidates.add(segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return candidates;
+    }
+
+    /**
+     * Copies the live records and the still needed removal records of the
+     * given segment to the end of the store and deletes the segment. The
+     * records are copied in steps of {@link #COMPACTION_STEP} bytes of the
+     * segment, each in its own batch, so that other writers can proceed
+     * between the steps.
+     */
+    private void compact(Segment segment) throws IOException {
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset < segment.position) {
+            offset = compact(segment, offset);
+            if (offset < 0) {
+                return;
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (segments.get(segment.number) != segment) {
+                return;
+            }
+            segments.remove(segment.number);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        IOUtils.closeQuietly(segment.file);
+        deleteFile(segmentFile(segment.number));
+        log.debug("Compacted segment {}", segment.number);
+    }
+
+    /**
+     * Copies the records of the given segment that still need to be kept
+     * and start in the {@link #COMPACTION_STEP} bytes after the given
+     * offset, in one batch.
+     *
+     * @return the offset after the copied range, or -1 if the segment has
+     *         been removed in the meantime
+     */
+    private int compact(Segment segment, int offset) throws IOException {
+        begin();
+        try {
+            int oldest;
+            lock.readLock().lock();
+            try {
+                if (segments.get(segment.number) != segment) {
+                    return -1;
+                }
+                oldest = segments.firstKey();
+            } finally {
+                lock.readLock().unlock();
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int end = offset + COMPACTION_STEP;
+            while (offset < segment.position && offset < end) {
+                int length = buffer.getInt(offset);
+                byte type = buffer.get(offset + 4);
+                if (type != COMMIT) {
+                    int kind = type >> 1;
+                    long msb = buffer.getLong(offset + 5);
+                    long lsb = buffer.getLong(offset + 13);
+                    long location = location(segment.number, offset);
+                    long current;
+                    lock.readLock().lock();
+                    try {
+                        current = indexes[kind].get(msb, lsb);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    if ((type & 1) == 0 && current == location) {
+                        long copy = append(type, msb, lsb, getData(buffer, offset, length));
+                        pending.add(new long[] {kind, msb, lsb, copy});
+                    } else if ((type & 1) != 0 && current == NodeIdLongMap.NONE
+                            && oldest <= getRemovedFrom(buffer, offset, length, segment.number)) {
+                        // a segment may still contain a record of the key
+                        append(type, msb, lsb, getData(buffer, offset, length));
+                    }
+                }
+                offset += length;
+            }
+            // the segment is deleted once it is copied, so the copies
+            // must be on disk even if syncOnCommit is not set
+            commit(true);
+            return offset;
+        } finally {
+            rollback();
+        }
+    }
+
+    private static byte[] getData(ByteBuffer buffer, int offset, int length) {
+        byte[] data = new byte[length - HEADER_SIZE - TRAILER_SIZE];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset + HEADER_SIZE);
+        source.get(data);
+        return data;
+    }
+
+    /**
+     * Returns the number of the newest segment that held a record of the
+     * key of the given removal record when it was written. Removal records
+     * without this number are treated as if any older segment could still
+     * hold a record of the key.
+     */
+    private static int getRemovedFrom(
+            ByteBuffer buffer, int offset, int length, int segment) {
+        if (length - HEADER_SIZE - TRAILER_SIZE >= 4) {
+            return buffer.getInt(offset + HEADER_SIZE);
+        } else {
+            return segment - 1;
+        }
+    }
+
+    /**
+     * Returns the data of a removal record of the given key: the number of
+     * the newest segment that holds a record of the key, or 0 if there is
+     * no such segment.
+     */
+    private byte[] getRemovalData(int kind, long msb, long lsb) {
+        long segment = batchPuts[kind].get(msb, lsb);
+        if (segment == NodeIdLongMap.NONE) {
+            lock.readLock().lock();
+            try {
+                long location = indexes[kind].get(msb, lsb);
+                segment = location != NodeIdLongMap.NONE ? segmentNumber(location) : 0;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return ByteBuffer.allocate(4).putInt((int) segment).array();
+    }
+
+    private void clearBatchPuts() {
+        for (NodeIdLongMap puts : batchPuts) {
+            if (puts.size() > 0) {
+                puts.clear();
+            }
+        }
+    }
+
+    private void write(byte type, NodeId id, byte[] data) throws IOException {
+        boolean auto = !batchLock.isHeldByCurrentThread();
+        if (auto) {
+            begin();
+        }
+        try {
+            int kind = type >> 1;
+            long msb = id.getMostSignificantBits();
+            long lsb = id.getLeastSignificantBits();
+            if ((type & 1) == 0) {
+                long location = append(type, msb, lsb, data);
+                batchPuts[kind].put(msb, lsb, segmentNumber(location));
+                pending.add(new long[] {kind, msb, lsb, location});
+            } else {
+                append(type, msb, lsb, getRemovalData(kind, msb, lsb));
+                pending.add(new long[] {kind, msb, lsb, NodeIdLongMap.NONE});
+            }
+            if (auto) {
+                commit();
+            }
+        } finally {
+            if (auto) {
+                rollback();
+            }
+        }
+    }
+
+    private void checkBatch() {
+        if (!batchLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("no batch started");
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new segment if
+     * the record does not fit.
+     *
+     * @return the location of the record
+     */
+    private long append(byte type, long msb, long lsb, byte[] data)
+            throws IOException {
+        checkBatch();
+        int dataLength = data != null ? data.length : 0;
+        int length = HEADER_SIZE + dataLength + TRAILER_SIZE;
+        if (active.position + length > active.size) {
+            Segment segment = createSegment(
+                    active.number + 1, Math.max(segmentSize, length + SEGMENT_HEADER_SIZE));
+            lock.writeLock().lock();
+            try {
+                segments.put(segment.number, segment);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            active = segment;
+        }
+        int offset = active.position;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset);
+        buffer.putInt(length);
+        buffer.put(type);
+        buffer.putLong(msb);
+        buffer.putLong(lsb);
+        if (data != null) {
+            buffer.put(data);
+        }
+        buffer.putInt(checksum(active.buffer, offset, length));
+        active.position = offset + length;
+        batchSegments.put(active.number, active);
+        return location(active.number, offset);
+    }
+
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer range = buffer.duplicate();
+        range.limit(offset + length - TRAILER_SIZE);
+        range.position(offset + 4);
+        crc.reset();
+        crc.update(range);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Applies an index update and maintains the live byte counts of the
+     * segments and the sorted keys. The caller must hold the write lock.
+     */
+    private void apply(int kind, long msb, long lsb, long location) {
+        long previous;
+        if (location != NodeIdLongMap.NONE) {
+            previous = indexes[kind].put(msb, lsb, location);
+            Segment segment = segments.get(segmentNumber(location));
+            segment.live += segment.buffer.getInt(segmentOffset(location));
+        } else {
+            previous = indexes[kind].remove(msb, lsb);
+        }
+        if ((previous == NodeIdLongMap.NONE) != (location == NodeIdLongMap.NONE)) {
+            sortedIds.set(kind, null);
+        }
+        if (previous != NodeIdLongMap.NONE) {
+            Segment segment = segments.get(segmentNumber(previous));
+            if (segment != null) {
+                segment.live -= segment.buffer.getInt(segmentOffset(previous));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index by replaying all segments up to the last commit
+     * record. Records after the last commit record are cleared.
+     */
+    private void recover() throws IOException {
+        List<long[]> batch = new ArrayList<long[]>();
+        Segment lastCommitSegment = null;
+        int lastCommitPosition = SEGMENT_HEADER_SIZE;
+        Segment stopSegment = null;
+        int stopPosition = 0;
+        int stopLength = 0;
+        for (Segment segment : segments.values()) {
+            ByteBuffer buffer = segment.buffer;
+            int offset = SEGMENT_HEADER_SIZE;
+            segment.position = offset;
+            while (offset + HEADER_SIZE + TRAILER_SIZE <= segment.size) {
+                int length = buffer.getInt(offset);
+                if (length < HEADER_SIZE + TRAILER_SIZE
+                        || offset + length > segment.size
+                        || buffer.getInt(offset + length - TRAILER_SIZE)
+                            != checksum(buffer, offset, length)) {
+                    if (length != 0) {
+                        stopSegment = segment;
+                        stopPosition = offset;
+                        stopLength = offset + length <= segment.size ? length : 0;
+                    }
+                    break;
+                }
+                byte type = buffer.get(offset + 4);
+                if (type == COMMIT) {
+                    for (long[] update : batch) {
+                        apply((int) update[0], update[1], update[2], update[3]);
+                    }
+                    batch.clear();
+                    lastCommitSegment = segment;
+                    lastCommitPosition = offset + length;
+                } else {
+                    long msb = buffer.getLong(offset + 5);
+                    long lsb = buffer.getLong(offset + 13);
+                    batch.add(new long[] {
+                            type >> 1, msb, lsb,
+                            (type & 1) == 0 ? location(segment.number, offset) : NodeIdLongMap.NONE });
+                }
+                offset += length;
+                segment.position = offset;
+            }
+        }
+
+        if (lastCommitSegment == null) {
+            lastCommitSegment = segments.get(segments.firstKey());
+        }
+        // drop the segments and records of an interrupted batch
+        while (segments.lastKey() > lastCommitSegment.number) {
+            Segment segment = segments.remove(segments.lastKey());
+            log.warn("Removing uncommitted segment {}", segment.number);
+            IOUtils.closeQuietly(segment.file);
+            deleteFile(segmentFile(segment.number));
+        }
+        int end = lastCommitSegment.position;
+        if (stopSegment == lastCommitSegment) {
+            end = Math.max(end, stopPosition + stopLength);
+        }
+        if (end > lastCommitPosition) {
+            log.warn("Discarding {} bytes of uncommitted records in segment {}",
+                    end - lastCommitPosition, lastCommitSegment.number);
+            zero(lastCommitSegment, lastCommitPosition, end);
+            lastCommitSegment.buffer.force();
+        }
+        lastCommitSegment.position = lastCommitPosition;
+        active = lastCommitSegment;
+        log.info("Recovered {} segments", segments.size());
+    }
+
+    private void zero(Segment segment, int from, int to) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(from);
+        byte[] zeros = new byte[Math.min(to - from, 64 * 1024)];
+        while (buffer.position() < to) {
+            buffer.put(zeros, 0, Math.min(zeros.length, to - buffer.position()));
+        }
+    }
+
+    private boolean loadSnapshot() throws IOException {
+        File file = new File(directory, SNAPSHOT_NAME);
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return false;
+            }
+            int segmentCount = in.readInt();
+            if (segmentCount != segments.size()) {
+                return false;
+            }
+            for (int i = 0; i < segmentCount; i++) {
+                Segment segment = segments.get(in.readInt());
+                if (segment == null) {
+                    return false;
+                }
+                segment.position = in.readInt();
+                segment.live = in.readLong();
+            }
+            if (in.readInt() != indexes.length) {
+                return false;
+            }
+            for (NodeIdLongMap index : indexes) {
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    index.put(in.readLong(), in.readLong(), in.readLong());
+                }
+            }
+            active = segments.get(segments.lastKey());
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to read the index snapshot, recovering", e);
+            return false;
+        } finally {
+            IOUtils.closeQuietly(in);
+            // a stale snapshot must not be used after a crash
+            deleteFile(file);
+            if (active == null) {
+                for (NodeIdLongMap index : indexes) {
+                    index.clear();
+                }
+                for (Segment segment : segments.values()) {
+                    segment.live = 0;
+                }
+            }
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        File temp = new File(directory, SNAPSHOT_NAME + ".tmp");
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                out.writeInt(segment.number);
+                out.writeInt(segment.position);
+                out.writeLong(segment.live);
+            }
+            out.writeInt(indexes.length);
+            for (NodeIdLongMap index : indexes) {
+                out.writeInt(index.size());
+                final IOException[] error = new IOException[1];
+                index.visit(new NodeIdLongMap.Visitor() {
+                    public void visit(long msb, long lsb, long value) {
+                        try {
+                            out.writeLong(msb);
+                            out.writeLong(lsb);
+                            out.writeLong(value);
+                        } catch (IOException e) {
+                            error[0] = e;
+                        }
+                    }
+                });
+                if (error[0] != null) {
+                    throw error[0];
+                }
+            }
+        } finally {
+            out.close();
+        }
+        File file = new File(directory, SNAPSHOT_NAME);
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    private Segment createSegment(int number, int size) throws IOException {
+        File file = segmentFile(number);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            Segment segment = new Segment(number, raf, size);
+            segment.buffer.putInt(0, SEGMENT_MAGIC);
+            segment.buffer.putInt(4, 1);
+            segment.position = SEGMENT_HEADER_SIZE;
+            return segment;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(raf);
+            deleteFile(file);
+            throw e;
+        }
+    }
+
+    private Segment openSegment(int number, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            Segment segment = new Segment(number, raf, (int) raf.length());
+            if (segment.size < SEGMENT_HEADER_SIZE
+                    || segment.buffer.getInt(0) != SEGMENT_MAGIC) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            return segment;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(raf);
+            throw e;
+        }
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, String.format("%08d", number) + SEGMENT_SUFFIX);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn("Unable to delete {}", file);
+        }
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int segmentOffset(long location) {
+        return (int) location;
+    }
+
+    /**
+     * A memory-mapped segment file.
+     */
+    private static final class Segment {
+
+        final int number;
+
+        final RandomAccessFile file;
+
+        final MappedByteBuffer buffer;
+
+        final int size;
+
+        /** the end of the records */
+        int position;
+
+        /** the number of bytes of records referenced by the index */
+        long live;
+
+        Segment(int number, RandomAccessFile file, int size) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.size = size;
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+    }
+
+}
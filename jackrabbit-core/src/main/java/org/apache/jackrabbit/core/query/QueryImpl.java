@@ -20,6 +20,8 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_LANGUAGE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_STATEMENT;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.NT_QUERY;
 
+import java.util.Map;
+
 import javax.jcr.ItemExistsException;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
@@ -34,8 +36,12 @@ import javax.jcr.query.QueryResult;
 import javax.jcr.version.VersionException;
 
 import org.apache.jackrabbit.api.stats.RepositoryStatistics.Type;
+import org.apache.jackrabbit.core.query.lucene.QueryCursor;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.session.SessionOperation;
+import org.apache.jackrabbit.stats.QueryProfile;
+import org.apache.jackrabbit.stats.QueryProfileStat;
+import org.apache.jackrabbit.stats.QueryStatCore;
 import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.spi.commons.conversion.NameException;
@@ -98,6 +104,11 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     protected long offset = 0;
 
+    /**
+     * The time in nanoseconds it took to parse the statement.
+     */
+    private long parseTime;
+
     /**
      * {@inheritDoc}
      */
@@ -112,7 +123,9 @@ public class QueryImpl extends AbstractQueryImpl {
         this.language = language;
         this.handler = handler;
         this.node = node;
+        long time = System.nanoTime();
         this.query = handler.createExecutableQuery(sessionContext, statement, language);
+        parseTime = System.nanoTime() - time;
         setInitialized();
     }
 
@@ -124,28 +137,73 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     public QueryResult execute() throws RepositoryException {
         checkInitialized();
+        QueryProfile profile = startProfile();
         long time = System.nanoTime();
-        QueryResult result = sessionContext.getSessionState().perform(
-                new SessionOperation<QueryResult>() {
-                    public QueryResult perform(SessionContext context)
-                            throws RepositoryException {
-                        return query.execute(offset, limit);
-                    }
-
-                    public String toString() {
-                        return "query.execute(" + statement + ")";
-                    }
-                });
+        QueryResult result;
+        try {
+            result = sessionContext.getSessionState().perform(
+                    new SessionOperation<QueryResult>() {
+                        public QueryResult perform(SessionContext context)
+                                throws RepositoryException {
+                            return query.execute(offset, limit);
+                        }
+
+                        public String toString() {
+                            return "query.execute(" + statement + ")";
+                        }
+                    });
+        } finally {
+            if (profile != null) {
+                profile.end();
+            }
+        }
         time = System.nanoTime() - time;
-        final long timeMs = time / 1000000;
+        logQuery(time / 1000000, profile);
+        return result;
+    }
+
+    /**
+     * Starts to profile the execution of this query, if query statistics
+     * are enabled.
+     *
+     * @return the profile bound to the current thread or <code>null</code>.
+     */
+    protected QueryProfile startProfile() {
+        QueryStatCore queryStat = sessionContext.getRepositoryContext()
+                .getStatManager().getQueryStat();
+        if (!queryStat.isEnabled()) {
+            return null;
+        }
+        QueryProfile profile = QueryProfile.start(language, statement);
+        if (parseTime > 0) {
+            profile.addTime(QueryProfile.PARSE, parseTime);
+        }
+        return profile;
+    }
+
+    /**
+     * Records an execution of this query in the repository statistics and
+     * the query statistics. Slow queries are logged with their profile.
+     *
+     * @param timeMs  the execution time in milliseconds.
+     * @param profile the profile of the execution or <code>null</code>.
+     */
+    protected void logQuery(long timeMs, QueryProfile profile) {
         log.debug("executed in {} ms. ({})", timeMs, statement);
         RepositoryStatisticsImpl statistics = sessionContext
                 .getRepositoryContext().getRepositoryStatistics();
         statistics.getCounter(Type.QUERY_COUNT).incrementAndGet();
         statistics.getCounter(Type.QUERY_DURATION).addAndGet(timeMs);
-        sessionContext.getRepositoryContext().getStatManager().getQueryStat()
-                .logQuery(language, statement, timeMs);
-        return result;
+        QueryStatCore queryStat = sessionContext.getRepositoryContext()
+                .getStatManager().getQueryStat();
+        queryStat.logQuery(language, statement, timeMs);
+        if (profile != null) {
+            profile.setDuration(timeMs);
+            if (queryStat instanceof QueryProfileStat
+                    && ((QueryProfileStat) queryStat).logQueryProfile(profile)) {
+                log.info("Slow query: {}", profile);
+            }
+        }
     }
 
     /**
@@ -251,8 +309,103 @@ public class QueryImpl extends AbstractQueryImpl {
         this.offset = offset;
     }
 
+    /**
+     * Sets the cursor after which the result set starts. The cursor is
+     * obtained from the previous page of the result with
+     * {@link org.apache.jackrabbit.core.query.lucene.QueryResultImpl#getCursor()}.
+     * Unlike an offset, a cursor does not collect and skip the nodes before
+     * the page. This is a Jackrabbit specific extension.
+     *
+     * @param cursor the cursor or <code>null</code> to start with the first
+     *               node.
+     * @throws UnsupportedRepositoryOperationException if this query does not
+     *          support cursors.
+     */
+    public void setCursor(QueryCursor cursor)
+            throws UnsupportedRepositoryOperationException {
+        checkInitialized();
+        if (query instanceof org.apache.jackrabbit.core.query.lucene.AbstractQueryImpl) {
+            ((org.apache.jackrabbit.core.query.lucene.AbstractQueryImpl) query).setCursor(cursor);
+        } else if (cursor != null) {
+            throw new UnsupportedRepositoryOperationException(
+                    "Query cursor not supported by " + language + " queries");
+        }
+    }
+
+    /**
+     * Returns the number of nodes that match this query and are readable by
+     * the session. Unlike {@link QueryResult#getNodes()}, the nodes are not
+     * loaded and the offset and limit of this query are ignored. This is a
+     * Jackrabbit specific extension.
+     *
+     * @return the number of nodes.
+     * @throws UnsupportedRepositoryOperationException if this query does not
+     *          support counting.
+     * @throws RepositoryException if an error occurs.
+     */
+    public long getCount() throws RepositoryException {
+        checkInitialized();
+        final org.apache.jackrabbit.core.query.lucene.QueryImpl q = getLuceneQuery();
+        return sessionContext.getSessionState().perform(
+                new SessionOperation<Long>() {
+                    public Long perform(SessionContext context)
+                            throws RepositoryException {
+                        return q.count();
+                    }
+
+                    public String toString() {
+                        return "query.getCount(" + statement + ")";
+                    }
+                });
+    }
+
+    /**
+     * Returns the number of nodes that match this query and are readable by
+     * the session, grouped by the values of a property. A node with a
+     * multi-valued property is counted once for each of its distinct values.
+     * The nodes are not loaded and the offset and limit of this query are
+     * ignored. This is a Jackrabbit specific extension.
+     *
+     * @param propertyName the name of the property.
+     * @return the number of nodes by value, ordered by descending count.
+     * @throws UnsupportedRepositoryOperationException if this query does not
+     *          support facets.
+     * @throws RepositoryException if an error occurs.
+     */
+    public Map<String, Long> getFacets(final String propertyName)
+            throws RepositoryException {
+        checkInitialized();
+        final org.apache.jackrabbit.core.query.lucene.QueryImpl q = getLuceneQuery();
+        return sessionContext.getSessionState().perform(
+                new SessionOperation<Map<String, Long>>() {
+                    public Map<String, Long> perform(SessionContext context)
+                            throws RepositoryException {
+                        return q.facets(context.getQName(propertyName));
+                    }
+
+                    public String toString() {
+                        return "query.getFacets(" + statement + ", "
+                                + propertyName + ")";
+                    }
+                });
+    }
+
     //-----------------------------< internal >---------------------------------
 
+    /**
+     * @return the executable query if it is evaluated as a single lucene
+     *         query.
+     * @throws UnsupportedRepositoryOperationException if it is not.
+     */
+    private org.apache.jackrabbit.core.query.lucene.QueryImpl getLuceneQuery()
+            throws UnsupportedRepositoryOperationException {
+        if (query instanceof org.apache.jackrabbit.core.query.lucene.QueryImpl) {
+            return (org.apache.jackrabbit.core.query.lucene.QueryImpl) query;
+        }
+        throw new UnsupportedRepositoryOperationException(
+                "Counting not supported by " + language + " queries");
+    }
+
     /**
      * Sets the initialized flag.
      */
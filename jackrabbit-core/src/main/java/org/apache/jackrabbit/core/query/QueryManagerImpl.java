@@ -34,11 +34,18 @@ import javax.jcr.query.qom.QueryObjectModel;
 import javax.jcr.query.qom.QueryObjectModelFactory;
 
 import org.apache.jackrabbit.core.SearchManager;
+import org.apache.jackrabbit.commons.query.QueryObjectModelBuilderRegistry;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.session.SessionOperation;
+import org.apache.jackrabbit.core.value.ValueFactoryImpl;
+import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.query.qom.QueryObjectModelFactoryImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.QueryObjectModelTree;
+import org.apache.jackrabbit.stats.QueryCacheStat;
+import org.apache.jackrabbit.stats.QueryStatCore;
 
 /**
  * This class implements the {@link QueryManager} interface.
@@ -91,6 +98,15 @@ public class QueryManagerImpl implements QueryManager {
         return perform(new SessionOperation<Query>() {
             public Query perform(SessionContext context)
                     throws RepositoryException {
+                QueryTreeCache cache = getQueryTreeCache();
+                if (cache != null && Arrays.asList(QueryObjectModelBuilderRegistry
+                        .getSupportedLanguages()).contains(language)) {
+                    Query query = createCachedQueryObjectModel(
+                            cache, statement, language);
+                    if (query != null) {
+                        return query;
+                    }
+                }
                 QueryFactory qf = new QueryFactoryImpl(language);
                 return qf.createQuery(statement, language);
             }
@@ -189,6 +205,72 @@ public class QueryManagerImpl implements QueryManager {
 
     //---------------------------< internal >-----------------------------------
 
+    /**
+     * @return the cache for parsed queries of this workspace or
+     *         <code>null</code> if it cannot be used by this session.
+     */
+    private QueryTreeCache getQueryTreeCache() {
+        QueryHandler handler = searchMgr.getQueryHandler();
+        if (handler instanceof SearchIndex) {
+            return ((SearchIndex) handler).getQueryTreeCache(sessionContext);
+        }
+        return null;
+    }
+
+    /**
+     * Creates a query object model with a cached query object model tree.
+     * Statements that are not cached are parsed with the mappings of the
+     * namespace registry, so that the cached tree does not refer to this
+     * session.
+     *
+     * @param cache     the cache for parsed queries.
+     * @param statement the query statement.
+     * @param language  the query language.
+     * @return the query or <code>null</code> if the statement cannot be
+     *         parsed without this session.
+     * @throws RepositoryException if the query cannot be created.
+     */
+    private Query createCachedQueryObjectModel(
+            QueryTreeCache cache, String statement, final String language)
+            throws RepositoryException {
+        QueryObjectModelTree qomTree =
+            (QueryObjectModelTree) cache.get(language, statement);
+        QueryStatCore queryStat = sessionContext.getRepositoryContext()
+                .getStatManager().getQueryStat();
+        if (queryStat instanceof QueryCacheStat) {
+            ((QueryCacheStat) queryStat).logQueryCacheLookup(qomTree != null);
+        }
+        if (qomTree != null) {
+            return searchMgr.createQueryObjectModel(
+                    sessionContext, qomTree, language, null);
+        }
+        NamePathResolver resolver = new DefaultNamePathResolver(
+                sessionContext.getRepositoryContext().getNamespaceRegistry());
+        final QueryObjectModelTree[] parsed = new QueryObjectModelTree[1];
+        QueryObjectModelFactory qf = new QueryObjectModelFactoryImpl(resolver) {
+            @Override
+            protected QueryObjectModel createQuery(QueryObjectModelTree tree)
+                    throws RepositoryException {
+                parsed[0] = tree;
+                return searchMgr.createQueryObjectModel(
+                        sessionContext, tree, language, null);
+            }
+        };
+        Query query;
+        try {
+            query = new QOMQueryFactory(qf, new ValueFactoryImpl(
+                    resolver, sessionContext.getDataStore())).createQuery(
+                            statement, language);
+        } catch (RepositoryException e) {
+            // e.g. identifier based paths, parse with the session
+            return null;
+        }
+        if (parsed[0] != null) {
+            cache.put(language, statement, parsed[0]);
+        }
+        return query;
+    }
+
     /**
      * Performs the given session operation.
      */
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.jackrabbit.core.NamespaceRegistryImpl;
+import org.apache.jackrabbit.core.nodetype.NodeTypeRegistryListener;
+import org.apache.jackrabbit.spi.Name;
+
+/**
+ * <code>QueryTreeCache</code> keeps the parsed trees of recently created
+ * queries, keyed by query language and statement. Cached trees are shared
+ * by all sessions of a workspace and must not be modified.
+ * <p>
+ * Names in a statement are resolved with the namespace mappings at parse
+ * time. The cache must therefore only be used by sessions without local
+ * namespace mappings, and it is cleared whenever the namespace registry
+ * or a node type changes.
+ */
+public class QueryTreeCache implements NodeTypeRegistryListener {
+
+    /**
+     * The namespace registry of the repository.
+     */
+    private final NamespaceRegistryImpl nsReg;
+
+    /**
+     * The maximum number of cached trees.
+     */
+    private final int size;
+
+    /**
+     * The cached trees in access order.
+     */
+    private final Map<Object, Object> trees;
+
+    /**
+     * The modification count of the namespace registry when the cache was
+     * cleared the last time.
+     */
+    private long nsModCount;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param nsReg the namespace registry of the repository.
+     * @param size  the maximum number of cached trees.
+     */
+    public QueryTreeCache(NamespaceRegistryImpl nsReg, final int size) {
+        this.nsReg = nsReg;
+        this.size = size;
+        this.trees = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> e) {
+                return size() > size;
+            }
+        };
+        this.nsModCount = nsReg.getModificationCount();
+    }
+
+    /**
+     * Returns the cached tree for a statement.
+     *
+     * @param language  the query language.
+     * @param statement the query statement.
+     * @return the tree or <code>null</code> if none is cached.
+     */
+    public synchronized Object get(String language, String statement) {
+        checkNamespaces();
+        return trees.get(Arrays.asList(language, statement));
+    }
+
+    /**
+     * Adds the tree of a statement to the cache.
+     *
+     * @param language  the query language.
+     * @param statement the query statement.
+     * @param tree      the parsed tree.
+     */
+    public synchronized void put(String language, String statement, Object tree) {
+        checkNamespaces();
+        trees.put(Arrays.asList(language, statement), tree);
+    }
+
+    /**
+     * @return the maximum number of cached trees.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Removes all trees from the cache.
+     */
+    public synchronized void clear() {
+        trees.clear();
+    }
+
+    /**
+     * Clears the cache if namespace mappings changed since it was cleared
+     * the last time.
+     */
+    private void checkNamespaces() {
+        long count = nsReg.getModificationCount();
+        if (count != nsModCount) {
+            trees.clear();
+            nsModCount = count;
+        }
+    }
+
+    //-----------------------------------------< NodeTypeRegistryListener >
+
+    public void nodeTypeRegistered(Name ntName) {
+        clear();
+    }
+
+    public void nodeTypeReRegistered(Name ntName) {
+        clear();
+    }
+
+    public void nodeTypesUnregistered(Collection<Name> names) {
+        clear();
+    }
+}
@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -117,6 +118,23 @@ abstract class AbstractIndex {
      */
     private boolean isExisting;
 
+    /**
+     * Flag that indicates whether read-only readers are opened from the
+     * index writer instead of the directory.
+     */
+    private boolean nearRealTime;
+
+    /**
+     * The most recent near real-time reader or <code>null</code> if there is
+     * none. This index holds one reference on the reader.
+     */
+    private IndexReader nrtReader;
+
+    /**
+     * Incremented whenever a new near real-time reader is opened.
+     */
+    private long nrtVersion;
+
     /**
      * Constructs an index with an <code>analyzer</code> and a
      * <code>directory</code>.
@@ -246,6 +264,7 @@ abstract class AbstractIndex {
      */
     protected synchronized CommittableIndexReader getIndexReader() throws IOException {
         if (indexWriter != null) {
+            closeNearRealTimeReader();
             indexWriter.close();
             log.debug("closing IndexWriter.");
             indexWriter = null;
@@ -282,6 +301,9 @@ abstract class AbstractIndex {
      */
     synchronized ReadOnlyIndexReader getReadOnlyIndexReader(boolean initCache)
             throws IOException {
+        if (nearRealTime) {
+            return getNearRealTimeReader(initCache);
+        }
         // get current modifiable index reader
         CommittableIndexReader modifiableReader = getIndexReader();
         long modCount = modifiableReader.getModificationCount();
@@ -320,6 +342,96 @@ abstract class AbstractIndex {
         return readOnlyReader;
     }
 
+    /**
+     * Returns a read-only index reader on top of a near real-time reader
+     * obtained from the index writer. The near real-time reader is reopened
+     * when the shared reader was invalidated and the writer has changes.
+     *
+     * @param initCache if the caches in the index reader should be initialized
+     *          before the index reader is returned.
+     * @return a read-only index reader.
+     * @throws IOException if an error occurs while obtaining the index reader.
+     */
+    private ReadOnlyIndexReader getNearRealTimeReader(boolean initCache)
+            throws IOException {
+        if (readOnlyReader != null) {
+            readOnlyReader.acquire();
+            return readOnlyReader;
+        }
+        IndexWriter writer = getIndexWriter();
+        if (nrtReader == null) {
+            nrtReader = IndexReader.open(writer, true);
+            nrtVersion++;
+        } else {
+            IndexReader reader = IndexReader.openIfChanged(nrtReader, writer, true);
+            if (reader != null) {
+                nrtReader.decRef();
+                nrtReader = reader;
+                nrtVersion++;
+            }
+        }
+        BitSet deleted = new BitSet();
+        if (nrtReader.hasDeletions()) {
+            for (int i = 0; i < nrtReader.maxDoc(); i++) {
+                if (nrtReader.isDeleted(i)) {
+                    deleted.set(i);
+                }
+            }
+        }
+        // the shared reader closes its own reference
+        nrtReader.incRef();
+        sharedReader = new SharedIndexReader(
+                new CachingIndexReader(nrtReader, cache, initCache));
+        readOnlyReader = new ReadOnlyIndexReader(sharedReader, deleted, nrtVersion);
+        readOnlyReader.acquire();
+        return readOnlyReader;
+    }
+
+    /**
+     * Releases the reference on the near real-time reader, which must not
+     * be reopened once the index writer is closed.
+     *
+     * @throws IOException if an error occurs while closing the reader.
+     */
+    private void closeNearRealTimeReader() throws IOException {
+        if (nrtReader != null) {
+            nrtReader.decRef();
+            nrtReader = null;
+        }
+    }
+
+    /**
+     * Enables or disables near real-time readers. When enabled, read-only
+     * index readers are opened from the index writer, which is kept open
+     * across updates. Documents must then be deleted with
+     * {@link #deleteDocuments(Term)}.
+     *
+     * @param b <code>true</code> to enable near real-time readers.
+     */
+    void setNearRealTime(boolean b) {
+        this.nearRealTime = b;
+    }
+
+    /**
+     * @return <code>true</code> if near real-time readers are enabled.
+     */
+    boolean isNearRealTime() {
+        return nearRealTime;
+    }
+
+    /**
+     * Deletes documents with the index writer and invalidates the shared
+     * reader. Unlike {@link #removeDocument(Term)} this does not close the
+     * index writer.
+     *
+     * @param idTerm the id term of the documents to remove.
+     * @throws IOException if an error occurs while removing the documents.
+     */
+    synchronized void deleteDocuments(Term idTerm) throws IOException {
+        getIndexWriter().deleteDocuments(idTerm);
+        invalidateSharedReader();
+    }
+
     /**
      * Returns a read-only index reader, that can be used concurrently with
      * other threads writing to this index. The returned index reader is
@@ -387,6 +499,7 @@ abstract class AbstractIndex {
         if (optimize) {
             IndexWriter writer = getIndexWriter();
             writer.forceMerge(1, true);
+            closeNearRealTimeReader();
             writer.close();
             indexWriter = null;
         }
@@ -411,6 +524,11 @@ abstract class AbstractIndex {
      * Releases all potentially held index writer and readers.
      */
     protected void releaseWriterAndReaders() {
+        try {
+            closeNearRealTimeReader();
+        } catch (IOException e) {
+            log.warn("Exception closing index reader: " + e.toString());
+        }
         if (indexWriter != null) {
             try {
                 indexWriter.close();
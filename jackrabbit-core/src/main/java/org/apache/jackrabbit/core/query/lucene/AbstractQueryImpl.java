@@ -51,6 +51,11 @@ public abstract class AbstractQueryImpl implements ExecutableQuery {
      */
     private boolean documentOrder = true;
 
+    /**
+     * The cursor after which the result starts, or <code>null</code>.
+     */
+    private QueryCursor cursor;
+
     protected final PerQueryCache cache = new PerQueryCache();
 
     /**
@@ -95,6 +100,24 @@ public abstract class AbstractQueryImpl implements ExecutableQuery {
         this.documentOrder = documentOrder;
     }
 
+    /**
+     * @return the cursor after which the result starts, or <code>null</code>
+     *         if the result starts with the first node.
+     */
+    public QueryCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Sets the cursor after which the result starts.
+     *
+     * @param cursor the cursor or <code>null</code> to start with the first
+     *               node.
+     */
+    public void setCursor(QueryCursor cursor) {
+        this.cursor = cursor;
+    }
+
     /**
      * @return the query object model factory.
      * @throws RepositoryException if an error occurs.
@@ -77,12 +77,22 @@ class CachingIndexReader extends FilterIndexReader {
     /**
      * Cache of nodes parent relation. If an entry in the array is >= 0,
      * then that means the node with the document number = array-index has the
-     * node with the value at that position as parent.
+     * node with the value at that position as parent. <code>null</code> if
+     * the {@link #hierarchy} file is used instead.
      */
     private final int[] inSegmentParents;
 
+    /**
+     * The memory mapped ids and parents of the documents in this index or
+     * <code>null</code> if the index does not have a hierarchy cache file yet.
+     */
+    private final HierarchyCacheFile hierarchy;
+
     /**
      * Cache of nodes parent relation that point to a foreign index segment.
+     * If the {@link #hierarchy} file is used, this only contains the foreign
+     * parents that have been resolved and the parents that changed since the
+     * file was written.
      */
     private final Map<Integer, DocId> foreignParentDocIds = new ConcurrentHashMap<Integer, DocId>();
 
@@ -130,16 +140,24 @@ class CachingIndexReader extends FilterIndexReader {
             throws IOException {
         super(delegatee);
         this.cache = cache;
-        this.inSegmentParents = new int[delegatee.maxDoc()];
-        Arrays.fill(this.inSegmentParents, -1);
+        this.hierarchy = HierarchyCacheFile.open(
+                delegatee.directory(), delegatee.maxDoc());
+        if (hierarchy == null) {
+            this.inSegmentParents = new int[delegatee.maxDoc()];
+            Arrays.fill(this.inSegmentParents, -1);
+        } else {
+            this.inSegmentParents = null;
+        }
         this.shareableNodes = initShareableNodes(delegatee);
         this.cacheInitializer = new CacheInitializer(delegatee);
-        if (initCache) {
+        if (initCache && hierarchy == null) {
             cacheInitializer.run();
         }
         // limit cache to 1% of maxDoc(), but at least 10.
+        // the ids are read from the hierarchy file if there is one
+        int cacheSize = hierarchy == null ? delegatee.maxDoc() / 100 : 0;
         this.docNumber2id = Collections.synchronizedMap(
-                new LRUMap(Math.max(10, delegatee.maxDoc() / 100)));
+                new LRUMap(Math.max(10, cacheSize)));
         this.termDocsCache = new TermDocsCache(delegatee, FieldNames.PROPERTIES);
     }
 
@@ -170,11 +188,22 @@ class CachingIndexReader extends FilterIndexReader {
     DocId getParent(int n, BitSet deleted) throws IOException {
         DocId parent;
         boolean existing = false;
-        int parentDocNum = inSegmentParents[n];
-        if (parentDocNum != -1) {
-            parent = DocId.create(parentDocNum);
-        } else {
+        if (hierarchy != null) {
             parent = foreignParentDocIds.get(n);
+            if (parent == null) {
+                parent = hierarchy.getParent(n);
+                if (parent != null && hierarchy.hasForeignParent(n)) {
+                    // keep the instance, it remembers where the parent is
+                    foreignParentDocIds.put(n, parent);
+                }
+            }
+        } else {
+            int parentDocNum = inSegmentParents[n];
+            if (parentDocNum != -1) {
+                parent = DocId.create(parentDocNum);
+            } else {
+                parent = foreignParentDocIds.get(n);
+            }
         }
 
         if (parent != null) {
@@ -224,7 +253,10 @@ class CachingIndexReader extends FilterIndexReader {
             }
 
             // finally put to cache
-            if (plainDocId != -1) {
+            if (inSegmentParents == null) {
+                // the hierarchy file is read-only
+                foreignParentDocIds.put(n, parent);
+            } else if (plainDocId != -1) {
                 // PlainDocId
                 inSegmentParents[n] = plainDocId;
             } else {
@@ -264,8 +296,8 @@ class CachingIndexReader extends FilterIndexReader {
     }
 
     /**
-     * Uses the {@link #docNumber2id} cache for document lookups that are only
-     * interested in the {@link FieldSelectors#UUID}.
+     * Uses the {@link #hierarchy} file or the {@link #docNumber2id} cache for
+     * document lookups that are only interested in the {@link FieldSelectors#UUID}.
      *
      * @param n the document number.
      * @param fieldSelector the field selector.
@@ -277,7 +309,13 @@ class CachingIndexReader extends FilterIndexReader {
             throws CorruptIndexException, IOException {
         if (fieldSelector == FieldSelectors.UUID) {
             Document doc;
-            NodeId id = docNumber2id.get(n);
+            NodeId id = null;
+            if (hierarchy != null) {
+                id = hierarchy.getId(n);
+            }
+            if (id == null) {
+                id = docNumber2id.get(n);
+            }
             if (id == null) {
                 doc = super.document(n, fieldSelector);
                 id = new NodeId(doc.get(FieldNames.UUID));
@@ -295,7 +333,8 @@ class CachingIndexReader extends FilterIndexReader {
     /**
      * If the field of <code>term</code> is {@link FieldNames#UUID} this
      * <code>CachingIndexReader</code> returns a <code>TermDocs</code> instance
-     * with a cached document id. If <code>term</code> has any other field
+     * with a cached document id, which is looked up in the {@link #hierarchy}
+     * file if there is one. If <code>term</code> has any other field
      * the call is delegated to the base <code>IndexReader</code>.<br/>
      * If <code>term</code> is for a {@link FieldNames#UUID} field and this
      * <code>CachingIndexReader</code> does not have such a document,
@@ -307,6 +346,15 @@ class CachingIndexReader extends FilterIndexReader {
      */
     public TermDocs termDocs(Term term) throws IOException {
         if (term != null && term.field() == FieldNames.UUID) {
+            // look up the sorted ids in the hierarchy file if we have one
+            if (hierarchy != null) {
+                int doc = hierarchy.getDocument(new NodeId(term.text()), this);
+                if (doc != -1) {
+                    return new SingleTermDocs(doc);
+                } else {
+                    return EmptyTermDocs.INSTANCE;
+                }
+            }
             // check cache if we have one
             if (cache != null) {
                 DocNumberCache.Entry e = cache.get(term.text());
@@ -374,7 +422,9 @@ class CachingIndexReader extends FilterIndexReader {
     private class CacheInitializer implements Runnable {
 
         /**
-         * The {@link #inSegmentParents} is persisted using this filename.
+         * The {@link #inSegmentParents} is persisted using this filename if
+         * the index is not stored in the file system and therefore cannot
+         * have a {@link HierarchyCacheFile}.
          */
         private static final String FILE_CACHE_NAME_ARRAY = "cache.inSegmentParents";
 
@@ -414,7 +464,10 @@ class CachingIndexReader extends FilterIndexReader {
                     // immediately return when stop is requested
                     return;
                 }
-                boolean initCacheFromFile = loadCacheFromFile();
+                // indexes in the file system use a hierarchy cache file instead
+                boolean initCacheFromFile =
+                        !HierarchyCacheFile.isSupported(reader.directory())
+                        && loadCacheFromFile();
                 if (!initCacheFromFile) {
                     // file-based cache is not available, load from the
                     // repository
@@ -459,107 +512,134 @@ class CachingIndexReader extends FilterIndexReader {
             double foreignParents = 0;
             long time = System.currentTimeMillis();
 
-            // initialize in multiple passes with
-            // a fixed number of nodes at a time
-            final Term[] startUUID = new Term[]{TermFactory.createUUIDTerm("")};
+            HierarchyCacheFile.Writer writer =
+                    HierarchyCacheFile.create(reader.directory(), reader.maxDoc());
+            try {
+                // initialize in multiple passes with
+                // a fixed number of nodes at a time
+                final Term[] startUUID = new Term[]{TermFactory.createUUIDTerm("")};
 
-            for (;;) {
-                final Map<Object, NodeInfo> docs = new HashMap<Object, NodeInfo>();
-                final Map<NodeId, Integer> parents = new HashMap<NodeId, Integer>();
+                for (;;) {
+                    final Map<Object, NodeInfo> docs = new HashMap<Object, NodeInfo>();
+                    final Map<NodeId, Integer> parents = new HashMap<NodeId, Integer>();
 
-                if (startUUID[0].text().length() != 0) {
-                    // force reading the next uuid after startUUID
-                    startUUID[0] = TermFactory.createUUIDTerm(startUUID[0].text() + "_");
-                }
-                // read UUIDs
-                collectTermDocs(reader, startUUID[0], new TermDocsCollector() {
-                    public boolean collect(Term term, TermDocs tDocs) throws IOException {
-                        // remember start term for next batch
-                        startUUID[0] = term;
-                        if (docs.size() >= MAX_CACHE_INIT_BATCH_SIZE) {
-                            return false;
+                    if (startUUID[0].text().length() != 0) {
+                        // force reading the next uuid after startUUID
+                        startUUID[0] = TermFactory.createUUIDTerm(startUUID[0].text() + "_");
+                    }
+                    // read UUIDs
+                    collectTermDocs(reader, startUUID[0], new TermDocsCollector() {
+                        public boolean collect(Term term, TermDocs tDocs) throws IOException {
+                            // remember start term for next batch
+                            startUUID[0] = term;
+                            if (docs.size() >= MAX_CACHE_INIT_BATCH_SIZE) {
+                                return false;
+                            }
+                            NodeId id = new NodeId(term.text());
+                            while (tDocs.next()) {
+                                int doc = tDocs.doc();
+                                // skip shareable nodes
+                                if (!shareableNodes.get(doc)) {
+                                    NodeInfo info = new NodeInfo(doc, id);
+                                    docs.put(doc, info);
+                                }
+                            }
+                            return true;
                         }
-                        NodeId id = new NodeId(term.text());
-                        while (tDocs.next()) {
-                            int doc = tDocs.doc();
-                            // skip shareable nodes
-                            if (!shareableNodes.get(doc)) {
-                                NodeInfo info = new NodeInfo(doc, id);
-                                docs.put(doc, info);
+                    });
+
+                    if (docs.isEmpty()) {
+                        // no more nodes to initialize, persist cache to file
+                        if (writer == null) {
+                            saveCacheToFile();
+                        } else {
+                            writeIds(reader, writer);
+                            if (stopRequested) {
+                                return;
                             }
+                            writer.commit();
+                            writer = null;
                         }
-                        return true;
+                        break;
                     }
-                });
 
-                if (docs.isEmpty()) {
-                    // no more nodes to initialize, persist cache to file
-                    saveCacheToFile();
-                    break;
-                }
-
-                // read PARENTs (full scan)
-                collectTermDocs(reader, new Term(FieldNames.PARENT, "0"), new TermDocsCollector() {
-                    public boolean collect(Term term, TermDocs tDocs) throws IOException {
-                        NodeId id = new NodeId(term.text());
-                        while (tDocs.next()) {
-                            Integer docId = tDocs.doc();
-                            NodeInfo info = docs.get(docId);
-                            if (info == null) {
-                                // shareable node, see above
-                                // or cache init is batched
-                            } else {
-                                info.parent = id;
-                                docs.remove(docId);
-                                docs.put(info.id, info);
-                                parents.put(id, null);
+                    // read PARENTs (full scan)
+                    collectTermDocs(reader, new Term(FieldNames.PARENT, "0"), new TermDocsCollector() {
+                        public boolean collect(Term term, TermDocs tDocs) throws IOException {
+                            NodeId id = new NodeId(term.text());
+                            while (tDocs.next()) {
+                                Integer docId = tDocs.doc();
+                                NodeInfo info = docs.get(docId);
+                                if (info == null) {
+                                    // shareable node, see above
+                                    // or cache init is batched
+                                } else {
+                                    info.parent = id;
+                                    docs.remove(docId);
+                                    docs.put(info.id, info);
+                                    parents.put(id, null);
+                                }
                             }
+                            return true;
                         }
-                        return true;
-                    }
-                });
-
-                // scan UUIDs again to get document numbers for parents
-                collectTermDocs(reader, TermFactory.createUUIDTerm(""), new TermDocsCollector() {
-                    public boolean collect(Term term, TermDocs tDocs) throws IOException {
-                        NodeId id = new NodeId(term.text());
-                        while (tDocs.next()) {
-                            int doc = tDocs.doc();
-                            if (parents.containsKey(id)) {
-                                parents.put(id, doc);
+                    });
+
+                    // scan UUIDs again to get document numbers for parents
+                    collectTermDocs(reader, TermFactory.createUUIDTerm(""), new TermDocsCollector() {
+                        public boolean collect(Term term, TermDocs tDocs) throws IOException {
+                            NodeId id = new NodeId(term.text());
+                            while (tDocs.next()) {
+                                int doc = tDocs.doc();
+                                if (parents.containsKey(id)) {
+                                    parents.put(id, doc);
+                                }
                             }
+                            return true;
                         }
-                        return true;
-                    }
-                });
+                    });
 
-                if (stopRequested) {
-                    return;
-                }
+                    if (stopRequested) {
+                        return;
+                    }
 
-                for (NodeInfo info : docs.values()) {
-                    int parentDocId = -1;
-                    NodeInfo parent = docs.get(info.parent);
-                    if (parent != null) {
-                        parentDocId = parent.docId;
-                    } else {
-                        Integer docId = parents.get(info.parent);
-                        if (docId != null) {
-                            parentDocId = docId;
+                    for (NodeInfo info : docs.values()) {
+                        int parentDocId = -1;
+                        NodeInfo parent = docs.get(info.parent);
+                        if (parent != null) {
+                            parentDocId = parent.docId;
+                        } else {
+                            Integer docId = parents.get(info.parent);
+                            if (docId != null) {
+                                parentDocId = docId;
+                            }
+                        }
+                        if (parentDocId != -1) {
+                            inSegmentParents[info.docId] = parentDocId;
+                            if (writer != null) {
+                                writer.setParent(info.docId, parentDocId);
+                            }
+                        } else if (info.parent != null) {
+                            foreignParents++;
+                            foreignParentDocIds.put(info.docId, DocId.create(info.parent));
+                            if (writer != null) {
+                                writer.setForeignParent(info.docId, info.parent);
+                            }
+                        } else if (shareableNodes.get(info.docId)) {
+                            Document doc = reader.document(info.docId, FieldSelectors.UUID_AND_PARENT);
+                            foreignParentDocIds.put(info.docId, DocId.create(doc.getValues(FieldNames.PARENT)));
+                        } else {
+                            // no parent -> root node
+                            foreignParentDocIds.put(info.docId, DocId.NULL);
+                            if (writer != null) {
+                                writer.setRoot(info.docId);
+                            }
                         }
                     }
-                    if (parentDocId != -1) {
-                        inSegmentParents[info.docId] = parentDocId;
-                    } else if (info.parent != null) {
-                        foreignParents++;
-                        foreignParentDocIds.put(info.docId, DocId.create(info.parent));
-                    } else if (shareableNodes.get(info.docId)) {
-                        Document doc = reader.document(info.docId, FieldSelectors.UUID_AND_PARENT);
-                        foreignParentDocIds.put(info.docId, DocId.create(doc.getValues(FieldNames.PARENT)));
-                    } else {
-                        // no parent -> root node
-                        foreignParentDocIds.put(info.docId, DocId.NULL);
-                    }
+                }
+            } finally {
+                if (writer != null) {
+                    // not completed
+                    writer.abort();
                 }
             }
 
@@ -579,6 +659,28 @@ class CachingIndexReader extends FilterIndexReader {
             }
         }
 
+        /**
+         * Adds the ids of all documents to a hierarchy cache file, in the
+         * order of the {@link FieldNames#UUID} terms.
+         *
+         * @param reader the index reader.
+         * @param writer the writer of the hierarchy cache file.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private void writeIds(IndexReader reader,
+                              final HierarchyCacheFile.Writer writer)
+                throws IOException {
+            collectTermDocs(reader, TermFactory.createUUIDTerm(""), new TermDocsCollector() {
+                public boolean collect(Term term, TermDocs tDocs) throws IOException {
+                    NodeId id = new NodeId(term.text());
+                    while (tDocs.next()) {
+                        writer.addId(tDocs.doc(), id);
+                    }
+                    return true;
+                }
+            });
+        }
+
         /**
          * Collects term docs for a given start term. All terms with the same
          * field as <code>start</code> are enumerated.
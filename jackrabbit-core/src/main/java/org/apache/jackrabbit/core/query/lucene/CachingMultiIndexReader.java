@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.security.authorization.SubtreeReadPermissions;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
@@ -25,6 +26,7 @@ import org.apache.lucene.index.IndexReader;
 import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 /**
  * Extends a <code>MultiReader</code> with support for cached <code>TermDocs</code>
@@ -56,6 +58,22 @@ public final class CachingMultiIndexReader
      */
     private int refCount = 1;
 
+    /**
+     * The maximum number of read permission filters kept per reader.
+     */
+    private static final int MAX_READABLE_DOCS = 16;
+
+    /**
+     * Read permission filters by permission key. Evicts the least recently
+     * used filter, which also removes filters of outdated permission keys.
+     */
+    private final Map<Object, FilterHolder> readableDocs =
+        new LinkedHashMap<Object, FilterHolder>(MAX_READABLE_DOCS, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Object, FilterHolder> e) {
+                return size() > MAX_READABLE_DOCS;
+            }
+        };
+
     /**
      * Creates a new <code>CachingMultiIndexReader</code> based on sub readers.
      *
@@ -96,6 +114,37 @@ public final class CachingMultiIndexReader
         return id.applyOffset(starts[i]);
     }
 
+    /**
+     * Returns the filter for the documents of this reader that may be
+     * readable with the given permissions. The filter is computed once per
+     * permission key, without blocking queries with other permission keys.
+     *
+     * @param permissions the read permissions.
+     * @param nsMappings the namespace mappings of the index.
+     * @return the read permission filter for this reader.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    ReadPermissionFilter getReadPermissionFilter(SubtreeReadPermissions permissions,
+                                                 NamespaceMappings nsMappings)
+            throws IOException {
+        Object key = permissions.getReadPermissionKey();
+        FilterHolder holder;
+        synchronized (readableDocs) {
+            holder = readableDocs.get(key);
+            if (holder == null) {
+                holder = new FilterHolder();
+                readableDocs.put(key, holder);
+            }
+        }
+        synchronized (holder) {
+            if (holder.filter == null) {
+                holder.filter = ReadPermissionFilter.compute(
+                        this, permissions, nsMappings);
+            }
+            return holder.filter;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -231,4 +280,16 @@ public final class CachingMultiIndexReader
             this.offset = offset;
         }
     }
+
+    /**
+     * Holds the read permission filter of a permission key, which is computed
+     * while holding the lock of the holder.
+     */
+    private static final class FilterHolder {
+
+        /**
+         * The filter, or <code>null</code> if not computed yet.
+         */
+        private ReadPermissionFilter filter;
+    }
 }
@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.query.lucene;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.query.lucene.hits.AbstractHitCollector;
+import org.apache.jackrabbit.core.query.lucene.hits.CompressedBitSet;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Explanation;
@@ -35,7 +36,6 @@ import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import java.io.IOException;
-import java.util.BitSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -419,9 +419,9 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
         private final HierarchyResolver hResolver;
 
         /**
-         * BitSet storing the id's of selected documents
+         * Compressed set storing the id's of selected documents
          */
-        private final BitSet contextHits;
+        private final CompressedBitSet contextHits;
 
         /**
          * Set <code>true</code> once the context hits have been calculated.
@@ -460,8 +460,7 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
                                            HierarchyResolver hResolver) {
             super(similarity);
             this.hResolver = hResolver;
-            // todo reuse BitSets?
-            this.contextHits = new BitSet(reader.maxDoc());
+            this.contextHits = new CompressedBitSet();
         }
 
         @Override
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.spi.commons.conversion.NameException;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * <code>Facets</code> counts the values of a property for a set of
+ * documents. The values of the documents are looked up with the
+ * {@link SharedFieldCache.TermOrdinals} of the index segments, which are
+ * computed once per segment and property. Nodes are not loaded.
+ */
+final class Facets {
+
+    /**
+     * Orders facet values by descending count.
+     */
+    private static final Comparator<Map.Entry<String, Long>> BY_COUNT =
+        new Comparator<Map.Entry<String, Long>>() {
+            public int compare(Map.Entry<String, Long> e1,
+                               Map.Entry<String, Long> e2) {
+                int c = e2.getValue().compareTo(e1.getValue());
+                if (c == 0) {
+                    c = e1.getKey().compareTo(e2.getKey());
+                }
+                return c;
+            }
+        };
+
+    /**
+     * Resolves the names and paths as stored in the index.
+     */
+    private final NamePathResolver indexResolver;
+
+    /**
+     * Resolves the names and paths of the returned values.
+     */
+    private final NamePathResolver resolver;
+
+    /**
+     * The counts by value.
+     */
+    private final Map<String, Long> counts = new HashMap<String, Long>();
+
+    /**
+     * Creates a new facet counter.
+     *
+     * @param nsMappings the namespace mappings of the index.
+     * @param resolver   the resolver for the returned values.
+     */
+    Facets(NamespaceMappings nsMappings, NamePathResolver resolver) {
+        this.indexResolver = NamePathResolverImpl.create(nsMappings);
+        this.resolver = resolver;
+    }
+
+    /**
+     * Counts the values of the given documents.
+     *
+     * @param reader the index reader as returned by
+     *               {@link SearchIndex#getIndexReader(boolean)}.
+     * @param docs   the documents to count.
+     * @param prefix the property name as term prefix.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    void count(IndexReader reader, OpenBitSet docs, String prefix)
+            throws IOException {
+        if (reader instanceof JackrabbitIndexReader) {
+            reader = (IndexReader) ((JackrabbitIndexReader) reader).getBaseReader();
+        }
+        count(reader, 0, docs, prefix);
+    }
+
+    /**
+     * @return the counts by value, ordered by descending count.
+     */
+    Map<String, Long> getCounts() {
+        List<Map.Entry<String, Long>> entries =
+            new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+        Collections.sort(entries, BY_COUNT);
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> e : entries) {
+            result.put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Counts the values of the documents of <code>reader</code>, which
+     * starts at document number <code>offset</code> in <code>docs</code>.
+     */
+    private void count(IndexReader reader, int offset,
+                       OpenBitSet docs, String prefix) throws IOException {
+        if (reader instanceof MultiIndexReader) {
+            for (IndexReader r : ((MultiIndexReader) reader).getIndexReaders()) {
+                count(r, offset, docs, prefix);
+                offset += r.maxDoc();
+            }
+            return;
+        }
+        int end = offset + reader.maxDoc();
+        int doc = docs.nextSetBit(offset);
+        if (doc < 0 || doc >= end) {
+            return;
+        }
+        SharedFieldCache.TermOrdinals ords = SharedFieldCache.INSTANCE
+                .getTermOrdinals(reader, FieldNames.PROPERTIES, prefix);
+        int[] c = new int[ords.size()];
+        for (; doc >= 0 && doc < end; doc = docs.nextSetBit(doc + 1)) {
+            ords.count(doc - offset, c);
+        }
+        for (int ord = 0; ord < c.length; ord++) {
+            if (c[ord] > 0) {
+                String value = getValue(ords.getTerm(ord), ords.getType(ord));
+                Long count = counts.get(value);
+                counts.put(value, count == null ? c[ord] : count + c[ord]);
+            }
+        }
+    }
+
+    /**
+     * Returns the JCR string representation of a value as read from the
+     * index.
+     *
+     * @param value the value as read from the index.
+     * @param type  the property type.
+     * @return the string representation of the value.
+     */
+    private String getValue(String value, int type) {
+        try {
+            switch (type) {
+                case PropertyType.DATE:
+                    Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                    c.setTimeInMillis(DateField.stringToTime(value));
+                    return ISO8601.format(c);
+                case PropertyType.LONG:
+                    return String.valueOf(LongField.stringToLong(value));
+                case PropertyType.DOUBLE:
+                    return String.valueOf(DoubleField.stringToDouble(value));
+                case PropertyType.DECIMAL:
+                    return DecimalField.stringToDecimal(value).toString();
+                case PropertyType.NAME:
+                    return resolver.getJCRName(indexResolver.getQName(value));
+                case PropertyType.PATH:
+                    return resolver.getJCRPath(indexResolver.getQPath(value));
+                default:
+                    return value;
+            }
+        } catch (NameException e) {
+            return value;
+        } catch (NamespaceException e) {
+            return value;
+        }
+    }
+}
@@ -63,6 +63,22 @@ abstract public class FieldComparatorBase extends FieldComparator {
 
     @Override
     public int compareBottom(int doc) throws IOException {
+        return compareBottom(bottom, doc);
+    }
+
+    /**
+     * Compares the bottom value with the value of a document. Sub classes
+     * may override this method to compare with the value of the document
+     * without creating a <code>Comparable</code> for it.
+     *
+     * @param bottom the bottom value.
+     * @param doc    id of the document
+     * @return the result of {@link #compare(Comparable, Comparable)} for
+     *         the bottom value and the value of the document.
+     * @throws IOException if the value of the document cannot be read.
+     */
+    protected int compareBottom(Comparable<?> bottom, int doc)
+            throws IOException {
         return compare(bottom, sortValue(doc));
     }
 
@@ -93,6 +109,11 @@ abstract public class FieldComparatorBase extends FieldComparator {
         return Util.compare(val1, val2);
     }
 
+    @Override
+    public int compareValues(Object first, Object second) {
+        return compare((Comparable<?>) first, (Comparable<?>) second);
+    }
+
     @Override
     public void copy(int slot, int doc) throws IOException {
         setValue(slot, sortValue(doc));
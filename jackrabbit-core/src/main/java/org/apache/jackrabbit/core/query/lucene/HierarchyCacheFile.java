@@ -0,0 +1,375 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The node id and the parent of every document in an index, stored in a file
+ * in the index directory and mapped into memory when the index is opened.
+ * The documents of a persistent index are never renumbered, documents are
+ * only deleted, so the file is written once and stays valid as long as the
+ * index exists.
+ * <p>
+ * The file starts with a header of four ints: a magic number, the version,
+ * the number of documents and the number of ids. It is followed by one record
+ * per document with the most and least significant bits of the node id, of
+ * the parent id and an int that describes the parent:
+ * <ul>
+ * <li><code>n &gt; 0</code>: the parent is document <code>n - 1</code></li>
+ * <li>{@link #UNKNOWN}: the parent is not known, e.g. of a shareable node</li>
+ * <li>{@link #FOREIGN}: the parent is in another index</li>
+ * <li>{@link #ROOT}: the document is the root node</li>
+ * </ul>
+ * At the end the document numbers are listed in the order of their node ids,
+ * which allows to look up a document by its node id.
+ */
+class HierarchyCacheFile {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(HierarchyCacheFile.class);
+
+    /**
+     * The name of the file in the index directory.
+     */
+    static final String FILE_NAME = "cache.hierarchy";
+
+    private static final int MAGIC = 0x4a524843;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int RECORD_SIZE = 36;
+
+    private static final int UNKNOWN = 0;
+
+    private static final int FOREIGN = -1;
+
+    private static final int ROOT = -2;
+
+    /**
+     * The mapped file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The number of documents.
+     */
+    private final int maxDoc;
+
+    /**
+     * The number of document numbers that are sorted by node id.
+     */
+    private final int numIds;
+
+    private HierarchyCacheFile(ByteBuffer buffer, int maxDoc, int numIds) {
+        this.buffer = buffer;
+        this.maxDoc = maxDoc;
+        this.numIds = numIds;
+    }
+
+    /**
+     * @param directory an index directory.
+     * @return <code>true</code> if the index can have a hierarchy cache file.
+     */
+    static boolean isSupported(Directory directory) {
+        return FSDirectoryManager.getFile(directory) != null;
+    }
+
+    /**
+     * Maps the hierarchy cache file of an index.
+     *
+     * @param directory the index directory.
+     * @param maxDoc the number of documents in the index.
+     * @return the hierarchy cache or <code>null</code> if the index does not
+     *         have a valid hierarchy cache file.
+     */
+    static HierarchyCacheFile open(Directory directory, int maxDoc) {
+        File dir = FSDirectoryManager.getFile(directory);
+        if (dir == null) {
+            return null;
+        }
+        File file = new File(dir, FILE_NAME);
+        if (!file.exists() || getLength(maxDoc) > Integer.MAX_VALUE) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (raf.length() != getLength(maxDoc)) {
+                    log.debug("Ignoring outdated {}", file);
+                    return null;
+                }
+                ByteBuffer buffer = raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                        || buffer.getInt(8) != maxDoc) {
+                    log.debug("Ignoring outdated {}", file);
+                    return null;
+                }
+                return new HierarchyCacheFile(buffer, maxDoc, buffer.getInt(12));
+            } finally {
+                // the mapping stays valid
+                raf.close();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to map " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a writer for the hierarchy cache file of an index.
+     *
+     * @param directory the index directory.
+     * @param maxDoc the number of documents in the index.
+     * @return the writer or <code>null</code> if the index is not stored in
+     *         the file system or has too many documents.
+     * @throws IOException if the file cannot be created.
+     */
+    static Writer create(Directory directory, int maxDoc) throws IOException {
+        File dir = FSDirectoryManager.getFile(directory);
+        if (dir == null || getLength(maxDoc) > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new Writer(new File(dir, FILE_NAME), maxDoc);
+    }
+
+    /**
+     * @param doc a document number.
+     * @return the node id of the document or <code>null</code> if unknown.
+     */
+    NodeId getId(int doc) {
+        int pos = HEADER_SIZE + doc * RECORD_SIZE;
+        long msb = buffer.getLong(pos);
+        long lsb = buffer.getLong(pos + 8);
+        if (msb == 0 && lsb == 0) {
+            return null;
+        }
+        return new NodeId(msb, lsb);
+    }
+
+    /**
+     * @param doc a document number.
+     * @return the parent of the document or <code>null</code> if unknown.
+     */
+    DocId getParent(int doc) {
+        int pos = HEADER_SIZE + doc * RECORD_SIZE;
+        int parent = buffer.getInt(pos + 32);
+        if (parent > 0) {
+            return DocId.create(parent - 1);
+        } else if (parent == FOREIGN) {
+            return DocId.create(new NodeId(
+                    buffer.getLong(pos + 16), buffer.getLong(pos + 24)));
+        } else if (parent == ROOT) {
+            return DocId.NULL;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @param doc a document number.
+     * @return <code>true</code> if the parent of the document is in another
+     *         index.
+     */
+    boolean hasForeignParent(int doc) {
+        return buffer.getInt(HEADER_SIZE + doc * RECORD_SIZE + 32) == FOREIGN;
+    }
+
+    /**
+     * Looks up the document of a node.
+     *
+     * @param id the node id.
+     * @param reader the index reader to check for deleted documents.
+     * @return the first document with the given node id that is not deleted
+     *         or <code>-1</code> if there is none.
+     */
+    int getDocument(NodeId id, IndexReader reader) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int offset = HEADER_SIZE + maxDoc * RECORD_SIZE;
+        // find the first position with an id >= the given id
+        int low = 0;
+        int high = numIds;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(buffer.getInt(offset + mid * 4), msb, lsb) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < numIds; i++) {
+            int doc = buffer.getInt(offset + i * 4);
+            if (compare(doc, msb, lsb) != 0) {
+                break;
+            }
+            if (!reader.isDeleted(doc)) {
+                return doc;
+            }
+        }
+        return -1;
+    }
+
+    //-------------------------------< internal >-------------------------------
+
+    /**
+     * Compares the node id of a document with the given id, in the order of
+     * the terms in the {@link FieldNames#UUID} field.
+     */
+    private int compare(int doc, long msb, long lsb) {
+        int pos = HEADER_SIZE + doc * RECORD_SIZE;
+        int c = Long.compareUnsigned(buffer.getLong(pos), msb);
+        if (c == 0) {
+            c = Long.compareUnsigned(buffer.getLong(pos + 8), lsb);
+        }
+        return c;
+    }
+
+    private static long getLength(int maxDoc) {
+        return HEADER_SIZE + (long) maxDoc * (RECORD_SIZE + 4);
+    }
+
+    /**
+     * Writes a hierarchy cache file. The parents may be set in any order,
+     * the node ids must be added in the order of the terms in the
+     * {@link FieldNames#UUID} field. The file is only visible to readers
+     * once it is committed.
+     */
+    static final class Writer {
+
+        private final File file;
+
+        private final File tmp;
+
+        private final RandomAccessFile raf;
+
+        private final MappedByteBuffer buffer;
+
+        private final int maxDoc;
+
+        private int numIds;
+
+        private Writer(File file, int maxDoc) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            this.maxDoc = maxDoc;
+            this.raf = new RandomAccessFile(tmp, "rw");
+            boolean success = false;
+            try {
+                raf.setLength(0);
+                raf.setLength(getLength(maxDoc));
+                this.buffer = raf.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, raf.length());
+                success = true;
+            } finally {
+                if (!success) {
+                    abort();
+                }
+            }
+        }
+
+        /**
+         * @param doc a document number.
+         * @param parent the document number of its parent in the same index.
+         */
+        void setParent(int doc, int parent) {
+            buffer.putInt(HEADER_SIZE + doc * RECORD_SIZE + 32, parent + 1);
+        }
+
+        /**
+         * @param doc a document number.
+         * @param parent the id of its parent, which is in another index.
+         */
+        void setForeignParent(int doc, NodeId parent) {
+            int pos = HEADER_SIZE + doc * RECORD_SIZE;
+            buffer.putLong(pos + 16, parent.getMostSignificantBits());
+            buffer.putLong(pos + 24, parent.getLeastSignificantBits());
+            buffer.putInt(pos + 32, FOREIGN);
+        }
+
+        /**
+         * @param doc the document number of the root node.
+         */
+        void setRoot(int doc) {
+            buffer.putInt(HEADER_SIZE + doc * RECORD_SIZE + 32, ROOT);
+        }
+
+        /**
+         * @param doc a document number.
+         * @param id the node id of the document.
+         */
+        void addId(int doc, NodeId id) {
+            int pos = HEADER_SIZE + doc * RECORD_SIZE;
+            buffer.putLong(pos, id.getMostSignificantBits());
+            buffer.putLong(pos + 8, id.getLeastSignificantBits());
+            buffer.putInt(HEADER_SIZE + maxDoc * RECORD_SIZE + numIds * 4, doc);
+            numIds++;
+        }
+
+        /**
+         * Writes the header, forces the file to disk and makes it visible.
+         *
+         * @throws IOException if the file cannot be written.
+         */
+        void commit() throws IOException {
+            try {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, maxDoc);
+                buffer.putInt(12, numIds);
+                buffer.force();
+                raf.close();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + file);
+                }
+            } finally {
+                abort();
+            }
+        }
+
+        /**
+         * Discards the file unless it has been committed.
+         */
+        void abort() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.debug("Unable to close " + tmp, e);
+            }
+            if (tmp.exists() && !tmp.delete()) {
+                log.debug("Unable to delete {}", tmp);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages copies of a search index in a directory that is shared by the
+ * nodes of a cluster. Each snapshot is a directory named after the journal
+ * revision it reflects. It contains the index infos and a sub directory
+ * with the files of every persistent index, just like the index directory
+ * itself. A snapshot is first written to a temporary directory and then
+ * renamed, which means every snapshot directory with a revision as name is
+ * complete.
+ */
+class IndexSnapshots {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(IndexSnapshots.class);
+
+    /**
+     * Prefix of the directories of snapshots that are still being written.
+     */
+    private static final String TEMP_PREFIX = "tmp-";
+
+    /**
+     * The number of snapshots that are kept. Older snapshots are only
+     * deleted after a newer one has been published, so that a node which
+     * is still copying a snapshot is not disturbed.
+     */
+    private static final int KEEP = 2;
+
+    /**
+     * The shared snapshot directory.
+     */
+    private final File dir;
+
+    /**
+     * Creates a new <code>IndexSnapshots</code> instance.
+     *
+     * @param dir the shared snapshot directory.
+     */
+    IndexSnapshots(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the revision of the latest snapshot or <code>-1</code> if
+     *         there is none.
+     */
+    long getLatestRevision() {
+        long[] revisions = getRevisions();
+        if (revisions.length == 0) {
+            return -1;
+        }
+        return revisions[revisions.length - 1];
+    }
+
+    /**
+     * Publishes a new snapshot and deletes outdated ones.
+     *
+     * @param source the directory manager of the index.
+     * @param files the files to copy by directory name, as returned by
+     *          {@link MultiIndex#getSnapshotFiles()}.
+     * @param producer identifies the publishing node, used to keep the
+     *          temporary directories of concurrent publishers apart.
+     * @param revision the journal revision the files reflect.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    void publish(DirectoryManager source,
+                 Map<String, Collection<String>> files,
+                 String producer,
+                 long revision) throws IOException {
+        File tmp = new File(dir, TEMP_PREFIX + producer + "-" + revision);
+        File target = new File(dir, Long.toString(revision));
+        try {
+            // remove left over of a previous attempt
+            FileUtils.deleteDirectory(tmp);
+            for (Map.Entry<String, Collection<String>> entry : files.entrySet()) {
+                String name = entry.getKey();
+                File d = name.equals(".") ? tmp : new File(tmp, name);
+                Directory src = source.getDirectory(name);
+                try {
+                    copy(src, FSDirectory.open(d), entry.getValue());
+                } finally {
+                    src.close();
+                }
+            }
+            if (!tmp.renameTo(target) && !target.isDirectory()) {
+                throw new IOException("Unable to rename " + tmp + " to " + target);
+            }
+        } finally {
+            // only exists if not renamed
+            FileUtils.deleteQuietly(tmp);
+        }
+        log.info("Published index snapshot {}", target);
+
+        long[] revisions = getRevisions();
+        for (int i = 0; i < revisions.length - KEEP; i++) {
+            File outdated = new File(dir, Long.toString(revisions[i]));
+            if (FileUtils.deleteQuietly(outdated)) {
+                log.debug("Deleted outdated index snapshot {}", outdated);
+            }
+        }
+    }
+
+    /**
+     * Copies the latest snapshot into an empty index. If the snapshot cannot
+     * be copied completely, the copied files are removed again.
+     *
+     * @param target the directory manager of the empty index.
+     * @return the revision of the copied snapshot or <code>-1</code> if none
+     *         was copied.
+     */
+    long restore(DirectoryManager target) {
+        long revision = getLatestRevision();
+        if (revision < 0) {
+            return -1;
+        }
+        File snapshot = new File(dir, Long.toString(revision));
+        List<String> names = new ArrayList<String>();
+        try {
+            File[] dirs = snapshot.listFiles();
+            if (dirs == null) {
+                throw new IOException("listFiles for " + snapshot + " returned null");
+            }
+            names.add(".");
+            for (File d : dirs) {
+                if (d.isDirectory()) {
+                    names.add(d.getName());
+                }
+            }
+            for (String name : names) {
+                File d = name.equals(".") ? snapshot : new File(snapshot, name);
+                Directory src = FSDirectory.open(d);
+                try {
+                    copy(src, target.getDirectory(name), Arrays.asList(src.listAll()));
+                } finally {
+                    src.close();
+                }
+            }
+            log.info("Initialized index from snapshot {}", snapshot);
+            return revision;
+        } catch (IOException e) {
+            log.warn("Unable to initialize index from snapshot " + snapshot, e);
+            try {
+                clear(target);
+            } catch (IOException ex) {
+                log.warn("Unable to clean up index directory", ex);
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Removes all files and sub directories of an index, e.g. a snapshot
+     * that was restored but cannot be used.
+     *
+     * @param target the directory manager of the index.
+     * @throws IOException if a file cannot be deleted.
+     */
+    static void clear(DirectoryManager target) throws IOException {
+        for (String name : target.getDirectoryNames()) {
+            if (!target.delete(name)) {
+                throw new IOException("Unable to delete index directory " + name);
+            }
+        }
+        Directory d = target.getDirectory(".");
+        try {
+            for (String file : d.listAll()) {
+                d.deleteFile(file);
+            }
+        } finally {
+            d.close();
+        }
+    }
+
+    //-------------------------------< internal >-------------------------------
+
+    /**
+     * @return the revisions of the complete snapshots in ascending order.
+     */
+    private long[] getRevisions() {
+        String[] names = dir.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] revisions = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                revisions[count] = Long.parseLong(name);
+                count++;
+            } catch (NumberFormatException e) {
+                // temporary directory or unrelated file
+            }
+        }
+        revisions = Arrays.copyOf(revisions, count);
+        Arrays.sort(revisions);
+        return revisions;
+    }
+
+    /**
+     * Copies files from one directory to another and closes the target
+     * directory.
+     *
+     * @param src the source directory.
+     * @param dest the target directory.
+     * @param files the names of the files to copy.
+     * @throws IOException if a file cannot be copied.
+     */
+    private static void copy(Directory src, Directory dest,
+                             Collection<String> files) throws IOException {
+        try {
+            for (String file : files) {
+                src.copy(dest, file, file);
+            }
+            dest.sync(files);
+        } finally {
+            dest.close();
+        }
+    }
+}
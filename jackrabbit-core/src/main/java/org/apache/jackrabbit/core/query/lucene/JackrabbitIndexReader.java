@@ -97,6 +97,13 @@ public final class JackrabbitIndexReader
         return resolver.getParents(n, docNumbers);
     }
 
+    /**
+     * @return the underlying index reader.
+     */
+    MultiIndexReader getBaseReader() {
+        return reader;
+    }
+
     //-------------------------< MultiIndexReader >-----------------------------
 
     /**
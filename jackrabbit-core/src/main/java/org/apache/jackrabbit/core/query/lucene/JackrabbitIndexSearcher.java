@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.query.lucene.constraint.EvaluationContext;
@@ -24,9 +25,13 @@ import org.apache.jackrabbit.core.state.ItemStateManager;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.util.OpenBitSet;
 
 /**
  * <code>JackrabbitIndexSearcher</code> implements an index searcher with
@@ -51,6 +56,23 @@ public class JackrabbitIndexSearcher
      */
     private final ItemStateManager ism;
 
+    /**
+     * Excludes documents of unreadable nodes from the result of
+     * {@link #execute(Query, Sort, long, Name)}, or <code>null</code>.
+     */
+    private ReadPermissionFilter readFilter;
+
+    /**
+     * Executes ranges of a query in parallel, or <code>null</code>.
+     */
+    private Executor parallelExecutor;
+
+    /**
+     * Restricts the result of {@link #execute(Query, Sort, long, Name)} to
+     * the hits after this cursor, or <code>null</code>.
+     */
+    private QueryCursor cursor;
+
     /**
      * Creates a new jackrabbit index searcher.
      *
@@ -67,6 +89,41 @@ public class JackrabbitIndexSearcher
         this.ism = ism;
     }
 
+    /**
+     * Sets a filter that excludes the documents of nodes that are known to
+     * be unreadable from the hits returned by
+     * {@link #execute(Query, Sort, long, Name)}. Queries evaluated through
+     * the {@link EvaluationContext} are not filtered.
+     *
+     * @param filter the filter or <code>null</code>.
+     */
+    void setReadPermissionFilter(ReadPermissionFilter filter) {
+        this.readFilter = filter;
+    }
+
+    /**
+     * Sets an executor that is used to score ranges of the index in
+     * parallel. Queries that contain hierarchy constraints are always
+     * evaluated on the calling thread.
+     *
+     * @param executor the executor or <code>null</code> to disable parallel
+     *                 search.
+     */
+    void setParallelExecutor(Executor executor) {
+        this.parallelExecutor = executor;
+    }
+
+    /**
+     * Sets a cursor that restricts the hits returned by
+     * {@link #execute(Query, Sort, long, Name)} to the ones that are ordered
+     * after the cursor.
+     *
+     * @param cursor the cursor or <code>null</code>.
+     */
+    void setQueryCursor(QueryCursor cursor) {
+        this.cursor = cursor;
+    }
+
     /**
      * Executes the query and returns the hits that match the query.
      *
@@ -83,7 +140,8 @@ public class JackrabbitIndexSearcher
                                         Name selectorName)
             throws IOException {
         return new QueryHitsAdapter(
-                evaluate(query, sort, resultFetchHint), selectorName);
+                evaluate(query, sort, resultFetchHint, readFilter, cursor),
+                selectorName);
     }
 
     /**
@@ -97,22 +155,121 @@ public class JackrabbitIndexSearcher
      */
     public QueryHits evaluate(Query query, Sort sort, long resultFetchHint)
             throws IOException {
+        return evaluate(query, sort, resultFetchHint, null, null);
+    }
+
+    /**
+     * Evaluates the query and returns the hits that match the query and
+     * the filter.
+     *
+     * @param query           the query to execute.
+     * @param sort            the sort criteria.
+     * @param resultFetchHint a hint on how many results should be fetched.
+     * @param filter          excludes unreadable nodes or <code>null</code>.
+     * @param cursor          only returns hits after this cursor, or
+     *                        <code>null</code>.
+     * @return the query hits.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    private QueryHits evaluate(Query query, Sort sort, long resultFetchHint,
+                               ReadPermissionFilter filter, QueryCursor cursor)
+            throws IOException {
         query = query.rewrite(reader);
+        // order equal sort values by node id, which a cursor can refer to
+        sort = NodeIdSortComparator.appendTo(sort);
+        SearchAfter after = null;
+        if (cursor != null) {
+            after = SearchAfter.create(cursor, sort, reader);
+        }
         QueryHits hits = null;
         if (query instanceof JackrabbitQuery) {
             hits = ((JackrabbitQuery) query).execute(this, session, sort);
+            if (hits != null && filter != null) {
+                hits = filter.filter(hits, reader);
+            }
+            if (hits != null && after != null) {
+                hits = after.filter(hits, reader);
+            }
         }
         if (hits == null) {
+            if (filter != null) {
+                // skip unreadable documents before hits are collected
+                query = new FilteredQuery(query, filter);
+            }
+            ParallelSearch parallel = null;
+            if (parallelExecutor != null) {
+                parallel = ParallelSearch.create(
+                        parallelExecutor, this, reader, query);
+            }
             if (sort.getSort().length == 0) {
-                hits = new LuceneQueryHits(reader, this, query);
+                if (after != null) {
+                    // hits are in index order, resume behind the cursor
+                    hits = new LuceneQueryHits(
+                            reader, this, query, after.getStartDoc());
+                } else if (parallel != null) {
+                    hits = new ParallelQueryHits(
+                            reader, parallel, query, resultFetchHint);
+                } else {
+                    hits = new LuceneQueryHits(reader, this, query);
+                }
             } else {
                 hits = new SortedLuceneQueryHits(this, query, sort,
-                        resultFetchHint);
+                        resultFetchHint, parallel, after);
             }
         }
         return hits;
     }
 
+    /**
+     * Collects the document numbers of the hits that match the query,
+     * without reading the hits from the index. Documents of nodes that are
+     * known to be unreadable are excluded, the remaining documents are not
+     * necessarily readable.
+     *
+     * @param query the query to execute.
+     * @return the document numbers of the hits.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    OpenBitSet collect(Query query) throws IOException {
+        query = query.rewrite(reader);
+        OpenBitSet docs = new OpenBitSet(reader.maxDoc());
+        QueryHits hits = null;
+        if (query instanceof JackrabbitQuery) {
+            hits = ((JackrabbitQuery) query).execute(this, session, new Sort());
+        }
+        if (hits != null) {
+            try {
+                ScoreNode sn;
+                while ((sn = hits.nextScoreNode()) != null) {
+                    int doc;
+                    try {
+                        doc = sn.getDoc(reader);
+                    } catch (IOException e) {
+                        // node not in the index
+                        continue;
+                    }
+                    if (readFilter == null || readFilter.mayRead(doc)) {
+                        docs.fastSet(doc);
+                    }
+                }
+            } finally {
+                hits.close();
+            }
+        } else {
+            if (readFilter != null) {
+                query = new FilteredQuery(query, readFilter);
+            }
+            Scorer scorer = query.createWeight(this).scorer(reader, true, false);
+            if (scorer != null) {
+                int doc;
+                while ((doc = scorer.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                    docs.fastSet(doc);
+                }
+            }
+        }
+        return docs;
+    }
+
     //---------------------------< IndexSearcher >------------------------------
 
     @Override
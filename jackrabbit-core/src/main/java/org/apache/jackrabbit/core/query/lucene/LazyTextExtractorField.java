@@ -21,6 +21,7 @@ import java.io.Reader;
 import java.util.concurrent.Executor;
 
 import org.apache.jackrabbit.core.LowPriorityTask;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.AbstractField;
@@ -74,12 +75,49 @@ public class LazyTextExtractorField extends AbstractField {
             Parser parser, InternalValue value, Metadata metadata,
             Executor executor, boolean highlighting, int maxFieldLength,
             boolean withNorms) {
+        this(parser, value, metadata, executor, highlighting, maxFieldLength,
+                withNorms, null);
+    }
+
+    /**
+     * Creates a new <code>LazyTextExtractorField</code> that takes the text
+     * of binaries in the data store from the given cache. The text is only
+     * extracted if it is not cached yet, and is then added to the cache.
+     *
+     * @param parser
+     * @param value
+     * @param metadata
+     * @param executor
+     * @param highlighting
+     *            set to <code>true</code> to enable result highlighting support
+     * @param maxFieldLength
+     * @param withNorms
+     * @param cache
+     *            the text extraction cache or <code>null</code>
+     */
+    public LazyTextExtractorField(
+            Parser parser, InternalValue value, Metadata metadata,
+            Executor executor, boolean highlighting, int maxFieldLength,
+            boolean withNorms, TextExtractionCache cache) {
         super(FieldNames.FULLTEXT,
                 highlighting ? Store.YES : Store.NO,
                 withNorms ? Field.Index.ANALYZED : Field.Index.ANALYZED_NO_NORMS,
                 highlighting ? TermVector.WITH_OFFSETS : TermVector.NO);
+        DataIdentifier id = null;
+        if (cache != null) {
+            id = value.getDataIdentifier();
+            String text = id != null ? cache.get(id,
+                    metadata.get(Metadata.CONTENT_TYPE),
+                    metadata.get(Metadata.CONTENT_ENCODING),
+                    maxFieldLength) : null;
+            if (text != null) {
+                value.discard();
+                setExtractedText(text);
+                return;
+            }
+        }
         executor.execute(new ParsingTask(parser, value, metadata,
-                maxFieldLength) {
+                maxFieldLength, cache, id) {
             public void setExtractedText(String value) {
                 LazyTextExtractorField.this.setExtractedText(value);
             }
@@ -159,22 +197,43 @@ public class LazyTextExtractorField extends AbstractField {
 
         private final WriteOutContentHandler writeOutContentHandler;
 
+        private final TextExtractionCache cache;
+
+        private final DataIdentifier id;
+
+        private final int maxFieldLength;
+
         public ParsingTask(Parser parser, InternalValue value,
                 Metadata metadata, int maxFieldLength) {
             this(new WriteOutContentHandler(maxFieldLength), parser, value,
-                    metadata);
+                    metadata, maxFieldLength, null, null);
+        }
+
+        ParsingTask(Parser parser, InternalValue value, Metadata metadata,
+                int maxFieldLength, TextExtractionCache cache,
+                DataIdentifier id) {
+            this(new WriteOutContentHandler(maxFieldLength), parser, value,
+                    metadata, maxFieldLength, cache, id);
         }
 
         private ParsingTask(WriteOutContentHandler writeOutContentHandler,
-                Parser parser, InternalValue value, Metadata metadata) {
+                Parser parser, InternalValue value, Metadata metadata,
+                int maxFieldLength, TextExtractionCache cache,
+                DataIdentifier id) {
             super(writeOutContentHandler);
             this.writeOutContentHandler = writeOutContentHandler;
             this.parser = parser;
             this.value = value;
             this.metadata = metadata;
+            this.maxFieldLength = maxFieldLength;
+            this.cache = cache;
+            this.id = id;
         }
 
         public void run() {
+            // the parser may change the metadata
+            String type = metadata.get(Metadata.CONTENT_TYPE);
+            String encoding = metadata.get(Metadata.CONTENT_ENCODING);
             try {
                 InputStream stream = value.getStream();
                 try {
@@ -209,7 +268,11 @@ public class LazyTextExtractorField extends AbstractField {
             } finally {
                 value.discard();
             }
-            setExtractedText(writeOutContentHandler.toString());
+            String text = writeOutContentHandler.toString();
+            if (cache != null && id != null) {
+                cache.put(id, type, encoding, maxFieldLength, text);
+            }
+            setExtractedText(text);
         }
 
         protected abstract void setExtractedText(String value);
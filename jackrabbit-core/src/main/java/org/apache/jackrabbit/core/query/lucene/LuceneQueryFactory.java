@@ -100,6 +100,7 @@ import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.query.qom.FullTextSearchImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.PropertyExistenceImpl;
+import org.apache.jackrabbit.stats.QueryProfile;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
@@ -191,6 +192,8 @@ public class LuceneQueryFactory {
         final int offset = offsetIn < 0 ? 0 : (int) offsetIn;
         final int limit = limitIn < 0 ? Integer.MAX_VALUE : (int) limitIn;
 
+        QueryProfile profile = QueryProfile.current();
+        long time = System.nanoTime();
         QueryHits hits = null;
         try {
             JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
@@ -216,12 +219,23 @@ public class LuceneQueryFactory {
 
             // TODO depending on the filters, we could push the offset info
             // into the searcher
+            if (profile != null) {
+                profile.addTime(QueryProfile.BUILD, System.nanoTime() - time);
+                profile.addPlan(qp.mainQuery.toString());
+                time = System.nanoTime();
+            }
             hits = searcher.evaluate(qp.mainQuery, sort, offset + limit);
+            if (profile != null) {
+                profile.addTime(QueryProfile.SEARCH, System.nanoTime() - time);
+                time = System.nanoTime();
+            }
             int currentNode = 0;
             int addedNodes = 0;
+            int numHits = 0;
 
             ScoreNode node = hits.nextScoreNode();
             while (node != null) {
+                numHits++;
                 Row row = null;
                 try {
                     row = new SelectorRow(columns, evaluator,
@@ -251,6 +265,12 @@ public class LuceneQueryFactory {
                 }
                 node = hits.nextScoreNode();
             }
+            if (profile != null) {
+                // node loading, access checks and lazy scoring
+                profile.addTime(QueryProfile.LOAD, System.nanoTime() - time);
+                profile.addCount(QueryProfile.HITS, numHits);
+                profile.addCount(QueryProfile.RESULTS, rows.size());
+            }
             return rows;
         } finally {
             if (hits != null) {
@@ -42,11 +42,35 @@ public class LuceneQueryHits implements QueryHits {
      */
     private final Scorer scorer;
 
+    /**
+     * The document number of the first hit, or zero if the first hit was
+     * already returned.
+     */
+    private int start;
+
     public LuceneQueryHits(IndexReader reader,
                            IndexSearcher searcher,
                            Query query)
             throws IOException {
+        this(reader, searcher, query, 0);
+    }
+
+    /**
+     * Creates hits that start at the given document number.
+     *
+     * @param reader   the index reader.
+     * @param searcher the index searcher.
+     * @param query    the query to execute.
+     * @param start    the document number where the hits start.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    LuceneQueryHits(IndexReader reader,
+                    IndexSearcher searcher,
+                    Query query,
+                    int start)
+            throws IOException {
         this.reader = reader;
+        this.start = start;
         // We rely on Scorer#nextDoc() and Scorer#advance(int) so enable
         // scoreDocsInOrder
         this.scorer = query.createWeight(searcher).scorer(reader, true, false);
@@ -59,7 +83,13 @@ public class LuceneQueryHits implements QueryHits {
         if (scorer == null) {
             return null;
         }
-        int doc = scorer.nextDoc();
+        int doc;
+        if (start > 0) {
+            doc = scorer.advance(start);
+            start = 0;
+        } else {
+            doc = scorer.nextDoc();
+        }
         if (doc == DocIdSetIterator.NO_MORE_DOCS) {
             return null;
         }
@@ -26,8 +26,8 @@ import org.apache.lucene.search.Similarity;
 
 import java.io.IOException;
 import java.util.BitSet;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The MatchAllScorer implements a Scorer that scores / collects all
@@ -132,7 +132,7 @@ class MatchAllScorer extends Scorer {
     private void calculateDocFilter(PerQueryCache cache) throws IOException {
         Map<String, BitSet> readerCache = (Map<String, BitSet>) cache.get(MatchAllScorer.class, reader);
         if (readerCache == null) {
-            readerCache = new HashMap<String, BitSet>();
+            readerCache = new ConcurrentHashMap<String, BitSet>();
             cache.put(MatchAllScorer.class, reader, readerCache);
         }
         // get BitSet for field
@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,6 +37,8 @@ import java.util.concurrent.TimeUnit;
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -158,6 +161,18 @@ public class MultiIndex {
      */
     private CachingMultiIndexReader multiReader;
 
+    /**
+     * The time when {@link #multiReader} was created.
+     */
+    private long multiReaderTime;
+
+    /**
+     * <code>true</code> if the index was updated after {@link #multiReader}
+     * was created, but the reader is kept until the near real-time refresh
+     * interval has passed.
+     */
+    private boolean multiReaderOutdated;
+
     /**
      * Shared document number cache across all persistent indexes.
      */
@@ -382,13 +397,23 @@ public class MultiIndex {
                 long count = 0;
                 // traverse and index workspace
                 executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
-                NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
-                count = createIndex(rootState, rootPath, stateMgr, count);
+                IterablePersistenceManager pm = getIterablePersistenceManager(rootPath);
+                if (pm != null) {
+                    count = createIndex(pm, stateMgr, rootId);
+                } else {
+                    // a checkpoint cannot be resumed without an iterable
+                    // persistence manager, its segments are deleted on the
+                    // next start
+                    ParallelIndexBuilder.deleteCheckpoint(indexDir);
+                    NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
+                    count = createIndex(rootState, rootPath, stateMgr, count);
+                }
                 checkIndexingQueue(true);
                 executeAndLog(new Commit(getTransactionId()));
                 log.debug("Created initial index for {} nodes", count);
                 releaseMultiReader();
                 safeFlush();
+                ParallelIndexBuilder.deleteCheckpoint(indexDir);
             } catch (Exception e) {
                 String msg = "Error indexing workspace";
                 IOException ex = new IOException(msg);
@@ -457,7 +482,7 @@ public class MultiIndex {
             synchronized (updateMonitor) {
                 updateInProgress = false;
                 updateMonitor.notifyAll();
-                releaseMultiReader();
+                outdateMultiReader();
             }
         }
     }
@@ -519,7 +544,7 @@ public class MultiIndex {
             synchronized (updateMonitor) {
                 updateInProgress = false;
                 updateMonitor.notifyAll();
-                releaseMultiReader();
+                outdateMultiReader();
             }
         }
         return num;
@@ -711,7 +736,8 @@ public class MultiIndex {
 
     /**
      * Returns an read-only <code>IndexReader</code> that spans alls indexes of this
-     * <code>MultiIndex</code>.
+     * <code>MultiIndex</code>. The reader reflects all updates, even if near
+     * real-time readers are refreshed on an interval.
      *
      * @return an <code>IndexReader</code>.
      * @throws IOException if an error occurs constructing the <code>IndexReader</code>.
@@ -720,18 +746,65 @@ public class MultiIndex {
         return getIndexReader(false);
     }
 
+    /**
+     * Returns an read-only <code>IndexReader</code> that spans alls indexes of this
+     * <code>MultiIndex</code>. The reader reflects all updates, even if near
+     * real-time readers are refreshed on an interval.
+     *
+     * @param initCache when set <code>true</code> the hierarchy cache is
+     *                  completely initialized before this call returns.
+     * @return an <code>IndexReader</code>.
+     * @throws IOException if an error occurs constructing the <code>IndexReader</code>.
+     */
+    public CachingMultiIndexReader getIndexReader(boolean initCache) throws IOException {
+        return getIndexReader(initCache, false);
+    }
+
     /**
      * Returns an read-only <code>IndexReader</code> that spans alls indexes of this
      * <code>MultiIndex</code>.
      *
      * @param initCache when set <code>true</code> the hierarchy cache is
      *                  completely initialized before this call returns.
+     * @param allowOutdated when set <code>true</code> a near real-time reader
+     *                  that misses updates of the last refresh interval may
+     *                  be returned. Only query execution should accept such
+     *                  a reader, code that updates the index needs a reader
+     *                  that reflects all updates.
      * @return an <code>IndexReader</code>.
      * @throws IOException if an error occurs constructing the <code>IndexReader</code>.
      */
-    public synchronized CachingMultiIndexReader getIndexReader(boolean initCache) throws IOException {
+    public CachingMultiIndexReader getIndexReader(boolean initCache,
+                                                  boolean allowOutdated)
+            throws IOException {
+        if (handler.isNearRealTime()) {
+            // reuse a current reader without waiting for a running update
+            synchronized (updateMonitor) {
+                if (isMultiReaderCurrent(allowOutdated)) {
+                    multiReader.acquire();
+                    return multiReader;
+                }
+            }
+        }
+        return createIndexReader(initCache, allowOutdated);
+    }
+
+    /**
+     * Returns the current <code>IndexReader</code> or creates a new one if
+     * there is none or the current one is outdated.
+     *
+     * @param initCache when set <code>true</code> the hierarchy cache is
+     *                  completely initialized before this call returns.
+     * @param allowOutdated when set <code>true</code> an outdated reader is
+     *                  returned until the near real-time refresh interval
+     *                  has passed.
+     * @return an <code>IndexReader</code>.
+     * @throws IOException if an error occurs constructing the <code>IndexReader</code>.
+     */
+    private synchronized CachingMultiIndexReader createIndexReader(
+            boolean initCache, boolean allowOutdated) throws IOException {
         synchronized (updateMonitor) {
-            if (multiReader != null) {
+            if (isMultiReaderCurrent(allowOutdated)) {
                 multiReader.acquire();
                 return multiReader;
             }
@@ -744,6 +817,9 @@ public class MultiIndex {
                     throw new IOException("Interrupted while waiting to aquire reader");
                 }
             }
+            if (multiReader != null && !isMultiReaderCurrent(allowOutdated)) {
+                releaseMultiReader();
+            }
             // some other read thread might have created the reader in the
             // meantime -> check again
             if (multiReader == null) {
@@ -758,6 +834,8 @@ public class MultiIndex {
                 ReadOnlyIndexReader[] readers =
                     readerList.toArray(new ReadOnlyIndexReader[readerList.size()]);
                 multiReader = new CachingMultiIndexReader(readers, cache);
+                multiReaderTime = System.currentTimeMillis();
+                multiReaderOutdated = false;
             }
             multiReader.acquire();
             return multiReader;
@@ -1008,6 +1086,50 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Releases the {@link #multiReader} after an update, unless near
+     * real-time readers are refreshed on an interval. In that case the reader
+     * is only marked as outdated and replaced once the interval has passed.
+     * The caller must hold the {@link #updateMonitor}.
+     *
+     * @throws IOException if an error occurs while releasing the reader.
+     */
+    private void outdateMultiReader() throws IOException {
+        if (handler.isNearRealTime()
+                && handler.getNearRealTimeRefreshInterval() > 0) {
+            multiReaderOutdated = multiReader != null;
+        } else {
+            releaseMultiReader();
+        }
+    }
+
+    /**
+     * @param allowOutdated whether a reader that was outdated by an update
+     *                      may be used until the refresh interval has passed.
+     * @return <code>true</code> if the {@link #multiReader} exists and may be
+     *         used. The caller must hold the {@link #updateMonitor}.
+     */
+    private boolean isMultiReaderCurrent(boolean allowOutdated) {
+        if (multiReader == null) {
+            return false;
+        } else if (allowOutdated) {
+            return !isMultiReaderExpired();
+        } else {
+            return !multiReaderOutdated;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the {@link #multiReader} was outdated by an
+     *         update and is older than the near real-time refresh interval.
+     *         The caller must hold the {@link #updateMonitor}.
+     */
+    private boolean isMultiReaderExpired() {
+        return multiReaderOutdated
+                && System.currentTimeMillis() - multiReaderTime
+                >= handler.getNearRealTimeRefreshInterval();
+    }
+
     //-------------------------< testing only >---------------------------------
 
     void waitUntilIndexingQueueIsEmpty() {
@@ -1047,9 +1169,16 @@ public class MultiIndex {
      * @throws IOException if an error occurs while reading directories.
      */
     private void enqueueUnusedSegments() throws IOException {
+        // segments of an interrupted initial index are not registered yet
+        Collection<String> reindexSegments = Collections.emptyList();
+        if (indexNames.size() == 0) {
+            reindexSegments = ParallelIndexBuilder.getCheckpointSegments(indexDir);
+        } else {
+            ParallelIndexBuilder.deleteCheckpoint(indexDir);
+        }
         // walk through index segments
         for (String name : directoryManager.getDirectoryNames()) {
-            if (!name.startsWith("_")) {
+            if (!name.startsWith("_") || reindexSegments.contains(name)) {
                 continue;
             }
             long lastUse = indexHistory.getLastUseOf(name);
@@ -1112,6 +1241,7 @@ public class MultiIndex {
                 handler.getSimilarity(), indexingQueue);
         volatileIndex.setUseCompoundFile(handler.getUseCompoundFile());
         volatileIndex.setBufferSize(handler.getBufferSize());
+        volatileIndex.setNearRealTime(handler.isNearRealTime());
     }
 
     /**
@@ -1197,6 +1327,62 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Returns the persistence manager of the workspace if the initial index
+     * is built in parallel. This requires more than one
+     * {@link SearchIndex#getReindexThreads() thread}, an
+     * {@link IterablePersistenceManager} and an index of the whole
+     * workspace. The content of the <code>jcr:system</code> tree is
+     * partially provided by virtual item state providers and is therefore
+     * always indexed with a traversal.
+     *
+     * @param rootPath the path of the node from where to start.
+     * @return the persistence manager or <code>null</code> if the initial
+     *         index is created with a traversal.
+     */
+    private IterablePersistenceManager getIterablePersistenceManager(Path rootPath) {
+        if (handler.getReindexThreads() <= 1
+                || !rootPath.denotesRoot() || excludedIDs.isEmpty()) {
+            return null;
+        }
+        PersistenceManager pm = handler.getContext().getPersistenceManager();
+        if (pm instanceof IterablePersistenceManager) {
+            return (IterablePersistenceManager) pm;
+        }
+        log.info("{} is not iterable, creating initial index on a single thread",
+                pm.getClass().getName());
+        return null;
+    }
+
+    /**
+     * Creates an index of the nodes in the persistence manager on
+     * {@link SearchIndex#getReindexThreads()} threads and adds the resulting
+     * segments to this index.
+     *
+     * @param pm       the persistence manager of the workspace.
+     * @param stateMgr the shared item state manager.
+     * @param rootId   the id of the root node.
+     * @return the number of nodes indexed.
+     * @throws IOException         if an error occurs while writing to the
+     *                             index.
+     * @throws ItemStateException  if the nodes cannot be read.
+     * @throws RepositoryException if any other error occurs
+     */
+    private long createIndex(IterablePersistenceManager pm,
+                             ItemStateManager stateMgr,
+                             NodeId rootId)
+            throws IOException, ItemStateException, RepositoryException {
+        ParallelIndexBuilder builder = new ParallelIndexBuilder(this, pm,
+                stateMgr, rootId, excludedIDs, handler.getReindexThreads(),
+                handler.getReindexCheckpointInterval());
+        long count = 0;
+        for (PersistentIndex segment : builder.build()) {
+            count += segment.getNumDocuments();
+            executeAndLog(new AddIndex(getTransactionId(), segment.getName()));
+        }
+        return count;
+    }
+
     /**
      * Recursively creates an index starting with the NodeState
      * <code>node</code>.
@@ -1329,6 +1515,34 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Flushes this index and returns the names of the files that make up its
+     * persistent state: the current index infos in the index directory, which
+     * is keyed by <code>"."</code>, and the files of the current generation
+     * of every persistent index, keyed by index name. None of these files is
+     * modified anymore, so they can be copied without holding a lock on this
+     * index, as long as this happens within {@link SearchIndex#getMaxHistoryAge()}.
+     *
+     * @return the file names by directory name.
+     * @throws IOException if an error occurs while flushing this index.
+     */
+    Map<String, Collection<String>> getSnapshotFiles() throws IOException {
+        Map<String, Collection<String>> files =
+                new LinkedHashMap<String, Collection<String>>();
+        synchronized (this) {
+            safeFlush();
+            Collection<String> infos = new ArrayList<String>();
+            infos.add(indexNames.getFileName());
+            files.put(".", infos);
+            for (PersistentIndex index : indexes) {
+                if (indexNames.contains(index.getName())) {
+                    files.put(index.getName(), index.getCurrentFileNames());
+                }
+            }
+        }
+        return files;
+    }
+
     /**
      * Checks the indexing queue for finished text extrator jobs and updates the
      * index accordingly if there are any new ones.
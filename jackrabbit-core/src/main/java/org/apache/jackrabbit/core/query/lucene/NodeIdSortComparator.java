@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+
+import org.apache.jackrabbit.core.query.lucene.sort.AbstractFieldComparator;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>NodeIdSortComparator</code> implements a <code>FieldComparator</code>
+ * which compares the node ids of documents. It is appended to the sort
+ * fields of a query to order documents with equal sort values by node id
+ * instead of by document number, which changes when the index is merged.
+ */
+class NodeIdSortComparator extends FieldComparatorSource {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log =
+        LoggerFactory.getLogger(NodeIdSortComparator.class);
+
+    /**
+     * Returns a sort that orders documents like <code>sort</code> and
+     * documents with equal sort values by node id. An empty sort is
+     * returned unchanged, because the documents are then returned in index
+     * order.
+     *
+     * @param sort the sort criteria of a query.
+     * @return the sort with a node id sort field appended.
+     */
+    static Sort appendTo(Sort sort) {
+        SortField[] fields = sort.getSort();
+        if (fields.length == 0) {
+            return sort;
+        }
+        SortField last = fields[fields.length - 1];
+        if (last.getComparatorSource() instanceof NodeIdSortComparator) {
+            return sort;
+        }
+        SortField[] extended = new SortField[fields.length + 1];
+        System.arraycopy(fields, 0, extended, 0, fields.length);
+        extended[fields.length] = new SortField(
+                FieldNames.UUID, new NodeIdSortComparator());
+        return new Sort(extended);
+    }
+
+    @Override
+    public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) {
+        return new AbstractFieldComparator(numHits) {
+            @Override
+            protected Comparable<?> sortValue(int doc) {
+                int idx = readerIndex(doc);
+                try {
+                    return readers.get(idx).document(doc - starts[idx],
+                            FieldSelectors.UUID).get(FieldNames.UUID);
+                } catch (IOException e) {
+                    log.warn("Unable to read node id of document " + doc, e);
+                    return null;
+                }
+            }
+        };
+    }
+
+}
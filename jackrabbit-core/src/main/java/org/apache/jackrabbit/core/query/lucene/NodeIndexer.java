@@ -132,6 +132,11 @@ public class NodeIndexer {
      */
     private int maxExtractLength = Integer.MAX_VALUE;
 
+    /**
+     * The cache for text extracted from binaries or <code>null</code>.
+     */
+    private TextExtractionCache textExtractionCache;
+
     /**
      * Creates a new node indexer.
      *
@@ -206,6 +211,15 @@ public class NodeIndexer {
         this.maxExtractLength = length;
     }
 
+    /**
+     * Sets the cache for text extracted from binaries.
+     *
+     * @param cache the cache or <code>null</code> to always extract text.
+     */
+    public void setTextExtractionCache(TextExtractionCache cache) {
+        this.textExtractionCache = cache;
+    }
+
     /**
      * Creates a lucene Document.
      *
@@ -871,7 +885,8 @@ public class NodeIndexer {
     protected Fieldable createFulltextField(
             InternalValue value, Metadata metadata, boolean withNorms) {
         return new LazyTextExtractorField(parser, value, metadata, executor,
-                supportHighlighting, getMaxExtractLength(), withNorms);
+                supportHighlighting, getMaxExtractLength(), withNorms,
+                textExtractionCache);
     }
 
     /**
@@ -0,0 +1,568 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodeInfo;
+import org.apache.jackrabbit.core.query.lucene.directory.IndexInputStream;
+import org.apache.jackrabbit.core.query.lucene.directory.IndexOutputStream;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ParallelIndexBuilder</code> creates the initial index of a workspace
+ * on several threads. The nodes are read in batches from an
+ * {@link IterablePersistenceManager}, in the order of the persistence
+ * manager, and every batch is indexed by one of the threads. Each thread
+ * writes to its own {@link PersistentIndex}, which is not registered with
+ * the {@link MultiIndex} until the whole workspace is indexed.
+ * <p>
+ * A checkpoint is written regularly. It contains the id of the last node
+ * that is contained in the committed segments, and the names of the
+ * segments. An interrupted build is resumed from the checkpoint.
+ */
+class ParallelIndexBuilder {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ParallelIndexBuilder.class);
+
+    /**
+     * The base name of the checkpoint files.
+     */
+    static final String CHECKPOINT = "reindex";
+
+    /**
+     * The number of nodes that are read from the persistence manager at once.
+     */
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * The maximum number of ancestors that are remembered while checking
+     * whether nodes are below the root node.
+     */
+    private static final int ANCESTOR_CACHE_SIZE = 100000;
+
+    /**
+     * The multi index.
+     */
+    private final MultiIndex index;
+
+    /**
+     * The directory where the checkpoint is stored.
+     */
+    private final Directory directory;
+
+    /**
+     * The persistence manager of the workspace.
+     */
+    private final IterablePersistenceManager pm;
+
+    /**
+     * The item state manager of the workspace.
+     */
+    private final ItemStateManager stateMgr;
+
+    /**
+     * The id of the root node.
+     */
+    private final NodeId rootId;
+
+    /**
+     * The nodes that are neither indexed nor traversed.
+     */
+    private final Set<NodeId> excludedIDs;
+
+    /**
+     * The number of threads.
+     */
+    private final int numThreads;
+
+    /**
+     * The number of nodes after which a checkpoint is written.
+     */
+    private final int checkpointInterval;
+
+    /**
+     * Whether nodes are below the root node, by node id.
+     */
+    private final Map<NodeId, Boolean> ancestors = Collections.synchronizedMap(
+            new LinkedHashMap<NodeId, Boolean>(1024, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<NodeId, Boolean> e) {
+                    return size() > ANCESTOR_CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Creates a new builder.
+     *
+     * @param index              the multi index.
+     * @param pm                 the persistence manager of the workspace.
+     * @param stateMgr           the item state manager of the workspace.
+     * @param rootId             the id of the root node.
+     * @param excludedIDs        the nodes that are neither indexed nor
+     *                           traversed.
+     * @param numThreads         the number of threads.
+     * @param checkpointInterval the number of nodes after which a checkpoint
+     *                           is written.
+     */
+    ParallelIndexBuilder(MultiIndex index,
+                         IterablePersistenceManager pm,
+                         ItemStateManager stateMgr,
+                         NodeId rootId,
+                         Set<NodeId> excludedIDs,
+                         int numThreads,
+                         int checkpointInterval) {
+        this.index = index;
+        this.directory = index.getDirectory();
+        this.pm = pm;
+        this.stateMgr = stateMgr;
+        this.rootId = rootId;
+        this.excludedIDs = excludedIDs;
+        this.numThreads = numThreads;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Indexes all nodes below the root node, starting after the last
+     * checkpoint if there is one. The returned segments are committed but
+     * not registered with the multi index.
+     *
+     * @return the segments that contain the index.
+     * @throws IOException         if an error occurs while writing to the
+     *                             index.
+     * @throws ItemStateException  if the nodes cannot be read.
+     * @throws RepositoryException if any other error occurs.
+     */
+    List<PersistentIndex> build()
+            throws IOException, ItemStateException, RepositoryException {
+        List<PersistentIndex> segments = new ArrayList<PersistentIndex>();
+        Checkpoint checkpoint = readCheckpoint(directory);
+        NodeId after = null;
+        long count = 0;
+        if (checkpoint != null) {
+            after = checkpoint.lastId;
+            count = checkpoint.count;
+            for (String name : checkpoint.segments) {
+                segments.add(index.getOrCreateIndex(name));
+            }
+            log.info("Resuming initial index after {} nodes", count);
+        }
+        while (segments.size() < numThreads) {
+            segments.add(index.getOrCreateIndex(null));
+        }
+        // segments are handed from one batch to the next, no segment is
+        // written by two threads at the same time. segments of a checkpoint
+        // only contain the committed nodes and are written further
+        BlockingQueue<PersistentIndex> writers =
+            new LinkedBlockingQueue<PersistentIndex>(segments);
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                numThreads, new IndexerThreadFactory());
+        try {
+            LinkedList<Future<Integer>> pending = new LinkedList<Future<Integer>>();
+            long unchecked = 0;
+            for (;;) {
+                Map<NodeId, NodeInfo> infos = pm.getAllNodeInfos(after, BATCH_SIZE);
+                if (infos.isEmpty()) {
+                    break;
+                }
+                List<NodeInfo> batch = new ArrayList<NodeInfo>(infos.values());
+                after = batch.get(batch.size() - 1).getId();
+                while (pending.size() >= numThreads * 2) {
+                    count += get(pending.removeFirst());
+                }
+                pending.add(executor.submit(new IndexBatch(batch, writers)));
+                unchecked += batch.size();
+                if (unchecked >= checkpointInterval) {
+                    while (!pending.isEmpty()) {
+                        count += get(pending.removeFirst());
+                    }
+                    commit(segments);
+                    List<String> names = new ArrayList<String>();
+                    for (PersistentIndex segment : segments) {
+                        names.add(segment.getName());
+                    }
+                    writeCheckpoint(new Checkpoint(after, count, names));
+                    NodeInfo.clearPool();
+                    unchecked = 0;
+                    log.info("indexing... {} nodes", count);
+                }
+            }
+            while (!pending.isEmpty()) {
+                count += get(pending.removeFirst());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        commit(segments);
+        NodeInfo.clearPool();
+        log.info("Indexed {} nodes", count);
+        return segments;
+    }
+
+    //-------------------------------------------------------< checkpoints >
+
+    /**
+     * Returns <code>true</code> if the directory contains the checkpoint of
+     * an interrupted build.
+     *
+     * @param dir the index directory.
+     * @return whether a checkpoint exists.
+     * @throws IOException if the directory cannot be read.
+     */
+    static boolean hasCheckpoint(Directory dir) throws IOException {
+        return getGenerations(dir).length > 0;
+    }
+
+    /**
+     * Deletes the checkpoint from the directory.
+     *
+     * @param dir the index directory.
+     * @throws IOException if a file cannot be deleted.
+     */
+    static void deleteCheckpoint(Directory dir) throws IOException {
+        for (long gen : getGenerations(dir)) {
+            dir.deleteFile(getFileName(gen));
+        }
+    }
+
+    /**
+     * Returns the names of the segments of the checkpoint in the directory.
+     * Those segments are not registered with the multi index, but must not
+     * be deleted.
+     *
+     * @param dir the index directory.
+     * @return the segment names, empty if there is no checkpoint.
+     * @throws IOException if the directory cannot be read.
+     */
+    static List<String> getCheckpointSegments(Directory dir) throws IOException {
+        Checkpoint checkpoint = readCheckpoint(dir);
+        if (checkpoint == null) {
+            return Collections.emptyList();
+        }
+        return checkpoint.segments;
+    }
+
+    /**
+     * Reads the most recent readable checkpoint.
+     *
+     * @param dir the index directory.
+     * @return the checkpoint or <code>null</code> if there is none.
+     * @throws IOException if the directory cannot be read.
+     */
+    private static Checkpoint readCheckpoint(Directory dir) throws IOException {
+        long[] gens = getGenerations(dir);
+        for (int i = gens.length - 1; i >= 0; i--) {
+            String fileName = getFileName(gens[i]);
+            try {
+                InputStream in = new BufferedInputStream(
+                        new IndexInputStream(dir.openInput(fileName)));
+                try {
+                    DataInputStream data = new DataInputStream(in);
+                    NodeId lastId = new NodeId(data.readUTF());
+                    long count = data.readLong();
+                    List<String> segments = new ArrayList<String>();
+                    for (int n = data.readInt(); n > 0; n--) {
+                        segments.add(data.readUTF());
+                    }
+                    return new Checkpoint(lastId, count, segments);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.warn("Unable to read checkpoint " + fileName, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a new generation of the checkpoint and deletes the previous
+     * ones.
+     *
+     * @param checkpoint the checkpoint to write.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        long[] gens = getGenerations(directory);
+        long gen = gens.length == 0 ? 1 : gens[gens.length - 1] + 1;
+        String fileName = getFileName(gen);
+        OutputStream out = new BufferedOutputStream(
+                new IndexOutputStream(directory.createOutput(fileName)));
+        try {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeUTF(checkpoint.lastId.toString());
+            data.writeLong(checkpoint.count);
+            data.writeInt(checkpoint.segments.size());
+            for (String name : checkpoint.segments) {
+                data.writeUTF(name);
+            }
+        } finally {
+            out.close();
+        }
+        directory.sync(Collections.singleton(fileName));
+        for (long g : gens) {
+            directory.deleteFile(getFileName(g));
+        }
+        log.debug("Wrote checkpoint {} after {} nodes", fileName, checkpoint.count);
+    }
+
+    /**
+     * Returns the generations of the checkpoint files in ascending order.
+     */
+    private static long[] getGenerations(Directory dir) throws IOException {
+        List<Long> gens = new ArrayList<Long>();
+        for (String name : dir.listAll()) {
+            if (name.startsWith(CHECKPOINT + "_")) {
+                try {
+                    gens.add(Long.parseLong(name.substring(
+                            CHECKPOINT.length() + 1), Character.MAX_RADIX));
+                } catch (NumberFormatException e) {
+                    // not a checkpoint file
+                }
+            }
+        }
+        Collections.sort(gens);
+        long[] result = new long[gens.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = gens.get(i);
+        }
+        return result;
+    }
+
+    private static String getFileName(long gen) {
+        return CHECKPOINT + "_" + Long.toString(gen, Character.MAX_RADIX);
+    }
+
+    //---------------------------------------------------------< internal >
+
+    /**
+     * Commits the segments, so that they contain all nodes indexed so far.
+     */
+    private static void commit(List<PersistentIndex> segments)
+            throws IOException {
+        for (PersistentIndex segment : segments) {
+            segment.commit();
+        }
+    }
+
+    /**
+     * Waits for an indexed batch and re-throws its exception. If the thread
+     * is interrupted, the build is aborted and can be resumed from the last
+     * checkpoint.
+     *
+     * @return the number of indexed nodes of the batch.
+     */
+    private static int get(Future<Integer> future)
+            throws IOException, ItemStateException, RepositoryException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating initial index");
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            } else if (t instanceof ItemStateException) {
+                throw (ItemStateException) t;
+            } else if (t instanceof RepositoryException) {
+                throw (RepositoryException) t;
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            } else {
+                throw new RepositoryException("Unable to index nodes", t);
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the node is below the root node and not
+     * below an excluded node. Nodes that are not connected to the root node
+     * are not indexed, like with a traversal from the root node.
+     *
+     * @param info the node.
+     * @return whether the node is indexed.
+     * @throws ItemStateException if an ancestor cannot be read.
+     */
+    private boolean isIndexed(NodeInfo info) throws ItemStateException {
+        NodeId id = info.getId();
+        if (id.equals(rootId)) {
+            return true;
+        } else if (excludedIDs.contains(id)) {
+            return false;
+        }
+        List<NodeId> path = new ArrayList<NodeId>();
+        NodeId current = info.getParentId();
+        Boolean indexed = null;
+        while (indexed == null) {
+            if (current == null) {
+                indexed = Boolean.FALSE;
+            } else if (current.equals(rootId)) {
+                indexed = Boolean.TRUE;
+            } else if (excludedIDs.contains(current)) {
+                indexed = Boolean.FALSE;
+            } else {
+                indexed = ancestors.get(current);
+                if (indexed == null) {
+                    path.add(current);
+                    current = getParentId(current);
+                }
+            }
+        }
+        for (NodeId ancestor : path) {
+            ancestors.put(ancestor, indexed);
+        }
+        return indexed;
+    }
+
+    /**
+     * Returns the id of the parent node or <code>null</code> if the node or
+     * its parent does not exist.
+     */
+    private NodeId getParentId(NodeId id) throws ItemStateException {
+        try {
+            return ((NodeState) stateMgr.getItemState(id)).getParentId();
+        } catch (NoSuchItemStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Indexes a batch of nodes with one of the segments.
+     */
+    private class IndexBatch implements Callable<Integer> {
+
+        private final List<NodeInfo> batch;
+
+        private final BlockingQueue<PersistentIndex> writers;
+
+        IndexBatch(List<NodeInfo> batch, BlockingQueue<PersistentIndex> writers) {
+            this.batch = batch;
+            this.writers = writers;
+        }
+
+        public Integer call() throws Exception {
+            List<Document> docs = new ArrayList<Document>(batch.size());
+            for (NodeInfo info : batch) {
+                if (!isIndexed(info)) {
+                    continue;
+                }
+                try {
+                    docs.add(index.createDocument(
+                            (NodeState) stateMgr.getItemState(info.getId())));
+                } catch (NoSuchItemStateException e) {
+                    // removed after it was read from the persistence manager
+                    log.debug("Node {} does not exist anymore", info.getId());
+                } catch (ItemStateException e) {
+                    // JCR-3268 log bundle corruption and continue
+                    log.error("Unable to index node " + info.getId(), e);
+                } catch (RepositoryException e) {
+                    log.error("Unable to index node " + info.getId(), e);
+                }
+            }
+            PersistentIndex segment = writers.take();
+            try {
+                segment.addDocuments(docs.toArray(new Document[docs.size()]));
+            } finally {
+                writers.add(segment);
+            }
+            return docs.size();
+        }
+    }
+
+    /**
+     * The content of a checkpoint.
+     */
+    private static class Checkpoint {
+
+        /**
+         * The id of the last node that has been indexed.
+         */
+        private final NodeId lastId;
+
+        /**
+         * The number of indexed nodes.
+         */
+        private final long count;
+
+        /**
+         * The names of the segments that contain the indexed nodes.
+         */
+        private final List<String> segments;
+
+        Checkpoint(NodeId lastId, long count, List<String> segments) {
+            this.lastId = lastId;
+            this.count = count;
+            this.segments = segments;
+        }
+    }
+
+    /**
+     * Names the indexer threads.
+     */
+    private static class IndexerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "jackrabbit-reindex-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+
+/**
+ * <code>ParallelQueryHits</code> returns the hits of a query in document
+ * order like {@link LuceneQueryHits}, but scores ranges of the index in
+ * parallel with a {@link ParallelSearch}.
+ */
+public class ParallelQueryHits extends AbstractQueryHits {
+
+    /**
+     * The lower limit for the number of hits collected per range.
+     */
+    private static final int MIN_FETCH_SIZE = 32;
+
+    /**
+     * The upper limit for the number of hits collected per range.
+     */
+    private static final int MAX_FETCH_SIZE = 32 * 1024;
+
+    /**
+     * The IndexReader in use by the lucene hits.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The parallel search.
+     */
+    private final ParallelSearch search;
+
+    /**
+     * The ranges of the parallel search.
+     */
+    private final ParallelSearch.Range[] ranges;
+
+    /**
+     * The maximum number of hits collected at once per range.
+     */
+    private final int fetchSize;
+
+    /**
+     * The index of the current range.
+     */
+    private int current;
+
+    /**
+     * Creates new query hits and starts the evaluation of the ranges.
+     *
+     * @param reader          the index reader.
+     * @param search          the parallel search.
+     * @param query           the rewritten query.
+     * @param resultFetchHint a hint on how many results should be fetched.
+     */
+    ParallelQueryHits(IndexReader reader,
+                      ParallelSearch search,
+                      Query query,
+                      long resultFetchHint) {
+        this.reader = reader;
+        this.search = search;
+        this.fetchSize = (int) Math.min(
+                Math.max(resultFetchHint, MIN_FETCH_SIZE), MAX_FETCH_SIZE);
+        this.ranges = search.start(query, fetchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScoreNode nextScoreNode() throws IOException {
+        while (current < ranges.length) {
+            ParallelSearch.Range range = ranges[current];
+            if (search.next(range, fetchSize)) {
+                int doc = range.nextDoc();
+                float score = range.nextScore();
+                NodeId id = new NodeId(reader.document(
+                        doc, FieldSelectors.UUID).get(FieldNames.UUID));
+                return new ScoreNode(id, score, doc);
+            }
+            current++;
+        }
+        return null;
+    }
+
+    /**
+     * Cancels the ranges that were not started yet.
+     */
+    public void close() throws IOException {
+        ParallelSearch.cancel(ranges);
+    }
+}
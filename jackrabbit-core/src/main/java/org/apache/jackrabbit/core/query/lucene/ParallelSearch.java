@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+/**
+ * <code>ParallelSearch</code> evaluates a query on consecutive ranges of
+ * document numbers in parallel. Every range is scored with its own
+ * {@link Scorer} on the top level index reader, which is advanced to the
+ * start of the range. This keeps document numbers and hierarchy resolution
+ * identical to a sequential search, while the ranges do not depend on the
+ * size of the index segments.
+ * <p>
+ * Ranges are executed on the given executor. The thread that consumes the
+ * results executes ranges that were not yet started by the executor itself,
+ * so a search never waits for a busy thread pool.
+ */
+final class ParallelSearch {
+
+    /**
+     * The minimum number of documents in a range.
+     */
+    private static final int MIN_RANGE_SIZE = 16 * 1024;
+
+    /**
+     * The maximum number of ranges.
+     */
+    private static final int MAX_RANGES =
+            Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The executor for the ranges.
+     */
+    private final Executor executor;
+
+    /**
+     * The searcher that executes the query.
+     */
+    private final IndexSearcher searcher;
+
+    /**
+     * The top level index reader.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The range boundaries: range <code>i</code> starts at
+     * <code>bounds[i]</code> (inclusive) and ends at <code>bounds[i + 1]</code>
+     * (exclusive).
+     */
+    private final int[] bounds;
+
+    /**
+     * The complete hits of all ranges, once collected by
+     * {@link #search(Query, Collector)}.
+     */
+    private Range[] collected;
+
+    ParallelSearch(Executor executor,
+                   IndexSearcher searcher,
+                   IndexReader reader,
+                   int ranges) {
+        this.executor = executor;
+        this.searcher = searcher;
+        this.reader = reader;
+        this.bounds = new int[ranges + 1];
+        int maxDoc = reader.maxDoc();
+        for (int i = 0; i <= ranges; i++) {
+            bounds[i] = (int) ((long) maxDoc * i / ranges);
+        }
+    }
+
+    /**
+     * Creates a parallel search for the given query.
+     *
+     * @param executor the executor for the ranges.
+     * @param searcher the searcher that executes the query.
+     * @param reader   the top level index reader of the searcher.
+     * @param query    the rewritten query.
+     * @return the parallel search or <code>null</code> if the index is too
+     *         small or the query cannot be evaluated on ranges.
+     */
+    static ParallelSearch create(Executor executor,
+                                 IndexSearcher searcher,
+                                 IndexReader reader,
+                                 Query query) {
+        int ranges = Math.min(MAX_RANGES, reader.maxDoc() / MIN_RANGE_SIZE);
+        if (ranges < 2 || !isParallelizable(query)) {
+            return null;
+        }
+        return new ParallelSearch(executor, searcher, reader, ranges);
+    }
+
+    /**
+     * Returns <code>false</code> if the query contains a query whose scorer
+     * computes its result for the complete index, as the hierarchy queries
+     * do. Evaluating such a query on ranges would repeat the computation for
+     * every range. This includes the queries that share their result through
+     * the {@link PerQueryCache}, because the ranges would compute it
+     * concurrently before any of them is cached.
+     *
+     * @param query the rewritten query.
+     * @return whether the query can be evaluated on ranges.
+     */
+    static boolean isParallelizable(Query query) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (!isParallelizable(clause.getQuery())) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof FilteredQuery) {
+            return isParallelizable(((FilteredQuery) query).getQuery());
+        } else {
+            return !(query instanceof JackrabbitQuery
+                    || query instanceof ParentAxisQuery
+                    || query instanceof DerefQuery
+                    || query instanceof PredicateDerefQuery
+                    || query instanceof QueryHitsQuery
+                    || query instanceof RangeQuery
+                    || query instanceof WildcardQuery
+                    || query instanceof MatchAllQuery);
+        }
+    }
+
+    /**
+     * Starts the evaluation of all ranges in document order. Every range
+     * collects at most <code>limit</code> hits, the remaining hits of a
+     * range are collected on demand by {@link #next(Range, int)}.
+     *
+     * @param query the rewritten query.
+     * @param limit the maximum number of hits to collect per range.
+     * @return the ranges.
+     */
+    Range[] start(Query query, int limit) {
+        Range[] ranges = new Range[bounds.length - 1];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = new Range(query, false, bounds[i], bounds[i + 1], limit);
+        }
+        // the first range is executed by the consuming thread
+        for (int i = 1; i < ranges.length; i++) {
+            try {
+                executor.execute(ranges[i]);
+            } catch (RejectedExecutionException e) {
+                // executed on demand by the consuming thread
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Waits for <code>range</code> and collects the next hits of the range
+     * if it was consumed completely and has more hits.
+     *
+     * @param range the range.
+     * @param limit the maximum number of hits to collect.
+     * @return <code>true</code> if the range has hits to consume.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    boolean next(Range range, int limit) throws IOException {
+        range.await();
+        if (range.hasNext()) {
+            return true;
+        } else if (range.isComplete()) {
+            return false;
+        }
+        range.collect(limit);
+        return range.hasNext();
+    }
+
+    /**
+     * Searches the query and passes the hits to <code>collector</code> in
+     * document order. The hits are collected in parallel on the first call
+     * and replayed on subsequent calls.
+     *
+     * @param query     the query.
+     * @param collector the collector.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    void search(Query query, Collector collector) throws IOException {
+        if (collected == null) {
+            Range[] ranges = new Range[bounds.length - 1];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = new Range(query, true, bounds[i], bounds[i + 1],
+                        Integer.MAX_VALUE);
+            }
+            for (int i = 1; i < ranges.length; i++) {
+                try {
+                    executor.execute(ranges[i]);
+                } catch (RejectedExecutionException e) {
+                    // executed below
+                }
+            }
+            for (Range range : ranges) {
+                range.await();
+            }
+            collected = ranges;
+        }
+        ScoreHolder scorer = new ScoreHolder();
+        collector.setNextReader(reader, 0);
+        collector.setScorer(scorer);
+        for (Range range : collected) {
+            for (int i = 0; i < range.size; i++) {
+                scorer.doc = range.docs[i];
+                scorer.score = range.scores[i];
+                collector.collect(scorer.doc);
+            }
+        }
+    }
+
+    /**
+     * Cancels all ranges that were not yet started.
+     *
+     * @param ranges the ranges.
+     */
+    static void cancel(Range[] ranges) {
+        for (Range range : ranges) {
+            range.cancel();
+        }
+    }
+
+    //-----------------------------------------------------------< Range >
+
+    /**
+     * The hits of a range of document numbers.
+     */
+    final class Range implements Runnable {
+
+        private final Query query;
+
+        private final boolean normalize;
+
+        private final int end;
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private int limit;
+
+        /**
+         * The next document number to score.
+         */
+        private int next;
+
+        private int[] docs = new int[16];
+
+        private float[] scores = new float[16];
+
+        private int size;
+
+        private int position;
+
+        private IOException exception;
+
+        private RuntimeException runtimeException;
+
+        private Range(Query query, boolean normalize,
+                      int start, int end, int limit) {
+            this.query = query;
+            this.normalize = normalize;
+            this.next = start;
+            this.end = end;
+            this.limit = limit;
+        }
+
+        /**
+         * Collects the first hits of this range if it was not started yet.
+         */
+        public void run() {
+            if (started.compareAndSet(false, true)) {
+                try {
+                    collect(limit);
+                } catch (IOException e) {
+                    exception = e;
+                } catch (RuntimeException e) {
+                    runtimeException = e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+
+        /**
+         * Prevents the execution of this range if it was not started yet.
+         */
+        void cancel() {
+            if (started.compareAndSet(false, true)) {
+                next = end;
+                done.countDown();
+            }
+        }
+
+        /**
+         * Waits until the first hits of this range are collected. Executes
+         * the range on the calling thread if it was not started yet.
+         *
+         * @throws IOException if the range failed.
+         */
+        void await() throws IOException {
+            run();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for query hits");
+            }
+            if (exception != null) {
+                throw exception;
+            } else if (runtimeException != null) {
+                throw runtimeException;
+            }
+        }
+
+        boolean hasNext() {
+            return position < size;
+        }
+
+        boolean isComplete() {
+            return next >= end;
+        }
+
+        /**
+         * @return the document number of the next hit.
+         */
+        int nextDoc() {
+            return docs[position];
+        }
+
+        /**
+         * @return the score of the next hit, and moves to the following
+         *         hit.
+         */
+        float nextScore() {
+            return scores[position++];
+        }
+
+        /**
+         * Collects up to <code>limit</code> hits of this range, starting at
+         * the first document that was not yet scored. Previously collected
+         * hits are discarded.
+         */
+        private void collect(int limit) throws IOException {
+            size = 0;
+            position = 0;
+            if (next >= end) {
+                return;
+            }
+            Weight weight = normalize
+                    ? searcher.createNormalizedWeight(query)
+                    : query.createWeight(searcher);
+            Scorer scorer = weight.scorer(reader, true, false);
+            if (scorer == null) {
+                next = end;
+                return;
+            }
+            int doc = scorer.advance(next);
+            while (doc < end && size < limit) {
+                if (size == docs.length) {
+                    int[] d = new int[size * 2];
+                    System.arraycopy(docs, 0, d, 0, size);
+                    docs = d;
+                    float[] s = new float[size * 2];
+                    System.arraycopy(scores, 0, s, 0, size);
+                    scores = s;
+                }
+                docs[size] = doc;
+                scores[size++] = scorer.score();
+                doc = scorer.nextDoc();
+            }
+            next = Math.min(doc, end);
+            if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                // make sure scorer frees resources
+                scorer.advance(DocIdSetIterator.NO_MORE_DOCS);
+            }
+        }
+    }
+
+    /**
+     * Passes the collected document numbers and scores to a collector.
+     */
+    private static final class ScoreHolder extends Scorer {
+
+        private int doc = -1;
+
+        private float score;
+
+        private ScoreHolder() {
+            super((Weight) null);
+        }
+
+        @Override
+        public float score() {
+            return score;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int advance(int target) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
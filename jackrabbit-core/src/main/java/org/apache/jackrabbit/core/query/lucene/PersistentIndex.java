@@ -17,9 +17,11 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexDeletionPolicy;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
@@ -202,6 +204,26 @@ class PersistentIndex extends AbstractIndex {
         return generation;
     }
 
+    /**
+     * Returns the names of the files that belong to the current generation of
+     * this index. The files are not modified anymore, but they are deleted
+     * by the {@link IndexDeletionPolicyImpl} once a newer generation is older
+     * than {@link SearchIndex#getMaxHistoryAge()}.
+     *
+     * @return the file names of the current generation.
+     * @throws IOException if the commits of this index cannot be listed.
+     */
+    Collection<String> getCurrentFileNames() throws IOException {
+        for (IndexCommit commit : IndexReader.listCommits(getDirectory())) {
+            if (commit.getGeneration() == generation) {
+                return commit.getFileNames();
+            }
+        }
+        throw new IOException("Generation "
+                + Long.toString(generation, Character.MAX_RADIX)
+                + " of index " + name + " does not exist");
+    }
+
     /**
      * Sets the current generation of this index. This method should only be
      * called by {@link IndexDeletionPolicyImpl}.
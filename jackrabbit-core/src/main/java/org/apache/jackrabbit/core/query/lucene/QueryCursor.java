@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.util.Text;
+
+/**
+ * <code>QueryCursor</code> is an opaque position in the result of a query. It
+ * is returned by {@link QueryResultImpl#getCursor()} and points behind the
+ * last node of a result. When the cursor is passed to
+ * {@link org.apache.jackrabbit.core.query.QueryImpl#setCursor(QueryCursor)},
+ * the next execution of the query returns the nodes that are ordered after
+ * that position, without collecting and skipping the previous nodes as an
+ * offset does.
+ * <p>
+ * A cursor consists of the sort values and the identity of the last node.
+ * Nodes with equal sort values are ordered by their node id. A cursor can
+ * be passed to a client as the string returned by {@link #encode()} and
+ * restored with {@link #decode(String)}, or it can be serialized.
+ */
+public final class QueryCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The separator of the parts of an encoded cursor.
+     */
+    private static final char SEPARATOR = ',';
+
+    /**
+     * The id of the last node.
+     */
+    private final NodeId id;
+
+    /**
+     * The document number of the last node when the cursor was created.
+     */
+    private final int doc;
+
+    /**
+     * The score of the last node.
+     */
+    private final float score;
+
+    /**
+     * The sort values of the last node or <code>null</code> if unknown.
+     */
+    private final Object[] values;
+
+    QueryCursor(NodeId id, int doc, float score, Object[] values) {
+        this.id = id;
+        this.doc = doc;
+        this.score = score;
+        this.values = values;
+    }
+
+    /**
+     * @return the id of the last node.
+     */
+    NodeId getNodeId() {
+        return id;
+    }
+
+    /**
+     * @return the document number of the last node when the cursor was
+     *         created or <code>-1</code> if unknown.
+     */
+    int getDoc() {
+        return doc;
+    }
+
+    /**
+     * @return the score of the last node.
+     */
+    float getScore() {
+        return score;
+    }
+
+    /**
+     * @return the sort values of the last node or <code>null</code> if
+     *         unknown.
+     */
+    Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * Returns the string form of this cursor, which contains only characters
+     * that do not need to be escaped in a URI. Sort values of types that
+     * cannot be encoded are omitted and read from the index again when the
+     * decoded cursor is used, which requires that the last node is still
+     * indexed.
+     *
+     * @return the encoded cursor.
+     * @see #decode(String)
+     */
+    public String encode() {
+        StringBuilder buff = new StringBuilder();
+        buff.append(id).append(SEPARATOR).append(doc);
+        buff.append(SEPARATOR).append(score);
+        if (values != null) {
+            int length = buff.length();
+            for (Object value : values) {
+                buff.append(SEPARATOR);
+                if (!encodeValue(value, buff)) {
+                    buff.setLength(length);
+                    break;
+                }
+            }
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Restores a cursor from the string returned by {@link #encode()}.
+     *
+     * @param cursor the encoded cursor.
+     * @return the cursor.
+     * @throws IllegalArgumentException if <code>cursor</code> is not a valid
+     *          encoded cursor.
+     */
+    public static QueryCursor decode(String cursor)
+            throws IllegalArgumentException {
+        String[] parts = Text.explode(cursor, SEPARATOR, true);
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("Invalid query cursor: " + cursor);
+        }
+        try {
+            NodeId id = new NodeId(parts[0]);
+            int doc = Integer.parseInt(parts[1]);
+            float score = Float.parseFloat(parts[2]);
+            Object[] values = null;
+            if (parts.length > 3) {
+                values = new Object[parts.length - 3];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = decodeValue(parts[i + 3]);
+                }
+            }
+            return new QueryCursor(id, doc, score, values);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Invalid query cursor: " + cursor, e);
+        }
+    }
+
+    public String toString() {
+        return "QueryCursor(" + id + ")";
+    }
+
+    //-----------------------------------------------------< serialization >
+
+    /**
+     * Serializes the encoded form of this cursor.
+     *
+     * @return the serialized form.
+     */
+    private Object writeReplace() {
+        return new SerializedForm(encode());
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws InvalidObjectException {
+        throw new InvalidObjectException("Serialized form required");
+    }
+
+    /**
+     * The serialized form of a cursor.
+     */
+    private static final class SerializedForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The encoded cursor.
+         */
+        private final String cursor;
+
+        SerializedForm(String cursor) {
+            this.cursor = cursor;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return decode(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+    }
+
+    //----------------------------------------------------------< internal >
+
+    /**
+     * Appends a sort value with a type prefix.
+     *
+     * @param value the sort value.
+     * @param buff  the buffer to append to.
+     * @return <code>false</code> if the value cannot be encoded.
+     */
+    private static boolean encodeValue(Object value, StringBuilder buff) {
+        if (value == null) {
+            buff.append('n');
+        } else if (value instanceof String) {
+            buff.append('s').append(Text.escape((String) value));
+        } else if (value instanceof Long) {
+            buff.append('l').append(value);
+        } else if (value instanceof Integer) {
+            buff.append('i').append(value);
+        } else if (value instanceof Double) {
+            buff.append('d').append(value);
+        } else if (value instanceof Float) {
+            buff.append('f').append(value);
+        } else if (value instanceof BigDecimal) {
+            buff.append('m').append(((BigDecimal) value).toPlainString());
+        } else if (value instanceof Boolean) {
+            buff.append('b').append(value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a sort value encoded by {@link #encodeValue(Object, StringBuilder)}.
+     *
+     * @param s the encoded value.
+     * @return the sort value.
+     * @throws IllegalArgumentException if the value is invalid.
+     */
+    private static Object decodeValue(String s) throws IllegalArgumentException {
+        if (s.length() == 0) {
+            throw new IllegalArgumentException("Empty sort value");
+        }
+        String v = s.substring(1);
+        switch (s.charAt(0)) {
+        case 'n':
+            return null;
+        case 's':
+            return Text.unescape(v);
+        case 'l':
+            return Long.valueOf(v);
+        case 'i':
+            return Integer.valueOf(v);
+        case 'd':
+            return Double.valueOf(v);
+        case 'f':
+            return Float.valueOf(v);
+        case 'm':
+            return new BigDecimal(v);
+        case 'b':
+            return Boolean.valueOf(v);
+        default:
+            throw new IllegalArgumentException("Invalid sort value: " + s);
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.apache.jackrabbit.spi.commons.query.QueryNodeFactory;
 import org.apache.jackrabbit.spi.commons.query.QueryParser;
 import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
 import org.apache.jackrabbit.spi.commons.query.qom.ColumnImpl;
+import org.apache.jackrabbit.stats.QueryProfile;
 import org.apache.lucene.search.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +46,7 @@ import javax.jcr.nodetype.PropertyDefinition;
 import javax.jcr.query.InvalidQueryException;
 import javax.jcr.query.QueryResult;
 import javax.jcr.query.qom.QueryObjectModelFactory;
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -92,6 +94,22 @@ public class QueryImpl extends AbstractQueryImpl {
                 statement, language, sessionContext, factory);
     }
 
+    /**
+     * Creates a new query instance from a parsed query tree.
+     *
+     * @param sessionContext component context of the current session
+     * @param index     the search index.
+     * @param propReg   the property type registry.
+     * @param root      the root node of the query tree, which may be shared
+     *                  with other queries.
+     */
+    public QueryImpl(
+            SessionContext sessionContext, SearchIndex index,
+            PropertyTypeRegistry propReg, QueryRootNode root) {
+        super(sessionContext, index, propReg);
+        this.root = root;
+    }
+
     /**
      * Executes this query and returns a <code>{@link QueryResult}</code>.
      *
@@ -105,14 +123,13 @@ public class QueryImpl extends AbstractQueryImpl {
             log.debug("Executing query: \n" + root.dump());
         }
 
-        // build lucene query
-        Query query = LuceneQueryBuilder.createQuery(
-                root, sessionContext.getSessionImpl(),
-                index.getContext().getItemStateManager(),
-                index.getNamespaceMappings(), index.getTextAnalyzer(),
-                propReg, index.getSynonymProvider(),
-                index.getIndexFormatVersion(),
-                cache);
+        QueryProfile profile = QueryProfile.current();
+        long time = System.nanoTime();
+        Query query = createLuceneQuery();
+        if (profile != null) {
+            profile.addTime(QueryProfile.BUILD, System.nanoTime() - time);
+            profile.addPlan(query.toString());
+        }
 
         OrderQueryNode orderNode = root.getOrderNode();
 
@@ -136,7 +153,58 @@ public class QueryImpl extends AbstractQueryImpl {
                 new SpellSuggestion(index.getSpellChecker(), root),
                 getColumns(), orderProperties, ascSpecs, orderFuncs,
                 orderProperties.length == 0 && getRespectDocumentOrder(),
-                offset, limit);
+                offset, limit, getCursor());
+    }
+
+    /**
+     * Counts the nodes that match this query and are readable by the
+     * session, without loading the nodes.
+     *
+     * @return the number of nodes.
+     * @throws RepositoryException if an error occurs
+     */
+    public long count() throws RepositoryException {
+        try {
+            return index.countQuery(sessionContext.getSessionImpl(),
+                    this, createLuceneQuery());
+        } catch (IOException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Counts the values of a property of the nodes that match this query and
+     * are readable by the session, without loading the nodes.
+     *
+     * @param propertyName the name of the property.
+     * @return the number of nodes by property value, ordered by descending
+     *         count.
+     * @throws RepositoryException if an error occurs
+     */
+    public Map<String, Long> facets(Name propertyName)
+            throws RepositoryException {
+        try {
+            return index.facetQuery(sessionContext.getSessionImpl(),
+                    this, createLuceneQuery(), propertyName);
+        } catch (IOException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Builds the lucene query for the query tree.
+     *
+     * @return the lucene query.
+     * @throws RepositoryException if an error occurs
+     */
+    protected Query createLuceneQuery() throws RepositoryException {
+        return LuceneQueryBuilder.createQuery(
+                root, sessionContext.getSessionImpl(),
+                index.getContext().getItemStateManager(),
+                index.getNamespaceMappings(), index.getTextAnalyzer(),
+                propReg, index.getSynonymProvider(),
+                index.getIndexFormatVersion(),
+                cache);
     }
 
     /**
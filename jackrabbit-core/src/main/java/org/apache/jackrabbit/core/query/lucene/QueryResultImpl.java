@@ -26,12 +26,15 @@ import java.util.NoSuchElementException;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import javax.jcr.UnsupportedRepositoryOperationException;
 import javax.jcr.query.RowIterator;
 
 import org.apache.jackrabbit.api.query.JackrabbitQueryResult;
+import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.query.qom.ColumnImpl;
+import org.apache.jackrabbit.stats.QueryProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -210,6 +213,38 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                 excerptProvider, spellSuggestion);
     }
 
+    /**
+     * Returns a cursor that points behind the last node of this result. When
+     * the cursor is set on the query, the next execution returns the nodes
+     * after this result, without collecting the nodes before it again. This
+     * is only useful if the result has a limit.
+     *
+     * @return the cursor or <code>null</code> if this result is empty.
+     * @throws UnsupportedRepositoryOperationException if this result is
+     *          returned in document order or has more than one selector.
+     * @throws RepositoryException if an error occurs while executing the
+     *          query.
+     */
+    public QueryCursor getCursor() throws RepositoryException {
+        if (docOrder) {
+            throw new UnsupportedRepositoryOperationException(
+                    "Query cursor not supported for results in document order");
+        }
+        // fetch all results up to the limit
+        getResults(Integer.MAX_VALUE);
+        if (resultNodes.isEmpty()) {
+            return null;
+        }
+        ScoreNode[] last = resultNodes.get(resultNodes.size() - 1);
+        if (last.length != 1) {
+            throw new UnsupportedRepositoryOperationException(
+                    "Query cursor not supported for joins");
+        }
+        ScoreNode sn = last[0];
+        return new QueryCursor(sn.getNodeId(), sn.getDocNumber(),
+                sn.getScore(), sn.getSortValues());
+    }
+
     /**
      * Executes the query for this result and returns hits. The caller must
      * close the query hits when he is done using it.
@@ -286,7 +321,12 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
         try {
             long time = System.currentTimeMillis();
             long r1 = IOCounters.getReads();
+            long searchTime = System.nanoTime();
             result = executeQuery(maxResultSize);
+            QueryProfile profile = QueryProfile.current();
+            if (profile != null) {
+                profile.addTime(QueryProfile.SEARCH, System.nanoTime() - searchTime);
+            }
             long r2 = IOCounters.getReads();
             log.debug("query executed in {} ms ({})",
                     System.currentTimeMillis() - time, r2 - r1);
@@ -351,7 +391,10 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
     /**
      * Collect score nodes from <code>hits</code> into the <code>collector</code>
      * list until the size of <code>collector</code> reaches <code>maxResults</code>
-     * or there are not more results.
+     * or there are not more results. The hits are read in chunks of at most
+     * {@link SearchIndex#getResultPrefetchSize()} rows and the node states
+     * of a chunk are prefetched before access is checked, so that a cold
+     * result does not cause one persistence manager round trip per node.
      *
      * @param hits the raw hits.
      * @param collector where the access checked score nodes are collected.
@@ -363,19 +406,69 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                                    List<ScoreNode[]> collector,
                                    long maxResults)
             throws IOException, RepositoryException {
-        while (collector.size() < maxResults) {
-            ScoreNode[] sn = hits.nextScoreNodes();
-            if (sn == null) {
-                // no more results
-                break;
+        QueryProfile profile = QueryProfile.current();
+        int prefetchSize = Math.max(1, index.getResultPrefetchSize());
+        List<ScoreNode[]> chunk = new ArrayList<ScoreNode[]>();
+        boolean more = true;
+        while (more && collector.size() < maxResults) {
+            long t0 = profile != null ? System.nanoTime() : 0;
+            // never read more rows than are still needed
+            long num = Math.min(maxResults - collector.size(), prefetchSize);
+            chunk.clear();
+            while (chunk.size() < num) {
+                ScoreNode[] sn = hits.nextScoreNodes();
+                if (sn == null) {
+                    // no more results
+                    more = false;
+                    break;
+                }
+                chunk.add(sn);
             }
-            // check access
-            if (isAccessGranted(sn)) {
-                collector.add(sn);
-            } else {
-                invalid++;
+            long t1 = profile != null ? System.nanoTime() : 0;
+            prefetch(chunk);
+            long t2 = profile != null ? System.nanoTime() : 0;
+            int denied = 0;
+            for (ScoreNode[] sn : chunk) {
+                // check access
+                if (isAccessGranted(sn)) {
+                    collector.add(sn);
+                } else {
+                    invalid++;
+                    denied++;
+                }
+            }
+            if (profile != null) {
+                // without a prefetching persistence manager the node states
+                // are loaded by the access check and reported as access time
+                profile.addTime(QueryProfile.SEARCH, t1 - t0);
+                profile.addTime(QueryProfile.LOAD, t2 - t1);
+                profile.addTime(QueryProfile.ACCESS, System.nanoTime() - t2);
+                profile.addCount(QueryProfile.HITS, chunk.size());
+                profile.addCount(QueryProfile.DENIED, denied);
+                profile.addCount(QueryProfile.RESULTS, chunk.size() - denied);
+            }
+        }
+    }
+
+    /**
+     * Hints the item state layer that the nodes of the given rows are
+     * about to be read.
+     *
+     * @param rows the rows of score nodes.
+     */
+    private void prefetch(List<ScoreNode[]> rows) {
+        if (rows.size() < 2) {
+            return;
+        }
+        List<NodeId> ids = new ArrayList<NodeId>(rows.size());
+        for (ScoreNode[] row : rows) {
+            for (ScoreNode node : row) {
+                if (node != null) {
+                    ids.add(node.getNodeId());
+                }
             }
         }
+        sessionContext.getWorkspace().getItemStateManager().prefetch(ids);
     }
 
     /**
@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
+import org.apache.jackrabbit.core.security.authorization.SubtreeReadPermissions;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.OpenBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ReadPermissionFilter</code> is a lucene filter that excludes the
+ * documents of nodes that are known to be unreadable for a session. The
+ * remaining documents are not necessarily readable, the query result still
+ * checks them individually.
+ * <p>
+ * Documents with a read state that cannot be determined per subtree are
+ * marked and must be checked individually if an exact result is needed,
+ * e.g. to count the readable nodes of a query result.
+ * <p>
+ * The documents of an index are evaluated with the help of the nodes that
+ * are access controlled: every node inherits its read permission from the
+ * nearest access controlled ancestor-or-self, which is evaluated once with
+ * {@link SubtreeReadPermissions#canReadSubtree(NodeId)}. The result is
+ * cached by the {@link CachingMultiIndexReader} per permission key and
+ * therefore computed once per index reader and set of principals.
+ */
+class ReadPermissionFilter extends Filter {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ReadPermissionFilter.class);
+
+    /**
+     * The read state of a document is not yet known.
+     */
+    private static final byte UNKNOWN = 0;
+
+    /**
+     * The document is readable.
+     */
+    private static final byte READABLE = 1;
+
+    /**
+     * The document is not readable.
+     */
+    private static final byte UNREADABLE = 2;
+
+    /**
+     * The document must be checked individually.
+     */
+    private static final byte CHECK = 3;
+
+    /**
+     * The node types of access control content. Documents of this type are
+     * always checked individually.
+     */
+    private static final Name[] AC_NODE_TYPES = {
+        AccessControlConstants.NT_REP_ACL,
+        AccessControlConstants.NT_REP_GRANT_ACE,
+        AccessControlConstants.NT_REP_DENY_ACE
+    };
+
+    /**
+     * The documents that may be readable.
+     */
+    private final OpenBitSet docs;
+
+    /**
+     * The documents that must be checked individually.
+     */
+    private final OpenBitSet checks;
+
+    private ReadPermissionFilter(OpenBitSet docs, OpenBitSet checks) {
+        this.docs = docs;
+        this.checks = checks;
+    }
+
+    /**
+     * Creates a filter for the documents of the given index reader.
+     *
+     * @param reader the index reader as returned by
+     *               {@link SearchIndex#getIndexReader(boolean)}.
+     * @param permissions the read permissions of the session.
+     * @param nsMappings the namespace mappings of the index.
+     * @return the filter.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    static ReadPermissionFilter create(JackrabbitIndexReader reader,
+                                       SubtreeReadPermissions permissions,
+                                       NamespaceMappings nsMappings)
+            throws IOException {
+        IndexReader[] readers;
+        MultiIndexReader base = reader.getBaseReader();
+        if (base instanceof CachingMultiIndexReader) {
+            readers = new IndexReader[]{(IndexReader) base};
+        } else {
+            readers = base.getIndexReaders();
+        }
+        if (readers.length == 1) {
+            return ((CachingMultiIndexReader) readers[0])
+                    .getReadPermissionFilter(permissions, nsMappings);
+        }
+        OpenBitSet docs = new OpenBitSet(reader.maxDoc());
+        OpenBitSet checks = new OpenBitSet(reader.maxDoc());
+        int start = 0;
+        for (IndexReader r : readers) {
+            ReadPermissionFilter sub = ((CachingMultiIndexReader) r)
+                    .getReadPermissionFilter(permissions, nsMappings);
+            copy(sub.docs, docs, start);
+            copy(sub.checks, checks, start);
+            start += r.maxDoc();
+        }
+        return new ReadPermissionFilter(docs, checks);
+    }
+
+    /**
+     * Sets the bits of <code>from</code> in <code>to</code>, shifted by
+     * <code>offset</code>.
+     */
+    private static void copy(OpenBitSet from, OpenBitSet to, int offset) {
+        for (int i = from.nextSetBit(0); i >= 0; i = from.nextSetBit(i + 1)) {
+            to.fastSet(offset + i);
+        }
+    }
+
+    /**
+     * Computes the filter for the documents of <code>reader</code>.
+     *
+     * @param reader the index reader.
+     * @param permissions the read permissions.
+     * @param nsMappings the namespace mappings of the index.
+     * @return the filter for the documents of the reader.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    static ReadPermissionFilter compute(CachingMultiIndexReader reader,
+                                        SubtreeReadPermissions permissions,
+                                        NamespaceMappings nsMappings)
+            throws IOException {
+        int maxDoc = reader.maxDoc();
+        byte[] states = new byte[maxDoc];
+        OpenBitSet boundaries = new OpenBitSet(maxDoc);
+        try {
+            String mixins = nsMappings.translateName(NameConstants.JCR_MIXINTYPES);
+            String primaryType = nsMappings.translateName(NameConstants.JCR_PRIMARYTYPE);
+            collect(reader, FieldNames.createNamedValue(mixins, nsMappings.translateName(
+                    AccessControlConstants.NT_REP_ACCESS_CONTROLLABLE)),
+                    boundaries, null);
+            for (Name name : AC_NODE_TYPES) {
+                collect(reader, FieldNames.createNamedValue(primaryType,
+                        nsMappings.translateName(name)), null, states);
+            }
+        } catch (IllegalNameException e) {
+            throw Util.createIOException(e);
+        }
+
+        Map<NodeId, Byte> subtrees = new HashMap<NodeId, Byte>();
+        OpenBitSet docs = new OpenBitSet(maxDoc);
+        OpenBitSet checks = new OpenBitSet(maxDoc);
+        int[] path = new int[16];
+        int[] parents = new int[1];
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (reader.isDeleted(doc)) {
+                continue;
+            }
+            // walk up to the nearest ancestor-or-self with a known state
+            // or an access controlled node
+            int length = 0;
+            int n = doc;
+            byte state = states[n];
+            while (state == UNKNOWN) {
+                if (length == path.length) {
+                    int[] tmp = new int[length * 2];
+                    System.arraycopy(path, 0, tmp, 0, length);
+                    path = tmp;
+                }
+                path[length++] = n;
+                if (boundaries.fastGet(n)) {
+                    state = evaluate(reader, n, permissions, subtrees);
+                } else {
+                    parents = reader.getParentDocId(n).getDocumentNumbers(
+                            reader, parents);
+                    if (parents.length == 0 || length > maxDoc) {
+                        // top most node in this index: evaluate with the
+                        // entries inherited from its ancestors
+                        state = evaluate(reader, n, permissions, subtrees);
+                    } else {
+                        n = parents[0];
+                        state = states[n];
+                    }
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                states[path[i]] = state;
+            }
+            if (state != UNREADABLE) {
+                docs.fastSet(doc);
+            }
+            if (state == CHECK) {
+                checks.fastSet(doc);
+            }
+        }
+        return new ReadPermissionFilter(docs, checks);
+    }
+
+    /**
+     * Marks the documents that contain the given property value either in
+     * <code>bits</code> or as {@link #CHECK} in <code>states</code>.
+     */
+    private static void collect(IndexReader reader,
+                                String value,
+                                OpenBitSet bits,
+                                byte[] states) throws IOException {
+        TermDocs tDocs = reader.termDocs(new Term(FieldNames.PROPERTIES, value));
+        try {
+            while (tDocs.next()) {
+                if (bits != null) {
+                    bits.fastSet(tDocs.doc());
+                } else {
+                    states[tDocs.doc()] = CHECK;
+                }
+            }
+        } finally {
+            tDocs.close();
+        }
+    }
+
+    /**
+     * Evaluates the read permission for the subtree of the node with the
+     * given document number.
+     */
+    private static byte evaluate(IndexReader reader,
+                                 int doc,
+                                 SubtreeReadPermissions permissions,
+                                 Map<NodeId, Byte> subtrees)
+            throws IOException {
+        NodeId id = new NodeId(reader.document(
+                doc, FieldSelectors.UUID).get(FieldNames.UUID));
+        Byte state = subtrees.get(id);
+        if (state == null) {
+            try {
+                Boolean readable = permissions.canReadSubtree(id);
+                if (readable == null) {
+                    state = CHECK;
+                } else {
+                    state = readable ? READABLE : UNREADABLE;
+                }
+            } catch (RepositoryException e) {
+                log.debug("Unable to evaluate read permission of {}: {}",
+                        id, e.getMessage());
+                state = CHECK;
+            }
+            subtrees.put(id, state);
+        }
+        return state;
+    }
+
+    /**
+     * Returns <code>true</code> if the document may be readable.
+     *
+     * @param doc the document number.
+     * @return <code>false</code> if the document is known to be unreadable.
+     */
+    boolean mayRead(int doc) {
+        return docs.get(doc);
+    }
+
+    /**
+     * Returns <code>true</code> if the read permission of the document is
+     * not known and must be checked individually.
+     *
+     * @param doc the document number.
+     * @return whether the document must be checked individually.
+     */
+    boolean mustCheck(int doc) {
+        return checks.get(doc);
+    }
+
+    /**
+     * Returns query hits that skip the nodes known to be unreadable.
+     *
+     * @param hits the query hits to filter.
+     * @param reader the index reader the filter was created for.
+     * @return the filtered query hits.
+     */
+    QueryHits filter(final QueryHits hits, final IndexReader reader) {
+        return new AbstractQueryHits() {
+            public ScoreNode nextScoreNode() throws IOException {
+                ScoreNode sn;
+                while ((sn = hits.nextScoreNode()) != null) {
+                    int doc;
+                    try {
+                        doc = sn.getDoc(reader);
+                    } catch (IOException e) {
+                        // not in the index, leave decision to the caller
+                        return sn;
+                    }
+                    if (mayRead(doc)) {
+                        return sn;
+                    }
+                }
+                return null;
+            }
+
+            public void close() throws IOException {
+                hits.close();
+            }
+        };
+    }
+
+    //----------------------------------------------------------< Filter >
+
+    /**
+     * {@inheritDoc}
+     */
+    public DocIdSet getDocIdSet(IndexReader reader) {
+        return docs;
+    }
+}
@@ -44,6 +44,12 @@ public final class ScoreNode {
      */
     private final int doc;
 
+    /**
+     * The values of the sort fields for this score node or <code>null</code>
+     * if unknown.
+     */
+    private final Object[] sortValues;
+
     /**
      * Creates a new <code>ScoreNode</code>.
      *
@@ -62,9 +68,22 @@ public final class ScoreNode {
      * @param doc   the document number.
      */
     public ScoreNode(NodeId id, float score, int doc) {
+        this(id, score, doc, null);
+    }
+
+    /**
+     * Creates a new <code>ScoreNode</code> with sort values.
+     *
+     * @param id         the node id.
+     * @param score      the score value.
+     * @param doc        the document number.
+     * @param sortValues the values of the sort fields.
+     */
+    ScoreNode(NodeId id, float score, int doc, Object[] sortValues) {
         this.id = id;
         this.score = score;
         this.doc = doc;
+        this.sortValues = sortValues;
     }
 
     /**
@@ -116,6 +135,20 @@ public final class ScoreNode {
         }
     }
 
+    /**
+     * @return the document number or <code>-1</code> if unknown.
+     */
+    int getDocNumber() {
+        return doc;
+    }
+
+    /**
+     * @return the values of the sort fields or <code>null</code> if unknown.
+     */
+    Object[] getSortValues() {
+        return sortValues;
+    }
+
     public String toString() {
         StringBuffer sb = new StringBuffer(id.toString());
         sb.append("(");
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.ScoreCachingWrappingScorer;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * <code>SearchAfter</code> decides whether a document is ordered after the
+ * position of a {@link QueryCursor} according to the sort order of a query.
+ * It is used to collect only the hits behind the cursor, which keeps the
+ * cost of a page independent of its position in the result.
+ */
+class SearchAfter {
+
+    /**
+     * The sort fields of the query.
+     */
+    private final SortField[] fields;
+
+    /**
+     * The comparators for the sort fields, <code>null</code> for fields that
+     * sort by score.
+     */
+    private final FieldComparator[] comparators;
+
+    /**
+     * The sort values of the cursor.
+     */
+    private final Object[] values;
+
+    /**
+     * The document number of the cursor. If the query is not sorted, the
+     * documents with a greater number are ordered after the cursor.
+     * Otherwise the last sort field orders by node id, so that no other
+     * document has the sort values of the cursor.
+     */
+    private final int doc;
+
+    /**
+     * The document base of the current reader.
+     */
+    private int docBase;
+
+    private SearchAfter(SortField[] fields,
+                        FieldComparator[] comparators,
+                        Object[] values,
+                        int doc) {
+        this.fields = fields;
+        this.comparators = comparators;
+        this.values = values;
+        this.doc = doc;
+    }
+
+    /**
+     * Creates a new <code>SearchAfter</code> for the given cursor.
+     *
+     * @param cursor the cursor.
+     * @param sort   the sort order of the query.
+     * @param reader the top level index reader.
+     * @return the <code>SearchAfter</code>.
+     * @throws IOException if the cursor does not match the sort order or an
+     *                     error occurs while reading from the index.
+     */
+    static SearchAfter create(QueryCursor cursor, Sort sort, IndexReader reader)
+            throws IOException {
+        SortField[] fields = sort.getSort();
+        // the document number may have changed since the cursor was created
+        int doc = cursor.getDoc();
+        boolean found;
+        TermDocs tDocs = reader.termDocs(TermFactory.createUUIDTerm(
+                cursor.getNodeId().toString()));
+        try {
+            found = tDocs.next();
+            if (found) {
+                doc = tDocs.doc();
+            }
+        } finally {
+            tDocs.close();
+        }
+        FieldComparator[] comparators = new FieldComparator[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getType() != SortField.SCORE) {
+                comparators[i] = fields[i].getComparator(1, i);
+                comparators[i].setNextReader(reader, 0);
+            }
+        }
+        Object[] values = cursor.getValues();
+        if (values == null && fields.length > 0) {
+            // hits were not collected with sort values, read them from
+            // the index
+            if (!found) {
+                throw new IOException("Node " + cursor.getNodeId()
+                        + " of query cursor not found in index");
+            }
+            values = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                if (comparators[i] == null) {
+                    values[i] = cursor.getScore();
+                } else {
+                    comparators[i].copy(0, doc);
+                    values[i] = comparators[i].value(0);
+                }
+            }
+        } else if (values != null && values.length != fields.length) {
+            throw new IOException(
+                    "Query cursor does not match the sort order of the query");
+        }
+        return new SearchAfter(fields, comparators, values, doc);
+    }
+
+    /**
+     * @return the first document number that may be ordered after the
+     *         cursor if the query is not sorted.
+     */
+    int getStartDoc() {
+        return doc + 1;
+    }
+
+    /**
+     * Returns <code>true</code> if the document is ordered after the cursor.
+     *
+     * @param doc   the document number relative to the current reader.
+     * @param score the score of the document.
+     * @return whether the document is ordered after the cursor.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    @SuppressWarnings("unchecked")
+    boolean isAfter(int doc, float score) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            int c;
+            if (comparators[i] == null) {
+                // higher scores first
+                c = Float.compare(((Number) values[i]).floatValue(), score);
+            } else {
+                comparators[i].copy(0, doc);
+                c = comparators[i].compareValues(
+                        comparators[i].value(0), values[i]);
+            }
+            if (fields[i].getReverse()) {
+                c = -c;
+            }
+            if (c != 0) {
+                return c > 0;
+            }
+        }
+        return fields.length == 0 && docBase + doc > this.doc;
+    }
+
+    /**
+     * Returns a collector that passes the documents ordered after the cursor
+     * to <code>collector</code>.
+     *
+     * @param collector the collector.
+     * @return the wrapping collector.
+     */
+    Collector wrap(final Collector collector) {
+        return new Collector() {
+
+            private Scorer scorer;
+
+            public void setScorer(Scorer s) throws IOException {
+                scorer = new ScoreCachingWrappingScorer(s);
+                collector.setScorer(scorer);
+            }
+
+            public void collect(int doc) throws IOException {
+                if (isAfter(doc, scorer.score())) {
+                    collector.collect(doc);
+                }
+            }
+
+            public void setNextReader(IndexReader reader, int base)
+                    throws IOException {
+                docBase = base;
+                for (FieldComparator comparator : comparators) {
+                    if (comparator != null) {
+                        comparator.setNextReader(reader, base);
+                    }
+                }
+                collector.setNextReader(reader, base);
+            }
+
+            public boolean acceptsDocsOutOfOrder() {
+                return collector.acceptsDocsOutOfOrder();
+            }
+        };
+    }
+
+    /**
+     * Returns query hits that skip the hits ordered before or at the
+     * cursor.
+     *
+     * @param hits   the query hits in the sort order of the query.
+     * @param reader the top level index reader.
+     * @return the filtered query hits.
+     */
+    QueryHits filter(final QueryHits hits, final IndexReader reader) {
+        return new AbstractQueryHits() {
+            public ScoreNode nextScoreNode() throws IOException {
+                ScoreNode sn;
+                while ((sn = hits.nextScoreNode()) != null) {
+                    int doc;
+                    try {
+                        doc = sn.getDoc(reader);
+                    } catch (IOException e) {
+                        // not in the index
+                        continue;
+                    }
+                    if (isAfter(doc, sn.getScore())) {
+                        return sn;
+                    }
+                }
+                return null;
+            }
+
+            public void close() throws IOException {
+                hits.close();
+            }
+        };
+    }
+}
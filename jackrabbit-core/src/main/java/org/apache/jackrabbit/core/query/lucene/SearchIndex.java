@@ -32,7 +32,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import javax.jcr.ItemNotFoundException;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.InvalidQueryException;
@@ -42,6 +45,9 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.security.AccessManager;
+import org.apache.jackrabbit.core.security.DefaultAccessManager;
+import org.apache.jackrabbit.core.security.authorization.SubtreeReadPermissions;
 import org.apache.jackrabbit.core.cluster.ChangeLogRecord;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.cluster.ClusterRecord;
@@ -65,6 +71,7 @@ import org.apache.jackrabbit.core.query.AbstractQueryHandler;
 import org.apache.jackrabbit.core.query.ExecutableQuery;
 import org.apache.jackrabbit.core.query.QueryHandler;
 import org.apache.jackrabbit.core.query.QueryHandlerContext;
+import org.apache.jackrabbit.core.query.QueryTreeCache;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
 import org.apache.jackrabbit.core.query.lucene.hits.AbstractHitCollector;
@@ -78,10 +85,15 @@ import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.jackrabbit.spi.commons.query.DefaultQueryNodeFactory;
+import org.apache.jackrabbit.spi.commons.query.QueryParser;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
 import org.apache.jackrabbit.spi.commons.query.qom.OrderingImpl;
+import org.apache.jackrabbit.stats.QueryCacheStat;
+import org.apache.jackrabbit.stats.QueryStatCore;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.LimitTokenCountAnalyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -101,6 +113,8 @@ import org.apache.lucene.search.Similarity;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.OpenBitSet;
 import org.apache.lucene.util.Version;
 import org.apache.tika.config.TikaConfig;
 import org.apache.tika.fork.ForkParser;
@@ -283,6 +297,22 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private long maxHistoryAge = 0;
 
+    /**
+     * The directory shared by the cluster where index snapshots are kept.
+     * Index snapshots are disabled if this is <code>null</code>.
+     */
+    private String snapshotPath;
+
+    /**
+     * The interval in seconds at which an index snapshot is published to the
+     * {@link #snapshotPath}. A value of zero or less means this node does not
+     * publish snapshots, but is still initialized from one if its index is
+     * empty.
+     * <p>
+     * Default value is: <code>0</code>.
+     */
+    private long snapshotInterval = 0;
+
     /**
      * maxMergeDocs config parameter
      */
@@ -379,6 +409,15 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int resultFetchSize = Integer.MAX_VALUE;
 
+    /**
+     * The number of result nodes whose states are prefetched from the
+     * persistence manager at once, before access is checked. A value of
+     * <code>1</code> or less disables prefetching.
+     * <p>
+     * Default value is: <code>100</code>.
+     */
+    private int resultPrefetchSize = 100;
+
     /**
      * If set to <code>true</code> the fulltext field is stored and and a term
      * vector is created with offset information.
@@ -488,6 +527,22 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private boolean useSimpleFSDirectory = true;
 
+    /**
+     * The index snapshots in the {@link #snapshotPath} or <code>null</code>
+     * if snapshots are disabled.
+     */
+    private IndexSnapshots snapshots;
+
+    /**
+     * The task that periodically publishes an index snapshot.
+     */
+    private ScheduledFuture<?> snapshotTask;
+
+    /**
+     * The journal revision at the time the previous snapshot task ran.
+     */
+    private long snapshotRevision = -1;
+
     /**
      * The termInfosIndexDivisor.
      */
@@ -504,6 +559,69 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private boolean initializeHierarchyCache = true;
 
+    /**
+     * Flag that indicates whether documents of nodes that are known to be
+     * unreadable are excluded before query hits are collected.
+     */
+    private boolean readPermissionFilter = false;
+
+    /**
+     * Flag that indicates whether ranges of the index are scored in parallel
+     * on the repository thread pool.
+     */
+    private boolean parallelSearch = false;
+
+    /**
+     * Flag that indicates whether the volatile index is searched with near
+     * real-time readers on its index writer.
+     */
+    private boolean nearRealTime = false;
+
+    /**
+     * The interval in milliseconds after which near real-time readers are
+     * refreshed. Zero refreshes the readers after every update.
+     */
+    private long nearRealTimeRefreshInterval = 0;
+
+    /**
+     * The maximum number of parsed queries kept in the query tree cache.
+     */
+    private int queryTreeCacheSize = 1000;
+
+    /**
+     * The cache for parsed queries or <code>null</code> if disabled.
+     */
+    private QueryTreeCache queryTreeCache;
+
+    /**
+     * The maximum size in bytes of the text extraction cache. Zero disables
+     * the cache.
+     */
+    private long textExtractionCacheSize = 0;
+
+    /**
+     * The directory of the text extraction cache or <code>null</code> to
+     * use the directory <code>textcache</code> next to the index directory.
+     */
+    private String textExtractionCachePath;
+
+    /**
+     * The number of threads that build the initial index of a workspace.
+     */
+    private int reindexThreads = 1;
+
+    /**
+     * The number of nodes after which a parallel initial index writes a
+     * checkpoint.
+     */
+    private int reindexCheckpointInterval = 100000;
+
+    /**
+     * The cache for text extracted from binaries or <code>null</code> if
+     * disabled.
+     */
+    private TextExtractionCache textExtractionCache;
+
     /**
      * The name of the redo log factory class implementation.
      */
@@ -542,6 +660,23 @@ public class SearchIndex extends AbstractQueryHandler {
         directoryManager = createDirectoryManager();
         redoLogFactory = createRedoLogFactory();
 
+        ClusterNode cn = context.getClusterNode();
+        if (snapshotPath != null && cn != null) {
+            snapshots = new IndexSnapshots(new File(snapshotPath));
+            if (isIndexEmpty()) {
+                long revision = snapshots.restore(directoryManager);
+                if (revision >= 0
+                        && !cn.skipRecords(context.getWorkspace(), revision)) {
+                    // this cluster node already processed journal records,
+                    // the snapshot may lack some of them: build the initial
+                    // index instead
+                    log.info("Unable to skip journal records up to revision "
+                            + revision + ", discarding index snapshot");
+                    IndexSnapshots.clear(directoryManager);
+                }
+            }
+        }
+
         if (context.getParentHandler() instanceof SearchIndex) {
             // use system namespace mappings
             SearchIndex sysIndex = (SearchIndex) context.getParentHandler();
@@ -569,6 +704,9 @@ public class SearchIndex extends AbstractQueryHandler {
 
         // initialize the Tika parser
         parser = createParser();
+        if (textExtractionCacheSize > 0) {
+            textExtractionCache = createTextExtractionCache();
+        }
 
         index = new MultiIndex(this, excludedIDs);
         if (index.numDocs() == 0) {
@@ -607,6 +745,16 @@ public class SearchIndex extends AbstractQueryHandler {
         // initialize spell checker
         spellChecker = createSpellChecker();
 
+        if (queryTreeCacheSize > 0) {
+            queryTreeCache = new QueryTreeCache(
+                    context.getNamespaceRegistry(), queryTreeCacheSize);
+            context.getNodeTypeRegistry().addListener(queryTreeCache);
+        }
+
+        if (snapshots != null && snapshotInterval > 0) {
+            scheduleSnapshotTask();
+        }
+
         log.info("Index initialized: {} Version: {}",
                 new Object[]{path, index.getIndexFormatVersion()});
         if (!index.getIndexFormatVersion().equals(getIndexFormatVersion())) {
@@ -731,13 +879,46 @@ public class SearchIndex extends AbstractQueryHandler {
     public ExecutableQuery createExecutableQuery(
             SessionContext sessionContext, String statement, String language)
             throws InvalidQueryException {
+        QueryTreeCache cache = getQueryTreeCache(sessionContext);
+        QueryRootNode root = null;
+        if (cache != null) {
+            root = (QueryRootNode) cache.get(language, statement);
+            QueryStatCore queryStat = sessionContext.getRepositoryContext()
+                    .getStatManager().getQueryStat();
+            if (queryStat instanceof QueryCacheStat) {
+                ((QueryCacheStat) queryStat).logQueryCacheLookup(root != null);
+            }
+        }
+        if (root == null) {
+            root = QueryParser.parse(
+                    statement, language, sessionContext, getQueryNodeFactory());
+            if (cache != null) {
+                cache.put(language, statement, root);
+            }
+        }
         QueryImpl query = new QueryImpl(
                 sessionContext, this, getContext().getPropertyTypeRegistry(),
-                statement, language, getQueryNodeFactory());
+                root);
         query.setRespectDocumentOrder(documentOrder);
         return query;
     }
 
+    /**
+     * Returns the cache for parsed queries that can be used by the given
+     * session.
+     *
+     * @param sessionContext component context of the session.
+     * @return the cache or <code>null</code> if the cache is disabled or the
+     *         session has local namespace mappings.
+     */
+    public QueryTreeCache getQueryTreeCache(SessionContext sessionContext) {
+        if (queryTreeCache == null
+                || sessionContext.getSessionImpl().hasLocalNamespaceMappings()) {
+            return null;
+        }
+        return queryTreeCache;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -745,7 +926,7 @@ public class SearchIndex extends AbstractQueryHandler {
             throws RepositoryException, IOException {
         final List<Integer> docs = new ArrayList<Integer>();
         final List<NodeId> ids = new ArrayList<NodeId>();
-        final IndexReader reader = getIndexReader();
+        final IndexReader reader = getIndexReader(true, false);
         try {
             IndexSearcher searcher = new IndexSearcher(reader);
             try {
@@ -773,7 +954,7 @@ public class SearchIndex extends AbstractQueryHandler {
     List<Document> getNodeDocuments(NodeId id) throws RepositoryException, IOException {
         final List<Integer> docIds = new ArrayList<Integer>(1);
         final List<Document> docs = new ArrayList<Document>();
-        final IndexReader reader = getIndexReader();
+        final IndexReader reader = getIndexReader(true, false);
         try {
             IndexSearcher searcher = new IndexSearcher(reader);
             try {
@@ -839,6 +1020,15 @@ public class SearchIndex extends AbstractQueryHandler {
         if (spellChecker != null) {
             spellChecker.close();
         }
+        if (queryTreeCache != null) {
+            getContext().getNodeTypeRegistry().removeListener(queryTreeCache);
+        }
+        if (snapshotTask != null) {
+            // waits for a snapshot that is currently published
+            synchronized (this) {
+                snapshotTask.cancel(false);
+            }
+        }
         index.close();
         getContext().destroy();
         super.close();
@@ -867,6 +1057,37 @@ public class SearchIndex extends AbstractQueryHandler {
                                              boolean[] orderSpecs,
                                              String[] orderFuncs, long resultFetchHint)
             throws IOException {
+        return executeQuery(session, queryImpl, query, orderProps,
+                orderSpecs, orderFuncs, resultFetchHint, null);
+    }
+
+    /**
+     * Executes the query on the search index and returns the hits that are
+     * ordered after the given cursor.
+     *
+     * @param session         the session that executes the query.
+     * @param queryImpl       the query impl.
+     * @param query           the lucene query.
+     * @param orderProps      name of the properties for sort order.
+     * @param orderSpecs      the order specs for the sort order properties.
+     *                        <code>true</code> indicates ascending order,
+     *                        <code>false</code> indicates descending.
+     * @param orderFuncs      functions for the properties for sort order.
+     * @param resultFetchHint a hint on how many results should be fetched.
+     * @param cursor          the cursor or <code>null</code> to return all
+     *                        hits.
+     * @return the query hits.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    public MultiColumnQueryHits executeQuery(SessionImpl session,
+                                             AbstractQueryImpl queryImpl,
+                                             Query query,
+                                             Path[] orderProps,
+                                             boolean[] orderSpecs,
+                                             String[] orderFuncs,
+                                             long resultFetchHint,
+                                             QueryCursor cursor)
+            throws IOException {
         checkOpen();
 
         Sort sort = new Sort(createSortFields(orderProps, orderSpecs, orderFuncs));
@@ -875,6 +1096,11 @@ public class SearchIndex extends AbstractQueryHandler {
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
+        searcher.setReadPermissionFilter(createReadPermissionFilter(session, reader));
+        if (parallelSearch) {
+            searcher.setParallelExecutor(getContext().getExecutor());
+        }
+        searcher.setQueryCursor(cursor);
         return new FilterMultiColumnQueryHits(
                 searcher.execute(query, sort, resultFetchHint,
                         QueryImpl.DEFAULT_SELECTOR_NAME)) {
@@ -888,6 +1114,114 @@ public class SearchIndex extends AbstractQueryHandler {
         };
     }
 
+    /**
+     * Counts the nodes that match the query and are readable by the session.
+     * The nodes are not loaded, only the read permission of nodes that are
+     * not covered by the read permission filter is checked individually.
+     *
+     * @param session   the session that executes the query.
+     * @param queryImpl the query impl.
+     * @param query     the lucene query.
+     * @return the number of readable nodes that match the query.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    public long countQuery(SessionImpl session,
+                           AbstractQueryImpl queryImpl,
+                           Query query) throws IOException {
+        checkOpen();
+        IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
+        try {
+            return collectReadableDocs(session, reader, query).cardinality();
+        } finally {
+            Util.closeOrRelease(reader);
+        }
+    }
+
+    /**
+     * Counts the values of a property of the nodes that match the query and
+     * are readable by the session. A node with a multi-valued property is
+     * counted once for each distinct value.
+     *
+     * @param session      the session that executes the query.
+     * @param queryImpl    the query impl.
+     * @param query        the lucene query.
+     * @param propertyName the name of the property.
+     * @return the number of nodes by property value, ordered by descending
+     *         count.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    public Map<String, Long> facetQuery(SessionImpl session,
+                                        AbstractQueryImpl queryImpl,
+                                        Query query,
+                                        Name propertyName)
+            throws IOException {
+        checkOpen();
+        String prefix;
+        try {
+            prefix = FieldNames.createNamedValue(
+                    nsMappings.translateName(propertyName), "");
+        } catch (IllegalNameException e) {
+            throw Util.createIOException(e);
+        }
+        IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
+        try {
+            Facets facets = new Facets(nsMappings, session);
+            facets.count(reader, collectReadableDocs(session, reader, query),
+                    prefix);
+            return facets.getCounts();
+        } finally {
+            Util.closeOrRelease(reader);
+        }
+    }
+
+    /**
+     * Collects the documents that match the query and are readable by the
+     * session.
+     *
+     * @param session the session that executes the query.
+     * @param reader  the index reader returned by {@link #getIndexReader(boolean)}.
+     * @param query   the lucene query.
+     * @return the document numbers of the readable hits.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    private OpenBitSet collectReadableDocs(SessionImpl session,
+                                           IndexReader reader,
+                                           Query query) throws IOException {
+        JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                session, reader, getContext().getItemStateManager());
+        searcher.setSimilarity(getSimilarity());
+        ReadPermissionFilter filter = createReadPermissionFilter(session, reader);
+        searcher.setReadPermissionFilter(filter);
+        OpenBitSet docs = searcher.collect(query);
+        try {
+            AccessManager am = session.getAccessManager();
+            if (filter == null && am instanceof DefaultAccessManager
+                    && ((DefaultAccessManager) am).canReadAll()) {
+                return docs;
+            }
+            for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+                if (filter != null && !filter.mustCheck(doc)) {
+                    continue;
+                }
+                NodeId id = new NodeId(reader.document(
+                        doc, FieldSelectors.UUID).get(FieldNames.UUID));
+                boolean readable;
+                try {
+                    readable = am.canRead(null, id);
+                } catch (ItemNotFoundException e) {
+                    // node deleted while query was executed
+                    readable = false;
+                }
+                if (!readable) {
+                    docs.fastClear(doc);
+                }
+            }
+        } catch (RepositoryException e) {
+            throw Util.createIOException(e);
+        }
+        return docs;
+    }
+
     /**
      * Executes the query on the search index.
      *
@@ -909,6 +1243,9 @@ public class SearchIndex extends AbstractQueryHandler {
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
+        if (parallelSearch) {
+            searcher.setParallelExecutor(getContext().getExecutor());
+        }
         return new FilterMultiColumnQueryHits(
                 query.execute(searcher, orderings, resultFetchHint)) {
             public void close() throws IOException {
@@ -999,6 +1336,34 @@ public class SearchIndex extends AbstractQueryHandler {
         return parser;
     }
 
+    /**
+     * Opens the text extraction cache. The cached text is discarded when
+     * the Tika version or the Tika configuration changes. The maximum
+     * extraction length is part of the key of every entry.
+     *
+     * @return the text extraction cache.
+     * @throws IOException if the cache directory cannot be initialized.
+     */
+    private TextExtractionCache createTextExtractionCache() throws IOException {
+        File dir;
+        if (textExtractionCachePath != null) {
+            dir = new File(textExtractionCachePath);
+        } else {
+            dir = new File(new File(path).getAbsoluteFile().getParentFile(),
+                    "textcache");
+        }
+        StringBuilder key = new StringBuilder();
+        key.append("tika=").append(
+                TikaConfig.class.getPackage().getImplementationVersion());
+        key.append(";config=").append(tikaConfigPath);
+        if (tikaConfigPath != null) {
+            key.append(';').append(new File(tikaConfigPath).lastModified());
+        }
+        key.append(";fork=").append(forkJavaCommand != null);
+        return new TextExtractionCache(
+                dir, key.toString(), textExtractionCacheSize);
+    }
+
     private Parser createParser() {
         URL url = null;
         if (tikaConfigPath != null) {
@@ -1164,22 +1529,78 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     protected IndexReader getIndexReader(boolean includeSystemIndex)
             throws IOException {
+        return getIndexReader(includeSystemIndex, true);
+    }
+
+    /**
+     * Returns an index reader for this search index. The caller of this method
+     * is responsible for closing the index reader when he is finished using
+     * it.
+     *
+     * @param includeSystemIndex if <code>true</code> the index reader will
+     *                           cover the complete workspace. If
+     *                           <code>false</code> the returned index reader
+     *                           will not contains any nodes under /jcr:system.
+     * @param allowOutdated      if <code>true</code> the index reader may
+     *                           miss the updates of the last near real-time
+     *                           refresh interval. Only queries may use such
+     *                           a reader.
+     * @return an index reader for this search index.
+     * @throws IOException the index reader cannot be obtained.
+     */
+    protected IndexReader getIndexReader(boolean includeSystemIndex,
+                                         boolean allowOutdated)
+            throws IOException {
         QueryHandler parentHandler = getContext().getParentHandler();
         CachingMultiIndexReader parentReader = null;
         if (parentHandler instanceof SearchIndex && includeSystemIndex) {
-            parentReader = ((SearchIndex) parentHandler).index.getIndexReader();
+            parentReader = ((SearchIndex) parentHandler).index.getIndexReader(
+                    false, allowOutdated);
         }
 
         IndexReader reader;
         if (parentReader != null) {
-            CachingMultiIndexReader[] readers = {index.getIndexReader(), parentReader};
+            CachingMultiIndexReader[] readers = {
+                    index.getIndexReader(false, allowOutdated), parentReader};
             reader = new CombinedIndexReader(readers);
         } else {
-            reader = index.getIndexReader();
+            reader = index.getIndexReader(false, allowOutdated);
         }
         return new JackrabbitIndexReader(reader);
     }
 
+    /**
+     * Creates a filter that excludes the documents of nodes that are known
+     * to be unreadable for the given session.
+     *
+     * @param session the session that executes the query.
+     * @param reader  the index reader returned by {@link #getIndexReader(boolean)}.
+     * @return the filter or <code>null</code> if the session can read all
+     *         nodes or the filter is disabled.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private ReadPermissionFilter createReadPermissionFilter(SessionImpl session,
+                                                            IndexReader reader)
+            throws IOException {
+        if (!readPermissionFilter || !(reader instanceof JackrabbitIndexReader)
+                || !(session.getAccessManager() instanceof DefaultAccessManager)) {
+            return null;
+        }
+        SubtreeReadPermissions permissions;
+        try {
+            permissions = ((DefaultAccessManager) session.getAccessManager())
+                    .getSubtreeReadPermissions();
+        } catch (RepositoryException e) {
+            log.debug("Unable to obtain read permissions: {}", e.getMessage());
+            return null;
+        }
+        if (permissions == null) {
+            return null;
+        }
+        return ReadPermissionFilter.create((JackrabbitIndexReader) reader,
+                permissions, getNamespaceMappings());
+    }
+
     /**
      * Creates the SortFields for the order properties.
      *
@@ -1254,6 +1675,7 @@ public class SearchIndex extends AbstractQueryHandler {
         indexer.setIndexingConfiguration(indexingConfig);
         indexer.setIndexFormatVersion(indexFormatVersion);
         indexer.setMaxExtractLength(getMaxExtractLength());
+        indexer.setTextExtractionCache(textExtractionCache);
         Document doc = indexer.createDoc();
         mergeAggregatedNodeIndexes(node, doc, indexFormatVersion);
         return doc;
@@ -1794,6 +2216,63 @@ public class SearchIndex extends AbstractQueryHandler {
 
     //----------------------------< internal >----------------------------------
 
+    /**
+     * @return <code>true</code> if the index directory does not contain any
+     *         files or sub directories yet.
+     * @throws IOException if the index directory cannot be read.
+     */
+    private boolean isIndexEmpty() throws IOException {
+        if (directoryManager.getDirectoryNames().length > 0) {
+            return false;
+        }
+        Directory dir = directoryManager.getDirectory(".");
+        try {
+            return dir.listAll().length == 0;
+        } finally {
+            dir.close();
+        }
+    }
+
+    /**
+     * Schedules a background task that publishes an index snapshot every
+     * {@link #snapshotInterval} seconds.
+     */
+    private void scheduleSnapshotTask() {
+        snapshotRevision = getContext().getClusterNode().getRevision();
+        snapshotTask = getContext().getExecutor().scheduleWithFixedDelay(
+                new Runnable() {
+                    public void run() {
+                        publishSnapshot();
+                    }
+                }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Publishes an index snapshot unless the index did not change since the
+     * latest snapshot. A change may already be written to the journal before
+     * it is indexed, therefore the snapshot is tagged with the revision of
+     * the previous run of this task, which is certainly reflected by the
+     * index. Replaying the records in between once more is harmless.
+     */
+    private synchronized void publishSnapshot() {
+        ClusterNode cn = getContext().getClusterNode();
+        long revision = snapshotRevision;
+        snapshotRevision = cn.getRevision();
+        if (closed || revision <= snapshots.getLatestRevision()) {
+            return;
+        }
+        try {
+            Map<String, Collection<String>> files = index.getSnapshotFiles();
+            if (new File(path, NS_MAPPING_FILE).exists()) {
+                files.get(".").add(NS_MAPPING_FILE);
+            }
+            snapshots.publish(directoryManager, files, cn.getId(), revision);
+        } catch (IOException e) {
+            log.warn("Unable to publish index snapshot, consider increasing"
+                    + " maxHistoryAge: " + e);
+        }
+    }
+
     /**
      * Combines multiple {@link CachingMultiIndexReader} into a <code>MultiReader</code>
      * with {@link HierarchyResolver} support.
@@ -2136,6 +2615,24 @@ public class SearchIndex extends AbstractQueryHandler {
         return resultFetchSize;
     }
 
+    /**
+     * Sets the number of result nodes whose states are loaded from the
+     * persistence manager in one go when query results are collected.
+     *
+     * @param size the number of result nodes to prefetch at once.
+     */
+    public void setResultPrefetchSize(int size) {
+        resultPrefetchSize = size;
+    }
+
+    /**
+     * @return the number of result nodes whose states are loaded from the
+     *         persistence manager in one go when query results are collected.
+     */
+    public int getResultPrefetchSize() {
+        return resultPrefetchSize;
+    }
+
     /**
      * The number of background threads for the extractor pool.
      *
@@ -2520,6 +3017,199 @@ public class SearchIndex extends AbstractQueryHandler {
         this.initializeHierarchyCache = initializeHierarchyCache;
     }
 
+    /**
+     * @return <code>true</code> if documents of unreadable nodes are
+     *         excluded before query hits are collected.
+     */
+    public boolean isReadPermissionFilter() {
+        return readPermissionFilter;
+    }
+
+    /**
+     * Whether documents of nodes that are known to be unreadable for the
+     * session are excluded before query hits are collected. The readable
+     * documents are computed once per index reader and set of principals,
+     * which walks all documents of the index on the first query of a set of
+     * principals and may be expensive for large indexes that change
+     * frequently. Disabled per default.
+     *
+     * @param b <code>true</code> to enable the filter.
+     */
+    public void setReadPermissionFilter(boolean b) {
+        this.readPermissionFilter = b;
+    }
+
+    /**
+     * @return <code>true</code> if ranges of the index are scored in
+     *         parallel.
+     */
+    public boolean isParallelSearch() {
+        return parallelSearch;
+    }
+
+    /**
+     * Whether ranges of the index are scored in parallel on the repository
+     * thread pool. Queries with hierarchy constraints are always evaluated
+     * on the calling thread. Sorted queries keep the document numbers and
+     * scores of all hits in memory while the hits are sorted. Disabled per
+     * default.
+     *
+     * @param b <code>true</code> to enable parallel search.
+     */
+    public void setParallelSearch(boolean b) {
+        this.parallelSearch = b;
+    }
+
+    /**
+     * @return <code>true</code> if the volatile index is searched with near
+     *         real-time readers.
+     */
+    public boolean isNearRealTime() {
+        return nearRealTime;
+    }
+
+    /**
+     * Whether the volatile index is searched with near real-time readers that
+     * are opened on its index writer. Updates then no longer close and re-open
+     * the writer of the volatile index, and queries re-use the current index
+     * reader while an update is in progress. Disabled per default.
+     *
+     * @param b <code>true</code> to enable near real-time readers.
+     */
+    public void setNearRealTime(boolean b) {
+        this.nearRealTime = b;
+    }
+
+    /**
+     * @return the interval in milliseconds after which near real-time readers
+     *         are refreshed.
+     */
+    public long getNearRealTimeRefreshInterval() {
+        return nearRealTimeRefreshInterval;
+    }
+
+    /**
+     * Sets the interval in milliseconds after which near real-time readers
+     * are refreshed. With a value greater than zero, queries may not see the
+     * changes of the most recent updates until the interval has passed.
+     * Indexing itself, for example the lookup of aggregate roots, always
+     * uses a reader that reflects all updates. The
+     * default value is 0, which refreshes the readers after every update.
+     * Only applies if {@link #setNearRealTime(boolean) near real-time}
+     * readers are enabled.
+     *
+     * @param millis the refresh interval in milliseconds.
+     */
+    public void setNearRealTimeRefreshInterval(long millis) {
+        this.nearRealTimeRefreshInterval = millis;
+    }
+
+    /**
+     * @return the maximum number of parsed queries kept in the query tree
+     *         cache.
+     */
+    public int getQueryTreeCacheSize() {
+        return queryTreeCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of parsed queries kept in the query tree cache
+     * of this workspace. Queries with the same language and statement then
+     * re-use the parsed query tree. The default value is 1000, 0 disables
+     * the cache.
+     *
+     * @param size the maximum number of cached query trees.
+     */
+    public void setQueryTreeCacheSize(int size) {
+        this.queryTreeCacheSize = size;
+    }
+
+    /**
+     * @return the maximum size in bytes of the text extraction cache.
+     */
+    public long getTextExtractionCacheSize() {
+        return textExtractionCacheSize;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the text extraction cache. The cache
+     * keeps the text extracted from binaries in the data store on disk, so
+     * that re-indexing or indexing another copy of a binary does not parse
+     * the binary again. The default value is 0, which disables the cache.
+     *
+     * @param size the maximum size of the cache in bytes.
+     */
+    public void setTextExtractionCacheSize(long size) {
+        this.textExtractionCacheSize = size;
+    }
+
+    /**
+     * @return the directory of the text extraction cache or
+     *         <code>null</code> if the default directory is used.
+     */
+    public String getTextExtractionCachePath() {
+        return textExtractionCachePath;
+    }
+
+    /**
+     * Sets the directory of the text extraction cache. The default is the
+     * directory <code>textcache</code> next to the index directory, which
+     * survives the deletion of the index directory to force a re-index.
+     *
+     * @param path the directory of the text extraction cache.
+     */
+    public void setTextExtractionCachePath(String path) {
+        this.textExtractionCachePath = path;
+    }
+
+    /**
+     * @return the number of threads that build the initial index of a
+     *         workspace.
+     */
+    public int getReindexThreads() {
+        return reindexThreads;
+    }
+
+    /**
+     * Sets the number of threads that build the initial index of a
+     * workspace. With more than one thread, the nodes are read in batches
+     * from an {@link org.apache.jackrabbit.core.persistence.IterablePersistenceManager}
+     * and each thread writes its own index segment. The progress is recorded
+     * regularly, an interrupted initial index is resumed on the next start.
+     * The index of the <code>jcr:system</code> tree is always built on a
+     * single thread. The default value is 1.
+     *
+     * @param numThreads the number of threads.
+     */
+    public void setReindexThreads(int numThreads) {
+        if (numThreads < 1) {
+            numThreads = 1;
+        }
+        this.reindexThreads = numThreads;
+    }
+
+    /**
+     * @return the number of nodes after which a parallel initial index
+     *         writes a checkpoint.
+     */
+    public int getReindexCheckpointInterval() {
+        return reindexCheckpointInterval;
+    }
+
+    /**
+     * Sets the number of nodes after which an initial index that is built
+     * on more than one thread records its progress. The default value is
+     * 100000.
+     *
+     * @param interval the number of nodes.
+     */
+    public void setReindexCheckpointInterval(int interval) {
+        if (interval < 1) {
+            interval = 1;
+        }
+        this.reindexCheckpointInterval = interval;
+    }
+
     /**
      * @return the maximum age in seconds for outdated generations of
      * {@link IndexInfos}.
@@ -2538,6 +3228,50 @@ public class SearchIndex extends AbstractQueryHandler {
         this.maxHistoryAge = maxHistoryAge;
     }
 
+    /**
+     * @return the directory shared by the cluster where index snapshots are
+     *         kept or <code>null</code> if snapshots are disabled.
+     */
+    public String getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    /**
+     * Sets the directory shared by the cluster where index snapshots are
+     * kept. Every search index needs its own directory, e.g.
+     * <code>/shared/snapshots/${wsp.name}</code>. A cluster node that starts
+     * with an empty index and has not processed any journal records yet
+     * copies the latest snapshot from this directory and skips the change
+     * records of the workspace that the snapshot already reflects.
+     *
+     * @param path the snapshot directory.
+     */
+    public void setSnapshotPath(String path) {
+        this.snapshotPath = path;
+    }
+
+    /**
+     * @return the interval in seconds at which this node publishes an index
+     *         snapshot.
+     */
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * Sets the interval in seconds at which this node publishes an index
+     * snapshot. Only a few nodes of a cluster need to publish snapshots.
+     * Because the index files are copied while the index is in use,
+     * {@link #setMaxHistoryAge(long) maxHistoryAge} should be larger than
+     * the time it takes to copy the index.
+     *
+     * @param interval the interval in seconds, zero or less disables
+     *          publishing.
+     */
+    public void setSnapshotInterval(long interval) {
+        this.snapshotInterval = interval;
+    }
+
     /**
      * @return the name of the redo log factory class.
      */
@@ -17,8 +17,10 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -29,6 +31,7 @@ import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.index.TermPositions;
+import org.apache.lucene.util.OpenBitSet;
 
 /**
  * Implements a variant of the lucene class <code>org.apache.lucene.search.FieldCacheImpl</code>.
@@ -65,6 +68,16 @@ public class SharedFieldCache {
          */
         public final boolean sparse;
 
+        /**
+         * Creates a value index for a sub class that keeps the values
+         * itself.
+         */
+        protected ValueIndex() {
+            this.sparse = false;
+            this.values = null;
+            this.valuesMap = null;
+        }
+
         /**
          * Creates one of these objects
          */
@@ -92,6 +105,20 @@ public class SharedFieldCache {
             }
         }
 
+        /**
+         * Compares a value with the value of a document, in the order of
+         * {@link Util#compare(Comparable, Comparable)}.
+         *
+         * @param value a value, may be <code>null</code>.
+         * @param i     the document number.
+         * @return a negative integer, zero, or a positive integer as the
+         *         value is less than, equal to, or greater than the value of
+         *         the document.
+         */
+        public int compare(Comparable<?> value, int i) {
+            return Util.compare(value, getValue(i));
+        }
+
         private static Map<Integer, Comparable<?>> getValuesMap(Comparable<?>[] values, int setValues) {
             Map<Integer, Comparable<?>> map = new HashMap<Integer, Comparable<?>>(setValues);
             for (int i = 0; i < values.length && setValues > 0; i++) {
@@ -113,6 +140,184 @@ public class SharedFieldCache {
         }
     }
 
+    /**
+     * A value index for <code>LONG</code> and <code>DATE</code> properties
+     * with at most one value per document. The values are kept in a
+     * <code>long</code> array.
+     */
+    public static class LongValueIndex extends ValueIndex {
+
+        /**
+         * The values by document number.
+         */
+        private final long[] values;
+
+        /**
+         * The documents that have a value.
+         */
+        private final OpenBitSet present;
+
+        LongValueIndex(long[] values, OpenBitSet present) {
+            this.values = values;
+            this.present = present;
+        }
+
+        public Comparable<?> getValue(int i) {
+            return present.fastGet(i) ? values[i] : null;
+        }
+
+        public int compare(Comparable<?> value, int i) {
+            if (value instanceof Long && present.fastGet(i)) {
+                long v = (Long) value;
+                return v < values[i] ? -1 : (v == values[i] ? 0 : 1);
+            }
+            return super.compare(value, i);
+        }
+    }
+
+    /**
+     * A value index for <code>DOUBLE</code> properties with at most one
+     * value per document. The values are kept in a <code>double</code>
+     * array.
+     */
+    public static class DoubleValueIndex extends ValueIndex {
+
+        /**
+         * The values by document number.
+         */
+        private final double[] values;
+
+        /**
+         * The documents that have a value.
+         */
+        private final OpenBitSet present;
+
+        DoubleValueIndex(double[] values, OpenBitSet present) {
+            this.values = values;
+            this.present = present;
+        }
+
+        public Comparable<?> getValue(int i) {
+            return present.fastGet(i) ? values[i] : null;
+        }
+
+        public int compare(Comparable<?> value, int i) {
+            if (value instanceof Double && present.fastGet(i)) {
+                return Double.compare((Double) value, values[i]);
+            }
+            return super.compare(value, i);
+        }
+    }
+
+    /**
+     * A value index for string valued properties with at most one value per
+     * document. Every document refers to its value by the ordinal of the
+     * value in a term dictionary.
+     */
+    public static class OrdinalValueIndex extends ValueIndex {
+
+        /**
+         * The distinct values in term order.
+         */
+        private final String[] terms;
+
+        /**
+         * The ordinals by document number, -1 if a document has no value.
+         */
+        private final int[] ords;
+
+        OrdinalValueIndex(String[] terms, int[] ords) {
+            this.terms = terms;
+            this.ords = ords;
+        }
+
+        public Comparable<?> getValue(int i) {
+            int ord = ords[i];
+            return ord < 0 ? null : terms[ord];
+        }
+
+        public int compare(Comparable<?> value, int i) {
+            int ord = ords[i];
+            if (value instanceof String && ord >= 0) {
+                return ((String) value).compareTo(terms[ord]);
+            }
+            return super.compare(value, i);
+        }
+    }
+
+    /**
+     * Stores the distinct term values of a property in term order and the
+     * ordinals of the values of every document.
+     */
+    public static class TermOrdinals {
+
+        /**
+         * The term values, the index is the ordinal of a value.
+         */
+        private final String[] terms;
+
+        /**
+         * The property type of every term value.
+         */
+        private final int[] types;
+
+        /**
+         * The ordinals of document <code>i</code> are stored in
+         * {@link #ords} from <code>starts[i]</code> (inclusive) to
+         * <code>starts[i + 1]</code> (exclusive).
+         */
+        private final int[] starts;
+
+        /**
+         * The ordinals of all documents.
+         */
+        private final int[] ords;
+
+        TermOrdinals(String[] terms, int[] types, int[] starts, int[] ords) {
+            this.terms = terms;
+            this.types = types;
+            this.starts = starts;
+            this.ords = ords;
+        }
+
+        /**
+         * @return the number of distinct term values.
+         */
+        public int size() {
+            return terms.length;
+        }
+
+        /**
+         * @param ord an ordinal.
+         * @return the term value, without the property name prefix.
+         */
+        public String getTerm(int ord) {
+            return terms[ord];
+        }
+
+        /**
+         * @param ord an ordinal.
+         * @return the property type of the value, or
+         *         {@link PropertyType#UNDEFINED} if the index does not store
+         *         property types.
+         */
+        public int getType(int ord) {
+            return types[ord];
+        }
+
+        /**
+         * Increments the counts of the values of a document.
+         *
+         * @param doc    the document number.
+         * @param counts the counts indexed by ordinal.
+         */
+        public void count(int doc, int[] counts) {
+            for (int i = starts[doc]; i < starts[doc + 1]; i++) {
+                counts[ords[i]]++;
+            }
+        }
+    }
+
     static class ComparableArray implements Comparable<ComparableArray> {
 
         private int offset = 0;
@@ -197,6 +402,11 @@ public class SharedFieldCache {
      */
     private final Map<IndexReader, Map<Key, ValueIndex>> cache = new WeakHashMap<IndexReader, Map<Key, ValueIndex>>();
 
+    /**
+     * The term ordinals of the readers.
+     */
+    private final Map<IndexReader, Map<Key, TermOrdinals>> ordinals = new WeakHashMap<IndexReader, Map<Key, TermOrdinals>>();
+
     /**
      * Private constructor.
      */
@@ -226,6 +436,12 @@ public class SharedFieldCache {
 
         field = field.intern();
         ValueIndex ret = lookup(reader, field, prefix);
+        if (ret == null && reader.maxDoc() > 0) {
+            ret = createTypedValueIndex(reader, field, prefix);
+            if (ret != null) {
+                store(reader, field, prefix, ret);
+            }
+        }
         if (ret == null) {
             final int maxDocs = reader.maxDoc();
             Comparable<?>[] retArray = new Comparable<?>[maxDocs];
@@ -313,6 +529,252 @@ public class SharedFieldCache {
         return ret;
     }
 
+    /**
+     * Creates a {@link LongValueIndex}, {@link DoubleValueIndex} or
+     * {@link OrdinalValueIndex} if every document has at most one value,
+     * all values map to the same kind of comparable and the values are not
+     * sparse. Otherwise returns <code>null</code>.
+     *
+     * @param reader the <code>IndexReader</code>.
+     * @param field  name of the shared field.
+     * @param prefix the property name, will be used as term prefix.
+     * @return the value index or <code>null</code>.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private static ValueIndex createTypedValueIndex(
+            IndexReader reader, String field, String prefix)
+            throws IOException {
+        int maxDoc = reader.maxDoc();
+        boolean hasPayloads = IndexFormatVersion.getVersion(reader).isAtLeast(
+                IndexFormatVersion.V3);
+        int[] ords = new int[maxDoc];
+        Arrays.fill(ords, -1);
+        List<String> terms = new ArrayList<String>();
+        int kind = -1;
+        int setValues = 0;
+        TermDocs termDocs;
+        if (hasPayloads) {
+            termDocs = reader.termPositions();
+        } else {
+            termDocs = reader.termDocs();
+        }
+        TermEnum termEnum = reader.terms(new Term(field, prefix));
+        try {
+            byte[] payload = new byte[1];
+            do {
+                Term term = termEnum.term();
+                if (term == null || term.field() != field
+                        || !term.text().startsWith(prefix)) {
+                    break;
+                }
+                int ord = terms.size();
+                terms.add(termValueAsString(term, prefix));
+                termDocs.seek(term);
+                while (termDocs.next()) {
+                    int type = PropertyType.UNDEFINED;
+                    if (hasPayloads) {
+                        TermPositions termPos = (TermPositions) termDocs;
+                        termPos.nextPosition();
+                        if (termPos.isPayloadAvailable()) {
+                            payload = termPos.getPayload(payload, 0);
+                            type = PropertyMetaData.fromByteArray(payload).getPropertyType();
+                        }
+                    }
+                    int k = getKind(type);
+                    if (k == PropertyType.UNDEFINED || (kind != -1 && k != kind)) {
+                        // no primitive representation or mixed types
+                        return null;
+                    }
+                    kind = k;
+                    int doc = termDocs.doc();
+                    if (ords[doc] != -1) {
+                        // multi-valued
+                        return null;
+                    }
+                    ords[doc] = ord;
+                    setValues++;
+                }
+            } while (termEnum.next());
+        } finally {
+            termDocs.close();
+            termEnum.close();
+        }
+        if (setValues * ValueIndex.SPARSE_FACTOR < maxDoc) {
+            return null;
+        }
+
+        OpenBitSet present = new OpenBitSet(maxDoc);
+        if (kind == PropertyType.DATE || kind == PropertyType.LONG) {
+            long[] termValues = new long[terms.size()];
+            for (int i = 0; i < termValues.length; i++) {
+                termValues[i] = (Long) getValue(terms.get(i), kind);
+            }
+            long[] values = new long[maxDoc];
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (ords[doc] >= 0) {
+                    values[doc] = termValues[ords[doc]];
+                    present.fastSet(doc);
+                }
+            }
+            return new LongValueIndex(values, present);
+        } else if (kind == PropertyType.DOUBLE) {
+            double[] termValues = new double[terms.size()];
+            for (int i = 0; i < termValues.length; i++) {
+                termValues[i] = DoubleField.stringToDouble(terms.get(i));
+            }
+            double[] values = new double[maxDoc];
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (ords[doc] >= 0) {
+                    values[doc] = termValues[ords[doc]];
+                    present.fastSet(doc);
+                }
+            }
+            return new DoubleValueIndex(values, present);
+        } else {
+            return new OrdinalValueIndex(
+                    terms.toArray(new String[terms.size()]), ords);
+        }
+    }
+
+    /**
+     * Returns the kind of value index for a property type:
+     * {@link PropertyType#DATE} and {@link PropertyType#LONG} for values
+     * that are compared as longs, {@link PropertyType#DOUBLE} for doubles,
+     * {@link PropertyType#STRING} for strings and
+     * {@link PropertyType#UNDEFINED} if the values need a generic value
+     * index.
+     *
+     * @param type the property type of a value.
+     * @return the kind of value index.
+     * @see #getValue(String, int)
+     */
+    private static int getKind(int type) {
+        switch (type) {
+            case PropertyType.DATE:
+            case PropertyType.LONG:
+            case PropertyType.DOUBLE:
+                return type;
+            case PropertyType.BOOLEAN:
+            case PropertyType.DECIMAL:
+                return PropertyType.UNDEFINED;
+            default:
+                return PropertyType.STRING;
+        }
+    }
+
+    /**
+     * Returns the <code>TermOrdinals</code> for a <code>field</code> and a
+     * term <code>prefix</code>. The term prefix acts as the property name
+     * for the shared <code>field</code>.
+     *
+     * @param reader the <code>IndexReader</code>.
+     * @param field  name of the shared field.
+     * @param prefix the property name, will be used as term prefix.
+     * @return the term ordinals of the documents of the reader.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public TermOrdinals getTermOrdinals(IndexReader reader, String field,
+            String prefix) throws IOException {
+
+        if (reader instanceof ReadOnlyIndexReader) {
+            reader = ((ReadOnlyIndexReader) reader).getBase();
+        }
+
+        field = field.intern();
+        Key key = new Key(field, prefix);
+        synchronized (ordinals) {
+            Map<Key, TermOrdinals> readerCache = ordinals.get(reader);
+            if (readerCache != null && readerCache.containsKey(key)) {
+                return readerCache.get(key);
+            }
+        }
+        TermOrdinals ret = createTermOrdinals(reader, field, prefix);
+        synchronized (ordinals) {
+            Map<Key, TermOrdinals> readerCache = ordinals.get(reader);
+            if (readerCache == null) {
+                readerCache = new HashMap<Key, TermOrdinals>();
+                ordinals.put(reader, readerCache);
+            }
+            readerCache.put(key, ret);
+        }
+        return ret;
+    }
+
+    private static TermOrdinals createTermOrdinals(IndexReader reader,
+            String field, String prefix) throws IOException {
+        int maxDoc = reader.maxDoc();
+        boolean hasPayloads = IndexFormatVersion.getVersion(reader).isAtLeast(
+                IndexFormatVersion.V3);
+        List<String> terms = new ArrayList<String>();
+        List<Integer> types = new ArrayList<Integer>();
+        // first pass: count the values per document in starts[doc + 1]
+        int[] starts = new int[maxDoc + 1];
+        TermDocs termDocs;
+        if (hasPayloads) {
+            termDocs = reader.termPositions();
+        } else {
+            termDocs = reader.termDocs();
+        }
+        TermEnum termEnum = reader.terms(new Term(field, prefix));
+        try {
+            do {
+                Term term = termEnum.term();
+                if (term == null || term.field() != field
+                        || !term.text().startsWith(prefix)) {
+                    break;
+                }
+                int type = PropertyType.UNDEFINED;
+                termDocs.seek(term);
+                while (termDocs.next()) {
+                    if (hasPayloads && type == PropertyType.UNDEFINED) {
+                        TermPositions termPos = (TermPositions) termDocs;
+                        termPos.nextPosition();
+                        if (termPos.isPayloadAvailable()) {
+                            byte[] payload = termPos.getPayload(new byte[1], 0);
+                            type = PropertyMetaData.fromByteArray(payload).getPropertyType();
+                        }
+                    }
+                    starts[termDocs.doc() + 1]++;
+                }
+                terms.add(termValueAsString(term, prefix));
+                types.add(type);
+            } while (termEnum.next());
+        } finally {
+            termDocs.close();
+            termEnum.close();
+        }
+        for (int i = 0; i < maxDoc; i++) {
+            starts[i + 1] += starts[i];
+        }
+
+        // second pass: fill in the ordinals
+        int[] ords = new int[starts[maxDoc]];
+        int[] next = new int[maxDoc];
+        System.arraycopy(starts, 0, next, 0, maxDoc);
+        termDocs = reader.termDocs();
+        try {
+            for (int ord = 0; ord < terms.size(); ord++) {
+                termDocs.seek(new Term(field, prefix + terms.get(ord)));
+                while (termDocs.next()) {
+                    int doc = termDocs.doc();
+                    // ignore values of documents deleted after the first pass
+                    if (next[doc] < starts[doc + 1]) {
+                        ords[next[doc]++] = ord;
+                    }
+                }
+            }
+        } finally {
+            termDocs.close();
+        }
+
+        int[] typeArray = new int[types.size()];
+        for (int i = 0; i < typeArray.length; i++) {
+            typeArray[i] = types.get(i);
+        }
+        return new TermOrdinals(terms.toArray(new String[terms.size()]),
+                typeArray, starts, ords);
+    }
+
     /**
      * Extracts the value from a given Term as a String
      * 
@@ -364,7 +826,7 @@ public class SharedFieldCache {
      * @param type the property type.
      * @return a comparable for the <code>value</code>.
      */
-    private Comparable<?> getValue(String value, int type) {
+    private static Comparable<?> getValue(String value, int type) {
         switch (type) {
             case PropertyType.BOOLEAN:
                 return Boolean.valueOf(value);
@@ -163,6 +163,13 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
             return indexes[idx].getValue(doc - starts[idx]);
         }
 
+        @Override
+        protected int compareBottom(Comparable<?> bottom, int doc) {
+            // typed value indexes compare without boxing the value
+            int idx = readerIndex(doc);
+            return indexes[idx].compare(bottom, doc - starts[idx]);
+        }
+
     }
 
     /**
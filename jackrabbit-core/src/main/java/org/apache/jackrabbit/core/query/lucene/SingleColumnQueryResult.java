@@ -50,18 +50,35 @@ public class SingleColumnQueryResult extends QueryResultImpl {
      */
     private String[] orderFuncs;
 
+    /**
+     * The result starts after this cursor, or <code>null</code>.
+     */
+    private final QueryCursor cursor;
+
     public SingleColumnQueryResult(
             SearchIndex index, SessionContext sessionContext,
             AbstractQueryImpl queryImpl, Query query,
             SpellSuggestion spellSuggestion, ColumnImpl[] columns,
             Path[] orderProps, boolean[] orderSpecs, String[] orderFuncs, boolean documentOrder,
             long offset, long limit) throws RepositoryException {
+        this(index, sessionContext, queryImpl, query, spellSuggestion,
+                columns, orderProps, orderSpecs, orderFuncs, documentOrder,
+                offset, limit, null);
+    }
+
+    public SingleColumnQueryResult(
+            SearchIndex index, SessionContext sessionContext,
+            AbstractQueryImpl queryImpl, Query query,
+            SpellSuggestion spellSuggestion, ColumnImpl[] columns,
+            Path[] orderProps, boolean[] orderSpecs, String[] orderFuncs, boolean documentOrder,
+            long offset, long limit, QueryCursor cursor) throws RepositoryException {
         super(index, sessionContext, queryImpl, spellSuggestion,
                 columns, documentOrder, offset, limit);
         this.query = query;
         this.orderProps = orderProps;
         this.orderSpecs = orderSpecs;
         this.orderFuncs = orderFuncs;
+        this.cursor = cursor;
         // if document order is requested get all results right away
         getResults(docOrder ? Integer.MAX_VALUE : index.getResultFetchSize());
     }
@@ -73,7 +90,7 @@ public class SingleColumnQueryResult extends QueryResultImpl {
             throws IOException {
         return index.executeQuery(
                 sessionContext.getSessionImpl(), queryImpl, query,
-                orderProps, orderSpecs, orderFuncs, resultFetchHint);
+                orderProps, orderSpecs, orderFuncs, resultFetchHint, cursor);
     }
 
     /**
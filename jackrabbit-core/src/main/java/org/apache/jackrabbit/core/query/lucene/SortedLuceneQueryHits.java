@@ -19,6 +19,8 @@ package org.apache.jackrabbit.core.query.lucene;
 import java.io.IOException;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -64,6 +66,17 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
      */
     private final Sort sort;
 
+    /**
+     * Collects the hits in parallel, or <code>null</code>.
+     */
+    private final ParallelSearch parallel;
+
+    /**
+     * Restricts the hits to the ones after a query cursor, or
+     * <code>null</code>.
+     */
+    private final SearchAfter after;
+
     /**
      * The index of the current hit. Initially invalid.
      */
@@ -104,9 +117,63 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
      */
     public SortedLuceneQueryHits(IndexSearcher searcher, Query query,
             Sort sort, long resultFetchHint) throws IOException {
+        this(searcher, query, sort, resultFetchHint, null);
+    }
+
+    /**
+     * Creates a new <code>QueryHits</code> instance that collects the hits
+     * with a parallel search.
+     *
+     * @param searcher
+     *            the index searcher.
+     * @param query
+     *            the query to execute.
+     * @param sort
+     *            the sort criteria.
+     * @param resultFetchHint
+     *            a hint on how many results should be pre-fetched from the
+     *            lucene index.
+     * @param parallel
+     *            the parallel search or <code>null</code> to search on the
+     *            calling thread.
+     * @throws IOException
+     *             if an error occurs while reading from the index.
+     */
+    SortedLuceneQueryHits(IndexSearcher searcher, Query query, Sort sort,
+            long resultFetchHint, ParallelSearch parallel) throws IOException {
+        this(searcher, query, sort, resultFetchHint, parallel, null);
+    }
+
+    /**
+     * Creates a new <code>QueryHits</code> instance that only contains the
+     * hits after a query cursor.
+     *
+     * @param searcher
+     *            the index searcher.
+     * @param query
+     *            the query to execute.
+     * @param sort
+     *            the sort criteria.
+     * @param resultFetchHint
+     *            a hint on how many results should be pre-fetched from the
+     *            lucene index.
+     * @param parallel
+     *            the parallel search or <code>null</code> to search on the
+     *            calling thread.
+     * @param after
+     *            restricts the hits to the ones after a query cursor, or
+     *            <code>null</code> for all hits.
+     * @throws IOException
+     *             if an error occurs while reading from the index.
+     */
+    SortedLuceneQueryHits(IndexSearcher searcher, Query query, Sort sort,
+            long resultFetchHint, ParallelSearch parallel, SearchAfter after)
+            throws IOException {
         this.searcher = searcher;
         this.query = query;
         this.sort = sort;
+        this.parallel = parallel;
+        this.after = after;
         this.numHits = (int) Math.min(
                 Math.max(resultFetchHint, MIN_FETCH_SIZE),
                 MAX_FETCH_SIZE);
@@ -136,7 +203,11 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
         String uuid = searcher.doc(doc.doc,
                 FieldSelectors.UUID).get(FieldNames.UUID);
         NodeId id = new NodeId(uuid);
-        return new ScoreNode(id, doc.score, doc.doc);
+        Object[] sortValues = null;
+        if (doc instanceof FieldDoc) {
+            sortValues = ((FieldDoc) doc).fields;
+        }
+        return new ScoreNode(id, doc.score, doc.doc, sortValues);
     }
 
     /**
@@ -153,8 +224,16 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
 
     private void getHits() throws IOException {
     	long time = System.nanoTime();
-        TopFieldCollector collector = TopFieldCollector.create(sort, numHits, false, true, false, false);
-        searcher.search(query, collector);
+        TopFieldCollector collector = TopFieldCollector.create(sort, numHits, true, true, false, false);
+        Collector c = collector;
+        if (after != null) {
+            c = after.wrap(collector);
+        }
+        if (parallel != null) {
+            parallel.search(query, c);
+        } else {
+            searcher.search(query, c);
+        }
         size = collector.getTotalHits();
         offset += scoreDocs.length;
         scoreDocs = collector.topDocs(offset, numHits).scoreDocs;
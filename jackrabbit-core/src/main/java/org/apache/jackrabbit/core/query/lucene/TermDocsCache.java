@@ -17,13 +17,14 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Collections;
-import java.util.BitSet;
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
 
+import org.apache.jackrabbit.core.query.lucene.hits.CompressedBitSet;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.Term;
@@ -43,9 +44,15 @@ public class TermDocsCache {
     private static final Logger log = LoggerFactory.getLogger(TermDocsCache.class);
 
     /**
-     * The default cache size.
+     * The maximum number of terms for which the number of accesses is
+     * tracked. Only terms that are read frequently have cached docs.
      */
-    private static final int CACHE_SIZE = 10;
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * The maximum total memory size in bytes of the cached docs.
+     */
+    private static final long MAX_CACHE_BYTES = 4 * 1024 * 1024;
 
     /**
      * The underlying index reader.
@@ -69,11 +76,17 @@ public class TermDocsCache {
     });
 
     /**
-     * The cache of the {@link #CACHE_SIZE} most frequently requested TermDocs.
-     * Maps term text <code>String</code> to {@link CacheEntry}.
+     * The cache of the most frequently requested TermDocs. It holds at most
+     * {@link #CACHE_SIZE} entries and at most {@link #MAX_CACHE_BYTES} of
+     * cached docs. Maps term text <code>String</code> to {@link CacheEntry}.
      */
     private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>();
 
+    /**
+     * The total memory size of the docs in {@link #cache}.
+     */
+    private long cacheBytes;
+
     /**
      * Creates a new cache for the given <code>reader</code> and
      * <code>field</code>.
@@ -111,22 +124,7 @@ public class TermDocsCache {
             if (entry == null) {
                 // check space
                 if (cache.size() >= CACHE_SIZE) {
-                    // prune half of them and adjust the rest
-                    CacheEntry[] entries = cache.values().toArray(
-                            new CacheEntry[cache.size()]);
-                    Arrays.sort(entries);
-                    int threshold = entries[CACHE_SIZE / 2].numAccessed;
-                    for (Iterator<Map.Entry<String, CacheEntry>> it = cache.entrySet().iterator(); it.hasNext(); ) {
-                        Map.Entry<String, CacheEntry> e = it.next();
-                        if (e.getValue().numAccessed <= threshold) {
-                            // prune
-                            it.remove();
-                        } else {
-                            // adjust
-                            CacheEntry ce = e.getValue();
-                            ce.numAccessed = (int) Math.sqrt(ce.numAccessed);
-                        }
-                    }
+                    prune();
                 }
                 entry = new CacheEntry();
                 cache.put(text, entry);
@@ -145,14 +143,14 @@ public class TermDocsCache {
             return reader.termDocs(t);
         }
 
-        if (entry.bits == null) {
+        CompressedBitSet bits = entry.bits;
+        if (bits == null) {
             // collect bits
-            BitSet bits = null;
             TermDocs tDocs = reader.termDocs(t);
             try {
                 while (tDocs.next()) {
                     if (bits == null) {
-                        bits = new BitSet(reader.maxDoc());
+                        bits = new CompressedBitSet();
                     }
                     bits.set(tDocs.doc());
                 }
@@ -160,32 +158,76 @@ public class TermDocsCache {
                 tDocs.close();
             }
             if (bits != null) {
-                entry.bits = bits;
+                bits.trim();
+                synchronized (cache) {
+                    if (entry.bits == null) {
+                        entry.bits = bits;
+                        // account for the docs only while they are cached
+                        if (cache.get(text) == entry) {
+                            cacheBytes += bits.getMemorySize();
+                            if (cacheBytes > MAX_CACHE_BYTES) {
+                                prune();
+                            }
+                        }
+                    } else {
+                        bits = entry.bits;
+                    }
+                }
             }
         }
 
-        if (entry.bits == null) {
+        if (bits == null) {
             // none collected
             unknownValues.put(text, text);
             return EmptyTermDocs.INSTANCE;
         } else {
             if (log.isDebugEnabled()) {
                 log.debug("CachedTermDocs({},{},{}/{})", new Object[]{
-                        field, text, entry.bits.cardinality(), reader.maxDoc()});
+                        field, text, bits.cardinality(), reader.maxDoc()});
             }
-            return new CachedTermDocs(entry.bits);
+            return new CachedTermDocs(bits);
         }
     }
 
     /**
-     * Implements a {@link TermDocs} base on a {@link BitSet}.
+     * Prunes the less frequently requested half of the cache entries and
+     * adjusts the access counts of the rest. If the remaining docs still
+     * need more than {@link #MAX_CACHE_BYTES}, further entries are pruned
+     * in the order of their access counts. Must be called while holding
+     * the lock on {@link #cache}.
+     */
+    private void prune() {
+        List<Map.Entry<String, CacheEntry>> entries =
+                new ArrayList<Map.Entry<String, CacheEntry>>(cache.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, CacheEntry>>() {
+            public int compare(Map.Entry<String, CacheEntry> e1,
+                               Map.Entry<String, CacheEntry> e2) {
+                return e1.getValue().compareTo(e2.getValue());
+            }
+        });
+        int threshold = entries.get(entries.size() / 2).getValue().numAccessed;
+        for (Map.Entry<String, CacheEntry> e : entries) {
+            CacheEntry ce = e.getValue();
+            if (ce.numAccessed <= threshold || cacheBytes > MAX_CACHE_BYTES) {
+                // prune
+                cache.remove(e.getKey());
+                cacheBytes -= ce.getMemorySize();
+            } else {
+                // adjust
+                ce.numAccessed = (int) Math.sqrt(ce.numAccessed);
+            }
+        }
+    }
+
+    /**
+     * Implements a {@link TermDocs} base on a {@link CompressedBitSet}.
      */
     private static final class CachedTermDocs implements TermDocs {
 
         /**
          * The cached docs for this term.
          */
-        private final BitSet docs;
+        private final CompressedBitSet docs;
 
         /**
          * The current position into the {@link #docs}.
@@ -197,7 +239,7 @@ public class TermDocsCache {
          */
         private boolean moreDocs = true;
 
-        public CachedTermDocs(BitSet docs) {
+        public CachedTermDocs(CompressedBitSet docs) {
             this.docs = docs;
         }
 
@@ -274,7 +316,12 @@ public class TermDocsCache {
 
         private volatile int numAccessed = 1;
 
-        private volatile BitSet bits;
+        private volatile CompressedBitSet bits;
+
+        private long getMemorySize() {
+            CompressedBitSet b = bits;
+            return b == null ? 0 : b.getMemorySize();
+        }
 
         public int compareTo(CacheEntry other) {
             return (numAccessed < other.numAccessed ? -1 : (numAccessed == other.numAccessed ? 0 : 1));
@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.util.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>TextExtractionCache</code> keeps the text extracted from binaries in
+ * the data store in a directory, so that a binary is parsed only once, no
+ * matter how often it is indexed. Entries are keyed by the
+ * {@link DataIdentifier} of the binary, which identifies its content,
+ * together with the content type and encoding passed to the parser and the
+ * maximum length of the extracted text.
+ * <p>
+ * The extracted text depends on the parser configuration. The directory
+ * therefore records a configuration key and is cleared when it is opened
+ * with a different key. The total size of the cached text is limited, the
+ * least recently used entries are removed first.
+ */
+public class TextExtractionCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TextExtractionCache.class);
+
+    /**
+     * The name of the file that contains the configuration key.
+     */
+    private static final String CONFIG_FILE = "config";
+
+    /**
+     * The version of the entry names, which is part of the configuration
+     * key, so that entries with names of another version are cleared.
+     */
+    private static final String VERSION = "2";
+
+    /**
+     * The encoding of the cached text.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The cache directory.
+     */
+    private final File directory;
+
+    /**
+     * The maximum size of the cache directory in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The file sizes of the entries, in access order.
+     */
+    private final Map<String, Long> entries =
+        new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    /**
+     * The current size of all entries in bytes.
+     */
+    private long size;
+
+    /**
+     * Opens a text extraction cache.
+     *
+     * @param directory the cache directory.
+     * @param configKey identifies the parser configuration.
+     * @param maxSize   the maximum size of the cache directory in bytes.
+     * @throws IOException if the directory cannot be initialized.
+     */
+    public TextExtractionCache(File directory, String configKey, long maxSize)
+            throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        configKey = "version=" + VERSION + ";" + configKey;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+        File config = new File(directory, CONFIG_FILE);
+        if (config.exists()
+                && configKey.equals(FileUtils.readFileToString(config, ENCODING))) {
+            readEntries();
+        } else {
+            log.info("Parser configuration changed, clearing {}", directory);
+            for (File f : listFiles(directory)) {
+                if (f.isDirectory()) {
+                    FileUtils.deleteDirectory(f);
+                }
+            }
+            FileUtils.writeStringToFile(config, configKey, ENCODING);
+        }
+    }
+
+    /**
+     * Returns the cached text of a binary.
+     *
+     * @param id        the identifier of the binary.
+     * @param type      the content type of the binary or <code>null</code>.
+     * @param encoding  the encoding of the binary or <code>null</code>.
+     * @param maxLength the maximum length of the extracted text.
+     * @return the text or <code>null</code> if it is not cached.
+     */
+    public String get(DataIdentifier id, String type, String encoding,
+                      int maxLength) {
+        String name = getName(id, type, encoding, maxLength);
+        synchronized (this) {
+            if (entries.get(name) == null) {
+                return null;
+            }
+        }
+        File file = getFile(name);
+        try {
+            Reader reader = new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(file)), ENCODING);
+            try {
+                String text = IOUtils.toString(reader);
+                // keep the access order across restarts
+                file.setLastModified(System.currentTimeMillis());
+                return text;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.debug("Unable to read cached text of {}: {}", id, e.toString());
+            synchronized (this) {
+                remove(name);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stores the text of a binary.
+     *
+     * @param id        the identifier of the binary.
+     * @param type      the content type of the binary or <code>null</code>.
+     * @param encoding  the encoding of the binary or <code>null</code>.
+     * @param maxLength the maximum length of the extracted text.
+     * @param text      the text extracted from the binary.
+     */
+    public void put(DataIdentifier id, String type, String encoding,
+                    int maxLength, String text) {
+        String name = getName(id, type, encoding, maxLength);
+        File file = getFile(name);
+        try {
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory: " + dir);
+            }
+            File tmp = File.createTempFile(name, ".tmp", dir);
+            Writer writer = new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(tmp)), ENCODING);
+            try {
+                writer.write(text);
+            } finally {
+                writer.close();
+            }
+            synchronized (this) {
+                remove(name);
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Unable to rename " + tmp + " to " + file);
+                }
+                add(name, file.length());
+                evict();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to cache extracted text of " + id, e);
+        }
+    }
+
+    /**
+     * @return the current size of all entries in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    //-------------------------------------------------------------< internal >
+
+    /**
+     * Reads the existing entries from the directory, in the order of their
+     * last access.
+     */
+    private void readEntries() {
+        List<File> files = new ArrayList<File>();
+        for (File dir : listFiles(directory)) {
+            if (dir.isDirectory()) {
+                for (File f : listFiles(dir)) {
+                    if (f.getName().endsWith(".tmp")) {
+                        // left over by an interrupted put
+                        f.delete();
+                    } else {
+                        files.add(f);
+                    }
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        synchronized (this) {
+            for (File f : files) {
+                add(f.getName(), f.length());
+            }
+            evict();
+        }
+    }
+
+    private void add(String name, long length) {
+        entries.put(name, length);
+        size += length;
+    }
+
+    private void remove(String name) {
+        Long length = entries.remove(name);
+        if (length != null) {
+            size -= length;
+            getFile(name).delete();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits into its
+     * maximum size.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            it.remove();
+            size -= e.getValue();
+            getFile(e.getKey()).delete();
+        }
+    }
+
+    /**
+     * Returns a file name for an entry, which is the digest of the
+     * identifier of the binary and the parameters of the extraction.
+     */
+    private static String getName(DataIdentifier id, String type,
+                                  String encoding, int maxLength) {
+        StringBuilder key = new StringBuilder(id.toString());
+        key.append('\n').append(type);
+        key.append('\n').append(encoding);
+        key.append('\n').append(maxLength);
+        return Text.md5(key.toString());
+    }
+
+    /**
+     * Entries are distributed in sub directories named after the first two
+     * characters of their name.
+     */
+    private File getFile(String name) {
+        return new File(new File(directory, name.substring(0, 2)), name);
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+}
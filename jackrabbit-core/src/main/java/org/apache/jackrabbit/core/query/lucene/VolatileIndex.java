@@ -24,7 +24,9 @@ import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.search.Similarity;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Implements an in-memory index with a pending buffer.
@@ -52,6 +54,13 @@ class VolatileIndex extends AbstractIndex {
      */
     private int numDocs = 0;
 
+    /**
+     * The ids of the documents added to the index writer. Only maintained
+     * with near real-time readers, where documents are deleted with the
+     * index writer, which does not report the number of deleted documents.
+     */
+    private final Set<String> ids = new HashSet<String>();
+
     /**
      * Creates a new <code>VolatileIndex</code> using an <code>analyzer</code>.
      *
@@ -103,6 +112,13 @@ class VolatileIndex extends AbstractIndex {
             Util.disposeDocument(doc);
             // pending document has been removed
             num = 1;
+        } else if (isNearRealTime()) {
+            // delete with the index writer, which stays open
+            num = 0;
+            if (ids.remove(idTerm.text())) {
+                deleteDocuments(idTerm);
+                num = 1;
+            }
         } else {
             // remove document from index
             num = super.getIndexReader().deleteDocuments(idTerm);
@@ -131,6 +147,23 @@ class VolatileIndex extends AbstractIndex {
         return super.getIndexReader();
     }
 
+    /**
+     * Overwrites the implementation in {@link AbstractIndex} to add pending
+     * documents to the index writer before a near real-time reader is
+     * opened.
+     * @param initCache if the caches in the index reader should be initialized
+     *          before the index reader is returned.
+     * @return a read-only index reader.
+     * @throws IOException if an error occurs while obtaining the index reader.
+     */
+    synchronized ReadOnlyIndexReader getReadOnlyIndexReader(boolean initCache)
+            throws IOException {
+        if (isNearRealTime()) {
+            commitPending();
+        }
+        return super.getReadOnlyIndexReader(initCache);
+    }
+
     /**
      * Overwrites the implementation in {@link AbstractIndex} to commit
      * pending documents.
@@ -169,6 +202,9 @@ class VolatileIndex extends AbstractIndex {
         if (pending.isEmpty()) {
             return;
         }
+        if (isNearRealTime()) {
+            ids.addAll(pending.keySet());
+        }
         super.addDocuments((Document[]) pending.values().toArray(
                 new Document[pending.size()]));
         pending.clear();
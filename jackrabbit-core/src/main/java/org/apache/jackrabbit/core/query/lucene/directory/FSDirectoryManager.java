@@ -132,6 +132,24 @@ public class FSDirectoryManager implements DirectoryManager {
     public void dispose() {
     }
 
+    /**
+     * Returns the file system location of a directory that has been created
+     * by an <code>FSDirectoryManager</code>.
+     *
+     * @param directory a directory.
+     * @return the location of the directory or <code>null</code> if it is
+     *         not stored in the file system.
+     */
+    public static File getFile(Directory directory) {
+        if (directory instanceof FSDir) {
+            return ((FSDir) directory).directory.getDirectory();
+        } else if (directory instanceof FSDirectory) {
+            return ((FSDirectory) directory).getDirectory();
+        } else {
+            return null;
+        }
+    }
+
     //-----------------------< internal >---------------------------------------
 
     private static final class FSDir extends Directory {
@@ -16,19 +16,17 @@
  */
 package org.apache.jackrabbit.core.query.lucene.hits;
 
-import java.util.BitSet;
-
 /**
- * Uses a BitSet instance to store the hit set. Keep in mind that this BitSet
- * is at least as large as the highest doc number in the hit set. This means it
- * might need of lot of memory for large indexes.
+ * Uses a {@link CompressedBitSet} instance to store the hit set. The memory
+ * needed by the set depends on the number of hits and on how dense they are,
+ * but not on the highest doc number in the hit set.
  */
 public class BitSetHits implements Hits {
-    private BitSet hits;
+    private CompressedBitSet hits;
     private int index;
 
     public BitSetHits() {
-        hits = new BitSet();
+        hits = new CompressedBitSet();
         index = 0;
     }
 
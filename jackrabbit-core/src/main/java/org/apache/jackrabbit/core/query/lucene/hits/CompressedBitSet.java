@@ -0,0 +1,469 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.hits;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative integers, typically document numbers.
+ * The integers are partitioned into chunks of 65536 by their upper 16 bits.
+ * A chunk with at most {@link #MAX_ARRAY_SIZE} entries keeps its lower 16
+ * bits in a sorted <code>char</code> array, denser chunks use a bitmap of
+ * 8 kb. Unlike a {@link java.util.BitSet} the memory needed depends on the
+ * number of integers in the set and not on the largest one.
+ * <p>
+ * This class is not thread-safe. An instance can be shared between threads
+ * once it is not modified anymore.
+ */
+public class CompressedBitSet {
+
+    /**
+     * The maximum number of entries of a chunk that is kept in an array.
+     * A larger array would need more memory than a bitmap.
+     */
+    static final int MAX_ARRAY_SIZE = 4096;
+
+    /**
+     * The number of <code>long</code> words of a bitmap chunk.
+     */
+    private static final int BITMAP_SIZE = 1024;
+
+    /**
+     * The upper 16 bits of the chunks, in ascending order.
+     */
+    private char[] keys = new char[4];
+
+    /**
+     * The chunks in the order of {@link #keys}.
+     */
+    private Chunk[] chunks = new Chunk[4];
+
+    /**
+     * The number of chunks.
+     */
+    private int size;
+
+    /**
+     * Adds <code>n</code> to this set.
+     *
+     * @param n a non-negative integer.
+     */
+    public void set(int n) {
+        char key = (char) (n >>> 16);
+        int idx;
+        if (size > 0 && keys[size - 1] == key) {
+            // common case: integers are added in ascending order
+            idx = size - 1;
+        } else {
+            idx = indexOf(key);
+            if (idx < 0) {
+                idx = -idx - 1;
+                insert(idx, key, new Chunk());
+            }
+        }
+        chunks[idx].add((char) n);
+    }
+
+    /**
+     * Returns <code>true</code> if <code>n</code> is in this set.
+     *
+     * @param n a non-negative integer.
+     * @return whether <code>n</code> is in this set.
+     */
+    public boolean get(int n) {
+        int idx = indexOf((char) (n >>> 16));
+        return idx >= 0 && chunks[idx].contains((char) n);
+    }
+
+    /**
+     * Returns the smallest integer in this set that is greater than or
+     * equal to <code>from</code>.
+     *
+     * @param from the integer to start from, inclusive.
+     * @return the next integer in this set or -1 if there is none.
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int idx = indexOf((char) (from >>> 16));
+        if (idx >= 0) {
+            int low = chunks[idx].next(from & 0xFFFF);
+            if (low >= 0) {
+                return (keys[idx] << 16) | low;
+            }
+            idx++;
+        } else {
+            idx = -idx - 1;
+        }
+        if (idx < size) {
+            return (keys[idx] << 16) | chunks[idx].next(0);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of integers in this set.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += chunks[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return <code>true</code> if this set is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the arrays of this
+     * set. Object headers are not included.
+     *
+     * @return the approximate memory size of this set in bytes.
+     */
+    public long getMemorySize() {
+        long bytes = keys.length * 2L + chunks.length * 8L;
+        for (int i = 0; i < size; i++) {
+            bytes += chunks[i].getMemorySize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a new set with the integers that are in this and in the
+     * other set.
+     *
+     * @param other the other set.
+     * @return the intersection of both sets.
+     */
+    public CompressedBitSet and(CompressedBitSet other) {
+        CompressedBitSet result = new CompressedBitSet();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Chunk c = chunks[i].and(other.chunks[j]);
+                if (c != null) {
+                    result.insert(result.size, keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new set with the integers that are in this or in the
+     * other set.
+     *
+     * @param other the other set.
+     * @return the union of both sets.
+     */
+    public CompressedBitSet or(CompressedBitSet other) {
+        CompressedBitSet result = new CompressedBitSet();
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.insert(result.size, keys[i], chunks[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.insert(result.size, other.keys[j], other.chunks[j].copy());
+                j++;
+            } else {
+                result.insert(result.size, keys[i], chunks[i].or(other.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Releases unused capacity. Call this method when no more integers
+     * are added to a set that is kept for a longer time.
+     */
+    public void trim() {
+        if (keys.length > size) {
+            keys = Arrays.copyOf(keys, size);
+            chunks = Arrays.copyOf(chunks, size);
+        }
+        for (int i = 0; i < size; i++) {
+            chunks[i].trim();
+        }
+    }
+
+    //-------------------------------< internal >-------------------------------
+
+    /**
+     * Returns the index of the chunk with the given key or
+     * <code>-(insertion point) - 1</code> if there is none.
+     */
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    /**
+     * Inserts a chunk at the given index.
+     */
+    private void insert(int idx, char key, Chunk chunk) {
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            chunks = Arrays.copyOf(chunks, capacity);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, size - idx);
+        System.arraycopy(chunks, idx, chunks, idx + 1, size - idx);
+        keys[idx] = key;
+        chunks[idx] = chunk;
+        size++;
+    }
+
+    /**
+     * The lower 16 bits of the integers that share the same upper 16 bits.
+     * Either {@link #array} or {@link #bitmap} is set.
+     */
+    private static final class Chunk {
+
+        /**
+         * The sorted values if this is an array chunk.
+         */
+        private char[] array;
+
+        /**
+         * The bits if this is a bitmap chunk.
+         */
+        private long[] bitmap;
+
+        /**
+         * The number of values in this chunk.
+         */
+        private int cardinality;
+
+        Chunk() {
+            array = new char[4];
+        }
+
+        private Chunk(char[] array, long[] bitmap, int cardinality) {
+            this.array = array;
+            this.bitmap = bitmap;
+            this.cardinality = cardinality;
+        }
+
+        void add(char value) {
+            if (bitmap != null) {
+                long word = bitmap[value >>> 6];
+                long bit = 1L << value;
+                if ((word & bit) == 0) {
+                    bitmap[value >>> 6] = word | bit;
+                    cardinality++;
+                }
+                return;
+            }
+            int idx;
+            if (cardinality == 0 || array[cardinality - 1] < value) {
+                idx = cardinality;
+            } else {
+                idx = Arrays.binarySearch(array, 0, cardinality, value);
+                if (idx >= 0) {
+                    return;
+                }
+                idx = -idx - 1;
+            }
+            if (cardinality == MAX_ARRAY_SIZE) {
+                toBitmap();
+                add(value);
+                return;
+            }
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array,
+                        Math.min(MAX_ARRAY_SIZE, cardinality * 2));
+            }
+            System.arraycopy(array, idx, array, idx + 1, cardinality - idx);
+            array[idx] = value;
+            cardinality++;
+        }
+
+        boolean contains(char value) {
+            if (bitmap != null) {
+                return (bitmap[value >>> 6] & (1L << value)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+        }
+
+        /**
+         * Returns the smallest value greater than or equal to
+         * <code>from</code> or -1 if there is none.
+         */
+        int next(int from) {
+            if (bitmap != null) {
+                int i = from >>> 6;
+                long word = bitmap[i] & (-1L << from);
+                while (word == 0) {
+                    if (++i == BITMAP_SIZE) {
+                        return -1;
+                    }
+                    word = bitmap[i];
+                }
+                return (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+            int idx = Arrays.binarySearch(array, 0, cardinality, (char) from);
+            if (idx < 0) {
+                idx = -idx - 1;
+            }
+            return idx < cardinality ? array[idx] : -1;
+        }
+
+        /**
+         * @return the intersection with the other chunk or <code>null</code>
+         *         if it is empty.
+         */
+        Chunk and(Chunk other) {
+            Chunk result;
+            if (bitmap != null && other.bitmap != null) {
+                long[] bits = new long[BITMAP_SIZE];
+                int card = 0;
+                for (int i = 0; i < BITMAP_SIZE; i++) {
+                    bits[i] = bitmap[i] & other.bitmap[i];
+                    card += Long.bitCount(bits[i]);
+                }
+                result = new Chunk(null, bits, card);
+                if (card <= MAX_ARRAY_SIZE) {
+                    result.toArray();
+                }
+            } else if (bitmap != null || other.bitmap != null) {
+                Chunk a = bitmap == null ? this : other;
+                Chunk b = bitmap == null ? other : this;
+                char[] values = new char[a.cardinality];
+                int card = 0;
+                for (int i = 0; i < a.cardinality; i++) {
+                    if (b.contains(a.array[i])) {
+                        values[card++] = a.array[i];
+                    }
+                }
+                result = new Chunk(values, null, card);
+            } else {
+                char[] values = new char[Math.min(cardinality, other.cardinality)];
+                int card = 0, i = 0, j = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    if (array[i] < other.array[j]) {
+                        i++;
+                    } else if (array[i] > other.array[j]) {
+                        j++;
+                    } else {
+                        values[card++] = array[i];
+                        i++;
+                        j++;
+                    }
+                }
+                result = new Chunk(values, null, card);
+            }
+            if (result.cardinality == 0) {
+                return null;
+            }
+            result.trim();
+            return result;
+        }
+
+        /**
+         * @return the union with the other chunk.
+         */
+        Chunk or(Chunk other) {
+            if (bitmap == null && other.bitmap == null
+                    && cardinality + other.cardinality <= MAX_ARRAY_SIZE) {
+                char[] values = new char[cardinality + other.cardinality];
+                int card = 0, i = 0, j = 0;
+                while (i < cardinality || j < other.cardinality) {
+                    if (j == other.cardinality
+                            || (i < cardinality && array[i] < other.array[j])) {
+                        values[card++] = array[i++];
+                    } else if (i == cardinality || array[i] > other.array[j]) {
+                        values[card++] = other.array[j++];
+                    } else {
+                        values[card++] = array[i];
+                        i++;
+                        j++;
+                    }
+                }
+                Chunk result = new Chunk(values, null, card);
+                result.trim();
+                return result;
+            }
+            Chunk result = copy();
+            if (result.bitmap == null) {
+                result.toBitmap();
+            }
+            if (other.bitmap != null) {
+                int card = 0;
+                for (int i = 0; i < BITMAP_SIZE; i++) {
+                    result.bitmap[i] |= other.bitmap[i];
+                    card += Long.bitCount(result.bitmap[i]);
+                }
+                result.cardinality = card;
+            } else {
+                for (int i = 0; i < other.cardinality; i++) {
+                    result.add(other.array[i]);
+                }
+            }
+            return result;
+        }
+
+        Chunk copy() {
+            return new Chunk(array == null ? null : Arrays.copyOf(array, cardinality),
+                    bitmap == null ? null : bitmap.clone(), cardinality);
+        }
+
+        long getMemorySize() {
+            return array != null ? array.length * 2L : bitmap.length * 8L;
+        }
+
+        void trim() {
+            if (array != null && array.length > cardinality) {
+                array = Arrays.copyOf(array, cardinality);
+            }
+        }
+
+        private void toBitmap() {
+            bitmap = new long[BITMAP_SIZE];
+            for (int i = 0; i < cardinality; i++) {
+                bitmap[array[i] >>> 6] |= 1L << array[i];
+            }
+            array = null;
+        }
+
+        private void toArray() {
+            array = new char[cardinality];
+            int card = 0;
+            for (int i = 0; i < BITMAP_SIZE; i++) {
+                long word = bitmap[i];
+                while (word != 0) {
+                    array[card++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            bitmap = null;
+        }
+    }
+}
@@ -24,9 +24,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javax.jcr.RepositoryException;
@@ -175,7 +177,10 @@ abstract class JoinMerger {
      * Merges the left and right dataset of a join query. Take special
      * precaution for outer joins, as extra checks are needed to distinguish
      * 'null' nodes vs 'not to be included' nodes
-     * 
+     * <p>
+     * The right dataset is read into a hash table. The joined rows are
+     * created while the returned result is iterated, one left row at a time,
+     * so that a limit on the result only merges the rows it needs.
      * 
      * @param leftRows
      *            the left dataset of the join
@@ -197,18 +202,8 @@ abstract class JoinMerger {
         Map<String, List<Row>> map = buildRightRowValues(rightRows);
 
         if (JCR_JOIN_TYPE_INNER.equals(type) && !map.isEmpty()) {
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                for (String value : getLeftValues(leftRow)) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            rows.add(mergeRow(leftRow, rightRow));
-                        }
-                    }
-                }
-            }
-            return asQueryResult(new RowIteratorAdapter(rows));
+            return asQueryResult(new JoinRowIterator(
+                    new JoinIterator(leftRows, map, false, null)));
         }
 
         if (JCR_JOIN_TYPE_LEFT_OUTER.equals(type)) {
@@ -228,50 +223,15 @@ abstract class JoinMerger {
                         Collections.emptySet()));
             }
 
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                Set<String> leftValues = getLeftValues(leftRow);
-                if(leftValues.isEmpty()){
-                    leftValues.add(null);
-                }
-                for (String value : leftValues) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            // I have possible WHERE clauses on the join that I
-                            // need to look at for each rightRow
-                            if (excludingOuterJoinRowsSet == null) {
-                                rows.add(mergeRow(leftRow, rightRow));
-                            } else {
-                                boolean isIncluded = false;
-                                // apparently
-                                // 'excludingOuterJoinRowsSet.contains' fails to
-                                // match rows
-
-                                // TODO can 'rightRow.getNode()' break because
-                                // of joins that are bigger than 2 way?
-                                // how does this perform for 3 way joins ?
-                                for (Row r : excludingOuterJoinRowsSet) {
-                                    if(rowComparator.compare(rightRow, r) == 0){
-                                        isIncluded = true;
-                                        break;
-                                    }
-                                }
-                                if (isIncluded) {
-                                    rows.add(mergeRow(leftRow, rightRow));
-                                }
-                            }
-                        }
-                    } else {
-                        // No matches in an outer join -> add a null row, if
-                        // there are no 'WHERE' conditions
-                        if (excludingOuterJoinRowsSet == null) {
-                            rows.add(mergeRow(leftRow, null));
-                        }
-                    }
-                }
+            // I have possible WHERE clauses on the join that I need to look
+            // at for each rightRow
+            RowPathSet included = null;
+            if (excludingOuterJoinRowsSet != null) {
+                included = new RowPathSet(rightSelectors,
+                        excludingOuterJoinRowsSet, rowComparator);
             }
-            return asQueryResult(new RowIteratorAdapter(rows));
+            return asQueryResult(new JoinRowIterator(
+                    new JoinIterator(leftRows, map, true, included)));
         }
         return asQueryResult(new RowIteratorAdapter(Collections.emptySet()));
     }
@@ -309,6 +269,98 @@ abstract class JoinMerger {
                 left, leftSelectors, right, rightSelectors);
     }
 
+    /**
+     * Merges the left rows with the matching rows of the right dataset while
+     * it is iterated.
+     */
+    private class JoinIterator implements Iterator<Row> {
+
+        private final RowIterator leftRows;
+
+        /**
+         * The rows of the right dataset by join value.
+         */
+        private final Map<String, List<Row>> map;
+
+        private final boolean outer;
+
+        /**
+         * The right rows that satisfy the 'WHERE' conditions of an outer
+         * join, or <code>null</code> if there are no such conditions.
+         */
+        private final RowPathSet included;
+
+        private Row leftRow;
+
+        private Iterator<String> values = Collections.<String>emptySet().iterator();
+
+        private Iterator<Row> matches = Collections.<Row>emptySet().iterator();
+
+        private Row next;
+
+        JoinIterator(RowIterator leftRows, Map<String, List<Row>> map,
+                     boolean outer, RowPathSet included) {
+            this.leftRows = leftRows;
+            this.map = map;
+            this.outer = outer;
+            this.included = included;
+        }
+
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = fetchNext();
+                } catch (RepositoryException e) {
+                    throw new RuntimeException("Unable to merge join rows", e);
+                }
+            }
+            return next != null;
+        }
+
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Row row = next;
+            next = null;
+            return row;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Row fetchNext() throws RepositoryException {
+            for (;;) {
+                while (matches.hasNext()) {
+                    Row rightRow = matches.next();
+                    if (included == null || included.contains(rightRow)) {
+                        return mergeRow(leftRow, rightRow);
+                    }
+                }
+                if (values.hasNext()) {
+                    List<Row> matchingRows = map.get(values.next());
+                    if (matchingRows != null) {
+                        matches = matchingRows.iterator();
+                    } else if (outer && included == null) {
+                        // No matches in an outer join -> add a null row, if
+                        // there are no 'WHERE' conditions
+                        return mergeRow(leftRow, null);
+                    }
+                } else if (leftRows.hasNext()) {
+                    leftRow = leftRows.nextRow();
+                    Set<String> leftValues = getLeftValues(leftRow);
+                    if (outer && leftValues.isEmpty()) {
+                        leftValues = Collections.singleton(null);
+                    }
+                    values = leftValues.iterator();
+                } else {
+                    return null;
+                }
+            }
+        }
+    }
+
     public abstract Set<String> getLeftValues(Row row)
             throws RepositoryException;
 
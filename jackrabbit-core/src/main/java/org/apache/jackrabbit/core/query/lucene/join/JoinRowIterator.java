@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.join;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+
+/**
+ * Iterates over join rows that are merged while they are iterated. The
+ * size of the join is not known up front, so {@link #getSize()} merges the
+ * remaining rows and keeps them until they are iterated. Callers that do
+ * not ask for the size never hold more than the current row.
+ */
+class JoinRowIterator implements RowIterator {
+
+    /**
+     * The rows that are merged on demand.
+     */
+    private final Iterator<Row> rows;
+
+    /**
+     * Rows that were merged by {@link #getSize()} but not returned yet.
+     */
+    private final LinkedList<Row> buffer = new LinkedList<Row>();
+
+    /**
+     * The number of rows returned so far.
+     */
+    private long position;
+
+    /**
+     * Creates an iterator over the given lazily merged rows.
+     *
+     * @param rows the joined rows
+     */
+    JoinRowIterator(Iterator<Row> rows) {
+        this.rows = rows;
+    }
+
+    public Row nextRow() {
+        Row row;
+        if (!buffer.isEmpty()) {
+            row = buffer.removeFirst();
+        } else {
+            row = rows.next();
+        }
+        position++;
+        return row;
+    }
+
+    public Object next() {
+        return nextRow();
+    }
+
+    public boolean hasNext() {
+        return !buffer.isEmpty() || rows.hasNext();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void skip(long skipNum) {
+        if (skipNum < 0) {
+            throw new IllegalArgumentException("skipNum must not be negative");
+        }
+        for (long i = 0; i < skipNum; i++) {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            nextRow();
+        }
+    }
+
+    /**
+     * Returns the total number of rows. The first call merges all rows that
+     * were not iterated yet.
+     *
+     * @return the number of rows of the join
+     */
+    public long getSize() {
+        while (rows.hasNext()) {
+            buffer.add(rows.next());
+        }
+        return position + buffer.size();
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+}
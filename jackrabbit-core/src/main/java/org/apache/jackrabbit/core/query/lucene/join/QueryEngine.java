@@ -25,9 +25,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -58,11 +60,13 @@ import javax.jcr.query.qom.Source;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.jackrabbit.commons.iterator.RangeIteratorAdapter;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
 import org.apache.jackrabbit.core.query.lucene.sort.DynamicOperandFieldComparatorSource;
 import org.apache.jackrabbit.core.query.lucene.sort.RowComparator;
+import org.apache.jackrabbit.stats.QueryProfile;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.slf4j.Logger;
@@ -596,6 +600,8 @@ public class QueryEngine {
      * one or more orderings have been specified, this method will iterate
      * through the entire original result set, order the collected rows, and
      * return a new result set based on the sorted collection of rows.
+     * Without orderings, the offset and limit are applied while the result
+     * is iterated and the remaining rows are not read.
      * 
      * @param result
      *            original query results
@@ -612,8 +618,12 @@ public class QueryEngine {
     protected static QueryResult sort(QueryResult result,
             final Ordering[] orderings, OperandEvaluator evaluator,
             long offset, long limit) throws RepositoryException {
-        if ((orderings != null && orderings.length > 0) || offset != 0
-                || limit >= 0) {
+        if ((orderings == null || orderings.length == 0)
+                && (offset != 0 || limit >= 0)) {
+            return new SimpleQueryResult(result.getColumnNames(),
+                    result.getSelectorNames(),
+                    limit(result.getRows(), offset, limit));
+        } else if (orderings != null && orderings.length > 0) {
             List<Row> rows = new ArrayList<Row>();
 
             RowIterator iterator = result.getRows();
@@ -621,9 +631,14 @@ public class QueryEngine {
                 rows.add(iterator.nextRow());
             }
 
+            long time = System.nanoTime();
             if (orderings != null && orderings.length > 0) {
                 Collections.sort(rows, new RowComparator(orderings, evaluator));
             }
+            QueryProfile profile = QueryProfile.current();
+            if (profile != null) {
+                profile.addTime(QueryProfile.SORT, System.nanoTime() - time);
+            }
 
             if (offset > 0) {
                 int size = rows.size();
@@ -641,4 +656,48 @@ public class QueryEngine {
         }
     }
 
+    /**
+     * Skips the first <code>offset</code> rows and returns an iterator that
+     * stops after <code>limit</code> rows.
+     *
+     * @param rows   the rows.
+     * @param offset result offset
+     * @param limit  result limit, or a negative value for no limit
+     * @return the limited rows
+     */
+    private static RowIterator limit(
+            final RowIterator rows, long offset, final long limit) {
+        long size = rows.getSize();
+        try {
+            rows.skip(offset);
+        } catch (NoSuchElementException e) {
+            return new RowIteratorAdapter(Collections.emptySet());
+        }
+        if (size >= 0) {
+            size = Math.max(0, size - offset);
+            if (limit >= 0) {
+                size = Math.min(size, limit);
+            }
+        } else if (limit == 0) {
+            size = 0;
+        }
+        Iterator<Row> limited = new Iterator<Row>() {
+            private long count = 0;
+            public boolean hasNext() {
+                return (limit < 0 || count < limit) && rows.hasNext();
+            }
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                count++;
+                return rows.nextRow();
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return new RowIteratorAdapter(new RangeIteratorAdapter(limited, size));
+    }
+
 }
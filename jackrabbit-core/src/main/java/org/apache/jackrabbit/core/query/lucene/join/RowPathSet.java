@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.join;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Row;
+
+/**
+ * A set of rows that is looked up by the node paths of the rows, with the
+ * semantics of a {@link RowPathComparator}. Rows that have a path for
+ * every selector are found with a hash lookup. Rows with a <code>null</code>
+ * path, e.g. from an outer join, match any path of that selector and are
+ * compared with the comparator.
+ */
+class RowPathSet {
+
+    /**
+     * Marks a selector that does not exist in a row.
+     */
+    private static final char MISSING = '\u0001';
+
+    /**
+     * Separates the paths of the selectors.
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * The selectors of the rows.
+     */
+    private final Collection<String> selectors;
+
+    /**
+     * Compares rows that do not have a path for every selector.
+     */
+    private final Comparator<Row> comparator;
+
+    /**
+     * The keys of the rows that have a path for every selector.
+     */
+    private final Set<String> keys = new HashSet<String>();
+
+    /**
+     * The rows that do not have a path for every selector.
+     */
+    private final List<Row> incomplete = new ArrayList<Row>();
+
+    /**
+     * All rows.
+     */
+    private final Collection<Row> rows;
+
+    /**
+     * Creates a new set.
+     *
+     * @param selectors  the selectors of the rows.
+     * @param rows       the rows.
+     * @param comparator the comparator that defines the equality of rows.
+     */
+    RowPathSet(Collection<String> selectors, Collection<Row> rows,
+               Comparator<Row> comparator) {
+        this.selectors = selectors;
+        this.comparator = comparator;
+        this.rows = rows;
+        for (Row row : rows) {
+            String key = getKey(row);
+            if (key != null) {
+                keys.add(key);
+            } else {
+                incomplete.add(row);
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the set contains a row that is equal to
+     * the given row.
+     *
+     * @param row a row.
+     * @return whether the set contains the row.
+     */
+    boolean contains(Row row) {
+        String key = getKey(row);
+        if (key != null && keys.contains(key)) {
+            return true;
+        }
+        for (Row r : key != null ? incomplete : rows) {
+            if (comparator.compare(row, r) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the paths of the row as a single string or <code>null</code>
+     * if the path of a selector is <code>null</code>.
+     */
+    private String getKey(Row row) {
+        StringBuilder key = new StringBuilder();
+        for (String selector : selectors) {
+            try {
+                String path = row.getPath(selector);
+                if (path == null) {
+                    return null;
+                }
+                key.append(path);
+            } catch (RepositoryException e) {
+                key.append(MISSING);
+            }
+            key.append(SEPARATOR);
+        }
+        return key.toString();
+    }
+}
@@ -26,6 +26,7 @@ import org.apache.jackrabbit.core.security.authorization.AccessControlEditor;
 import org.apache.jackrabbit.core.security.authorization.AccessControlProvider;
 import org.apache.jackrabbit.core.security.authorization.CompiledPermissions;
 import org.apache.jackrabbit.core.security.authorization.Permission;
+import org.apache.jackrabbit.core.security.authorization.SubtreeReadPermissions;
 import org.apache.jackrabbit.core.security.authorization.WorkspaceAccessManager;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
@@ -266,6 +267,36 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         }
     }
 
+    /**
+     * Returns <code>true</code> if all items are readable for the subjects
+     * of this access manager.
+     *
+     * @return whether all items are readable.
+     * @throws RepositoryException if this access manager is not initialized.
+     */
+    public boolean canReadAll() throws RepositoryException {
+        checkInitialized();
+        return compiledPermissions.canReadAll();
+    }
+
+    /**
+     * Returns the subtree read permissions of this access manager, which
+     * allow to evaluate READ for whole subtrees at once.
+     *
+     * @return the subtree read permissions or <code>null</code> if all items
+     * are readable or the compiled permissions cannot evaluate subtrees.
+     * @throws RepositoryException if this access manager is not initialized.
+     */
+    public SubtreeReadPermissions getSubtreeReadPermissions()
+            throws RepositoryException {
+        checkInitialized();
+        if (!compiledPermissions.canReadAll()
+                && compiledPermissions instanceof SubtreeReadPermissions) {
+            return (SubtreeReadPermissions) compiledPermissions;
+        }
+        return null;
+    }
+
     /**
      * @see AccessManager#canAccess(String)
      */
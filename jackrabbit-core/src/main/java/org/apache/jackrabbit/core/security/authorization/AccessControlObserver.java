@@ -20,6 +20,7 @@ import org.apache.jackrabbit.core.observation.SynchronousEventListener;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <code>AccessControlObserver</code>...
@@ -33,7 +34,8 @@ public abstract class AccessControlObserver implements SynchronousEventListener
 
     private final Set<AccessControlListener> listeners = new HashSet<AccessControlListener>();
     private final Object listenerMonitor = new Object();
-    
+    private final AtomicLong modificationCount = new AtomicLong();
+
     protected void close() {
         synchronized (listenerMonitor) {
             listeners.clear();
@@ -69,6 +71,7 @@ public abstract class AccessControlObserver implements SynchronousEventListener
      * @param modifications
      */
     protected void notifyListeners(AccessControlModifications modifications) {
+        modificationCount.incrementAndGet();
         AccessControlListener[] lstnrs;
         synchronized (listenerMonitor) {
             lstnrs = listeners.toArray(new AccessControlListener[listeners.size()]);
@@ -77,4 +80,15 @@ public abstract class AccessControlObserver implements SynchronousEventListener
             lstnr.acModified(modifications);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the number of times the listeners have been notified about
+     * AC modifications. Callers may use this value to detect that results
+     * derived from access control content are outdated.
+     *
+     * @return the modification count.
+     */
+    public long getModificationCount() {
+        return modificationCount.get();
+    }
+}
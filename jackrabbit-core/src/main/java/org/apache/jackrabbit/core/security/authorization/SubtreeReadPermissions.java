@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * <code>SubtreeReadPermissions</code> is an optional extension of
+ * {@link CompiledPermissions} that evaluates the READ permission for a whole
+ * subtree at once. The search index uses it to compute the set of readable
+ * documents once per index reader instead of checking every query hit
+ * individually.
+ * <p>
+ * The subtree of a node ends at descendant nodes that are access controlled
+ * themselves; those are evaluated separately.
+ */
+public interface SubtreeReadPermissions {
+
+    /**
+     * Returns a key that identifies the state of the permissions evaluated
+     * by this object. Two objects that return equal keys must return the
+     * same results for {@link #canReadSubtree(NodeId)}. The key changes
+     * whenever access control content relevant to this object is modified.
+     *
+     * @return the key for the current permission state.
+     */
+    Object getReadPermissionKey();
+
+    /**
+     * Returns whether the node with the given id and all its descendants,
+     * up to the next access controlled descendants, are readable.
+     *
+     * @param id the id of an existing node.
+     * @return {@link Boolean#TRUE} if the whole subtree is readable,
+     * {@link Boolean#FALSE} if no node of the subtree is readable or
+     * <code>null</code> if this cannot be determined without evaluating the
+     * nodes individually (e.g. because of restrictions or access control
+     * content).
+     * @throws RepositoryException if an error occurs.
+     */
+    Boolean canReadSubtree(NodeId id) throws RepositoryException;
+}
@@ -33,6 +33,7 @@ import org.apache.jackrabbit.core.security.authorization.Permission;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeBits;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeManagerImpl;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeRegistry;
+import org.apache.jackrabbit.core.security.authorization.SubtreeReadPermissions;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.util.Text;
@@ -43,6 +44,8 @@ import javax.jcr.ItemNotFoundException;
 import javax.jcr.RepositoryException;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -51,7 +54,8 @@ import java.util.Set;
 /**
  * <code>CompiledPermissionsImpl</code>...
  */
-class CompiledPermissionsImpl extends AbstractCompiledPermissions implements AccessControlListener {
+class CompiledPermissionsImpl extends AbstractCompiledPermissions
+        implements AccessControlListener, SubtreeReadPermissions {
 
     private static final Logger LOG = LoggerFactory.getLogger(CompiledPermissionsImpl.class);
 
@@ -286,6 +290,43 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
         return canRead;
     }
 
+    //-----------------------------------------< SubtreeReadPermissions >---
+    /**
+     * The key consists of the principal names and the modification count of
+     * the entry collector, which is shared by all sessions of a workspace.
+     *
+     * @see SubtreeReadPermissions#getReadPermissionKey()
+     */
+    public Object getReadPermissionKey() {
+        return Arrays.asList(new HashSet<String>(principalNames),
+                entryCollector, entryCollector.getModificationCount());
+    }
+
+    /**
+     * Uses the same simplified READ evaluation as {@link #canRead(Path, ItemId)}
+     * but without matching restrictions against the path: if the first entry
+     * that affects READ has a restriction, the result depends on the path
+     * of the descendant and <code>null</code> is returned.
+     *
+     * @see SubtreeReadPermissions#canReadSubtree(NodeId)
+     */
+    public Boolean canReadSubtree(NodeId id) throws RepositoryException {
+        NodeImpl node = (NodeImpl) session.getItemManager().getItem(id);
+        if (util.isAcItem(node)) {
+            return null;
+        }
+        EntryFilterImpl filter = new EntryFilterImpl(principalNames);
+        for (Entry ace : entryCollector.collectEntries(node, filter)) {
+            if (ace.getPrivilegeBits().includesRead()) {
+                if (ace.hasRestrictions()) {
+                    return null;
+                }
+                return ace.isAllow();
+            }
+        }
+        return Boolean.FALSE;
+    }
+
     //----------------------------------------< ACLModificationListener >---
     /**
      * @see org.apache.jackrabbit.core.security.authorization.AccessControlListener#acModified(org.apache.jackrabbit.core.security.authorization.AccessControlModifications)
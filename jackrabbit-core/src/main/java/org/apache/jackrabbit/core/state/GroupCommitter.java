@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the change logs of concurrent updates into a single call to
+ * {@link PersistenceManager#store(ChangeLog)}, so that a burst of small
+ * saves pays for one persistence manager transaction instead of one per
+ * save.
+ * <p>
+ * The first update that reaches {@link #store(ChangeLog)} becomes the
+ * leader of a batch. Only one batch is stored at a time: while the previous
+ * batch is being stored, the batch stays open and collects the change logs
+ * of other updates. In addition, as long as other updates hold a write lock
+ * but have not reached the store yet, the leader waits for them to join the
+ * batch, at most for the configured window. Without concurrent updates
+ * nothing is waited for. The change logs in a batch are guaranteed to be disjoint by
+ * the write locks of their updates; a change log that intersects the open
+ * batch anyway is stored on its own.
+ * <p>
+ * If storing the merged change log fails, the persistence manager has
+ * rolled it back and the change logs of the batch are stored again one by
+ * one, so that each update succeeds or fails on its own and an update
+ * never fails because of a change log of another session. A persistence
+ * manager that is not transactional may have written part of the merged
+ * change log; storing the same item states again overwrites it.
+ */
+class GroupCommitter {
+
+    /**
+     * Logger instance
+     */
+    private static Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+    /**
+     * The persistence manager the batches are stored to.
+     */
+    private final PersistenceManager persistMgr;
+
+    /**
+     * Maximum time in nanoseconds a leader waits for other updates.
+     */
+    private final long window;
+
+    /**
+     * Number of updates that hold a write lock but did not reach
+     * {@link #store(ChangeLog)} yet.
+     */
+    private int pending;
+
+    /**
+     * The batch that is currently open for new change logs, or
+     * <code>null</code>.
+     */
+    private Batch batch;
+
+    /**
+     * Flag indicating that a batch is currently being stored.
+     */
+    private boolean committing;
+
+    /**
+     * Creates a new group committer.
+     *
+     * @param persistMgr the persistence manager
+     * @param window maximum time in milliseconds a batch is held open
+     */
+    GroupCommitter(PersistenceManager persistMgr, long window) {
+        this.persistMgr = persistMgr;
+        this.window = TimeUnit.MILLISECONDS.toNanos(window);
+    }
+
+    /**
+     * Notifies the committer that an update acquired its write lock and
+     * will either call {@link #store(ChangeLog)} or
+     * {@link #updateCancelled()}.
+     */
+    synchronized void updateStarted() {
+        pending++;
+    }
+
+    /**
+     * Notifies the committer that an update that was started will not be
+     * stored.
+     */
+    synchronized void updateCancelled() {
+        pending--;
+        notifyAll();
+    }
+
+    /**
+     * Stores the given change log, possibly together with the change logs
+     * of concurrent updates. Returns when the change log is persisted.
+     *
+     * @param changes the change log of a started update
+     * @throws ItemStateException if the change log could not be stored
+     */
+    void store(ChangeLog changes) throws ItemStateException {
+        Batch current;
+        boolean leader = false;
+        synchronized (this) {
+            pending--;
+            notifyAll();
+            if (batch == null) {
+                batch = new Batch();
+                leader = true;
+            } else if (batch.intersects(changes)) {
+                batch = null;
+            }
+            current = batch;
+            if (current != null) {
+                current.add(changes);
+            }
+        }
+
+        if (current == null) {
+            persistMgr.store(changes);
+            return;
+        }
+        if (leader) {
+            close(current);
+            try {
+                current.commit();
+            } finally {
+                synchronized (this) {
+                    committing = false;
+                    notifyAll();
+                }
+            }
+        }
+        current.await(changes);
+    }
+
+    /**
+     * Waits until the previous batch is stored and until no started update
+     * is left or the window has passed, and then closes the given batch.
+     */
+    private synchronized void close(Batch current) {
+        long deadline = System.nanoTime() + window;
+        boolean interrupted = false;
+        for (;;) {
+            long remaining = deadline - System.nanoTime();
+            try {
+                if (committing) {
+                    wait();
+                } else if (pending > 0 && remaining > 0 && !interrupted) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } else {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        committing = true;
+        if (batch == current) {
+            batch = null;
+        }
+    }
+
+    /**
+     * A number of disjoint change logs that are stored together.
+     */
+    private final class Batch {
+
+        private final List<ChangeLog> logs = new ArrayList<ChangeLog>();
+
+        private final Set<ItemId> ids = new HashSet<ItemId>();
+
+        private final Map<ChangeLog, Exception> failures =
+            new IdentityHashMap<ChangeLog, Exception>();
+
+        private boolean done;
+
+        void add(ChangeLog changes) {
+            logs.add(changes);
+            for (ItemState state : changes.addedStates()) {
+                ids.add(state.getId());
+            }
+            for (ItemState state : changes.modifiedStates()) {
+                ids.add(state.getId());
+            }
+            for (ItemState state : changes.deletedStates()) {
+                ids.add(state.getId());
+            }
+            for (NodeReferences refs : changes.modifiedRefs()) {
+                ids.add(refs.getTargetId());
+            }
+        }
+
+        boolean intersects(ChangeLog changes) {
+            for (ItemState state : changes.addedStates()) {
+                if (ids.contains(state.getId())) {
+                    return true;
+                }
+            }
+            for (ItemState state : changes.modifiedStates()) {
+                if (ids.contains(state.getId())) {
+                    return true;
+                }
+            }
+            for (ItemState state : changes.deletedStates()) {
+                if (ids.contains(state.getId())) {
+                    return true;
+                }
+            }
+            for (NodeReferences refs : changes.modifiedRefs()) {
+                if (ids.contains(refs.getTargetId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Stores the change logs of this batch. Must only be called once
+         * the batch is closed.
+         */
+        void commit() {
+            if (logs.size() == 1) {
+                storeSingle(logs.get(0));
+            } else {
+                ChangeLog merged = new ChangeLog();
+                for (ChangeLog changes : logs) {
+                    merged.merge(changes);
+                }
+                try {
+                    persistMgr.store(merged);
+                    log.debug("stored {} change logs in one batch", logs.size());
+                } catch (Exception e) {
+                    log.warn("Unable to store " + logs.size()
+                            + " change logs in one batch, storing them separately", e);
+                    for (ChangeLog changes : logs) {
+                        storeSingle(changes);
+                    }
+                }
+            }
+            synchronized (this) {
+                done = true;
+                notifyAll();
+            }
+        }
+
+        private void storeSingle(ChangeLog changes) {
+            try {
+                persistMgr.store(changes);
+            } catch (Exception e) {
+                synchronized (this) {
+                    failures.put(changes, e);
+                }
+            }
+        }
+
+        /**
+         * Waits until this batch is committed and throws the exception
+         * that occurred when storing the given change log, if any.
+         */
+        synchronized void await(ChangeLog changes) throws ItemStateException {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Exception e = failures.get(changes);
+            if (e instanceof ItemStateException) {
+                throw (ItemStateException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e != null) {
+                throw new ItemStateException(e.getMessage(), e);
+            }
+        }
+
+    }
+
+}
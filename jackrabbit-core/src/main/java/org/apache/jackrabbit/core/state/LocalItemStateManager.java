@@ -16,6 +16,10 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.jcr.InvalidItemStateException;
 import javax.jcr.ReferentialIntegrityException;
 import javax.jcr.RepositoryException;
@@ -230,6 +234,41 @@ public class LocalItemStateManager
         return sharedStateMgr.hasNodeReferences(id);
     }
 
+    /**
+     * Hints the shared item state manager that the given child node states
+     * of <code>parentId</code> are about to be read.
+     *
+     * @param parentId the id of the common parent node.
+     * @param ids      the ids of the child node states.
+     * @see SharedItemStateManager#prefetch(NodeId, Collection)
+     */
+    public void prefetch(NodeId parentId, Collection<NodeId> ids) {
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!cache.isCached(id)) {
+                missing.add(id);
+            }
+        }
+        sharedStateMgr.prefetch(parentId, missing);
+    }
+
+    /**
+     * Hints the shared item state manager that the given node states are
+     * about to be read.
+     *
+     * @param ids the ids of the node states.
+     * @see SharedItemStateManager#prefetch(Collection)
+     */
+    public void prefetch(Collection<NodeId> ids) {
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!cache.isCached(id)) {
+                missing.add(id);
+            }
+        }
+        sharedStateMgr.prefetch(missing);
+    }
+
 
     //--------------------------------------------< UpdatableItemStateManager >
     /**
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -42,6 +44,7 @@ import org.apache.jackrabbit.core.observation.EventStateCollection;
 import org.apache.jackrabbit.core.observation.EventStateCollectionFactory;
 import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.virtual.VirtualItemStateProvider;
 import org.apache.jackrabbit.spi.Name;
@@ -126,6 +129,16 @@ public class SharedItemStateManager
     private static final boolean VALIDATE_HIERARCHY =
         Boolean.getBoolean("org.apache.jackrabbit.core.state.validatehierarchy");
 
+    /**
+     * Maximum time in milliseconds the change logs of concurrent updates
+     * are collected to be stored together. Group commit is disabled if
+     * this is 0 (the default).
+     *
+     * @see GroupCommitter
+     */
+    private static final long GROUP_COMMIT_WINDOW =
+        Long.getLong("org.apache.jackrabbit.core.state.groupcommitwindow", 0);
+
     /**
      * cache of weak references to ItemState objects issued by this
      * ItemStateManager
@@ -190,6 +203,11 @@ public class SharedItemStateManager
 
     private final NodeIdFactory nodeIdFactory;
 
+    /**
+     * Group committer, or <code>null</code> if group commit is disabled.
+     */
+    private final GroupCommitter groupCommitter;
+
     /**
      * Creates a new <code>SharedItemStateManager</code> instance.
      *
@@ -212,6 +230,11 @@ public class SharedItemStateManager
         this.rootNodeId = rootNodeId;
         this.ismLocking = locking;
         this.nodeIdFactory = nodeIdFactory;
+        if (GROUP_COMMIT_WINDOW > 0) {
+            groupCommitter = new GroupCommitter(persistMgr, GROUP_COMMIT_WINDOW);
+        } else {
+            groupCommitter = null;
+        }
         // create root node state if it doesn't yet exist
         if (!hasNonVirtualItemState(rootNodeId)) {
             createRootNodeState(rootNodeId, ntReg);
@@ -394,6 +417,87 @@ public class SharedItemStateManager
         return false;
     }
 
+    /**
+     * Hints this item state manager that the node states with the given ids,
+     * which are children of the node with id <code>parentId</code>, are about
+     * to be read. If the underlying persistence manager is a
+     * {@link PrefetchingPersistenceManager} the states that are not cached yet
+     * are loaded in one go. This is a best effort operation, errors are only
+     * logged and the states are loaded individually later on.
+     *
+     * @param parentId the id of the common parent node.
+     * @param ids      the ids of the node states that will be read.
+     */
+    public void prefetch(NodeId parentId, Collection<NodeId> ids) {
+        if (!(persistMgr instanceof PrefetchingPersistenceManager)) {
+            return;
+        }
+        // children of virtual nodes are not provided by the persistence manager
+        for (VirtualItemStateProvider virtualProvider : virtualProviders) {
+            if (virtualProvider.hasItemState(parentId)) {
+                return;
+            }
+        }
+
+        try {
+            prefetchMissing(parentId, ids);
+        } catch (ItemStateException e) {
+            log.warn("Unable to prefetch child nodes of " + parentId, e);
+        }
+    }
+
+    /**
+     * Hints this item state manager that the node states with the given ids
+     * are about to be read, e.g. when the nodes of a query result are
+     * iterated. Unlike {@link #prefetch(NodeId, Collection)} the nodes need
+     * not share a parent. Ids of virtual node states are not known to the
+     * persistence manager and are recorded there as missing, which does not
+     * affect reading them from the virtual providers.
+     *
+     * @param ids the ids of the node states that will be read.
+     */
+    public void prefetch(Collection<NodeId> ids) {
+        if (!(persistMgr instanceof PrefetchingPersistenceManager)
+                || ids.size() < 2) {
+            return;
+        }
+        try {
+            prefetchMissing(ids.iterator().next(), ids);
+        } catch (ItemStateException e) {
+            log.warn("Unable to prefetch " + ids.size() + " nodes", e);
+        }
+    }
+
+    /**
+     * Loads the node states that are not cached yet through the
+     * {@link PrefetchingPersistenceManager}, while holding a read lock on
+     * the item with id <code>lockId</code>.
+     *
+     * @param lockId the id of the item to read lock.
+     * @param ids    the ids of the node states to prefetch.
+     * @throws ItemStateException if the states cannot be loaded.
+     */
+    private void prefetchMissing(ItemId lockId, Collection<NodeId> ids)
+            throws ItemStateException {
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!cache.isCached(id)) {
+                missing.add(id);
+            }
+        }
+        if (missing.size() < 2) {
+            // nothing to gain compared to a regular load
+            return;
+        }
+
+        ISMLocking.ReadLock readLock = acquireReadLock(lockId);
+        try {
+            ((PrefetchingPersistenceManager) persistMgr).prefetch(missing);
+        } finally {
+            readLock.release();
+        }
+    }
+
     //----------------------------------------------------< ItemStateListener >
 
     /**
@@ -540,6 +644,12 @@ public class SharedItemStateManager
          */
         private ISMLocking.WriteLock writeLock;
 
+        /**
+         * Flag indicating that the group committer has been notified of
+         * this update, but the shared change log has not been stored yet.
+         */
+        private boolean groupCommitPending;
+
         /**
          * Map of attributes stored for this update operation.
          */
@@ -587,6 +697,11 @@ public class SharedItemStateManager
                 }
             }
 
+            if (groupCommitter != null) {
+                groupCommitter.updateStarted();
+                groupCommitPending = true;
+            }
+
             boolean succeeded = false;
 
             try {
@@ -793,7 +908,12 @@ public class SharedItemStateManager
             try {
                 /* Store items in the underlying persistence manager */
                 long t0 = System.currentTimeMillis();
-                persistMgr.store(shared);
+                if (groupCommitPending) {
+                    groupCommitPending = false;
+                    groupCommitter.store(shared);
+                } else {
+                    persistMgr.store(shared);
+                }
                 setAttribute(ATTRIBUTE_UPDATE_SIZE, shared.getUpdateSize());
                 succeeded = true;
                 if (log.isDebugEnabled()) {
@@ -900,6 +1020,10 @@ public class SharedItemStateManager
                     state.discard();
                 }
             } finally {
+                if (groupCommitPending) {
+                    groupCommitPending = false;
+                    groupCommitter.updateCancelled();
+                }
                 if (writeLock != null) {
                     writeLock.release();
                     writeLock = null;
@@ -0,0 +1,434 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import static org.apache.jackrabbit.data.core.TransactionContext.getCurrentThreadId;
+import static org.apache.jackrabbit.data.core.TransactionContext.isSameThreadId;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+
+/**
+ * Item state locking strategy that stripes the locks by node id, so that
+ * change logs that touch disjoint sets of nodes can be written concurrently.
+ * Each stripe is a read-write lock with the same semantics as the
+ * {@link DefaultISMLocking}. A read lock locks the stripe of the item (for a
+ * property the stripe of its parent node), and a write lock locks the
+ * stripes of all the items and node references in the change log, acquired
+ * in ascending stripe order.
+ * <p>
+ * Change logs that contain deleted items or REFERENCE properties, or that
+ * modify node references, lock all stripes, because the referential
+ * integrity checks of such updates read items that are not part of the
+ * change log.
+ * <p>
+ * A thread that holds a write lock, or a read lock downgraded from a write
+ * lock, does not wait for writers that are only queued when it acquires a
+ * read lock, but it does wait for a stripe that another thread holds
+ * exclusively, so that it never sees states a concurrent writer is in the
+ * middle of pushing. Writers read items outside their change log, for
+ * example the ancestors of the changed nodes when the events are created,
+ * so two writers may wait for each other's stripes. Such a cycle is
+ * detected by the thread that closes it, which then reads without waiting.
+ * This is safe because every other writer in the cycle is blocked until
+ * that thread releases its write lock, so none of them can push changes
+ * in the meantime.
+ * <p>
+ * Configuration:<br>
+ * <ul>
+ * <li>&lt;param name="{@link #setStripes(int) stripes}" value="64"/&gt;
+ * <li>&lt;param name="{@link #setWriterPreference(boolean) writerPreference}" value="true"/&gt;
+ * </ul>
+ */
+public class StripedISMLocking implements ISMLocking {
+
+    /**
+     * The default number of stripes.
+     */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * The stripes, created on first use.
+     */
+    private volatile Stripe[] stripes;
+
+    /**
+     * The configured number of stripes.
+     */
+    private int stripeCount = DEFAULT_STRIPES;
+
+    /**
+     * Flag for determining whether this locking strategy should give
+     * preference to writers or not, see
+     * {@link DefaultISMLocking#setWriterPreference(boolean)}.
+     */
+    private boolean writerPreference = true;
+
+    /**
+     * Number of write locks (including downgraded ones) held per thread
+     * identifier.
+     */
+    private final ConcurrentMap<Object, AtomicInteger> holders =
+        new ConcurrentHashMap<Object, AtomicInteger>();
+
+    /**
+     * The stripe each write lock holder is waiting to read, per thread
+     * identifier. Guarded by itself.
+     */
+    private final Map<Object, Stripe> waitingHolders =
+        new HashMap<Object, Stripe>();
+
+    /**
+     * Returns the number of stripes.
+     *
+     * @return number of stripes
+     */
+    public int getStripes() {
+        return stripeCount;
+    }
+
+    /**
+     * Sets the number of stripes. The default is 64.
+     *
+     * @param stripes number of stripes
+     */
+    public void setStripes(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("At least one stripe is required");
+        }
+        this.stripeCount = stripes;
+    }
+
+    /**
+     * Returns the writer preference status of this locking strategy.
+     *
+     * @return writer preference
+     */
+    public boolean isWriterPreference() {
+        return writerPreference;
+    }
+
+    /**
+     * Sets the writer preference status of this locking strategy.
+     *
+     * @param preference writer preference
+     */
+    public void setWriterPreference(boolean preference) {
+        this.writerPreference = preference;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadLock acquireReadLock(ItemId id) throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+        boolean holder = holders.containsKey(currentId);
+        final Stripe stripe = getStripeArray()[stripeIndex(id)];
+        stripe.acquireRead(currentId, holder);
+        return new ReadLock() {
+            public void release() {
+                stripe.releaseRead();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public WriteLock acquireWriteLock(ChangeLog changeLog)
+            throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+        Stripe[] all = getStripeArray();
+        BitSet indexes = getStripeIndexes(changeLog);
+
+        int acquired = 0;
+        boolean success = false;
+        try {
+            for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+                all[i].acquireWrite(currentId);
+                acquired++;
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (int i = indexes.nextSetBit(0); acquired > 0; i = indexes.nextSetBit(i + 1)) {
+                    all[i].releaseWrite(false);
+                    acquired--;
+                }
+            }
+        }
+
+        AtomicInteger count = holders.get(currentId);
+        if (count == null) {
+            count = new AtomicInteger();
+            AtomicInteger existing = holders.putIfAbsent(currentId, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.incrementAndGet();
+        return new StripedWriteLock(currentId, all, indexes);
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    private Stripe[] getStripeArray() {
+        Stripe[] s = stripes;
+        if (s == null) {
+            synchronized (this) {
+                s = stripes;
+                if (s == null) {
+                    s = new Stripe[stripeCount];
+                    for (int i = 0; i < s.length; i++) {
+                        s[i] = new Stripe();
+                    }
+                    stripes = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Returns the index of the stripe of the given item. Properties share
+     * the stripe of their parent node.
+     */
+    private int stripeIndex(ItemId id) {
+        NodeId nodeId;
+        if (id.denotesNode()) {
+            nodeId = (NodeId) id;
+        } else {
+            nodeId = ((PropertyId) id).getParentId();
+        }
+        return (nodeId.hashCode() & Integer.MAX_VALUE) % stripeCount;
+    }
+
+    /**
+     * Returns the indexes of the stripes to lock for the given change log.
+     */
+    private BitSet getStripeIndexes(ChangeLog changeLog) {
+        BitSet indexes = new BitSet(stripeCount);
+        if (changeLog.deletedStates().iterator().hasNext()
+                || changeLog.modifiedRefs().iterator().hasNext()) {
+            indexes.set(0, stripeCount);
+            return indexes;
+        }
+        for (ItemState state : changeLog.addedStates()) {
+            if (isReference(state)) {
+                indexes.set(0, stripeCount);
+                return indexes;
+            }
+            indexes.set(stripeIndex(state.getId()));
+        }
+        for (ItemState state : changeLog.modifiedStates()) {
+            if (isReference(state)) {
+                indexes.set(0, stripeCount);
+                return indexes;
+            }
+            indexes.set(stripeIndex(state.getId()));
+        }
+        return indexes;
+    }
+
+    private static boolean isReference(ItemState state) {
+        return !state.isNode()
+            && ((PropertyState) state).getType() == PropertyType.REFERENCE;
+    }
+
+    /**
+     * Checks whether the current thread would close a cycle of write lock
+     * holders that wait to read each other's stripes if it waited for the
+     * given stripe. If so, it must not wait. Otherwise the stripe is
+     * recorded as the one the current thread waits for. Both happen
+     * atomically, so that only one thread of a cycle detects it.
+     *
+     * @param stripe the stripe that another thread holds exclusively
+     * @param currentId the current thread identifier
+     * @return <code>true</code> if waiting would deadlock
+     */
+    private boolean closesCycle(Stripe stripe, Object currentId) {
+        synchronized (waitingHolders) {
+            Object owner = stripe.writerId;
+            // a cycle can not be longer than the number of waiting threads
+            for (int i = 0; owner != null && i <= waitingHolders.size(); i++) {
+                if (isSameThreadId(owner, currentId)) {
+                    waitingHolders.remove(currentId);
+                    return true;
+                }
+                Stripe waitingFor = waitingHolders.get(owner);
+                if (waitingFor == null) {
+                    break;
+                }
+                owner = waitingFor.writerId;
+            }
+            waitingHolders.put(currentId, stripe);
+            return false;
+        }
+    }
+
+    private void stopWaiting(Object currentId) {
+        synchronized (waitingHolders) {
+            waitingHolders.remove(currentId);
+        }
+    }
+
+    private void releaseHolder(Object threadId) {
+        AtomicInteger count = holders.get(threadId);
+        if (count != null && count.decrementAndGet() == 0) {
+            holders.remove(threadId, count);
+        }
+    }
+
+    private final class StripedWriteLock implements WriteLock {
+
+        private final Object threadId;
+
+        private final Stripe[] all;
+
+        private final BitSet indexes;
+
+        StripedWriteLock(Object threadId, Stripe[] all, BitSet indexes) {
+            this.threadId = threadId;
+            this.all = all;
+            this.indexes = indexes;
+        }
+
+        public void release() {
+            for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+                all[i].releaseWrite(false);
+            }
+            releaseHolder(threadId);
+        }
+
+        public ReadLock downgrade() {
+            for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+                all[i].releaseWrite(true);
+            }
+            return new ReadLock() {
+                public void release() {
+                    for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+                        all[i].releaseRead();
+                    }
+                    releaseHolder(threadId);
+                }
+            };
+        }
+
+    }
+
+    /**
+     * A single read-write lock, see {@link DefaultISMLocking} for the
+     * meaning of the fields.
+     */
+    private final class Stripe {
+
+        private int writersWaiting = 0;
+
+        /**
+         * Volatile, as it is also read by {@link StripedISMLocking#closesCycle}
+         * without holding the monitor of this stripe.
+         */
+        private volatile Object writerId = null;
+
+        private int writerCount = 0;
+
+        private int readerCount = 0;
+
+        /**
+         * Acquires a read lock.
+         *
+         * @param currentId the current thread identifier
+         * @param holder whether the current thread holds a write lock or
+         *               a downgraded write lock on any stripe, in which case
+         *               it does not wait for queued writers and does not
+         *               wait for another writer if that would deadlock
+         */
+        synchronized void acquireRead(Object currentId, boolean holder)
+                throws InterruptedException {
+            try {
+                for (;;) {
+                    if (writerId != null) {
+                        if (writerCount == 0 || isSameThreadId(writerId, currentId)) {
+                            break;
+                        }
+                        if (holder && closesCycle(this, currentId)) {
+                            break;
+                        }
+                    } else if (holder || !writerPreference || writersWaiting == 0) {
+                        break;
+                    }
+                    wait();
+                }
+            } finally {
+                if (holder) {
+                    stopWaiting(currentId);
+                }
+            }
+            readerCount++;
+        }
+
+        synchronized void releaseRead() {
+            readerCount--;
+            if (readerCount == 0 && writerCount == 0) {
+                writerId = null;
+                notifyAll();
+            }
+        }
+
+        synchronized void acquireWrite(Object currentId)
+                throws InterruptedException {
+            writersWaiting++;
+            try {
+                while (writerId != null
+                        ? !isSameThreadId(writerId, currentId) : readerCount > 0) {
+                    wait();
+                }
+            } finally {
+                writersWaiting--;
+            }
+
+            if (writerCount++ == 0) {
+                writerId = currentId;
+            }
+        }
+
+        synchronized void releaseWrite(boolean downgrade) {
+            writerCount--;
+            if (downgrade) {
+                readerCount++;
+            }
+            if (writerCount == 0) {
+                if (readerCount == 0) {
+                    writerId = null;
+                }
+                notifyAll();
+            }
+        }
+
+    }
+
+}
@@ -460,6 +460,20 @@ public class InternalValue extends AbstractQValue {
         return (BLOBFileValue) val;
     }
 
+    /**
+     * Returns the data identifier of a binary value that is stored in the
+     * data store. The identifier changes when the content changes.
+     *
+     * @return the data identifier or <code>null</code> if this is not a
+     *         binary value in the data store.
+     */
+    public DataIdentifier getDataIdentifier() {
+        if (type != PropertyType.BINARY) {
+            return null;
+        }
+        return ((BLOBFileValue) val).getDataIdentifier();
+    }
+
     public NodeId getNodeId() {
         assert val != null && (type == PropertyType.REFERENCE || type == PropertyType.WEAKREFERENCE);
         return (NodeId) val;
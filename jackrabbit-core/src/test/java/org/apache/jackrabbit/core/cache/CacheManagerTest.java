@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.Random;
+
+import javax.management.openmbean.TabularData;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link CacheManager} class.
+ */
+public class CacheManagerTest extends TestCase {
+
+    private static final int ENTRY_SIZE = 100;
+
+    /**
+     * Tests that of two caches with the same access pattern, the cache with
+     * the more expensive misses gets more memory.
+     */
+    public void testMissCost() {
+        CacheManager manager = new CacheManager();
+        manager.setMaxMemory(64 * 1024);
+        manager.setMinMemoryPerCache(1024);
+        manager.setMaxMemoryPerCache(64 * 1024);
+
+        ClockCache<Integer, Integer> expensive =
+            new ClockCache<Integer, Integer>("expensive");
+        ClockCache<Integer, Integer> cheap =
+            new ClockCache<Integer, Integer>("cheap");
+        expensive.setMaxMemorySize(16 * 1024);
+        cheap.setMaxMemorySize(16 * 1024);
+        manager.add(expensive);
+        manager.add(cheap);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10; i++) {
+            access(expensive, random, 1000 * 1000);
+            access(cheap, random, 1000);
+            manager.resizeAll();
+        }
+
+        assertTrue(expensive.getMaxMemorySize() > cheap.getMaxMemorySize());
+        assertTrue(expensive.getMaxMemorySize() + cheap.getMaxMemorySize()
+                <= manager.getMaxMemory());
+
+        TabularData allocations = manager.getCacheAllocations();
+        assertEquals(2, allocations.size());
+    }
+
+    /**
+     * Tests that a cache that does not use its memory does not keep it.
+     */
+    public void testUnusedMemory() {
+        CacheManager manager = new CacheManager();
+        manager.setMaxMemory(64 * 1024);
+        manager.setMinMemoryPerCache(1024);
+        manager.setMaxMemoryPerCache(64 * 1024);
+
+        ClockCache<Integer, Integer> idle =
+            new ClockCache<Integer, Integer>("idle");
+        ClockCache<Integer, Integer> busy =
+            new ClockCache<Integer, Integer>("busy");
+        idle.setMaxMemorySize(32 * 1024);
+        busy.setMaxMemorySize(32 * 1024);
+        manager.add(idle);
+        manager.add(busy);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10; i++) {
+            access(busy, random, 1000);
+            manager.resizeAll();
+        }
+
+        assertTrue(idle.getMaxMemorySize() < 4 * 1024);
+        assertTrue(busy.getMaxMemorySize() > 32 * 1024);
+    }
+
+    private static void access(
+            ClockCache<Integer, Integer> cache, Random random, long missCost) {
+        for (int i = 0; i < 10000; i++) {
+            Integer key = random.nextInt(1000);
+            if (cache.get(key) == null) {
+                cache.recordMissDuration(missCost);
+                cache.put(key, key, ENTRY_SIZE);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link NodeIdCache} class.
+ */
+public class NodeIdCacheTest extends TestCase {
+
+    /**
+     * Tests the cache by adding lots of random items to it and checking
+     * that the excess items have automatically been evicted while
+     * frequently accessed items are still present.
+     */
+    public void testEviction() {
+        NodeId[] ids = new NodeId[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+        }
+
+        NodeIdCache<NodeId> cache = new NodeIdCache<NodeId>("test");
+        cache.setMaxMemorySize(ids.length / 2);
+
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = 0; j < i; j += 3) {
+                cache.get(ids[j]);
+            }
+            cache.put(ids[i], ids[i], 1);
+        }
+
+        assertTrue(cache.getMemoryUsed() <= ids.length / 2);
+
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (cache.containsKey(ids[i])) {
+                n++;
+            }
+        }
+        assertTrue(n <= ids.length / 2);
+        assertEquals(n, cache.getElementCount());
+
+        n = 0;
+        for (int i = 0; i < ids.length; i += 3) {
+            if (cache.containsKey(ids[i])) {
+                n++;
+            }
+        }
+        assertTrue(n > ids.length / 6);
+    }
+
+    /**
+     * Tests that replaced and removed entries are accounted for.
+     */
+    public void testPutRemove() {
+        NodeIdCache<NodeId> cache = new NodeIdCache<NodeId>("test");
+        cache.setMaxMemorySize(Long.MAX_VALUE);
+
+        NodeId[] ids = new NodeId[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            assertNull(cache.put(ids[i], ids[i], 2));
+        }
+        assertEquals(2 * ids.length, cache.getMemoryUsed());
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], cache.put(ids[i], ids[i], 1));
+        }
+        assertEquals(ids.length, cache.getMemoryUsed());
+        assertEquals(ids.length, cache.values().size());
+
+        for (int i = 0; i < ids.length; i += 2) {
+            assertEquals(ids[i], cache.remove(ids[i]));
+            assertNull(cache.remove(ids[i]));
+        }
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i % 2 == 0 ? null : ids[i], cache.get(ids[i]));
+        }
+        assertEquals(ids.length / 2, cache.getElementCount());
+        assertEquals(ids.length / 2, cache.getMemoryUsed());
+
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getElementCount());
+    }
+
+}
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.LockEvent;
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
 import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.journal.Journal;
@@ -42,6 +43,9 @@ public class ClusterSyncTest extends JUnitTest {
     /** Defaut workspace name. */
     private static final String DEFAULT_WORKSPACE = "default";
 
+    /** Other workspace name. */
+    private static final String OTHER_WORKSPACE = "other";
+
     /** Default sync delay: 5 seconds. */
     private static final long SYNC_DELAY = 5000;
 
@@ -129,6 +133,65 @@ public class ClusterSyncTest extends JUnitTest {
         assertEquals(master.getRevision(), slave.getRevision());
     }
 
+    /**
+     * Verify that a cluster node which has not processed any records yet can
+     * skip the change records of a workspace that are reflected by an index
+     * snapshot, that all other records are still replayed and that the
+     * lowest revision wins if a workspace asks for it more than once.
+     *
+     * @throws Exception
+     */
+    public void testSkipRecords() throws Exception {
+        UpdateEventFactory factory = UpdateEventFactory.getInstance();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        UpdateEvent update1 = factory.createUpdateOperation();
+        channel.updateCreated(update1);
+        channel.updatePrepared(update1);
+        channel.updateCommitted(update1, null);
+        long revision1 = master.getRevision();
+
+        LockEvent lock = new LockEvent(NodeId.randomId(), true, "admin");
+        master.createLockChannel(DEFAULT_WORKSPACE).create(
+                lock.getNodeId(), lock.isDeep(), lock.getUserId()).ended(true);
+
+        UpdateEvent update2 = factory.createUpdateOperation();
+        channel.updateCreated(update2);
+        channel.updatePrepared(update2);
+        channel.updateCommitted(update2, null);
+        long revision2 = master.getRevision();
+
+        UpdateEventChannel otherChannel = master.createUpdateChannel(OTHER_WORKSPACE);
+        UpdateEvent update3 = factory.createUpdateOperation();
+        otherChannel.updateCreated(update3);
+        otherChannel.updatePrepared(update3);
+        otherChannel.updateCommitted(update3, null);
+
+        ClusterNode node = createClusterNode("node", true);
+        SimpleEventListener listener = new SimpleEventListener();
+        node.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        node.createUpdateChannel(OTHER_WORKSPACE).setListener(listener);
+        node.createLockChannel(DEFAULT_WORKSPACE).setListener(listener);
+        try {
+            assertEquals(0, node.getRevision());
+            assertTrue(node.skipRecords(DEFAULT_WORKSPACE, revision2));
+            assertTrue(node.skipRecords(DEFAULT_WORKSPACE, revision1));
+
+            node.start();
+            assertEquals(master.getRevision(), node.getRevision());
+            assertEquals(3, listener.getClusterEvents().size());
+            assertEquals(lock, listener.getClusterEvents().get(0));
+            assertEquals(update2, listener.getClusterEvents().get(1));
+            assertEquals(update3, listener.getClusterEvents().get(2));
+
+            assertFalse(node.skipRecords(DEFAULT_WORKSPACE, revision1));
+        } finally {
+            node.stop();
+        }
+
+        // slave has already been started
+        assertFalse(slave.skipRecords(DEFAULT_WORKSPACE, revision1));
+    }
+
     /**
      * Create a cluster node, with a memory journal referencing a list of records.
      *
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * <code>ChildNodePrefetchTest</code> checks that iterating over the child
+ * nodes of a node with a cold cache loads the child node bundles in batches
+ * instead of one at a time.
+ */
+public class ChildNodePrefetchTest extends TestCase {
+
+    private static final int NUM_CHILDREN = 250;
+
+    /** number of bundles loaded one at a time */
+    private static final AtomicInteger singleLoads = new AtomicInteger();
+
+    /** number of batches of bundles loaded at once */
+    private static final AtomicInteger batchLoads = new AtomicInteger();
+
+    private RepositoryImpl repo;
+
+    private Session session;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        FileUtils.copyInputStreamToFile(
+                getClass().getResourceAsStream("repository-with-countingPM.xml"),
+                new File(getTestDir(), "repository.xml"));
+        start();
+    }
+
+    protected void tearDown() throws Exception {
+        stop();
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testPrefetchChildNodes() throws Exception {
+        Node test = session.getRootNode().addNode("test", "nt:unstructured");
+        for (int i = 0; i < NUM_CHILDREN; i++) {
+            test.addNode("node" + i, "nt:unstructured");
+        }
+        session.save();
+
+        // restart with cold caches
+        stop();
+        start();
+
+        test = session.getNode("/test");
+        singleLoads.set(0);
+        batchLoads.set(0);
+        int count = 0;
+        for (NodeIterator it = test.getNodes(); it.hasNext(); ) {
+            it.nextNode();
+            count++;
+        }
+        assertEquals(NUM_CHILDREN, count);
+        // one batch per LazyItemIterator prefetch chunk of 100 child nodes
+        assertEquals(3, batchLoads.get());
+        assertTrue("single loads: " + singleLoads.get(), singleLoads.get() < 10);
+    }
+
+    private void start() throws Exception {
+        repo = RepositoryImpl.create(RepositoryConfig.create(getTestDir()));
+        session = repo.login(new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    private void stop() {
+        if (session != null) {
+            session.logout();
+            session = null;
+        }
+        if (repo != null) {
+            repo.shutdown();
+            repo = null;
+        }
+    }
+
+    private static void deleteAll() throws IOException {
+        FileUtils.deleteDirectory(getTestDir());
+    }
+
+    private static File getTestDir() throws IOException {
+        return new File("target",
+                ChildNodePrefetchTest.class.getSimpleName());
+    }
+
+    /**
+     * A persistence manager that counts how bundles are loaded.
+     */
+    public static class CountingPersistenceManager
+            extends DerbyPersistenceManager {
+
+        @Override
+        protected NodePropBundle loadBundle(NodeId id)
+                throws ItemStateException {
+            singleLoads.incrementAndGet();
+            return super.loadBundle(id);
+        }
+
+        @Override
+        protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+                throws ItemStateException {
+            batchLoads.incrementAndGet();
+            return super.loadBundles(ids);
+        }
+    }
+}
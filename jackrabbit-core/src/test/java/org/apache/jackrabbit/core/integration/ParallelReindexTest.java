@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+
+/**
+ * <code>ParallelReindexTest</code> checks that an initial index that is
+ * built on several threads contains the same nodes as the original index,
+ * also if the build was interrupted and resumed from a checkpoint.
+ */
+public class ParallelReindexTest extends TestCase {
+
+    private RepositoryImpl repo;
+
+    private Session session;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        FileUtils.copyInputStreamToFile(
+                getClass().getResourceAsStream("repository-with-reindexThreads.xml"),
+                new File(getTestDir(), "repository.xml"));
+        start();
+    }
+
+    protected void tearDown() throws Exception {
+        stop();
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testReindex() throws Exception {
+        Node test = session.getRootNode().addNode("test", "nt:unstructured");
+        for (int i = 0; i < 10; i++) {
+            Node folder = test.addNode("folder" + i, "nt:unstructured");
+            for (int j = 0; j < 150; j++) {
+                folder.addNode("node" + j, "nt:unstructured").setProperty("p", j % 3);
+            }
+        }
+        session.save();
+        long all = count("//*");
+        long matches = count("/jcr:root/test//*[@p = 1]");
+        long system = count("/jcr:root/jcr:system//*");
+        assertEquals(500, matches);
+
+        // re-create the index of the workspace
+        stop();
+        FileUtils.deleteDirectory(
+                new File(getTestDir(), "workspaces/default/index"));
+        start();
+
+        assertEquals(all, count("//*"));
+        assertEquals(matches, count("/jcr:root/test//*[@p = 1]"));
+        assertEquals(system, count("/jcr:root/jcr:system//*"));
+    }
+
+    public void testInterruptedReindex() throws Exception {
+        Node test = session.getRootNode().addNode("test", "nt:unstructured");
+        for (int i = 0; i < 20; i++) {
+            Node folder = test.addNode("folder" + i, "nt:unstructured");
+            for (int j = 0; j < 300; j++) {
+                folder.addNode("node" + j, "nt:unstructured").setProperty("p", j % 3);
+            }
+            session.save();
+        }
+        long all = count("//*");
+        long matches = count("/jcr:root/test//*[@p = 1]");
+        assertEquals(2000, matches);
+
+        stop();
+        final File indexDir = new File(getTestDir(), "workspaces/default/index");
+        FileUtils.deleteDirectory(indexDir);
+
+        // interrupt the start as soon as the first checkpoint is written
+        final AtomicReference<RepositoryImpl> started =
+            new AtomicReference<RepositoryImpl>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread starter = new Thread() {
+            public void run() {
+                try {
+                    started.set(RepositoryImpl.create(
+                            RepositoryConfig.create(getTestDir())));
+                } catch (Throwable t) {
+                    error.set(t);
+                    interrupted.set(isInterrupted());
+                }
+            }
+        };
+        starter.start();
+        while (starter.isAlive() && !hasCheckpoint(indexDir)) {
+            Thread.sleep(1);
+        }
+        starter.interrupt();
+        starter.join(60 * 1000);
+        assertFalse("initial index build did not stop", starter.isAlive());
+        if (started.get() != null) {
+            // the build completed before it was interrupted
+            started.get().shutdown();
+        } else if (isInterruptedBuild(error.get())) {
+            assertTrue("interrupt flag not restored", interrupted.get());
+            assertTrue("checkpoint deleted", hasCheckpoint(indexDir));
+        }
+
+        // resume from the checkpoint
+        start();
+        assertFalse(hasCheckpoint(indexDir));
+        assertEquals(all, count("//*"));
+        assertEquals(matches, count("/jcr:root/test//*[@p = 1]"));
+    }
+
+    private static boolean hasCheckpoint(File indexDir) {
+        String[] names = indexDir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith("reindex_")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInterruptedBuild(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (String.valueOf(t.getMessage()).startsWith("Interrupted while creating initial index")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long count(String xpath) throws RepositoryException {
+        QueryManager qm = session.getWorkspace().getQueryManager();
+        return qm.createQuery(xpath, Query.XPATH).execute().getNodes().getSize();
+    }
+
+    private void start() throws Exception {
+        repo = RepositoryImpl.create(RepositoryConfig.create(getTestDir()));
+        session = repo.login(new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    private void stop() {
+        if (session != null) {
+            session.logout();
+            session = null;
+        }
+        if (repo != null) {
+            repo.shutdown();
+            repo = null;
+        }
+    }
+
+    private static void deleteAll() throws IOException {
+        FileUtils.deleteDirectory(getTestDir());
+    }
+
+    private static File getTestDir() throws IOException {
+        return new File("target",
+                ParallelReindexTest.class.getSimpleName());
+    }
+}
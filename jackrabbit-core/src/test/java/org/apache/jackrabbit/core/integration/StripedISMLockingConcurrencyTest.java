@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+
+/**
+ * <code>StripedISMLockingConcurrencyTest</code> saves and reads concurrently
+ * in a workspace that uses the striped item state locking. The writers
+ * modify the common parent node as well as their own subtrees, so that
+ * they read stripes that other writers hold exclusively when the events
+ * are created.
+ */
+public class StripedISMLockingConcurrencyTest extends TestCase {
+
+    private static final int WRITERS = 4;
+
+    private static final int READERS = 4;
+
+    private static final int SAVES = 50;
+
+    private RepositoryImpl repo;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        FileUtils.copyInputStreamToFile(
+                getClass().getResourceAsStream("repository-with-StripedISMLocking.xml"),
+                new File(getTestDir(), "repository.xml"));
+        repo = RepositoryImpl.create(RepositoryConfig.create(getTestDir()));
+    }
+
+    protected void tearDown() throws Exception {
+        if (repo != null) {
+            repo.shutdown();
+            repo = null;
+        }
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testConcurrentSavesAndReads() throws Exception {
+        Session session = login();
+        try {
+            Node test = session.getRootNode().addNode("test", "nt:unstructured");
+            for (int i = 0; i < WRITERS; i++) {
+                test.addNode("w" + i, "nt:unstructured");
+            }
+            session.save();
+        } finally {
+            session.logout();
+        }
+
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> writers = new ArrayList<Thread>();
+        for (int i = 0; i < WRITERS; i++) {
+            final int w = i;
+            writers.add(new Thread() {
+                public void run() {
+                    try {
+                        Session s = login();
+                        try {
+                            Node test = s.getNode("/test");
+                            Node own = test.getNode("w" + w);
+                            for (int n = 0; n < SAVES; n++) {
+                                own.addNode("n" + n, "nt:unstructured");
+                                own.setProperty("count", n + 1);
+                                test.setProperty("w" + w + "count", n + 1);
+                                s.save();
+                            }
+                        } finally {
+                            s.logout();
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+        }
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Thread() {
+                public void run() {
+                    try {
+                        Session s = login();
+                        try {
+                            while (!done.get()) {
+                                s.refresh(false);
+                                for (NodeIterator it = s.getNode("/test").getNodes(); it.hasNext(); ) {
+                                    Node own = it.nextNode();
+                                    own.getNodes().getSize();
+                                    if (own.hasProperty("count")) {
+                                        own.getProperty("count").getLong();
+                                    }
+                                }
+                            }
+                        } finally {
+                            s.logout();
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            });
+        }
+
+        for (Thread t : readers) {
+            t.start();
+        }
+        for (Thread t : writers) {
+            t.start();
+        }
+        for (Thread t : writers) {
+            t.join(60 * 1000);
+            assertFalse("writer deadlocked", t.isAlive());
+        }
+        done.set(true);
+        for (Thread t : readers) {
+            t.join(60 * 1000);
+            assertFalse("reader deadlocked", t.isAlive());
+        }
+        if (!errors.isEmpty()) {
+            throw new Exception(errors.get(0));
+        }
+
+        session = login();
+        try {
+            for (int i = 0; i < WRITERS; i++) {
+                Node own = session.getNode("/test/w" + i);
+                assertEquals(SAVES, own.getNodes().getSize());
+                assertEquals(SAVES, own.getProperty("count").getLong());
+                assertEquals(SAVES, session.getNode("/test")
+                        .getProperty("w" + i + "count").getLong());
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    private Session login() throws Exception {
+        return repo.login(new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    private static void deleteAll() throws IOException {
+        FileUtils.deleteDirectory(getTestDir());
+    }
+
+    private static File getTestDir() throws IOException {
+        return new File("target",
+                StripedISMLockingConcurrencyTest.class.getSimpleName());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.integration.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.NamespaceRegistryImpl;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.PMContext;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
+import org.apache.jackrabbit.core.persistence.bundle.BundleFsPersistenceManager;
+import org.apache.jackrabbit.core.persistence.bundle.SegmentBundlePersistenceManager;
+import org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager;
+import org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.core.util.db.ConnectionFactory;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
+
+/**
+ * A benchmark application that compares the write throughput and the read
+ * latency of the embedded bundle persistence managers: the file system,
+ * Derby, H2 and segment persistence managers. The bundles are written in
+ * small change logs, and each of them is read once in random order after
+ * they were evicted from the bundle cache.
+ */
+public class BundlePersistenceBench {
+
+    private static final Name TEST =
+        NameFactoryImpl.getInstance().create("", "test");
+
+    private static final int NODE_COUNT = 20000;
+
+    private static final int BATCH_SIZE = 10;
+
+    private final File directory = new File("target", "bundlebench");
+
+    public static void main(String[] args) throws Exception {
+        BundlePersistenceBench bench = new BundlePersistenceBench();
+        for (int run = 0; run < 3; run++) {
+            bench.test(run, "fs", new BundleFsPersistenceManager());
+            bench.test(run, "derby", bench.derby());
+            bench.test(run, "h2", bench.h2());
+            bench.test(run, "segment", new SegmentBundlePersistenceManager());
+        }
+    }
+
+    private DerbyPersistenceManager derby() {
+        DerbyPersistenceManager manager = new DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + new File(directory, "derby").getPath()
+                + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        return manager;
+    }
+
+    private H2PersistenceManager h2() {
+        H2PersistenceManager manager = new H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:file:" + new File(directory, "h2").getAbsolutePath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        return manager;
+    }
+
+    void test(int run, String name, AbstractBundlePersistenceManager manager)
+            throws Exception {
+        FileUtils.deleteDirectory(directory);
+        directory.mkdirs();
+        manager.init(new PMContext(
+                directory,
+                new MemoryFileSystem(),
+                RepositoryImpl.ROOT_NODE_ID,
+                new NamespaceRegistryImpl(new MemoryFileSystem()),
+                null,
+                null,
+                new RepositoryStatisticsImpl()));
+        try {
+            List<NodeId> ids = new ArrayList<NodeId>();
+            List<ChangeLog> logs = new ArrayList<ChangeLog>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < NODE_COUNT; i += BATCH_SIZE) {
+                ChangeLog changes = new ChangeLog();
+                for (int j = 0; j < BATCH_SIZE; j++) {
+                    NodeId id = NodeId.randomId();
+                    NodeState state = new NodeState(
+                            id, TEST, RepositoryImpl.ROOT_NODE_ID,
+                            ItemState.STATUS_NEW, true);
+                    state.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+                    changes.added(state);
+                    ids.add(id);
+                }
+                manager.store(changes);
+                logs.add(changes);
+            }
+            long write = System.currentTimeMillis() - start;
+
+            // evict the stored bundles from the bundle cache
+            for (ChangeLog changes : logs) {
+                manager.onExternalUpdate(changes);
+            }
+            Collections.shuffle(ids, new Random(run));
+            start = System.nanoTime();
+            for (NodeId id : ids) {
+                manager.load(id);
+            }
+            long read = System.nanoTime() - start;
+
+            if (run > 0) {
+                System.out.println("run: " + run + "; pm: " + name
+                        + "; writes: " + (NODE_COUNT * 1000L / Math.max(write, 1))
+                        + " bundles/s; reads: " + (read / NODE_COUNT / 1000)
+                        + " us/bundle");
+            }
+        } finally {
+            manager.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+}
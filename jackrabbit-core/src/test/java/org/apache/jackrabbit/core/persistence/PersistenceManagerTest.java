@@ -17,18 +17,31 @@
 package org.apache.jackrabbit.core.persistence;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.PropertyType;
+import javax.sql.DataSource;
 
 import junit.framework.TestCase;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.core.NamespaceRegistryImpl;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.bundle.SegmentBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.mem.InMemBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.mem.InMemPersistenceManager;
 import org.apache.jackrabbit.core.persistence.obj.ObjectPersistenceManager;
@@ -41,6 +54,7 @@ import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.jackrabbit.core.util.db.ConnectionFactory;
+import org.apache.jackrabbit.core.util.db.ConnectionHelper;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
@@ -83,6 +97,10 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(new InMemBundlePersistenceManager());
     }
 
+    public void testSegmentBundlePersistenceManager() throws Exception {
+        assertPersistenceManager(new SegmentBundlePersistenceManager());
+    }
+
     public void testXMLPersistenceManager() throws Exception {
         assertPersistenceManager(new XMLPersistenceManager());
     }
@@ -118,7 +136,172 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(manager);
     }
 
-    private void assertPersistenceManager(PersistenceManager manager)
+    public void testH2PoolPersistenceManagerWithoutBatches() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setBatchSize("1");
+        assertPersistenceManager(manager);
+    }
+
+    /**
+     * Checks that storing a large change log with JDBC batches needs only a
+     * fraction of the statement round trips of storing it without.
+     */
+    public void testH2PoolPersistenceManagerBatchRoundTrips() throws Exception {
+        int single = countStoreRoundTrips("1");
+        int batched = countStoreRoundTrips("100");
+        // 1 parent and 200 children: one insert per bundle without batches
+        assertEquals(201, single);
+        assertTrue("round trips: " + batched, batched <= 3);
+    }
+
+    private int countStoreRoundTrips(String batchSize) throws Exception {
+        final AtomicInteger roundTrips = new AtomicInteger();
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager() {
+                protected ConnectionHelper createConnectionHelper(DataSource dataSrc)
+                        throws Exception {
+                    return super.createConnectionHelper(
+                            countingProxy(DataSource.class, dataSrc, roundTrips));
+                }
+            };
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath() + "-" + batchSize);
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setBatchSize(batchSize);
+        init(manager);
+        try {
+            NodeState parent = new NodeState(
+                    NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                    ItemState.STATUS_NEW, true);
+            parent.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+            ChangeLog changes = new ChangeLog();
+            changes.added(parent);
+            List<NodeId> ids = new ArrayList<NodeId>();
+            for (int i = 0; i < 200; i++) {
+                NodeId id = NodeId.randomId();
+                parent.addChildNodeEntry(TEST, id);
+                NodeState child = new NodeState(
+                        id, TEST, NODE_ID, ItemState.STATUS_NEW, true);
+                child.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+                changes.added(child);
+                ids.add(id);
+            }
+
+            roundTrips.set(0);
+            manager.store(changes);
+            int count = roundTrips.get();
+
+            assertTrue(manager.exists(NODE_ID));
+            for (NodeId id : ids) {
+                assertTrue(manager.exists(id));
+            }
+            return count;
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Checks that prefetching bundles that are not cached selects them with
+     * one statement per batch and that loading them afterwards does not hit
+     * the database again.
+     */
+    public void testH2PoolPersistenceManagerPrefetchRoundTrips() throws Exception {
+        final AtomicInteger roundTrips = new AtomicInteger();
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager() {
+                protected ConnectionHelper createConnectionHelper(DataSource dataSrc)
+                        throws Exception {
+                    return super.createConnectionHelper(
+                            countingProxy(DataSource.class, dataSrc, roundTrips));
+                }
+            };
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath() + "-prefetch");
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setPrefetchBatchSize("100");
+        RepositoryStatisticsImpl stats = new RepositoryStatisticsImpl();
+        init(manager, stats);
+        try {
+            NodeState parent = new NodeState(
+                    NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                    ItemState.STATUS_NEW, true);
+            parent.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+            ChangeLog changes = new ChangeLog();
+            changes.added(parent);
+            List<NodeId> ids = new ArrayList<NodeId>();
+            for (int i = 0; i < 200; i++) {
+                NodeId id = NodeId.randomId();
+                parent.addChildNodeEntry(TEST, id);
+                NodeState child = new NodeState(
+                        id, TEST, NODE_ID, ItemState.STATUS_NEW, true);
+                child.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+                changes.added(child);
+                ids.add(id);
+            }
+            manager.store(changes);
+            // evict the stored bundles from the bundle cache
+            manager.onExternalUpdate(changes);
+
+            AtomicLong misses = stats.getCounter(
+                    RepositoryStatistics.Type.BUNDLE_CACHE_MISS_COUNTER);
+            long missesBefore = misses.get();
+            roundTrips.set(0);
+            manager.prefetch(ids);
+            assertEquals(2, roundTrips.get());
+            assertEquals(200, misses.get() - missesBefore);
+
+            for (NodeId id : ids) {
+                assertEquals(NODE_ID, manager.load(id).getParentId());
+            }
+            assertEquals(2, roundTrips.get());
+            assertEquals(200, misses.get() - missesBefore);
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Returns a proxy of the given JDBC object that counts the executed
+     * statements and statement batches. Connections and statements created
+     * through the proxy are counted as well.
+     */
+    private static <T> T countingProxy(
+            Class<T> type, final Object target, final AtomicInteger roundTrips) {
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args)
+                    throws Throwable {
+                if (method.getName().startsWith("execute")) {
+                    roundTrips.incrementAndGet();
+                }
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                Class<?> returnType = method.getReturnType();
+                if (result != null && (Connection.class.isAssignableFrom(returnType)
+                        || Statement.class.isAssignableFrom(returnType))) {
+                    result = countingProxy(returnType, result, roundTrips);
+                }
+                return result;
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(
+                PersistenceManagerTest.class.getClassLoader(),
+                new Class<?>[] { type }, handler));
+    }
+
+    private void init(PersistenceManager manager) throws Exception {
+        init(manager, new RepositoryStatisticsImpl());
+    }
+
+    private void init(PersistenceManager manager, RepositoryStatisticsImpl stats)
             throws Exception {
         manager.init(new PMContext(
                 directory,
@@ -127,7 +310,12 @@ public class PersistenceManagerTest extends TestCase {
                 new NamespaceRegistryImpl(new MemoryFileSystem()),
                 null,
                 null,
-                new RepositoryStatisticsImpl()));
+                stats));
+    }
+
+    private void assertPersistenceManager(PersistenceManager manager)
+            throws Exception {
+        init(manager);
         try {
             assertCreateNewNode(manager);
             assertCreateNewProperty(manager);
@@ -220,6 +408,13 @@ public class PersistenceManagerTest extends TestCase {
         create.modified(references);
         manager.store(create);
 
+        if (manager instanceof PrefetchingPersistenceManager) {
+            NodeId missing = NodeId.randomId();
+            ((PrefetchingPersistenceManager) manager).prefetch(
+                    Arrays.asList(NODE_ID, CHILD_ID, missing));
+            assertFalse(manager.exists(missing));
+        }
+
         assertTrue(manager.exists(NODE_ID));
         assertTrue(manager.exists(CHILD_ID));
         assertTrue(manager.exists(PROPERTY_ID));
@@ -18,16 +18,22 @@ package org.apache.jackrabbit.core.persistence.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.jcr.PropertyType;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
@@ -47,6 +53,8 @@ public class BundleBindingTest extends TestCase {
 
     private static final NameFactory factory = NameFactoryImpl.getInstance();
 
+    private StringIndex index;
+
     private BundleBinding binding;
 
     protected void setUp() throws Exception {
@@ -71,7 +79,7 @@ public class BundleBindingTest extends TestCase {
                 "uri",
                 "weakreference"
         };
-        StringIndex index = new StringIndex() {
+        index = new StringIndex() {
             public int stringToIndex(String string) {
                 for (int i = 0; i < strings.length; i++) {
                     if (strings[i].equals(string)) {
@@ -443,6 +451,168 @@ public class BundleBindingTest extends TestCase {
         }
     }
 
+    /**
+     * Bundles read from a buffer decode their content on first access.
+     */
+    public void testLazyDecoding() throws Exception {
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+        Name multi = factory.create("", "multi");
+        PropertyEntry property =
+            new PropertyEntry(new PropertyId(bundle.getId(), multi));
+        property.setType(PropertyType.STRING);
+        property.setMultiValued(true);
+        InternalValue[] values = new InternalValue[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = InternalValue.create("value" + i);
+        }
+        property.setValues(values);
+        bundle.addProperty(property);
+        Name other = factory.create("http://example.com/other", "other");
+        property = new PropertyEntry(new PropertyId(bundle.getId(), other));
+        property.setType(PropertyType.LONG);
+        property.setValues(new InternalValue[] { InternalValue.create(42L) });
+        bundle.addProperty(property);
+        for (int i = 0; i < 100; i++) {
+            bundle.addChildNodeEntry(
+                    factory.create("http://example.com/other", "child" + i),
+                    NodeId.randomId());
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, bundle);
+        NodePropBundle result = binding.readBundle(
+                ByteBuffer.wrap(buffer.toByteArray()), bundle.getId());
+
+        // the header is available without decoding the content
+        assertEquals(bundle.getParentId(), result.getParentId());
+        assertEquals(bundle.getNodeTypeName(), result.getNodeTypeName());
+        assertTrue(result.getSize() > buffer.size());
+
+        assertEquals(bundle.getChildNodeEntries(), result.getChildNodeEntries());
+        assertEquals(bundle.getPropertyNames(), result.getPropertyNames());
+        assertEquals(42L, result.getPropertyEntry(other).getValues()[0].getLong());
+        assertTrue(Arrays.equals(
+                values, result.getPropertyEntry(multi).getValues()));
+        assertEquals(bundle, result);
+    }
+
+    /**
+     * A corrupt bundle fails to be read from a buffer, even though its
+     * content is only decoded on first access.
+     */
+    public void testTruncatedBundle() throws Exception {
+        byte[] bytes = writeTestBundle();
+        for (int length = 1; length < bytes.length; length++) {
+            try {
+                binding.readBundle(
+                        ByteBuffer.wrap(bytes, 0, length).slice(), NodeId.randomId());
+                fail("truncated to " + length + " of " + bytes.length);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    /**
+     * A binary that is missing in the blob store fails to be read from a
+     * buffer, and not only on first access.
+     */
+    public void testMissingBlob() throws Exception {
+        final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+        BLOBStore blobStore = new BLOBStore() {
+            public String createId(PropertyId id, int index) {
+                return id + "." + index;
+            }
+            public void put(String blobId, InputStream in, long size)
+                    throws Exception {
+                blobs.put(blobId, IOUtils.toByteArray(in));
+            }
+            public InputStream get(String blobId) throws Exception {
+                byte[] data = blobs.get(blobId);
+                if (data == null) {
+                    throw new Exception("missing blob " + blobId);
+                }
+                return new ByteArrayInputStream(data);
+            }
+            public boolean remove(String blobId) {
+                return blobs.remove(blobId) != null;
+            }
+        };
+        BundleBinding blobBinding = new BundleBinding(
+                new ErrorHandling(), blobStore, index, index, null);
+        blobBinding.setMinBlobSize(16);
+
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+        Name name = factory.create("", "binary");
+        PropertyEntry property =
+            new PropertyEntry(new PropertyId(bundle.getId(), name));
+        property.setType(PropertyType.BINARY);
+        property.setValues(new InternalValue[] {
+                InternalValue.create(new byte[100]) });
+        bundle.addProperty(property);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        blobBinding.writeBundle(buffer, bundle);
+        assertEquals(1, blobs.size());
+        NodePropBundle result = blobBinding.readBundle(
+                ByteBuffer.wrap(buffer.toByteArray()), bundle.getId());
+        assertEquals(100, result.getPropertyEntry(name).getValues()[0].getLength());
+
+        blobs.clear();
+        try {
+            blobBinding.readBundle(
+                    ByteBuffer.wrap(buffer.toByteArray()), bundle.getId());
+            fail("bundle with a missing blob read");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Bundles read from a direct buffer do not refer to the buffer.
+     */
+    public void testDirectBuffer() throws Exception {
+        NodeId id = NodeId.randomId();
+        byte[] bytes = writeTestBundle();
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+        NodePropBundle result = binding.readBundle(direct, id);
+        direct.clear();
+        direct.put(new byte[bytes.length]);
+        assertEquals(binding.readBundle(ByteBuffer.wrap(bytes), id), result);
+    }
+
+    private byte[] writeTestBundle() throws Exception {
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.singleton(NodeId.randomId()));
+        Name name = factory.create("http://example.com/other", "name");
+        PropertyEntry property =
+            new PropertyEntry(new PropertyId(bundle.getId(), name));
+        property.setType(PropertyType.NAME);
+        property.setValues(new InternalValue[] { InternalValue.create(name) });
+        bundle.addProperty(property);
+        Name string = factory.create("", "string");
+        property = new PropertyEntry(new PropertyId(bundle.getId(), string));
+        property.setType(PropertyType.STRING);
+        property.setValues(new InternalValue[] { InternalValue.create("value") });
+        bundle.addProperty(property);
+        bundle.addChildNodeEntry(name, NodeId.randomId());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, bundle);
+        return buffer.toByteArray();
+    }
+
     private void assertDateSerialization(String date) throws Exception {
         assertValueSerialization(
                 InternalValue.valueOf(date, PropertyType.DATE));
@@ -472,6 +642,9 @@ public class BundleBindingTest extends TestCase {
             binding.readBundle(new ByteArrayInputStream(bytes), bundle.getId());
 
         assertEquals(value, result.getPropertyEntry(name).getValues()[0]);
+
+        result = binding.readBundle(ByteBuffer.wrap(bytes), bundle.getId());
+        assertEquals(value, result.getPropertyEntry(name).getValues()[0]);
     }
 
     private void assertBundleRoundtrip(NodePropBundle bundle)
@@ -482,12 +655,16 @@ public class BundleBindingTest extends TestCase {
 
         assertEquals(bundle, binding.readBundle(
                 new ByteArrayInputStream(bytes), bundle.getId()));
+        assertEquals(bundle, binding.readBundle(
+                ByteBuffer.wrap(bytes), bundle.getId()));
     }
 
     private void assertBundleSerialization(NodePropBundle bundle, byte[] data)
             throws Exception {
         assertEquals(bundle, binding.readBundle(
                 new ByteArrayInputStream(data), bundle.getId()));
+        assertEquals(bundle, binding.readBundle(
+                ByteBuffer.wrap(data), bundle.getId()));
     }
 
 }
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+public class OffHeapBundleCacheTest extends TestCase {
+
+    private static final int SLAB_SIZE = 1024;
+
+    private OffHeapBundleCache cache;
+
+    protected void setUp() throws Exception {
+        cache = new OffHeapBundleCache(4 * SLAB_SIZE, SLAB_SIZE);
+    }
+
+    public void testPutGetRemove() {
+        NodeId id = NodeId.randomId();
+        assertNull(cache.get(id));
+        assertEquals(1, cache.getMissCount());
+
+        byte[] data = new byte[] { 1, 2, 3 };
+        cache.put(id, data);
+        assertTrue(cache.containsKey(id));
+        assertTrue(Arrays.equals(data, cache.get(id)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getElementCount());
+
+        byte[] replaced = new byte[] { 4, 5 };
+        cache.put(id, replaced);
+        assertTrue(Arrays.equals(replaced, cache.get(id)));
+        assertEquals(1, cache.getElementCount());
+
+        cache.remove(id);
+        assertFalse(cache.containsKey(id));
+        assertNull(cache.get(id));
+        assertEquals(0, cache.getElementCount());
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    public void testOversizedEntry() {
+        NodeId id = NodeId.randomId();
+        cache.put(id, new byte[SLAB_SIZE]);
+        assertNull(cache.get(id));
+    }
+
+    public void testManyEntries() {
+        // large enough to grow the index, small enough not to evict
+        cache = new OffHeapBundleCache(1024 * 1024, 64 * 1024);
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 5000; i++) {
+            NodeId id = NodeId.randomId();
+            ids.add(id);
+            cache.put(id, data(i));
+        }
+        assertEquals(ids.size(), cache.getElementCount());
+        for (int i = 0; i < ids.size(); i += 2) {
+            cache.remove(ids.get(i));
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] data = cache.get(ids.get(i));
+            if (i % 2 == 0) {
+                assertNull(data);
+            } else {
+                assertTrue(Arrays.equals(data(i), data));
+            }
+        }
+    }
+
+    public void testEviction() {
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 100; i++) {
+            NodeId id = NodeId.randomId();
+            ids.add(id);
+            cache.put(id, data(i));
+        }
+        assertTrue(cache.getElementCount() < ids.size());
+        assertTrue(cache.getMemoryUsed() <= 4 * SLAB_SIZE);
+
+        // the most recently added entry is never evicted
+        NodeId last = ids.get(ids.size() - 1);
+        assertTrue(Arrays.equals(data(ids.size() - 1), cache.get(last)));
+
+        // entries that are still cached have the correct data
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] data = cache.get(ids.get(i));
+            if (data != null) {
+                assertTrue(Arrays.equals(data(i), data));
+            }
+        }
+    }
+
+    public void testClear() {
+        NodeId id = NodeId.randomId();
+        cache.put(id, data(1));
+        cache.clear();
+        assertNull(cache.get(id));
+        assertEquals(0, cache.getElementCount());
+        assertEquals(0, cache.getMemoryUsed());
+        cache.put(id, data(2));
+        assertTrue(Arrays.equals(data(2), cache.get(id)));
+    }
+
+    public void testSizeSmallerThanSlab() {
+        cache = new OffHeapBundleCache(1000, SLAB_SIZE);
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 50; i++) {
+            NodeId id = NodeId.randomId();
+            ids.add(id);
+            cache.put(id, data(i));
+            assertTrue(cache.getMemoryUsed() <= 1000);
+        }
+        NodeId last = ids.get(ids.size() - 1);
+        assertTrue(Arrays.equals(data(ids.size() - 1), cache.get(last)));
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        cache = new OffHeapBundleCache(2 * 1024 * 1024, 64 * 1024);
+        final List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(NodeId.randomId());
+        }
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int n = 0; n < 20000; n++) {
+                            int i = (n * 7 + offset) % ids.size();
+                            if (n % 3 == 0) {
+                                cache.put(ids.get(i), data(i));
+                            } else {
+                                byte[] data = cache.get(ids.get(i));
+                                if (data != null) {
+                                    assertTrue(Arrays.equals(data(i), data));
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new Exception(errors.get(0));
+        }
+    }
+
+    private static byte[] data(int i) {
+        byte[] data = new byte[100 + i % 7];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+
+public class SegmentStoreTest extends TestCase {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private final File directory = new File("target", "segmentstore");
+
+    private final List<SegmentStore> stores = new ArrayList<SegmentStore>();
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    protected void tearDown() throws Exception {
+        for (SegmentStore store : stores) {
+            store.close();
+        }
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * Opens a new store on the test directory. Opening a new store without
+     * closing the previous one simulates a crash.
+     */
+    private SegmentStore open() throws Exception {
+        return open(SEGMENT_SIZE);
+    }
+
+    private SegmentStore open(int segmentSize) throws Exception {
+        SegmentStore store = new SegmentStore(directory, segmentSize, 2);
+        store.setSyncOnCommit(false);
+        store.open();
+        stores.add(store);
+        return store;
+    }
+
+    private static byte[] data(int value, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static void assertData(byte[] expected, ByteBuffer buffer) {
+        assertNotNull(buffer);
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+
+    public void testPutGetRemove() throws Exception {
+        SegmentStore store = open();
+        NodeId id = NodeId.randomId();
+        assertNull(store.get(0, id));
+
+        store.put(0, id, data(1, 10));
+        assertData(data(1, 10), store.get(0, id));
+        assertTrue(store.contains(0, id));
+        assertFalse(store.contains(1, id));
+
+        store.put(1, id, data(2, 5));
+        store.put(0, id, data(3, 20));
+        assertData(data(3, 20), store.get(0, id));
+        assertData(data(2, 5), store.get(1, id));
+
+        store.remove(0, id);
+        assertNull(store.get(0, id));
+        assertEquals(1, store.getIds(1).size());
+        assertEquals(0, store.getIds(0).size());
+    }
+
+    public void testCommitAndRollback() throws Exception {
+        SegmentStore store = open();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+
+        store.begin();
+        store.put(0, a, data(1, 100));
+        assertNull("uncommitted data is not visible", store.get(0, a));
+        store.commit();
+        assertData(data(1, 100), store.get(0, a));
+
+        store.begin();
+        store.put(0, b, data(2, 100));
+        store.remove(0, a);
+        store.rollback();
+        assertNull(store.get(0, b));
+        assertData(data(1, 100), store.get(0, a));
+
+        // the rolled back space is reused
+        store.put(0, b, data(3, 100));
+        assertData(data(3, 100), open().get(0, b));
+    }
+
+    public void testReopen() throws Exception {
+        SegmentStore store = open();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 100; i++) {
+            NodeId id = NodeId.randomId();
+            store.put(0, id, data(i, 1000));
+            ids.add(id);
+        }
+        assertTrue(store.getSegmentCount() > 1);
+        store.close();
+        assertTrue(new File(directory, "index.snapshot").exists());
+
+        store = open();
+        assertFalse(new File(directory, "index.snapshot").exists());
+        for (int i = 0; i < ids.size(); i++) {
+            assertData(data(i, 1000), store.get(0, ids.get(i)));
+        }
+    }
+
+    public void testRecovery() throws Exception {
+        SegmentStore store = open();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 100; i++) {
+            NodeId id = NodeId.randomId();
+            store.put(0, id, data(i, 1000));
+            ids.add(id);
+        }
+        store.remove(0, ids.get(0));
+
+        // a batch interrupted by a crash, spanning several segments
+        NodeId uncommitted = NodeId.randomId();
+        int segments = store.getSegmentCount();
+        store.begin();
+        store.put(0, ids.get(1), data(0, 1000));
+        store.put(0, uncommitted, data(0, 3 * SEGMENT_SIZE));
+        assertTrue(store.getSegmentCount() > segments);
+
+        SegmentStore recovered = open();
+        assertEquals(segments, recovered.getSegmentCount());
+        assertNull(recovered.get(0, ids.get(0)));
+        assertNull(recovered.get(0, uncommitted));
+        for (int i = 1; i < ids.size(); i++) {
+            assertData(data(i, 1000), recovered.get(0, ids.get(i)));
+        }
+
+        // crash again after writing to the recovered store
+        recovered.put(0, ids.get(2), data(-1, 10));
+        recovered = open();
+        assertData(data(-1, 10), recovered.get(0, ids.get(2)));
+        assertData(data(1, 1000), recovered.get(0, ids.get(1)));
+        assertNull(recovered.get(0, uncommitted));
+        assertEquals(99, recovered.getIds(0).size());
+    }
+
+    public void testCompaction() throws Exception {
+        SegmentStore store = open();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 200; i++) {
+            NodeId id = NodeId.randomId();
+            store.put(0, id, data(i, 1000));
+            ids.add(id);
+        }
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 == 0) {
+                store.remove(0, ids.get(i));
+            } else if (i % 10 != 1) {
+                store.put(0, ids.get(i), data(-i, 1000));
+            }
+        }
+        int segments = store.getSegmentCount();
+        assertTrue(store.needsCompaction(0.5));
+        assertTrue(store.compact(0.5) > 0);
+        assertTrue(store.getSegmentCount() < segments);
+
+        // recover from the compacted segments
+        SegmentStore recovered = open();
+        for (SegmentStore s : new SegmentStore[] { store, recovered }) {
+            assertEquals(180, s.getIds(0).size());
+            for (int i = 0; i < 200; i++) {
+                ByteBuffer buffer = s.get(0, ids.get(i));
+                if (i % 10 == 0) {
+                    assertNull(buffer);
+                } else if (i % 10 == 1) {
+                    assertData(data(i, 1000), buffer);
+                } else {
+                    assertData(data(-i, 1000), buffer);
+                }
+            }
+        }
+    }
+
+    public void testCompactionWithoutSyncOnCommit() throws Exception {
+        final AtomicInteger forced = new AtomicInteger();
+        SegmentStore store = new SegmentStore(directory, SEGMENT_SIZE, 2) {
+            @Override
+            void force(MappedByteBuffer buffer) {
+                forced.incrementAndGet();
+                super.force(buffer);
+            }
+        };
+        store.setSyncOnCommit(false);
+        store.open();
+        stores.add(store);
+
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 200; i++) {
+            NodeId id = NodeId.randomId();
+            store.put(0, id, data(i, 1000));
+            ids.add(id);
+        }
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 != 1) {
+                store.remove(0, ids.get(i));
+            }
+        }
+        assertEquals(0, forced.get());
+
+        // the copies are forced before the compacted segments are deleted
+        assertTrue(store.compact(0.5) > 0);
+        assertTrue(forced.get() > 0);
+
+        SegmentStore recovered = open();
+        assertEquals(20, recovered.getIds(0).size());
+        for (int i = 1; i < 200; i += 10) {
+            assertData(data(i, 1000), recovered.get(0, ids.get(i)));
+        }
+    }
+
+    public void testCompactionInSteps() throws Exception {
+        // one segment spans several compaction steps
+        SegmentStore store = open(4 * 1024 * 1024);
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 3000; i++) {
+            NodeId id = NodeId.randomId();
+            store.put(0, id, data(i, 1000));
+            ids.add(id);
+        }
+        // start a new segment and replace every other record
+        store.put(1, NodeId.randomId(), data(0, 4 * 1024 * 1024));
+        for (int i = 0; i < 3000; i += 2) {
+            store.put(0, ids.get(i), data(-i, 1000));
+        }
+        assertEquals(1, store.compact(0.6));
+
+        SegmentStore recovered = open(4 * 1024 * 1024);
+        for (SegmentStore s : new SegmentStore[] { store, recovered }) {
+            assertEquals(3000, s.getIds(0).size());
+            for (int i = 0; i < 3000; i++) {
+                assertData(data(i % 2 == 0 ? -i : i, 1000), s.get(0, ids.get(i)));
+            }
+        }
+    }
+
+    public void testRemovalRecordsDropped() throws Exception {
+        SegmentStore store = open();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 3000; i++) {
+            NodeId id = NodeId.randomId();
+            store.put(0, id, data(i, 10));
+            ids.add(id);
+        }
+        // a segment with live data that is not compacted
+        NodeId live = NodeId.randomId();
+        store.put(0, live, data(1, 60000));
+        for (NodeId id : ids) {
+            store.remove(0, id);
+        }
+        NodeId active = NodeId.randomId();
+        store.put(0, active, data(2, 60000));
+
+        store.compact(0.5);
+        // the removal records are not copied, since no segment holds
+        // a record of the removed keys any more
+        assertEquals(2, store.getSegmentCount());
+
+        SegmentStore recovered = open();
+        for (SegmentStore s : new SegmentStore[] { store, recovered }) {
+            assertEquals(2, s.getIds(0).size());
+            assertData(data(1, 60000), s.get(0, live));
+            assertData(data(2, 60000), s.get(0, active));
+        }
+    }
+
+    public void testRemovalRecordsKept() throws Exception {
+        SegmentStore store = open();
+        NodeId removed = NodeId.randomId();
+        NodeId live = NodeId.randomId();
+        store.put(0, removed, data(1, 30000));
+        store.put(0, live, data(2, 30000));
+        // the removal record is written to the next segment
+        NodeId filler = NodeId.randomId();
+        store.put(0, filler, data(3, 60000));
+        store.remove(0, removed);
+        store.put(0, NodeId.randomId(), data(4, 60000));
+        store.remove(0, filler);
+
+        // the first segment is kept, so the removal record must be kept
+        int segments = store.getSegmentCount();
+        assertEquals(1, store.compact(0.3));
+        assertEquals(segments - 1, store.getSegmentCount());
+
+        SegmentStore recovered = open();
+        assertNull(recovered.get(0, removed));
+        assertNull(recovered.get(0, filler));
+        assertData(data(2, 30000), recovered.get(0, live));
+        assertEquals(2, recovered.getIds(0).size());
+    }
+
+    public void testSortedIds() throws Exception {
+        SegmentStore store = open();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 100; i++) {
+            NodeId id = NodeId.randomId();
+            store.put(0, id, data(i, 10));
+            ids.add(id);
+        }
+        Collections.sort(ids);
+        assertEquals(ids, getAllIds(store));
+
+        // the sorted keys are updated when keys are added or removed
+        NodeId id = NodeId.randomId();
+        store.put(0, id, data(0, 10));
+        store.remove(0, ids.get(50));
+        ids.remove(50);
+        ids.add(id);
+        Collections.sort(ids);
+        assertEquals(ids, getAllIds(store));
+        assertEquals(ids.subList(11, 21), store.getIds(0, ids.get(10), 10));
+        assertEquals(ids, store.getIds(0, null, 0));
+    }
+
+    private static List<NodeId> getAllIds(SegmentStore store) {
+        List<NodeId> all = new ArrayList<NodeId>();
+        NodeId bigger = null;
+        for (;;) {
+            List<NodeId> page = store.getIds(0, bigger, 30);
+            if (page.isEmpty()) {
+                return all;
+            }
+            assertTrue(page.size() <= 30);
+            all.addAll(page);
+            bigger = page.get(page.size() - 1);
+        }
+    }
+
+}
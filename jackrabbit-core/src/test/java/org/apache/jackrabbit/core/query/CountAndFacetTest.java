@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.query.Query;
+
+/**
+ * <code>CountAndFacetTest</code> checks the counts and facets of a query.
+ */
+public class CountAndFacetTest extends AbstractQueryTest {
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        String[] colors = {"red", "green", "red", "blue", "red"};
+        for (int i = 0; i < colors.length; i++) {
+            Node n = testRootNode.addNode("node" + i);
+            n.setProperty("color", colors[i]);
+            n.setProperty("size", i % 2);
+            n.setProperty("tags", new String[]{"a", "b"});
+        }
+        testRootNode.addNode("other");
+        superuser.save();
+    }
+
+    public void testCount() throws Exception {
+        QueryImpl query = createQuery(
+                "/jcr:root" + testRoot + "/*[@color]");
+        assertEquals(5, query.getCount());
+        query = createQuery(
+                "/jcr:root" + testRoot + "/*[@color = 'red']");
+        assertEquals(3, query.getCount());
+        // limit and offset are ignored
+        query.setLimit(1);
+        query.setOffset(1);
+        assertEquals(3, query.getCount());
+    }
+
+    public void testFacets() throws Exception {
+        QueryImpl query = createQuery("/jcr:root" + testRoot + "/*");
+        Map<String, Long> facets = query.getFacets("color");
+        assertEquals(3, facets.size());
+        Iterator<Map.Entry<String, Long>> it = facets.entrySet().iterator();
+        Map.Entry<String, Long> first = it.next();
+        assertEquals("red", first.getKey());
+        assertEquals(3, first.getValue().longValue());
+        assertEquals(1, facets.get("green").longValue());
+        assertEquals(1, facets.get("blue").longValue());
+
+        facets = query.getFacets("size");
+        assertEquals(3, facets.get("0").longValue());
+        assertEquals(2, facets.get("1").longValue());
+
+        // every value of a multi-valued property is counted
+        facets = query.getFacets("tags");
+        assertEquals(5, facets.get("a").longValue());
+        assertEquals(5, facets.get("b").longValue());
+    }
+
+    public void testFacetsOfHierarchyQuery() throws Exception {
+        QueryImpl query = createQuery(testPath + "//*[@color = 'red']");
+        assertEquals(3, query.getCount());
+        assertEquals(3, query.getFacets("color").get("red").longValue());
+    }
+
+    public void testUnsupported() throws Exception {
+        QueryImpl query = (QueryImpl) qm.createQuery(
+                "SELECT * FROM [nt:base]", Query.JCR_SQL2);
+        try {
+            query.getCount();
+            fail("JCR-SQL2 queries must not support counting");
+        } catch (UnsupportedRepositoryOperationException e) {
+            // expected
+        }
+    }
+
+    private QueryImpl createQuery(String xpath) throws Exception {
+        return (QueryImpl) qm.createQuery(xpath, Query.XPATH);
+    }
+}
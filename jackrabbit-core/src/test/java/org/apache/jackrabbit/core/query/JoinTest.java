@@ -167,4 +167,33 @@ public class JoinTest extends AbstractQueryTest {
         checkResult(qm.createQuery(join.toString(), Query.JCR_SQL2).execute(),
                 2);
     }
+
+    public void testJoinWithLimitAndOffset() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref";
+        Query q = qm.createQuery(join, Query.JCR_SQL2);
+        q.setLimit(2);
+        checkResult(q.execute(), 2);
+        q.setOffset(2);
+        checkResult(q.execute(), 1);
+        q.setOffset(5);
+        checkResult(q.execute(), 0);
+    }
+
+    public void testJoinSize() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref";
+        QueryResult result = qm.createQuery(join, Query.JCR_SQL2).execute();
+        assertEquals(3, result.getRows().getSize());
+    }
+
+    public void testOuterJoinWithWhere() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " LEFT OUTER JOIN [nt:unstructured] AS b ON a.[jcr:uuid] = b.testref"
+                + " WHERE a.type = 'parent' AND b.testJoinWithOR4 IS NOT NULL";
+        checkResult(qm.createQuery(join, Query.JCR_SQL2).execute(), 1);
+    }
 }
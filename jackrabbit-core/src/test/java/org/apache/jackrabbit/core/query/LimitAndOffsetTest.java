@@ -16,6 +16,10 @@
  */
 package org.apache.jackrabbit.core.query;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
@@ -23,6 +27,8 @@ import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 
 import org.apache.jackrabbit.api.query.JackrabbitQueryResult;
+import org.apache.jackrabbit.core.query.lucene.QueryCursor;
+import org.apache.jackrabbit.core.query.lucene.QueryResultImpl;
 
 public class LimitAndOffsetTest extends AbstractQueryTest {
 
@@ -116,6 +122,59 @@ public class LimitAndOffsetTest extends AbstractQueryTest {
         checkResult(result, new Node[] { node1, node2, node3 });
     }
 
+    public void testCursor() throws Exception {
+        QueryImpl q = (QueryImpl) query;
+        q.setLimit(1);
+        Node[] expected = new Node[] { node1, node2, node3 };
+        for (Node node : expected) {
+            QueryResultImpl result = (QueryResultImpl) q.execute();
+            NodeIterator nodes = result.getNodes();
+            assertTrue(node.isSame(nodes.nextNode()));
+            assertFalse(nodes.hasNext());
+            q.setCursor(result.getCursor());
+        }
+        QueryResultImpl result = (QueryResultImpl) q.execute();
+        assertFalse(result.getNodes().hasNext());
+        assertNull(result.getCursor());
+
+        // a cursor in the middle of the result
+        q.setCursor(null);
+        q.setLimit(2);
+        QueryResultImpl first = (QueryResultImpl) q.execute();
+        q.setCursor(first.getCursor());
+        q.setLimit(10);
+        checkResult(q.execute(), new Node[] { node3 });
+    }
+
+    public void testCursorWithEqualSortValues() throws Exception {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            Node n = testRootNode.addNode("equal" + i);
+            n.setProperty("name", "4");
+            expected.add(n.getPath());
+        }
+        testRootNode.getSession().save();
+
+        QueryImpl q = (QueryImpl) qm.createQuery("/jcr:root" + testRoot
+                + "/*[@name = '4'] order by @name", Query.XPATH);
+        q.setLimit(1);
+        List<String> paths = new ArrayList<String>();
+        QueryCursor cursor = null;
+        for (;;) {
+            q.setCursor(cursor);
+            QueryResultImpl result = (QueryResultImpl) q.execute();
+            NodeIterator nodes = result.getNodes();
+            if (!nodes.hasNext()) {
+                break;
+            }
+            paths.add(nodes.nextNode().getPath());
+            // pass the cursor through its string form
+            cursor = QueryCursor.decode(result.getCursor().encode());
+        }
+        Collections.sort(paths);
+        assertEquals(expected, paths);
+    }
+
     public void testOffsetAndSkip() throws Exception {
         query.setOffset(1);
         QueryResult result = query.execute();
@@ -89,4 +89,12 @@ public class LimitedAccessQueryTest extends AbstractQueryTest {
                         .createQuery(xpath, Query.XPATH).execute(),
                 new Node[] { b });
     }
+
+    public void testCount() throws Exception {
+        String xpath = "/" + testRootNode.getPath() + "//*";
+        QueryImpl query = (QueryImpl) readOnly.getWorkspace()
+                .getQueryManager().createQuery(xpath, Query.XPATH);
+        assertEquals(1, query.getCount());
+        assertEquals(1, query.getFacets("p").get("1").longValue());
+    }
 }
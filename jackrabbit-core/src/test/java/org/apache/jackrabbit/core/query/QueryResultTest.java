@@ -217,4 +217,25 @@ public class QueryResultTest extends AbstractQueryTest {
         assertEquals("Wrong position", 0, result.getNodes().getPosition());
         assertEquals("Wrong position", 0, result.getRows().getPosition());
     }
+
+    public void testIteratorNextManyNodes() throws RepositoryException {
+        // more nodes than are prefetched at once
+        int num = 250;
+        for (int i = INITIAL_NODE_NUM; i < num; i++) {
+            testRootNode.addNode("node" + i).setProperty(propertyName1, i);
+        }
+        testRootNode.save();
+        QueryManager qm = superuser.getWorkspace().getQueryManager();
+        String stmt = testPath + "/*[@" + propertyName1 + " < 1000] order by @"
+                + propertyName1;
+        Query query = qm.createQuery(stmt, Query.XPATH);
+        query.setOffset(10);
+        query.setLimit(220);
+        int value = 10;
+        for (NodeIterator it = query.execute().getNodes(); it.hasNext(); ) {
+            assertEquals("Wrong node in result", value++,
+                    it.nextNode().getProperty(propertyName1).getLong());
+        }
+        assertEquals("Wrong size of NodeIterator in result", 230, value);
+    }
 }
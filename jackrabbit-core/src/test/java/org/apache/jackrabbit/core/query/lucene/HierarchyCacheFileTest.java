@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+public class HierarchyCacheFileTest extends TestCase {
+
+    private static final File TEST_DIR = new File(new File("target"), "hierarchyCacheFileTest");
+
+    private static final int NUM_DOCS = 100;
+
+    private final NodeId[] ids = new NodeId[NUM_DOCS];
+
+    private final NodeId foreign = NodeId.randomId();
+
+    private Directory dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteDirectory(TEST_DIR);
+        dir = FSDirectory.open(TEST_DIR);
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        try {
+            for (int i = 0; i < NUM_DOCS; i++) {
+                ids[i] = NodeId.randomId();
+                Document doc = new Document();
+                doc.add(new IDField(ids[i]));
+                String parent;
+                if (i == 0) {
+                    parent = "";
+                } else if (i % 10 == 0) {
+                    parent = foreign.toString();
+                } else {
+                    parent = ids[i / 2].toString();
+                }
+                doc.add(new Field(FieldNames.PARENT, false, parent,
+                        Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+                        Field.TermVector.NO));
+                writer.addDocument(doc);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        dir.close();
+        FileUtils.deleteDirectory(TEST_DIR);
+        super.tearDown();
+    }
+
+    public void testWrittenOnInitialization() throws Exception {
+        assertFalse(new File(TEST_DIR, HierarchyCacheFile.FILE_NAME).exists());
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            new CachingIndexReader(reader, null, true);
+        } finally {
+            reader.close();
+        }
+        assertTrue(new File(TEST_DIR, HierarchyCacheFile.FILE_NAME).exists());
+        assertNull(HierarchyCacheFile.open(dir, NUM_DOCS + 1));
+        assertNotNull(HierarchyCacheFile.open(dir, NUM_DOCS));
+    }
+
+    public void testMapped() throws Exception {
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            // compare the heap caches with the mapped file
+            CachingIndexReader heap = new CachingIndexReader(reader, null, false);
+            new CachingIndexReader(reader, null, true);
+            CachingIndexReader mapped = new CachingIndexReader(reader, null, false);
+            BitSet deleted = new BitSet();
+            for (int i = 0; i < NUM_DOCS; i++) {
+                DocId parent = mapped.getParent(i, deleted);
+                assertEquals(heap.getParent(i, deleted).toString(), parent.toString());
+                if (i == 0) {
+                    assertSame(DocId.NULL, parent);
+                } else if (i % 10 == 0) {
+                    assertEquals(DocId.create(foreign).toString(), parent.toString());
+                } else {
+                    assertEquals(DocId.create(i / 2).toString(), parent.toString());
+                }
+                TermDocs tDocs = mapped.termDocs(TermFactory.createUUIDTerm(ids[i].toString()));
+                try {
+                    assertTrue(tDocs.next());
+                    assertEquals(i, tDocs.doc());
+                    assertFalse(tDocs.next());
+                } finally {
+                    tDocs.close();
+                }
+            }
+            TermDocs tDocs = mapped.termDocs(TermFactory.createUUIDTerm(foreign.toString()));
+            try {
+                assertFalse(tDocs.next());
+            } finally {
+                tDocs.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testDeleted() throws Exception {
+        IndexReader reader = IndexReader.open(dir, false);
+        try {
+            new CachingIndexReader(reader, null, true);
+            reader.deleteDocuments(new Term(FieldNames.UUID, ids[5].toString()));
+            HierarchyCacheFile hierarchy = HierarchyCacheFile.open(dir, NUM_DOCS);
+            assertEquals(4, hierarchy.getDocument(ids[4], reader));
+            assertEquals(-1, hierarchy.getDocument(ids[5], reader));
+            assertEquals(ids[5], hierarchy.getId(5));
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import junit.framework.TestCase;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <code>ParallelSearchTest</code> checks that a parallel search returns the
+ * same hits in the same order as a sequential search.
+ */
+public class ParallelSearchTest extends TestCase {
+
+    private static final int NUM_DOCS = 1000;
+
+    private ExecutorService executor;
+
+    private IndexReader reader;
+
+    private IndexSearcher searcher;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = Executors.newFixedThreadPool(3);
+        Directory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        Random random = new Random(42);
+        try {
+            for (int i = 0; i < NUM_DOCS; i++) {
+                Document doc = new Document();
+                doc.add(new Field(FieldNames.UUID, NodeId.randomId().toString(),
+                        Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+                doc.add(new Field("type", i % 3 == 0 ? "match" : "other",
+                        Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+                doc.add(new Field("sort", Integer.toString(random.nextInt(100000)),
+                        Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+                writer.addDocument(doc);
+                if (i % 300 == 0) {
+                    // create a few segments
+                    writer.commit();
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        reader = IndexReader.open(dir);
+        searcher = new IndexSearcher(reader);
+    }
+
+    protected void tearDown() throws Exception {
+        searcher.close();
+        reader.close();
+        executor.shutdown();
+        super.tearDown();
+    }
+
+    public void testDocumentOrder() throws Exception {
+        Query query = new TermQuery(new Term("type", "match"));
+        List<NodeId> expected = getNodeIds(
+                new LuceneQueryHits(reader, searcher, query));
+        assertEquals((NUM_DOCS + 2) / 3, expected.size());
+        for (int ranges = 2; ranges <= 5; ranges++) {
+            ParallelSearch parallel = new ParallelSearch(
+                    executor, searcher, reader, ranges);
+            // small fetch size to collect ranges in several steps
+            assertEquals(expected, getNodeIds(
+                    new ParallelQueryHits(reader, parallel, query, 1)));
+        }
+    }
+
+    public void testSorted() throws Exception {
+        Query query = new TermQuery(new Term("type", "match"));
+        Sort sort = new Sort(new SortField("sort", SortField.STRING));
+        List<NodeId> expected = getNodeIds(
+                new SortedLuceneQueryHits(searcher, query, sort, 1));
+        for (int ranges = 2; ranges <= 5; ranges++) {
+            ParallelSearch parallel = new ParallelSearch(
+                    executor, searcher, reader, ranges);
+            assertEquals(expected, getNodeIds(new SortedLuceneQueryHits(
+                    searcher, query, sort, 1, parallel)));
+        }
+    }
+
+    public void testClose() throws Exception {
+        Query query = new TermQuery(new Term("type", "match"));
+        ParallelSearch parallel = new ParallelSearch(
+                executor, searcher, reader, 4);
+        QueryHits hits = new ParallelQueryHits(reader, parallel, query, 1);
+        assertNotNull(hits.nextScoreNode());
+        hits.close();
+    }
+
+    public void testParallelizable() throws Exception {
+        PerQueryCache cache = new PerQueryCache();
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("type", "match")), Occur.MUST);
+        assertTrue(ParallelSearch.isParallelizable(query));
+        query.add(new MatchAllQuery("sort", cache), Occur.MUST);
+        assertFalse(ParallelSearch.isParallelizable(query));
+        assertFalse(ParallelSearch.isParallelizable(
+                new WildcardQuery("type", null, "m%", cache)));
+        assertFalse(ParallelSearch.isParallelizable(new RangeQuery(
+                new Term("sort", "1"), new Term("sort", "5"), true, cache)));
+    }
+
+    private static List<NodeId> getNodeIds(QueryHits hits) throws IOException {
+        List<NodeId> ids = new ArrayList<NodeId>();
+        try {
+            ScoreNode sn;
+            while ((sn = hits.nextScoreNode()) != null) {
+                ids.add(sn.getNodeId());
+            }
+        } finally {
+            hits.close();
+        }
+        return ids;
+    }
+}
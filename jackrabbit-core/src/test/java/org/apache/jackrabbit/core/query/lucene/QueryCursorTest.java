@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>QueryCursorTest</code> checks that a cursor survives encoding and
+ * serialization.
+ */
+public class QueryCursorTest extends TestCase {
+
+    private static final NodeId ID = NodeId.randomId();
+
+    public void testEncode() {
+        Object[] values = new Object[] {
+                "a, b/c%\u00e4", 42L, 7, 1.5d, 0.25f,
+                new BigDecimal("12345678901234567890.1"), true, null,
+                ID.toString() };
+        QueryCursor cursor = QueryCursor.decode(
+                new QueryCursor(ID, 12, 0.5f, values).encode());
+        assertEquals(ID, cursor.getNodeId());
+        assertEquals(12, cursor.getDoc());
+        assertEquals(0.5f, cursor.getScore());
+        assertTrue(Arrays.equals(values, cursor.getValues()));
+
+        String encoded = cursor.encode();
+        for (char c : encoded.toCharArray()) {
+            assertTrue(encoded, c < 128 && c != '/' && c != ' ' && c != '+');
+        }
+    }
+
+    public void testEncodeWithoutValues() {
+        QueryCursor cursor = QueryCursor.decode(
+                new QueryCursor(ID, -1, 1f, null).encode());
+        assertEquals(ID, cursor.getNodeId());
+        assertEquals(-1, cursor.getDoc());
+        assertNull(cursor.getValues());
+
+        // values that cannot be encoded are read from the index
+        cursor = QueryCursor.decode(new QueryCursor(
+                ID, 3, 1f, new Object[] { "a", new Object() }).encode());
+        assertNull(cursor.getValues());
+    }
+
+    public void testDecodeInvalid() {
+        String[] invalid = new String[] {
+                "", "foo", ID + ",1", ID + ",x,1.0", ID + ",1,1.0,x1",
+                ID + ",1,1.0,lx", ID + ",1,1.0," };
+        for (String s : invalid) {
+            try {
+                QueryCursor.decode(s);
+                fail("invalid cursor accepted: " + s);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testSerialize() throws Exception {
+        QueryCursor cursor = new QueryCursor(
+                ID, 5, 2f, new Object[] { "x", 1L });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(cursor);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(out.toByteArray()));
+        QueryCursor copy = (QueryCursor) ois.readObject();
+        assertEquals(ID, copy.getNodeId());
+        assertEquals(5, copy.getDoc());
+        assertEquals(2f, copy.getScore());
+        assertTrue(Arrays.equals(cursor.getValues(), copy.getValues()));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+
+import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.jackrabbit.core.TestHelper;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.security.authorization.SubtreeReadPermissions;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * Tests the {@link ReadPermissionFilter} with read permissions that deny
+ * the subtree of a single access controlled node.
+ */
+public class ReadPermissionFilterTest extends AbstractJCRTest {
+
+    public void testDeniedSubtree() throws Exception {
+        Node denied = testRootNode.addNode(nodeName1);
+        Node child = denied.addNode(nodeName2);
+        Node allowed = child.addNode(nodeName3);
+        superuser.save();
+        // make both nodes access controlled
+        AccessControlUtils.grantAllToEveryone(superuser, denied.getPath());
+        AccessControlUtils.grantAllToEveryone(superuser, allowed.getPath());
+        superuser.save();
+
+        final NodeId deniedId = new NodeId(denied.getIdentifier());
+        final List<NodeId> evaluated = new ArrayList<NodeId>();
+        SubtreeReadPermissions permissions = new SubtreeReadPermissions() {
+            private final Object key = new Object();
+            public Object getReadPermissionKey() {
+                return key;
+            }
+            public Boolean canReadSubtree(NodeId id) {
+                evaluated.add(id);
+                return !id.equals(deniedId);
+            }
+        };
+
+        SearchIndex index = (SearchIndex) TestHelper.getSearchManager(
+                superuser).getQueryHandler();
+        JackrabbitIndexReader reader =
+            (JackrabbitIndexReader) index.getIndexReader(false, false);
+        try {
+            ReadPermissionFilter filter = ReadPermissionFilter.create(
+                    reader, permissions, index.getNamespaceMappings());
+            assertTrue(filter.mayRead(getDoc(reader, testRootNode)));
+            assertFalse(filter.mayRead(getDoc(reader, denied)));
+            // inherits the read permission of its parent
+            assertFalse(filter.mayRead(getDoc(reader, child)));
+            assertTrue(filter.mayRead(getDoc(reader, allowed)));
+            assertFalse(filter.mustCheck(getDoc(reader, allowed)));
+        } finally {
+            Util.closeOrRelease(reader);
+        }
+
+        // access controlled nodes are evaluated once, other nodes inherit
+        assertEquals(1, Collections.frequency(evaluated, deniedId));
+        assertEquals(1, Collections.frequency(
+                evaluated, new NodeId(allowed.getIdentifier())));
+        assertFalse(evaluated.contains(new NodeId(child.getIdentifier())));
+    }
+
+    private static int getDoc(IndexReader reader, Node node) throws Exception {
+        TermDocs tDocs = reader.termDocs(
+                TermFactory.createUUIDTerm(node.getIdentifier()));
+        try {
+            assertTrue("not indexed: " + node.getPath(), tDocs.next());
+            return tDocs.doc();
+        } finally {
+            tDocs.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import javax.jcr.PropertyType;
+
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>SharedFieldCacheTest</code> checks the value indexes that are
+ * created for the different property types.
+ */
+public class SharedFieldCacheTest extends TestCase {
+
+    private static final int NUM_DOCS = 10;
+
+    private IndexReader reader;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        Directory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+        try {
+            for (int i = 0; i < NUM_DOCS; i++) {
+                Document doc = new Document();
+                doc.add(new Field(FieldNames.LOCAL_NAME, "n" + i,
+                        Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+                add(doc, "date", DateField.timeToString(1000L * i), PropertyType.DATE);
+                add(doc, "double", DoubleField.doubleToString(-0.5 * i), PropertyType.DOUBLE);
+                add(doc, "name", "n" + (NUM_DOCS - i), PropertyType.STRING);
+                if (i % 2 == 0) {
+                    add(doc, "long", LongField.longToString(i), PropertyType.LONG);
+                }
+                add(doc, "multi", "a" + i, PropertyType.STRING);
+                if (i == 3) {
+                    add(doc, "multi", "b", PropertyType.STRING);
+                }
+                add(doc, "mixed", i == 5 ? LongField.longToString(i) : "s" + i,
+                        i == 5 ? PropertyType.LONG : PropertyType.STRING);
+                writer.addDocument(doc);
+            }
+        } finally {
+            writer.close();
+        }
+        reader = IndexReader.open(dir);
+    }
+
+    protected void tearDown() throws Exception {
+        reader.close();
+        super.tearDown();
+    }
+
+    public void testLongValues() throws Exception {
+        SharedFieldCache.ValueIndex index = getValueIndex("date");
+        assertTrue(index instanceof SharedFieldCache.LongValueIndex);
+        for (int i = 0; i < NUM_DOCS; i++) {
+            assertEquals(1000L * i, index.getValue(i));
+        }
+        assertTrue(index.compare(2000L, 1) > 0);
+        assertEquals(0, index.compare(2000L, 2));
+        assertTrue(index.compare(null, 0) < 0);
+
+        index = getValueIndex("long");
+        assertTrue(index instanceof SharedFieldCache.LongValueIndex);
+        assertEquals(4L, index.getValue(4));
+        assertNull(index.getValue(5));
+        assertTrue(index.compare(4L, 5) > 0);
+    }
+
+    public void testDoubleValues() throws Exception {
+        SharedFieldCache.ValueIndex index = getValueIndex("double");
+        assertTrue(index instanceof SharedFieldCache.DoubleValueIndex);
+        for (int i = 0; i < NUM_DOCS; i++) {
+            assertEquals(-0.5 * i, index.getValue(i));
+        }
+        assertTrue(index.compare(-1.0, 1) < 0);
+    }
+
+    public void testOrdinalValues() throws Exception {
+        SharedFieldCache.ValueIndex index = getValueIndex("name");
+        assertTrue(index instanceof SharedFieldCache.OrdinalValueIndex);
+        for (int i = 0; i < NUM_DOCS; i++) {
+            assertEquals("n" + (NUM_DOCS - i), index.getValue(i));
+        }
+        assertTrue(index.compare("n5", 1) < 0);
+        assertEquals(0, index.compare("n9", 1));
+    }
+
+    public void testGenericValues() throws Exception {
+        SharedFieldCache.ValueIndex multi = getValueIndex("multi");
+        assertFalse(multi instanceof SharedFieldCache.OrdinalValueIndex);
+        assertTrue(multi.getValue(3) instanceof SharedFieldCache.ComparableArray);
+
+        SharedFieldCache.ValueIndex mixed = getValueIndex("mixed");
+        assertFalse(mixed instanceof SharedFieldCache.OrdinalValueIndex);
+        assertEquals(5L, mixed.getValue(5));
+        assertEquals("s4", mixed.getValue(4));
+    }
+
+    private SharedFieldCache.ValueIndex getValueIndex(String name)
+            throws Exception {
+        return SharedFieldCache.INSTANCE.getValueIndex(reader,
+                FieldNames.PROPERTIES, FieldNames.createNamedValue(name, ""));
+    }
+
+    private static void add(Document doc, String name, String value, int type) {
+        doc.add(new Field(FieldNames.PROPERTIES, new SingletonTokenStream(
+                FieldNames.createNamedValue(name, value), type)));
+    }
+}
@@ -21,6 +21,7 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
 import org.apache.jackrabbit.core.query.lucene.hits.ArrayHitsTest;
+import org.apache.jackrabbit.core.query.lucene.hits.CompressedBitSetTest;
 import org.apache.jackrabbit.test.ConcurrentTestSuite;
 
 /**
@@ -51,8 +52,16 @@ public class TestAll extends TestCase {
         suite.addTestSuite(IndexingRuleTest.class);
         suite.addTestSuite(TextExtractionQueryTest.class);
         suite.addTestSuite(ArrayHitsTest.class);
+        suite.addTestSuite(CompressedBitSetTest.class);
         suite.addTestSuite(IndexFormatVersionTest.class);
         suite.addTestSuite(SynonymProviderTest.class);
+        suite.addTestSuite(ParallelSearchTest.class);
+        suite.addTestSuite(QueryCursorTest.class);
+        suite.addTestSuite(VolatileIndexTest.class);
+        suite.addTestSuite(TextExtractionCacheTest.class);
+        suite.addTestSuite(SharedFieldCacheTest.class);
+        suite.addTestSuite(HierarchyCacheFileTest.class);
+        suite.addTestSuite(ReadPermissionFilterTest.class);
 
         return suite;
     }
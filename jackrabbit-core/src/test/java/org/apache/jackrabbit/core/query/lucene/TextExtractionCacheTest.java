@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>TextExtractionCacheTest</code> checks that extracted text is kept
+ * across restarts, evicted in LRU order and discarded when the parser
+ * configuration changes.
+ */
+public class TextExtractionCacheTest extends TestCase {
+
+    private static final File TEST_DIR = new File(new File("target"), "textExtractionCacheTest");
+
+    private static final DataIdentifier ID1 = new DataIdentifier("0a1b2c3d");
+
+    private static final DataIdentifier ID2 = new DataIdentifier("1a2b3c4d");
+
+    private static final DataIdentifier ID3 = new DataIdentifier("2a3b4c5d");
+
+    private static final String TYPE = "text/plain";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FileUtils.deleteDirectory(TEST_DIR);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(TEST_DIR);
+        super.tearDown();
+    }
+
+    public void testPersistent() throws Exception {
+        TextExtractionCache cache = new TextExtractionCache(TEST_DIR, "a", 1024 * 1024);
+        assertNull(cache.get(ID1, TYPE, null, 100));
+        cache.put(ID1, TYPE, null, 100, "hello world");
+        assertEquals("hello world", cache.get(ID1, TYPE, null, 100));
+
+        cache = new TextExtractionCache(TEST_DIR, "a", 1024 * 1024);
+        assertEquals("hello world", cache.get(ID1, TYPE, null, 100));
+        assertTrue(cache.getSize() > 0);
+
+        // other parser configuration
+        cache = new TextExtractionCache(TEST_DIR, "b", 1024 * 1024);
+        assertNull(cache.get(ID1, TYPE, null, 100));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testEviction() throws Exception {
+        TextExtractionCache cache = new TextExtractionCache(TEST_DIR, "a", 1024 * 1024);
+        cache.put(ID1, TYPE, null, 100, "one");
+        long entrySize = cache.getSize();
+
+        cache = new TextExtractionCache(TEST_DIR, "a", 2 * entrySize + 1);
+        cache.put(ID2, TYPE, null, 100, "two");
+        // access ID1, ID2 becomes the least recently used entry
+        assertEquals("one", cache.get(ID1, TYPE, null, 100));
+        cache.put(ID3, TYPE, null, 100, "tre");
+        assertNull(cache.get(ID2, TYPE, null, 100));
+        assertEquals("one", cache.get(ID1, TYPE, null, 100));
+        assertEquals("tre", cache.get(ID3, TYPE, null, 100));
+    }
+
+    public void testUnsafeIdentifier() throws Exception {
+        TextExtractionCache cache = new TextExtractionCache(TEST_DIR, "a", 1024 * 1024);
+        DataIdentifier id = new DataIdentifier("../a/b");
+        cache.put(id, TYPE, null, 100, "text");
+        assertEquals("text", cache.get(id, TYPE, null, 100));
+    }
+
+    public void testExtractionParameters() throws Exception {
+        TextExtractionCache cache = new TextExtractionCache(TEST_DIR, "a", 1024 * 1024);
+        cache.put(ID1, TYPE, null, 100, "text");
+        assertEquals("text", cache.get(ID1, TYPE, null, 100));
+        assertNull(cache.get(ID1, "text/html", null, 100));
+        assertNull(cache.get(ID1, null, null, 100));
+        assertNull(cache.get(ID1, TYPE, "UTF-8", 100));
+        assertNull(cache.get(ID1, TYPE, null, 10));
+
+        cache.put(ID1, "text/html", null, 100, "html");
+        assertEquals("html", cache.get(ID1, "text/html", null, 100));
+        assertEquals("text", cache.get(ID1, TYPE, null, 100));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import junit.framework.TestCase;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.search.DefaultSimilarity;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>VolatileIndexTest</code> checks the volatile index with near
+ * real-time readers.
+ */
+public class VolatileIndexTest extends TestCase {
+
+    private VolatileIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        index = new VolatileIndex(new StandardAnalyzer(Version.LUCENE_36),
+                new DefaultSimilarity(), null);
+        index.setNearRealTime(true);
+        index.setBufferSize(2);
+    }
+
+    protected void tearDown() throws Exception {
+        index.close();
+        super.tearDown();
+    }
+
+    public void testNearRealTime() throws Exception {
+        NodeId[] ids = new NodeId[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            index.addDocuments(new Document[]{createDocument(ids[i])});
+        }
+        ReadOnlyIndexReader reader = index.getReadOnlyIndexReader();
+        try {
+            assertEquals(ids.length, reader.numDocs());
+        } finally {
+            reader.release();
+        }
+
+        assertEquals(1, index.removeDocument(
+                TermFactory.createUUIDTerm(ids[0].toString())));
+        assertEquals(0, index.removeDocument(
+                TermFactory.createUUIDTerm(NodeId.randomId().toString())));
+        reader = index.getReadOnlyIndexReader();
+        try {
+            assertEquals(ids.length - 1, reader.numDocs());
+        } finally {
+            reader.release();
+        }
+        assertEquals(ids.length - 1, index.getNumDocuments());
+
+        // the volatile index is committed with all changes
+        index.commit(true);
+        reader = index.getReadOnlyIndexReader();
+        try {
+            assertEquals(ids.length - 1, reader.numDocs());
+        } finally {
+            reader.release();
+        }
+    }
+
+    private static Document createDocument(NodeId id) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.UUID, id.toString(),
+                Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        return doc;
+    }
+}
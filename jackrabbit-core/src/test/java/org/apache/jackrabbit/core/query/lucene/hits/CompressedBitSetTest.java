@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.hits;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CompressedBitSetTest extends TestCase {
+
+    private static final int MAX = 300000;
+
+    private final Random random = new Random(42);
+
+    public void testEmpty() {
+        CompressedBitSet set = new CompressedBitSet();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.cardinality());
+        assertEquals(-1, set.nextSetBit(0));
+        assertFalse(set.get(0));
+    }
+
+    public void testSparse() {
+        assertRandom(100);
+    }
+
+    public void testDense() {
+        assertRandom(MAX / 2);
+    }
+
+    public void testAscending() {
+        CompressedBitSet set = new CompressedBitSet();
+        BitSet expected = new BitSet();
+        for (int i = 0; i < MAX; i += 3) {
+            set.set(i);
+            expected.set(i);
+        }
+        set.trim();
+        assertEquals(expected, set);
+    }
+
+    public void testAnd() {
+        for (int n : new int[]{100, 10000, MAX / 2}) {
+            BitSet[] expected = new BitSet[2];
+            CompressedBitSet[] sets = new CompressedBitSet[2];
+            for (int i = 0; i < 2; i++) {
+                expected[i] = new BitSet();
+                sets[i] = new CompressedBitSet();
+                fill(sets[i], expected[i], i == 0 ? n : MAX / 4);
+            }
+            expected[0].and(expected[1]);
+            assertEquals(expected[0], sets[0].and(sets[1]));
+        }
+    }
+
+    public void testOr() {
+        for (int n : new int[]{100, 10000, MAX / 2}) {
+            BitSet[] expected = new BitSet[2];
+            CompressedBitSet[] sets = new CompressedBitSet[2];
+            for (int i = 0; i < 2; i++) {
+                expected[i] = new BitSet();
+                sets[i] = new CompressedBitSet();
+                fill(sets[i], expected[i], i == 0 ? n : 1000);
+            }
+            expected[0].or(expected[1]);
+            assertEquals(expected[0], sets[0].or(sets[1]));
+        }
+    }
+
+    public void testMemorySize() {
+        CompressedBitSet sparse = new CompressedBitSet();
+        for (int i = 0; i < 100; i++) {
+            sparse.set(i * 100000);
+        }
+        sparse.trim();
+        // does not grow with the highest doc number
+        assertTrue(sparse.getMemorySize() < 100 * 16);
+
+        CompressedBitSet dense = new CompressedBitSet();
+        for (int i = 0; i < 65536; i++) {
+            dense.set(i);
+        }
+        dense.trim();
+        assertTrue(dense.getMemorySize() >= 65536 / 8);
+        assertTrue(dense.getMemorySize() < 65536 / 8 + 100);
+    }
+
+    public void testBitSetHits() throws Exception {
+        BitSetHits hits1 = new BitSetHits();
+        BitSetHits hits2 = new BitSetHits();
+        for (int i = 0; i < 100; i++) {
+            hits1.set(i * 2);
+            hits2.set(i * 3);
+        }
+        Hits intersection = new HitsIntersection(hits1, hits2);
+        for (int i = 0; i < 200; i += 6) {
+            assertEquals(i, intersection.next());
+        }
+        assertEquals(-1, intersection.next());
+    }
+
+    private void assertRandom(int n) {
+        CompressedBitSet set = new CompressedBitSet();
+        BitSet expected = new BitSet();
+        fill(set, expected, n);
+        assertEquals(expected, set);
+    }
+
+    private void fill(CompressedBitSet set, BitSet bits, int n) {
+        for (int i = 0; i < n; i++) {
+            int doc = random.nextInt(MAX);
+            set.set(doc);
+            bits.set(doc);
+        }
+    }
+
+    private void assertEquals(BitSet expected, CompressedBitSet set) {
+        assertEquals(expected.cardinality(), set.cardinality());
+        assertEquals(expected.isEmpty(), set.isEmpty());
+        for (int i = 0; i < MAX + 10; i += 7) {
+            assertEquals(expected.get(i), set.get(i));
+            assertEquals(expected.nextSetBit(i), set.nextSetBit(i));
+        }
+        int i = set.nextSetBit(0);
+        for (int j = expected.nextSetBit(0); j >= 0; j = expected.nextSetBit(j + 1)) {
+            assertEquals(j, i);
+            i = set.nextSetBit(i + 1);
+        }
+        assertEquals(-1, i);
+    }
+}
@@ -24,21 +24,27 @@ import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.core.security.authorization.AbstractEvaluationTest;
 import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
 import org.apache.jackrabbit.test.NotExecutableException;
+import org.apache.jackrabbit.util.ISO9075;
 import org.junit.Test;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
 import javax.jcr.ValueFactory;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
 import java.security.Principal;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * <code>ReadTest</code>...
@@ -95,6 +101,42 @@ public class ReadTest extends AbstractEvaluationTest {
         n.getDefinition();
     }
 
+    public void testQueryReadDenied() throws Exception {
+        Privilege[] privileges = privilegesFromName(Privilege.JCR_READ);
+
+        /* deny READ privilege for testUser at 'path' */
+        withdrawPrivileges(path, privileges, getRestrictions(superuser, path));
+        /*
+         allow READ privilege for testUser at 'childNPath'
+         */
+        givePrivileges(childNPath, privileges, getRestrictions(superuser, childNPath));
+
+        Session testSession = getTestSession();
+        Set<String> paths = queryDescendants(testSession);
+        assertFalse(paths.contains(path));
+        assertTrue(paths.contains(childNPath));
+
+        /*
+         allow READ privilege for testUser at 'path' again: the query
+         must reflect the modified access control content.
+         */
+        givePrivileges(path, privileges, getRestrictions(superuser, path));
+        paths = queryDescendants(testSession);
+        assertTrue(paths.contains(path));
+        assertTrue(paths.contains(childNPath));
+    }
+
+    private Set<String> queryDescendants(Session s) throws RepositoryException {
+        String stmt = "/jcr:root" + ISO9075.encodePath(testRoot) + "//*";
+        QueryResult result = s.getWorkspace().getQueryManager().createQuery(
+                stmt, Query.XPATH).execute();
+        Set<String> paths = new HashSet<String>();
+        for (NodeIterator it = result.getNodes(); it.hasNext();) {
+            paths.add(it.nextNode().getPath());
+        }
+        return paths;
+    }
+
     public void testDenyUserAllowGroup() throws Exception {
         Privilege[] privileges = privilegesFromName(Privilege.JCR_READ);
         Principal group = getTestGroup().getPrincipal();
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.PMContext;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
+
+/**
+ * <code>GroupCommitterTest</code> checks that concurrent change logs are
+ * stored together and that a failing batch fails all of its updates.
+ */
+public class GroupCommitterTest extends TestCase {
+
+    private static final int THREADS = 8;
+
+    /**
+     * Persistence manager that counts the calls to store, and fails change
+     * logs that contain the references to {@link #failing}.
+     */
+    private final CountingPersistenceManager pm = new CountingPersistenceManager();
+
+    public void testBatch() throws Exception {
+        GroupCommitter committer = new GroupCommitter(pm, 10000);
+        List<Throwable> errors = storeConcurrently(committer, null);
+        assertTrue(errors.isEmpty());
+        assertEquals(1, pm.stores.get());
+        assertEquals(THREADS, pm.stored.get());
+    }
+
+    public void testNoWaitWithoutConcurrentUpdates() throws Exception {
+        GroupCommitter committer = new GroupCommitter(pm, 10000);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            committer.updateStarted();
+            committer.store(createChangeLog(NodeId.randomId()));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(10, pm.stores.get());
+    }
+
+    public void testCancelledUpdate() throws Exception {
+        GroupCommitter committer = new GroupCommitter(pm, 10000);
+        committer.updateStarted();
+        committer.updateStarted();
+        committer.updateCancelled();
+        long start = System.currentTimeMillis();
+        committer.store(createChangeLog(NodeId.randomId()));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, pm.stores.get());
+    }
+
+    public void testFailedBatch() throws Exception {
+        GroupCommitter committer = new GroupCommitter(pm, 10000);
+        pm.failing = NodeId.randomId();
+        List<Throwable> errors = storeConcurrently(committer, pm.failing);
+        // only the update with the failing change log fails, the change
+        // logs of the other updates are stored one by one
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof ItemStateException);
+        assertEquals(1 + THREADS, pm.stores.get());
+        assertEquals(THREADS - 1, pm.stored.get());
+    }
+
+    //-------------------------------------------------------------< utilities >
+
+    private List<Throwable> storeConcurrently(
+            final GroupCommitter committer, NodeId failing)
+            throws InterruptedException {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            final ChangeLog changes = createChangeLog(
+                    i == 0 && failing != null ? failing : NodeId.randomId());
+            committer.updateStarted();
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        committer.store(changes);
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        return errors;
+    }
+
+    private static ChangeLog createChangeLog(NodeId target) {
+        ChangeLog changes = new ChangeLog();
+        changes.modified(new NodeReferences(target));
+        return changes;
+    }
+
+    private static class CountingPersistenceManager implements PersistenceManager {
+
+        private final AtomicInteger stores = new AtomicInteger();
+
+        private final AtomicInteger stored = new AtomicInteger();
+
+        private volatile NodeId failing;
+
+        public synchronized void store(ChangeLog changeLog)
+                throws ItemStateException {
+            stores.incrementAndGet();
+            int count = 0;
+            for (NodeReferences refs : changeLog.modifiedRefs()) {
+                if (refs.getTargetId().equals(failing)) {
+                    throw new ItemStateException("failing " + failing);
+                }
+                count++;
+            }
+            stored.addAndGet(count);
+        }
+
+        public void init(PMContext context) {
+        }
+
+        public void close() {
+        }
+
+        public NodeState createNew(NodeId id) {
+            throw new UnsupportedOperationException();
+        }
+
+        public PropertyState createNew(PropertyId id) {
+            throw new UnsupportedOperationException();
+        }
+
+        public NodeState load(NodeId id) throws NoSuchItemStateException {
+            throw new NoSuchItemStateException(id.toString());
+        }
+
+        public PropertyState load(PropertyId id) throws NoSuchItemStateException {
+            throw new NoSuchItemStateException(id.toString());
+        }
+
+        public NodeReferences loadReferencesTo(NodeId id)
+                throws NoSuchItemStateException {
+            throw new NoSuchItemStateException(id.toString());
+        }
+
+        public boolean exists(NodeId id) {
+            return false;
+        }
+
+        public boolean exists(PropertyId id) {
+            return false;
+        }
+
+        public boolean existsReferencesTo(NodeId targetId) {
+            return false;
+        }
+
+        public void checkConsistency(String[] uuids, boolean recursive, boolean fix) {
+        }
+    }
+}
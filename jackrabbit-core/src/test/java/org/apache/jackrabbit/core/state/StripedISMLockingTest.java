@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ISMLocking.WriteLock;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+
+/**
+ * <code>StripedISMLockingTest</code> executes the test cases implemented in
+ * {@link AbstractISMLockingTest} and checks that change logs on different
+ * stripes do not block each other.
+ */
+public class StripedISMLockingTest extends AbstractISMLockingTest {
+
+    public ISMLocking createISMLocking() {
+        StripedISMLocking locking = new StripedISMLocking();
+        locking.setStripes(16);
+        return locking;
+    }
+
+    /**
+     * Checks that a write lock on one stripe does not block writers and
+     * readers of another stripe.
+     *
+     * @throws InterruptedException on interruption; this will err the test
+     */
+    public void testDisjointWrites() throws InterruptedException {
+        NodeState other = createStateOnOtherStripe();
+        ChangeLog cl = new ChangeLog();
+        cl.modified(state);
+        WriteLock wLock = locking.acquireWriteLock(cl);
+
+        ChangeLog otherLog = new ChangeLog();
+        otherLog.modified(other);
+        verifyNotBlocked(startWriterThread(locking, otherLog));
+        verifyNotBlocked(startReaderThread(locking, other.getId()));
+        verifyBlocked(startReaderThread(locking, state.getId()));
+        wLock.release();
+    }
+
+    /**
+     * Checks that a change log with deleted items locks all stripes.
+     *
+     * @throws InterruptedException on interruption; this will err the test
+     */
+    public void testDeleteLocksAllStripes() throws InterruptedException {
+        NodeState other = createStateOnOtherStripe();
+        ChangeLog cl = new ChangeLog();
+        cl.deleted(state);
+        WriteLock wLock = locking.acquireWriteLock(cl);
+
+        ChangeLog otherLog = new ChangeLog();
+        otherLog.modified(other);
+        verifyBlocked(startWriterThread(locking, otherLog));
+        verifyBlocked(startReaderThread(locking, other.getId()));
+        wLock.release();
+    }
+
+    /**
+     * Checks that a thread holding a write lock waits for a stripe that
+     * another thread holds exclusively when it reads from it.
+     *
+     * @throws InterruptedException on interruption; this will err the test
+     */
+    public void testWriterWaitsForOtherWriter() throws InterruptedException {
+        NodeState other = createStateOnOtherStripe();
+        ChangeLog cl = new ChangeLog();
+        cl.modified(state);
+        WriteLock wLock = locking.acquireWriteLock(cl);
+
+        ChangeLog otherLog = new ChangeLog();
+        otherLog.modified(other);
+        verifyBlocked(startWriterReaderThread(otherLog, state.getId()));
+        wLock.release();
+    }
+
+    /**
+     * Checks that two threads holding write locks that read each other's
+     * stripes do not deadlock.
+     *
+     * @throws InterruptedException on interruption; this will err the test
+     */
+    public void testCrossReadsDoNotDeadlock() throws InterruptedException {
+        NodeState other = createStateOnOtherStripe();
+        ChangeLog cl = new ChangeLog();
+        cl.modified(state);
+        WriteLock wLock = locking.acquireWriteLock(cl);
+
+        ChangeLog otherLog = new ChangeLog();
+        otherLog.modified(other);
+        Thread t = startWriterReaderThread(otherLog, state.getId());
+        Thread.sleep(100);
+        assertTrue(t.isAlive());
+
+        // closes the cycle and must therefore not wait
+        locking.acquireReadLock(other.getId()).release();
+        wLock.release();
+        verifyNotBlocked(t);
+    }
+
+    /**
+     * Starts a thread that acquires a write lock for the given change log,
+     * then acquires and releases a read lock for the given id and finally
+     * releases the write lock.
+     */
+    private Thread startWriterReaderThread(
+            final ChangeLog changeLog, final ItemId id) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    WriteLock wLock = locking.acquireWriteLock(changeLog);
+                    try {
+                        locking.acquireReadLock(id).release();
+                    } finally {
+                        wLock.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private NodeState createStateOnOtherStripe() {
+        int stripe = (state.getNodeId().hashCode() & Integer.MAX_VALUE) % 16;
+        NodeId id;
+        do {
+            id = NodeId.randomId();
+        } while ((id.hashCode() & Integer.MAX_VALUE) % 16 == stripe);
+        return new NodeState(id, NameConstants.NT_BASE, null, ItemState.STATUS_EXISTING, true);
+    }
+}
@@ -20,6 +20,9 @@ import static javax.jcr.query.Query.JCR_SQL2;
 
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.jackrabbit.stats.QueryCacheStat;
+import org.apache.jackrabbit.stats.QueryProfile;
+import org.apache.jackrabbit.stats.QueryProfileStat;
 import org.apache.jackrabbit.stats.QueryStatCore;
 import org.apache.jackrabbit.stats.QueryStatImpl;
 import org.apache.jackrabbit.test.AbstractJCRTest;
@@ -76,4 +79,61 @@ public class QueryStatCoreTest extends AbstractJCRTest {
         queryStat.setPopularQueriesQueueSize(newSize);
         assertEquals(newSize, queryStat.getPopularQueries().length);
     }
+
+    public void testQueryCacheLookup() throws Exception {
+        assertTrue(queryStat instanceof QueryCacheStat);
+        QueryCacheStat cacheStat = (QueryCacheStat) queryStat;
+        cacheStat.logQueryCacheLookup(false);
+        cacheStat.logQueryCacheLookup(true);
+        cacheStat.logQueryCacheLookup(true);
+        assertEquals(2, cacheStat.getQueryCacheHitCount());
+        assertEquals(1, cacheStat.getQueryCacheMissCount());
+
+        // disabled stats do not count lookups
+        queryStat.setEnabled(false);
+        cacheStat.logQueryCacheLookup(true);
+        assertEquals(2, cacheStat.getQueryCacheHitCount());
+
+        queryStat.reset();
+        assertEquals(0, cacheStat.getQueryCacheHitCount());
+        assertEquals(0, cacheStat.getQueryCacheMissCount());
+    }
+
+    public void testSlowQueryLog() throws Exception {
+        assertTrue(queryStat instanceof QueryProfileStat);
+        QueryProfileStat profileStat = (QueryProfileStat) queryStat;
+        profileStat.setSlowQueryThreshold(100);
+        profileStat.setSlowQueryLogSize(2);
+
+        QueryProfile fast = QueryProfile.start(JCR_SQL2, "fast");
+        fast.end();
+        fast.setDuration(5);
+        assertFalse(profileStat.logQueryProfile(fast));
+        assertNull(QueryProfile.current());
+
+        for (int i = 0; i < 3; i++) {
+            QueryProfile slow = QueryProfile.start(JCR_SQL2, "slow" + i);
+            QueryProfile.current().addTime(QueryProfile.SEARCH, 200000000L);
+            QueryProfile.current().addCount(QueryProfile.HITS, 10);
+            QueryProfile.current().addCount(QueryProfile.HITS, 5);
+            QueryProfile.current().addPlan("+_:PROPERTIES:foo");
+            slow.end();
+            slow.setDuration(200);
+            assertTrue(profileStat.logQueryProfile(slow));
+        }
+
+        QueryProfile[] profiles = profileStat.getSlowQueryProfiles();
+        assertEquals(2, profiles.length);
+        assertEquals("slow2", profiles[0].getStatement());
+        assertEquals("slow1", profiles[1].getStatement());
+        assertEquals(15, profiles[0].getCount(QueryProfile.HITS));
+        assertEquals(200000000L, profiles[0].getTime(QueryProfile.SEARCH));
+        assertEquals("search=200.0ms", profiles[0].getTimes());
+        assertEquals("+_:PROPERTIES:foo", profiles[0].getPlan());
+
+        profileStat.setSlowQueryLogSize(1);
+        assertEquals(1, profileStat.getSlowQueryProfiles().length);
+        queryStat.reset();
+        assertEquals(0, profileStat.getSlowQueryProfiles().length);
+    }
 }
@@ -23,7 +23,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.sql.DataSource;
@@ -65,6 +68,13 @@ import org.slf4j.LoggerFactory;
  * can make no assumptions about the validation strategy. This means that our retry logic must either assume that
  * the SQL it tries to execute can do so without errors (i.e., the statement is valid), or it must implement its
  * own validation strategy to apply. Currently, the former is in place.
+ *
+ * <p>
+ *
+ * In batch mode, update statements can be collected with {@link #addBatch(String, Object...)} and are then
+ * sent to the database with {@code PreparedStatement.executeBatch()}, one JDBC batch per SQL string. Pending
+ * batches are executed in the order their SQL string was first used whenever another statement is executed,
+ * when the maximum batch size is reached, and before the transaction is committed.
  */
 public class ConnectionHelper {
 
@@ -82,6 +92,18 @@ public class ConnectionHelper {
 
     private Map<Object, Connection> batchConnectionMap = Collections.synchronizedMap(new HashMap<Object, Connection>());
 
+    /**
+     * The pending statement batches of the batch mode, keyed like the {@link #batchConnectionMap}.
+     */
+    private Map<Object, StatementBatch> statementBatchMap =
+        Collections.synchronizedMap(new HashMap<Object, StatementBatch>());
+
+    /**
+     * The maximum number of statements that are collected by {@link #addBatch(String, Object...)} before
+     * they are executed. A value of 0 or 1 disables JDBC batches.
+     */
+    private int maxBatchSize = 0;
+
     /**
      * The default fetchSize is '0'. This means the fetchSize Hint will be ignored 
      */
@@ -175,6 +197,34 @@ public class ConnectionHelper {
     	return getTransactionAwareBatchConnection() != null;
     }
 
+    /**
+     * @return the maximum number of statements collected in batch mode before they are executed
+     */
+    public final int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of statements that are collected by {@link #addBatch(String, Object...)} in
+     * batch mode before they are executed. A value of 0 or 1 disables JDBC batches, in which case
+     * {@code addBatch} executes the statements immediately.
+     *
+     * @param maxBatchSize the maximum batch size
+     */
+    public final void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns whether {@link #addBatch(String, Object...)} may use JDBC batches. Subclasses that need to
+     * process the parameters of each statement in {@link #execute(PreparedStatement, Object[])} return
+     * {@code false}.
+     *
+     * @return {@code true}
+     */
+    protected boolean supportsBatchUpdates() {
+        return true;
+    }
 	/**
      * The default implementation returns the {@code extraNameCharacters} provided by the databases metadata.
      *
@@ -261,13 +311,25 @@ public class ConnectionHelper {
             throw new SQLException("not in batch mode");
         }
         Connection batchConnection = getTransactionAwareBatchConnection(); 
+        StatementBatch statementBatch = removeStatementBatch();
         try {
             if (commit) {
+                if (statementBatch != null) {
+                    try {
+                        statementBatch.execute();
+                    } catch (SQLException e) {
+                        batchConnection.rollback();
+                        throw e;
+                    }
+                }
             	batchConnection.commit();
             } else {
             	batchConnection.rollback();
             }
         } finally {
+            if (statementBatch != null) {
+                statementBatch.close();
+            }
             removeTransactionAwareBatchConnection();
             if (batchConnection != null) {
             	DbUtility.close(batchConnection, null, null);
@@ -301,6 +363,9 @@ public class ConnectionHelper {
         Connection con = null;
         Statement stmt = null;
         boolean inBatchMode = inBatchMode();
+        if (inBatchMode) {
+            executeBatch();
+        }
         long start = System.currentTimeMillis();
         try {
             con = getConnection(inBatchMode);
@@ -342,6 +407,9 @@ public class ConnectionHelper {
         Connection con = null;
         PreparedStatement stmt = null;
         boolean inBatchMode = inBatchMode();
+        if (inBatchMode) {
+            executeBatch();
+        }
         long start = System.currentTimeMillis();
         try {
             con = getConnection(inBatchMode);
@@ -394,6 +462,9 @@ public class ConnectionHelper {
         PreparedStatement stmt = null;
         ResultSet rs = null;
         boolean inBatchMode = inBatchMode();
+        if (inBatchMode) {
+            executeBatch();
+        }
         long start = System.currentTimeMillis();
         try {
             con = getConnection(inBatchMode);
@@ -432,6 +503,66 @@ public class ConnectionHelper {
         }
     }
 
+    /**
+     * Adds an update statement to the statement batch of the current batch mode. The statement is executed
+     * with the other statements for the same SQL string, either when {@link #getMaxBatchSize() the maximum
+     * batch size} is reached, when another statement is executed, or when the batch mode is ended with a
+     * commit. Outside of batch mode, or if JDBC batches are disabled, the statement is executed immediately
+     * like {@link #update(String, Object...)}.
+     * <p>
+     * Because the update count of a single statement is not returned, this method should only be used for
+     * statements whose outcome does not need to be checked. Statements with different SQL strings are
+     * executed grouped by SQL string, so statements that affect the same row must be added in the order in
+     * which their SQL strings were first used in the batch (e.g. a delete before an insert).
+     *
+     * @param sql an SQL statement string
+     * @param params the parameters for the SQL statement
+     * @throws SQLException on error
+     */
+    public final void addBatch(String sql, Object... params) throws SQLException {
+        if (maxBatchSize <= 1 || !supportsBatchUpdates() || !inBatchMode()) {
+            update(sql, params);
+            return;
+        }
+        Object threadId = TransactionContext.getCurrentThreadId();
+        StatementBatch batch = statementBatchMap.get(threadId);
+        if (batch == null) {
+            batch = new StatementBatch(getTransactionAwareBatchConnection());
+            statementBatchMap.put(threadId, batch);
+        }
+        try {
+            batch.add(sql, params);
+        } catch (SQLException e) {
+            removeStatementBatch();
+            batch.close();
+            throw e;
+        }
+        if (batch.size() >= maxBatchSize) {
+            executeBatch();
+        }
+    }
+
+    /**
+     * Executes the statements collected by {@link #addBatch(String, Object...)} in the current batch mode.
+     * Does nothing if there are no pending statements.
+     *
+     * @throws SQLException on error
+     */
+    public final void executeBatch() throws SQLException {
+        StatementBatch batch = removeStatementBatch();
+        if (batch != null) {
+            try {
+                batch.execute();
+            } finally {
+                batch.close();
+            }
+        }
+    }
+
+    private StatementBatch removeStatementBatch() {
+        return statementBatchMap.remove(TransactionContext.getCurrentThreadId());
+    }
+
    /**
      * Gets a connection based on the {@code batchMode} state of this helper. The connection should be closed
      * by a call to {@link #closeResources(Connection, Statement, ResultSet, boolean)} which also takes the {@code
@@ -512,6 +643,12 @@ public class ConnectionHelper {
      * @throws SQLException on error
      */
     protected PreparedStatement execute(PreparedStatement stmt, Object[] params) throws SQLException {
+        setParameters(stmt, params);
+        stmt.execute();
+        return stmt;
+    }
+
+    private static void setParameters(PreparedStatement stmt, Object[] params) throws SQLException {
         for (int i = 0; params != null && i < params.length; i++) {
             Object p = params[i];
             if (p instanceof StreamWrapper) {
@@ -521,8 +658,65 @@ public class ConnectionHelper {
                 stmt.setObject(i + 1, p);
             }
         }
-        stmt.execute();
-        return stmt;
+    }
+
+    /**
+     * The update statements collected in batch mode, one {@code PreparedStatement} per SQL string in the
+     * order the SQL strings were first used.
+     */
+    private static final class StatementBatch {
+
+        private final Connection connection;
+
+        private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>();
+
+        private final List<StreamWrapper> streams = new ArrayList<StreamWrapper>();
+
+        private int size;
+
+        StatementBatch(Connection connection) {
+            this.connection = connection;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(String sql, Object[] params) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            }
+            setParameters(stmt, params);
+            stmt.addBatch();
+            for (int i = 0; params != null && i < params.length; i++) {
+                if (params[i] instanceof StreamWrapper) {
+                    streams.add((StreamWrapper) params[i]);
+                }
+            }
+            size++;
+        }
+
+        void execute() throws SQLException {
+            for (Map.Entry<String, PreparedStatement> entry : statements.entrySet()) {
+                long start = System.currentTimeMillis();
+                int[] counts = entry.getValue().executeBatch();
+                log.debug("SQL-Batch-Execution [{}] of {} statements took [{}] ms.",
+                        new Object[] {entry.getKey(), counts.length, System.currentTimeMillis() - start});
+            }
+        }
+
+        void close() {
+            for (PreparedStatement stmt : statements.values()) {
+                DbUtility.close(null, stmt, null);
+            }
+            for (StreamWrapper stream : streams) {
+                stream.closeStream();
+            }
+        }
+
     }
 
     /**
@@ -81,6 +81,17 @@ public final class Oracle10R1ConnectionHelper extends OracleConnectionHelper {
         }
     }
 
+    /**
+     * Temporary blobs are created and freed per statement in {@link #execute(PreparedStatement, Object[])},
+     * so JDBC batches are not used.
+     *
+     * @return {@code false}
+     */
+    @Override
+    protected boolean supportsBatchUpdates() {
+        return false;
+    }
+
     /**
      * Wraps any input-stream parameters in temporary blobs and frees these again after the statement
      * has been executed.
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.stats;
+
+/**
+ * Internal operations that count the lookups of parsed queries in the query
+ * cache of a workspace. Implemented by {@link QueryStatImpl} in addition to
+ * {@link QueryStatCore}.
+ */
+public interface QueryCacheStat {
+
+    /**
+     * Logs a lookup of a parsed query in the query cache of a workspace.
+     *
+     * @param hit
+     *            <code>true</code> if the parsed query was found in the cache
+     */
+    void logQueryCacheLookup(boolean hit);
+
+    /**
+     * @return the number of query cache lookups that found a parsed query
+     */
+    long getQueryCacheHitCount();
+
+    /**
+     * @return the number of query cache lookups that had to parse the query
+     */
+    long getQueryCacheMissCount();
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.stats;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The profile of a single query execution: the time spent in each phase,
+ * the number of hits at each stage and the query tree that was executed.
+ * <p>
+ * A profile is bound to the executing thread between {@link #start(String,
+ * String)} and {@link #end()}, so that the layers involved in the execution
+ * can add to it through {@link #current()} without passing it around.
+ * {@link #current()} returns <code>null</code> if no query is profiled,
+ * which keeps the overhead low when query statistics are disabled.
+ */
+public class QueryProfile {
+
+    /** Parsing the statement into a query tree. */
+    public static final String PARSE = "parse";
+
+    /** Building the Lucene query from the query tree. */
+    public static final String BUILD = "build";
+
+    /** Lucene scoring, including hierarchy constraints and native sorting. */
+    public static final String SEARCH = "search";
+
+    /**
+     * Loading the node states of the hits. Node states are only loaded in
+     * this phase if the persistence manager supports prefetching, otherwise
+     * they are loaded on demand and counted as {@link #ACCESS}.
+     */
+    public static final String LOAD = "load";
+
+    /**
+     * Checking read access on the hits, including the loading of node
+     * states that were not prefetched in the {@link #LOAD} phase.
+     */
+    public static final String ACCESS = "access";
+
+    /** Sorting rows outside of Lucene. */
+    public static final String SORT = "sort";
+
+    /** The number of hits read from the index. */
+    public static final String HITS = "hits";
+
+    /** The number of hits dropped because they are not readable. */
+    public static final String DENIED = "denied";
+
+    /** The number of readable hits, including those skipped by an offset. */
+    public static final String RESULTS = "results";
+
+    private static final ThreadLocal<QueryProfile> CURRENT =
+            new ThreadLocal<QueryProfile>();
+
+    private final String language;
+
+    private final String statement;
+
+    private final Date creationTime = new Date();
+
+    private final Map<String, Long> times = new LinkedHashMap<String, Long>();
+
+    private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+    private final StringBuilder plan = new StringBuilder();
+
+    private long durationMs = -1;
+
+    public QueryProfile(String language, String statement) {
+        this.language = language;
+        this.statement = statement;
+    }
+
+    /**
+     * Creates a profile and binds it to the current thread.
+     *
+     * @param language the query language
+     * @param statement the query statement
+     * @return the profile
+     */
+    public static QueryProfile start(String language, String statement) {
+        QueryProfile profile = new QueryProfile(language, statement);
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * @return the profile bound to the current thread or <code>null</code>
+     *         if the current query is not profiled
+     */
+    public static QueryProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Unbinds this profile from the current thread.
+     */
+    public void end() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Adds time to a phase.
+     *
+     * @param phase the phase, e.g. {@link #SEARCH}
+     * @param nanos the time in nanoseconds
+     */
+    public synchronized void addTime(String phase, long nanos) {
+        Long t = times.get(phase);
+        times.put(phase, t == null ? nanos : t + nanos);
+    }
+
+    /**
+     * Adds to a hit count.
+     *
+     * @param name the name of the count, e.g. {@link #HITS}
+     * @param count the number to add
+     */
+    public synchronized void addCount(String name, long count) {
+        Long c = counts.get(name);
+        counts.put(name, c == null ? count : c + count);
+    }
+
+    /**
+     * Adds an executed query tree, e.g. a Lucene query.
+     *
+     * @param query the string representation of the query tree
+     */
+    public synchronized void addPlan(String query) {
+        if (plan.length() > 0) {
+            plan.append("; ");
+        }
+        plan.append(query);
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public String getStatement() {
+        return statement;
+    }
+
+    public String getCreationTime() {
+        return creationTime.toString();
+    }
+
+    public long getDuration() {
+        return durationMs;
+    }
+
+    public void setDuration(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    /**
+     * @param phase the phase
+     * @return the time spent in the phase in nanoseconds, 0 if unknown
+     */
+    public synchronized long getTime(String phase) {
+        Long t = times.get(phase);
+        return t != null ? t : 0;
+    }
+
+    /**
+     * @param name the name of the count
+     * @return the count, -1 if unknown
+     */
+    public synchronized long getCount(String name) {
+        Long c = counts.get(name);
+        return c != null ? c : -1;
+    }
+
+    /**
+     * @return the phase timings, e.g. <code>parse=0.2ms, search=12.5ms</code>
+     */
+    public synchronized String getTimes() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : times.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(e.getKey()).append('=');
+            sb.append(e.getValue() / 100000 / 10.0).append("ms");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the hit counts, e.g. <code>hits=120, denied=3</code>
+     */
+    public synchronized String getCounts() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the executed query trees
+     */
+    public synchronized String getPlan() {
+        return plan.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryProfile [creationTime=" + creationTime + ", duration="
+                + durationMs + ", language=" + language + ", statement="
+                + statement + ", times={" + getTimes() + "}, counts={"
+                + getCounts() + "}, plan=" + getPlan() + "]";
+    }
+}
@@ -16,19 +16,24 @@
  */
 package org.apache.jackrabbit.stats;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jackrabbit.api.stats.QueryStatDto;
 
 /**
- * Default {@link QueryStatCore} implementation
+ * Default {@link QueryStatCore}, {@link QueryProfileStat} and
+ * {@link QueryCacheStat} implementation
  * 
  */
-public class QueryStatImpl implements QueryStatCore {
+public class QueryStatImpl
+        implements QueryStatCore, QueryProfileStat, QueryCacheStat {
 
     private final static Comparator<QueryStatDto> comparator = new QueryStatDtoComparator();
 
@@ -89,8 +94,22 @@ public class QueryStatImpl implements QueryStatCore {
         }
     }
 
+    /**
+     * Ring buffer with the profiles of the most recent slow queries, the
+     * most recent first.
+     */
+    private final Deque<QueryProfile> slowQueryLog = new ArrayDeque<QueryProfile>();
+
+    private int slowQueryLogSize = 15;
+
+    private volatile long slowQueryThreshold = 1000;
+
     private boolean enabled = false;
 
+    private final AtomicLong queryCacheHits = new AtomicLong();
+
+    private final AtomicLong queryCacheMisses = new AtomicLong();
+
     public QueryStatImpl() {
     }
 
@@ -133,6 +152,73 @@ public class QueryStatImpl implements QueryStatCore {
         }
     }
 
+    public void logQueryCacheLookup(boolean hit) {
+        if (!enabled) {
+            return;
+        }
+        if (hit) {
+            queryCacheHits.incrementAndGet();
+        } else {
+            queryCacheMisses.incrementAndGet();
+        }
+    }
+
+    public long getQueryCacheHitCount() {
+        return queryCacheHits.get();
+    }
+
+    public long getQueryCacheMissCount() {
+        return queryCacheMisses.get();
+    }
+
+    public boolean logQueryProfile(QueryProfile profile) {
+        if (!enabled || profile.getDuration() < slowQueryThreshold) {
+            return false;
+        }
+        synchronized (slowQueryLog) {
+            slowQueryLog.addFirst(profile);
+            while (slowQueryLog.size() > slowQueryLogSize) {
+                slowQueryLog.removeLast();
+            }
+        }
+        return true;
+    }
+
+    public QueryProfile[] getSlowQueryProfiles() {
+        synchronized (slowQueryLog) {
+            return slowQueryLog.toArray(new QueryProfile[slowQueryLog.size()]);
+        }
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    public void setSlowQueryThreshold(long thresholdMs) {
+        this.slowQueryThreshold = thresholdMs;
+    }
+
+    public int getSlowQueryLogSize() {
+        synchronized (slowQueryLog) {
+            return slowQueryLogSize;
+        }
+    }
+
+    public void setSlowQueryLogSize(int size) {
+        synchronized (slowQueryLog) {
+            slowQueryLogSize = Math.max(0, size);
+            while (slowQueryLog.size() > slowQueryLogSize) {
+                slowQueryLog.removeLast();
+            }
+        }
+    }
+
+    public void clearSlowQueryLog() {
+        synchronized (slowQueryLog) {
+            slowQueryLog.clear();
+        }
+    }
+
     public void clearSlowQueriesQueue() {
         slowQueries.clear();
     }
@@ -182,5 +268,8 @@ public class QueryStatImpl implements QueryStatCore {
     public void reset() {
         clearSlowQueriesQueue();
         clearPopularQueriesQueue();
+        clearSlowQueryLog();
+        queryCacheHits.set(0);
+        queryCacheMisses.set(0);
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.stats.jmx;
+
+import javax.management.openmbean.TabularData;
+
+import org.apache.jackrabbit.api.jmx.QueryStatManagerMBean;
+
+/**
+ * Extends the {@link QueryStatManagerMBean} with the slow query log, which
+ * keeps the profiles of the most recent queries that took longer than a
+ * threshold.
+ */
+public interface QueryProfileStatManagerMBean extends QueryStatManagerMBean {
+
+    /**
+     * @return the duration in ms from which on a query is considered slow
+     */
+    long getSlowQueryThreshold();
+
+    /**
+     * @param thresholdMs the duration in ms from which on a query is
+     *            considered slow
+     */
+    void setSlowQueryThreshold(long thresholdMs);
+
+    /**
+     * @return the maximum number of profiles in the slow query log
+     */
+    int getSlowQueryLogSize();
+
+    /**
+     * @param size the maximum number of profiles in the slow query log
+     */
+    void setSlowQueryLogSize(int size);
+
+    /**
+     * Removes all profiles from the slow query log.
+     */
+    void clearSlowQueryLog();
+
+    /**
+     * @return the profiles in the slow query log with their phase timings,
+     *         hit counts and executed query trees, most recent first
+     */
+    TabularData getSlowQueryProfiles();
+}
@@ -25,15 +25,16 @@ import javax.management.openmbean.TabularData;
 import javax.management.openmbean.TabularDataSupport;
 import javax.management.openmbean.TabularType;
 
-import org.apache.jackrabbit.api.jmx.QueryStatManagerMBean;
 import org.apache.jackrabbit.api.stats.QueryStat;
 import org.apache.jackrabbit.api.stats.QueryStatDto;
+import org.apache.jackrabbit.stats.QueryProfile;
+import org.apache.jackrabbit.stats.QueryProfileStat;
 
 /**
  * The QueryStatManagerMBean default implementation
  * 
  */
-public class QueryStatManager implements QueryStatManagerMBean {
+public class QueryStatManager implements QueryProfileStatManagerMBean {
 
     private final QueryStat queryStat;
 
@@ -89,6 +90,62 @@ public class QueryStatManager implements QueryStatManagerMBean {
         return asTabularData(queryStat.getPopularQueries());
     }
 
+    public long getSlowQueryThreshold() {
+        if (queryStat instanceof QueryProfileStat) {
+            return ((QueryProfileStat) queryStat).getSlowQueryThreshold();
+        }
+        return -1;
+    }
+
+    public void setSlowQueryThreshold(long thresholdMs) {
+        if (queryStat instanceof QueryProfileStat) {
+            ((QueryProfileStat) queryStat).setSlowQueryThreshold(thresholdMs);
+        }
+    }
+
+    public int getSlowQueryLogSize() {
+        if (queryStat instanceof QueryProfileStat) {
+            return ((QueryProfileStat) queryStat).getSlowQueryLogSize();
+        }
+        return 0;
+    }
+
+    public void setSlowQueryLogSize(int size) {
+        if (queryStat instanceof QueryProfileStat) {
+            ((QueryProfileStat) queryStat).setSlowQueryLogSize(size);
+        }
+    }
+
+    public void clearSlowQueryLog() {
+        if (queryStat instanceof QueryProfileStat) {
+            ((QueryProfileStat) queryStat).clearSlowQueryLog();
+        }
+    }
+
+    public TabularData getSlowQueryProfiles() {
+        QueryProfile[] profiles = new QueryProfile[0];
+        if (queryStat instanceof QueryProfileStat) {
+            profiles = ((QueryProfileStat) queryStat).getSlowQueryProfiles();
+        }
+        try {
+            CompositeType ct = QueryProfileCompositeTypeFactory.getCompositeType();
+
+            TabularType tt = new TabularType(QueryProfile.class.getName(),
+                    "Slow Query Log", ct, QueryProfileCompositeTypeFactory.index);
+            TabularDataSupport tds = new TabularDataSupport(tt);
+
+            for (int i = 0; i < profiles.length; i++) {
+                tds.put(new CompositeDataSupport(ct,
+                        QueryProfileCompositeTypeFactory.names,
+                        QueryProfileCompositeTypeFactory.getValues(i + 1, profiles[i])));
+            }
+            return tds;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     private TabularData asTabularData(QueryStatDto[] data) {
         TabularDataSupport tds = null;
         try {
@@ -136,4 +193,34 @@ public class QueryStatManager implements QueryStatManagerMBean {
         }
     }
 
+    private static class QueryProfileCompositeTypeFactory {
+
+        private final static String[] index = { "position" };
+
+        private final static String[] names = { "position", "duration",
+                "language", "statement", "creationTime", "times", "counts",
+                "plan" };
+
+        private final static String[] descriptions = { "position", "duration",
+                "language", "statement", "creationTime",
+                "time spent in each phase", "hit counts",
+                "executed query trees" };
+
+        private final static OpenType[] types = { SimpleType.LONG,
+                SimpleType.LONG, SimpleType.STRING, SimpleType.STRING,
+                SimpleType.STRING, SimpleType.STRING, SimpleType.STRING,
+                SimpleType.STRING };
+
+        public static CompositeType getCompositeType() throws OpenDataException {
+            return new CompositeType(QueryProfile.class.getName(),
+                    QueryProfile.class.getName(), names, descriptions, types);
+        }
+
+        public static Object[] getValues(long position, QueryProfile p) {
+            return new Object[] { position, p.getDuration(), p.getLanguage(),
+                    p.getStatement(), p.getCreationTime(), p.getTimes(),
+                    p.getCounts(), p.getPlan() };
+        }
+    }
+
 }
@@ -94,6 +94,8 @@ public abstract class AbstractPerformanceTest {
         runTest(new BigFileWriteTest(), name, conf);
         runTest(new ConcurrentReadTest(), name, conf);
         runTest(new ConcurrentReadWriteTest(), name, conf);
+        runTest(new ConcurrentBundleReadTest(), name, conf);
+        runTest(new ConcurrentSaveTest(), name, conf);
         runTest(new SimpleSearchTest(), name, conf);
         runTest(new SQL2SearchTest(), name, conf);
         runTest(new DescendantSearchTest(), name, conf);
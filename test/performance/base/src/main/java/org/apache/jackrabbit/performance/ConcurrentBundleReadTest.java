@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Test case that measures the read throughput of one reader while there
+ * is one concurrent reader per available processor. The test content is
+ * 80k nodes with a 1kB property each, which is about ten times the size of
+ * the default bundle cache, so that most random reads miss the caches and
+ * load bundles from the persistence manager. Since such loads no longer
+ * serialize on the persistence manager, the time per iteration should stay
+ * flat as the number of cores grows.
+ */
+public class ConcurrentBundleReadTest extends AbstractTest {
+
+    private static final int FOLDER_COUNT = 200;
+
+    private static final int NODE_COUNT = 400;
+
+    private static final int PAYLOAD_SIZE = 1024;
+
+    private static final int READER_COUNT =
+        getScale(Runtime.getRuntime().availableProcessors());
+
+    private Session session;
+
+    private Node root;
+
+    public void beforeSuite() throws Exception {
+        char[] payload = new char[PAYLOAD_SIZE];
+        Arrays.fill(payload, 'x');
+        String value = new String(payload);
+
+        session = loginWriter();
+        root = session.getRootNode().addNode("testroot", "nt:unstructured");
+        for (int i = 0; i < FOLDER_COUNT; i++) {
+            Node node = root.addNode("node" + i, "nt:unstructured");
+            for (int j = 0; j < NODE_COUNT; j++) {
+                Node child = node.addNode("node" + j, "nt:unstructured");
+                child.setProperty("value", i * NODE_COUNT + j);
+                child.setProperty("payload", value);
+            }
+            session.save();
+        }
+
+        for (int i = 0; i < READER_COUNT; i++) {
+            addBackgroundJob(new Reader());
+        }
+    }
+
+    private class Reader implements Runnable {
+
+        private final Session session = loginReader();
+
+        private final Random random = new Random();
+
+        public void run() {
+            try {
+                int i = random.nextInt(FOLDER_COUNT);
+                int j = random.nextInt(NODE_COUNT);
+                Node node = session.getRootNode().getNode(
+                        "testroot/node" + i + "/node" + j);
+                node.getProperty("value").getLong();
+                node.getProperty("payload").getString();
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    public void runTest() throws Exception {
+        Reader reader = new Reader();
+        for (int i = 0; i < 1000; i++) {
+            reader.run();
+        }
+    }
+
+    public void afterSuite() throws Exception {
+        for (int i = 0; i < FOLDER_COUNT; i++) {
+            root.getNode("node" + i).remove();
+            session.save();
+        }
+
+        root.remove();
+        session.save();
+    }
+
+}
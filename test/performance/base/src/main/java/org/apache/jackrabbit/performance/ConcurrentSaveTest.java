@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * Test case that measures the time of small saves while there is one
+ * concurrent writer per available processor. Each writer updates a property
+ * in its own subtree. Run it with and without
+ * <code>-Dorg.apache.jackrabbit.core.state.groupcommitwindow=&lt;ms&gt;</code>
+ * and an ISM locking that allows disjoint writers to compare the throughput
+ * with and without group commit.
+ */
+public class ConcurrentSaveTest extends AbstractTest {
+
+    private static final int WRITER_COUNT =
+        getScale(Runtime.getRuntime().availableProcessors());
+
+    private Session session;
+
+    private Node root;
+
+    private int writers;
+
+    private Writer writer;
+
+    public void beforeSuite() throws Exception {
+        session = loginWriter();
+        root = session.getRootNode().addNode("testroot", "nt:unstructured");
+        for (int i = 0; i <= WRITER_COUNT; i++) {
+            root.addNode("node" + i, "nt:unstructured");
+        }
+        session.save();
+
+        for (int i = 0; i < WRITER_COUNT; i++) {
+            addBackgroundJob(new Writer());
+        }
+        writer = new Writer();
+    }
+
+    private class Writer implements Runnable {
+
+        private final Session session = loginWriter();
+
+        private final Node node;
+
+        private long count = 0;
+
+        public Writer() {
+            try {
+                node = session.getRootNode().getNode(
+                        "testroot/node" + writers++);
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void run() {
+            try {
+                node.setProperty("count", count++);
+                session.save();
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    public void runTest() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            writer.run();
+        }
+    }
+
+    public void afterSuite() throws Exception {
+        root.remove();
+        session.save();
+    }
+
+}